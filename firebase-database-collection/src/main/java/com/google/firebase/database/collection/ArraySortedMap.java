@@ -44,6 +44,15 @@ public class ArraySortedMap<K, V> extends ImmutableSortedMap<K, V> {
     return new ArraySortedMap<A, C>(comparator, keyArray, valueArray);
   }
 
+  /** Builds a map from keys that are sorted by the comparator and their values. */
+  @SuppressWarnings("unchecked")
+  static <A, B> ArraySortedMap<A, B> buildFromSorted(
+      List<A> keys, List<B> values, Comparator<A> comparator) {
+    A[] keyArray = (A[]) keys.toArray();
+    B[] valueArray = (B[]) values.toArray();
+    return new ArraySortedMap<A, B>(comparator, keyArray, valueArray);
+  }
+
   public static <K, V> ArraySortedMap<K, V> fromMap(Map<K, V> map, Comparator<K> comparator) {
     return buildFrom(
         new ArrayList<K>(map.keySet()), map, Builder.<K>identityTranslator(), comparator);
@@ -103,18 +112,14 @@ public class ArraySortedMap<K, V> extends ImmutableSortedMap<K, V> {
         return new ArraySortedMap<K, V>(this.comparator, newKeys, newValues);
       }
     } else {
+      int newPos = findKeyOrInsertPosition(key);
+      K[] keys = addToArray(this.keys, newPos, key);
+      V[] values = addToArray(this.values, newPos, value);
       if (this.keys.length > Builder.ARRAY_TO_RB_TREE_SIZE_THRESHOLD) {
-        @SuppressWarnings("unchecked")
-        Map<K, V> map = new HashMap<K, V>(this.keys.length + 1);
-        for (int i = 0; i < this.keys.length; i++) {
-          map.put(this.keys[i], this.values[i]);
-        }
-        map.put(key, value);
-        return RBTreeSortedMap.fromMap(map, this.comparator);
+        // The entries are already sorted, so the tree can be built without sorting them again.
+        return RBTreeSortedMap.buildFromSorted(
+            Arrays.asList(keys), Arrays.asList(values), this.comparator);
       } else {
-        int newPos = findKeyOrInsertPosition(key);
-        K[] keys = addToArray(this.keys, newPos, key);
-        V[] values = addToArray(this.values, newPos, value);
         return new ArraySortedMap<K, V>(this.comparator, keys, values);
       }
     }
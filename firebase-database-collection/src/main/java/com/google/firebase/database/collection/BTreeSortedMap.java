@@ -0,0 +1,675 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.collection;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A persistent B-tree that keeps the keys of its entries encoded as longs in primitive arrays.
+ * Updates copy the nodes on the path to the changed entry and share all other nodes, so a map
+ * with n entries takes O(log n) allocations per update instead of one node per key, and lookups
+ * compare longs instead of dispatching to a Comparator.
+ *
+ * <p>Subclasses define the encoding of the keys, which has to preserve their order: a key with a
+ * smaller code is the smaller key. If the encoding is exact, equal codes mean equal keys and the
+ * keys aren't stored at all. Otherwise the keys are stored next to their codes and keys with equal
+ * codes are ordered by {@link #compareKeys}.
+ */
+abstract class BTreeSortedMap<K, V> extends ImmutableSortedMap<K, V> {
+
+  static final int MAX_NODE_SIZE = 32;
+
+  /** Nodes other than the root that shrink below this size get merged with a sibling. */
+  private static final int MIN_NODE_SIZE = MAX_NODE_SIZE / 4;
+
+  /**
+   * A node of the tree. Leaves hold the entries, internal nodes hold the code and key of the first
+   * entry of each of their children.
+   */
+  static final class Node {
+    final long[] codes;
+    final Object[] keys;
+    final Object[] values;
+    final Node[] children;
+    final int size;
+
+    private Node(long[] codes, Object[] keys, Object[] values, Node[] children, int size) {
+      this.codes = codes;
+      this.keys = keys;
+      this.values = values;
+      this.children = children;
+      this.size = size;
+    }
+
+    static Node leaf(long[] codes, Object[] keys, Object[] values) {
+      return new Node(codes, keys, values, null, codes.length);
+    }
+
+    static Node internal(Node[] children, boolean exact) {
+      long[] codes = new long[children.length];
+      Object[] keys = exact ? null : new Object[children.length];
+      int size = 0;
+      for (int i = 0; i < children.length; i++) {
+        codes[i] = children[i].codes[0];
+        if (keys != null) {
+          keys[i] = children[i].keys[0];
+        }
+        size += children[i].size;
+      }
+      return new Node(codes, keys, null, children, size);
+    }
+
+    boolean isLeaf() {
+      return children == null;
+    }
+
+    int length() {
+      return codes.length;
+    }
+  }
+
+  static Node emptyRoot(boolean exact) {
+    return Node.leaf(new long[0], exact ? null : new Object[0], new Object[0]);
+  }
+
+  final Node root;
+
+  BTreeSortedMap(Node root) {
+    this.root = root;
+  }
+
+  /** Returns the order-preserving code of the key. */
+  abstract long encode(K key);
+
+  /** Returns the key of an entry from its code and, if the encoding isn't exact, its key. */
+  abstract K decode(long code, Object storedKey);
+
+  /** Returns whether equal codes mean equal keys. */
+  abstract boolean isExact();
+
+  /** Compares a stored key to a key with the same code. Only called for inexact encodings. */
+  abstract int compareKeys(Object storedKey, K key);
+
+  /** Returns a map of the same type with the given root. */
+  abstract BTreeSortedMap<K, V> withRoot(Node root);
+
+  @Override
+  public boolean containsKey(K key) {
+    return containsKey(encode(key), key);
+  }
+
+  @Override
+  public V get(K key) {
+    return get(encode(key), key);
+  }
+
+  @Override
+  public ImmutableSortedMap<K, V> remove(K key) {
+    return remove(encode(key), key);
+  }
+
+  @Override
+  public ImmutableSortedMap<K, V> insert(K key, V value) {
+    return insert(encode(key), key, value);
+  }
+
+  boolean containsKey(long code, K key) {
+    Node leaf = findLeaf(code, key);
+    return search(leaf, code, key) >= 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  V get(long code, K key) {
+    Node leaf = findLeaf(code, key);
+    int i = search(leaf, code, key);
+    return i >= 0 ? (V) leaf.values[i] : null;
+  }
+
+  @SuppressWarnings("ReferenceEquality") // Detect unchanged immutable instance
+  BTreeSortedMap<K, V> insert(long code, K key, V value) {
+    Node[] result = insert(root, code, key, value);
+    if (result.length == 2) {
+      return withRoot(Node.internal(result, isExact()));
+    }
+    return result[0] == root ? this : withRoot(result[0]);
+  }
+
+  @SuppressWarnings("ReferenceEquality") // Detect unchanged immutable instance
+  BTreeSortedMap<K, V> remove(long code, K key) {
+    Node newRoot = remove(root, code, key);
+    if (newRoot == root) {
+      return this;
+    }
+    while (!newRoot.isLeaf() && newRoot.length() == 1) {
+      newRoot = newRoot.children[0];
+    }
+    return withRoot(newRoot);
+  }
+
+  @Override
+  ImmutableSortedMap<K, V> withSortedEntries(List<K> keys, List<V> values) {
+    int size = keys.size();
+    long[] codes = new long[size];
+    Object[] storedKeys = isExact() ? null : keys.toArray();
+    for (int i = 0; i < size; i++) {
+      codes[i] = encode(keys.get(i));
+    }
+    return withRoot(buildFromSorted(codes, storedKeys, values.toArray(), size));
+  }
+
+  @Override
+  public K getMinKey() {
+    if (isEmpty()) {
+      return null;
+    }
+    Node node = root;
+    while (!node.isLeaf()) {
+      node = node.children[0];
+    }
+    return keyAt(node, 0);
+  }
+
+  @Override
+  public K getMaxKey() {
+    if (isEmpty()) {
+      return null;
+    }
+    Node node = root;
+    while (!node.isLeaf()) {
+      node = node.children[node.length() - 1];
+    }
+    return keyAt(node, node.length() - 1);
+  }
+
+  @Override
+  public int size() {
+    return root.size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return root.size == 0;
+  }
+
+  @Override
+  public void inOrderTraversal(LLRBNode.NodeVisitor<K, V> visitor) {
+    inOrderTraversal(root, visitor);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void inOrderTraversal(Node node, LLRBNode.NodeVisitor<K, V> visitor) {
+    if (node.isLeaf()) {
+      for (int i = 0; i < node.length(); i++) {
+        visitor.visitEntry(keyAt(node, i), (V) node.values[i]);
+      }
+    } else {
+      for (Node child : node.children) {
+        inOrderTraversal(child, visitor);
+      }
+    }
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, V>> iterator() {
+    return new EntryIterator(0, false);
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, V>> iteratorFrom(K key) {
+    return new EntryIterator(lowerRank(encode(key), key), false);
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, V>> reverseIteratorFrom(K key) {
+    long code = encode(key);
+    int rank = lowerRank(code, key);
+    return new EntryIterator(containsKey(code, key) ? rank : rank - 1, true);
+  }
+
+  @Override
+  public Iterator<Map.Entry<K, V>> reverseIterator() {
+    return new EntryIterator(size() - 1, true);
+  }
+
+  @Override
+  public K getPredecessorKey(K key) {
+    int index = indexOf(key);
+    if (index == -1) {
+      throw new IllegalArgumentException("Can't find predecessor of nonexistent key");
+    }
+    return index > 0 ? keyAtRank(index - 1) : null;
+  }
+
+  @Override
+  public K getSuccessorKey(K key) {
+    int index = indexOf(key);
+    if (index == -1) {
+      throw new IllegalArgumentException("Can't find successor of nonexistent key");
+    }
+    return index < size() - 1 ? keyAtRank(index + 1) : null;
+  }
+
+  @Override
+  public int indexOf(K key) {
+    long code = encode(key);
+    return containsKey(code, key) ? lowerRank(code, key) : -1;
+  }
+
+  private K keyAt(Node leaf, int i) {
+    return decode(leaf.codes[i], leaf.keys == null ? null : leaf.keys[i]);
+  }
+
+  private K keyAtRank(int rank) {
+    Node node = root;
+    while (!node.isLeaf()) {
+      int i = 0;
+      while (rank >= node.children[i].size) {
+        rank -= node.children[i].size;
+        i++;
+      }
+      node = node.children[i];
+    }
+    return keyAt(node, rank);
+  }
+
+  private int compareAt(Node node, int i, long code, K key) {
+    long nodeCode = node.codes[i];
+    if (nodeCode != code) {
+      return nodeCode < code ? -1 : 1;
+    }
+    return node.keys == null ? 0 : compareKeys(node.keys[i], key);
+  }
+
+  /**
+   * Returns the index of the key in the node, or (-(insertion point) - 1) like {@link
+   * java.util.Arrays#binarySearch}.
+   */
+  private int search(Node node, long code, K key) {
+    int low = 0;
+    int high = node.length() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compareAt(node, mid, code, key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /** Returns the index of the child of an internal node whose range includes the key. */
+  private int childIndex(Node node, long code, K key) {
+    int i = search(node, code, key);
+    if (i >= 0) {
+      return i;
+    }
+    int insertionPoint = -(i + 1);
+    return insertionPoint == 0 ? 0 : insertionPoint - 1;
+  }
+
+  private Node findLeaf(long code, K key) {
+    Node node = root;
+    while (!node.isLeaf()) {
+      node = node.children[childIndex(node, code, key)];
+    }
+    return node;
+  }
+
+  /** Returns the number of entries with keys smaller than the given key. */
+  private int lowerRank(long code, K key) {
+    int rank = 0;
+    Node node = root;
+    while (!node.isLeaf()) {
+      int childIndex = childIndex(node, code, key);
+      for (int i = 0; i < childIndex; i++) {
+        rank += node.children[i].size;
+      }
+      node = node.children[childIndex];
+    }
+    int i = search(node, code, key);
+    return rank + (i >= 0 ? i : -(i + 1));
+  }
+
+  /**
+   * Returns the updated node, or the two halves of the updated node if it outgrew {@link
+   * #MAX_NODE_SIZE}. Returns the node itself if the entry is already in it.
+   */
+  @SuppressWarnings("ReferenceEquality") // Detect unchanged immutable instance
+  private Node[] insert(Node node, long code, K key, V value) {
+    if (node.isLeaf()) {
+      int i = search(node, code, key);
+      if (i >= 0) {
+        if (node.values[i] == value && (node.keys == null || node.keys[i] == key)) {
+          return new Node[] {node};
+        }
+        Object[] values = node.values.clone();
+        values[i] = value;
+        Object[] keys = node.keys;
+        if (keys != null) {
+          keys = keys.clone();
+          keys[i] = key;
+        }
+        return new Node[] {Node.leaf(node.codes, keys, values)};
+      }
+      int pos = -(i + 1);
+      long[] codes = insertAt(node.codes, pos, code);
+      Object[] keys = node.keys == null ? null : insertAt(node.keys, pos, key);
+      Object[] values = insertAt(node.values, pos, value);
+      if (codes.length <= MAX_NODE_SIZE) {
+        return new Node[] {Node.leaf(codes, keys, values)};
+      }
+      int half = codes.length / 2;
+      return new Node[] {
+        Node.leaf(slice(codes, 0, half), slice(keys, 0, half), slice(values, 0, half)),
+        Node.leaf(
+            slice(codes, half, codes.length),
+            slice(keys, half, codes.length),
+            slice(values, half, codes.length))
+      };
+    }
+
+    int childIndex = childIndex(node, code, key);
+    Node child = node.children[childIndex];
+    Node[] result = insert(child, code, key, value);
+    if (result.length == 1 && result[0] == child) {
+      return new Node[] {node};
+    }
+    Node[] children = replace(node.children, childIndex, 1, result);
+    if (children.length <= MAX_NODE_SIZE) {
+      return new Node[] {Node.internal(children, isExact())};
+    }
+    int half = children.length / 2;
+    return new Node[] {
+      Node.internal(slice(children, 0, half), isExact()),
+      Node.internal(slice(children, half, children.length), isExact())
+    };
+  }
+
+  /**
+   * Returns the node without the entry, which may have shrunk below {@link #MIN_NODE_SIZE}, or the
+   * node itself if the entry isn't in it.
+   */
+  @SuppressWarnings("ReferenceEquality") // Detect unchanged immutable instance
+  private Node remove(Node node, long code, K key) {
+    if (node.isLeaf()) {
+      int i = search(node, code, key);
+      if (i < 0) {
+        return node;
+      }
+      return Node.leaf(
+          removeAt(node.codes, i),
+          node.keys == null ? null : removeAt(node.keys, i),
+          removeAt(node.values, i));
+    }
+
+    int childIndex = childIndex(node, code, key);
+    Node child = node.children[childIndex];
+    Node newChild = remove(child, code, key);
+    if (newChild == child) {
+      return node;
+    }
+    Node[] children;
+    if (newChild.size == 0) {
+      children = replace(node.children, childIndex, 1, new Node[0]);
+      if (children.length == 0) {
+        return emptyRoot(isExact());
+      }
+    } else if (newChild.length() < MIN_NODE_SIZE && node.length() > 1) {
+      // Merge the child with a sibling, and split them again if they don't fit into one node.
+      int left = childIndex > 0 ? childIndex - 1 : childIndex;
+      Node leftNode = left == childIndex ? newChild : node.children[left];
+      Node rightNode = left == childIndex ? node.children[left + 1] : newChild;
+      children = replace(node.children, left, 2, merge(leftNode, rightNode));
+    } else {
+      children = node.children.clone();
+      children[childIndex] = newChild;
+    }
+    return Node.internal(children, isExact());
+  }
+
+  /** Merges two adjacent nodes of the same height into one node, or two if they don't fit. */
+  private Node[] merge(Node left, Node right) {
+    int length = left.length() + right.length();
+    int half = length <= MAX_NODE_SIZE ? length : length / 2;
+    if (left.isLeaf()) {
+      long[] codes = concat(left.codes, right.codes);
+      Object[] keys = left.keys == null ? null : concat(left.keys, right.keys);
+      Object[] values = concat(left.values, right.values);
+      if (half == length) {
+        return new Node[] {Node.leaf(codes, keys, values)};
+      }
+      return new Node[] {
+        Node.leaf(slice(codes, 0, half), slice(keys, 0, half), slice(values, 0, half)),
+        Node.leaf(
+            slice(codes, half, length), slice(keys, half, length), slice(values, half, length))
+      };
+    }
+    Node[] children = concat(left.children, right.children);
+    if (half == length) {
+      return new Node[] {Node.internal(children, isExact())};
+    }
+    return new Node[] {
+      Node.internal(slice(children, 0, half), isExact()),
+      Node.internal(slice(children, half, length), isExact())
+    };
+  }
+
+  /**
+   * Builds the root of a tree from entries that are sorted by their key. The entries are spread
+   * evenly over the leaves, so that every node but the root is at least half full.
+   */
+  static Node buildFromSorted(long[] codes, Object[] keys, Object[] values, int length) {
+    if (length == 0) {
+      return emptyRoot(keys == null);
+    }
+    int leafCount = (length + MAX_NODE_SIZE - 1) / MAX_NODE_SIZE;
+    Node[] level = new Node[leafCount];
+    for (int i = 0; i < leafCount; i++) {
+      int start = (int) ((long) length * i / leafCount);
+      int end = (int) ((long) length * (i + 1) / leafCount);
+      level[i] =
+          Node.leaf(slice(codes, start, end), slice(keys, start, end), slice(values, start, end));
+    }
+    while (level.length > 1) {
+      int parentCount = (level.length + MAX_NODE_SIZE - 1) / MAX_NODE_SIZE;
+      Node[] parents = new Node[parentCount];
+      for (int i = 0; i < parentCount; i++) {
+        int start = (int) ((long) level.length * i / parentCount);
+        int end = (int) ((long) level.length * (i + 1) / parentCount);
+        parents[i] = Node.internal(slice(level, start, end), keys == null);
+      }
+      level = parents;
+    }
+    return level[0];
+  }
+
+  /** Iterates over the entries from a position in either direction. */
+  private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+    private final boolean reverse;
+    private final Node[] path;
+    private final int[] indices;
+    private int remaining;
+
+    EntryIterator(int start, boolean reverse) {
+      this.reverse = reverse;
+      int height = 1;
+      for (Node node = root; !node.isLeaf(); node = node.children[0]) {
+        height++;
+      }
+      path = new Node[height];
+      indices = new int[height];
+      remaining = reverse ? start + 1 : size() - start;
+      if (remaining > 0 && start >= 0) {
+        seek(start);
+      } else {
+        remaining = 0;
+      }
+    }
+
+    private void seek(int rank) {
+      Node node = root;
+      for (int level = 0; ; level++) {
+        path[level] = node;
+        if (node.isLeaf()) {
+          indices[level] = rank;
+          return;
+        }
+        int i = 0;
+        while (rank >= node.children[i].size) {
+          rank -= node.children[i].size;
+          i++;
+        }
+        indices[level] = i;
+        node = node.children[i];
+      }
+    }
+
+    /** Moves to the next entry in iteration order, which has to exist. */
+    private void step() {
+      int level = path.length - 1;
+      int delta = reverse ? -1 : 1;
+      indices[level] += delta;
+      // Go up until there's a sibling in the direction of the iteration.
+      while (indices[level] < 0 || indices[level] >= path[level].length()) {
+        level--;
+        indices[level] += delta;
+      }
+      // Go down to the closest entry in that sibling.
+      while (level < path.length - 1) {
+        Node child = path[level].children[indices[level]];
+        level++;
+        path[level] = child;
+        indices[level] = reverse ? child.length() - 1 : 0;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return remaining > 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map.Entry<K, V> next() {
+      if (remaining == 0) {
+        throw new NoSuchElementException();
+      }
+      Node leaf = path[path.length - 1];
+      int i = indices[path.length - 1];
+      Map.Entry<K, V> entry =
+          new AbstractMap.SimpleImmutableEntry<K, V>(keyAt(leaf, i), (V) leaf.values[i]);
+      remaining--;
+      if (remaining > 0) {
+        step();
+      }
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("Can't remove elements from ImmutableSortedMap");
+    }
+  }
+
+  private static long[] insertAt(long[] array, int pos, long value) {
+    long[] result = new long[array.length + 1];
+    System.arraycopy(array, 0, result, 0, pos);
+    result[pos] = value;
+    System.arraycopy(array, pos, result, pos + 1, array.length - pos);
+    return result;
+  }
+
+  private static Object[] insertAt(Object[] array, int pos, Object value) {
+    Object[] result = new Object[array.length + 1];
+    System.arraycopy(array, 0, result, 0, pos);
+    result[pos] = value;
+    System.arraycopy(array, pos, result, pos + 1, array.length - pos);
+    return result;
+  }
+
+  private static long[] removeAt(long[] array, int pos) {
+    long[] result = new long[array.length - 1];
+    System.arraycopy(array, 0, result, 0, pos);
+    System.arraycopy(array, pos + 1, result, pos, result.length - pos);
+    return result;
+  }
+
+  private static Object[] removeAt(Object[] array, int pos) {
+    Object[] result = new Object[array.length - 1];
+    System.arraycopy(array, 0, result, 0, pos);
+    System.arraycopy(array, pos + 1, result, pos, result.length - pos);
+    return result;
+  }
+
+  /** Returns a copy of the array with {@code count} elements at {@code pos} replaced. */
+  private static Node[] replace(Node[] array, int pos, int count, Node[] replacement) {
+    Node[] result = new Node[array.length - count + replacement.length];
+    System.arraycopy(array, 0, result, 0, pos);
+    System.arraycopy(replacement, 0, result, pos, replacement.length);
+    System.arraycopy(
+        array, pos + count, result, pos + replacement.length, array.length - pos - count);
+    return result;
+  }
+
+  private static long[] slice(long[] array, int start, int end) {
+    long[] result = new long[end - start];
+    System.arraycopy(array, start, result, 0, result.length);
+    return result;
+  }
+
+  private static Object[] slice(Object[] array, int start, int end) {
+    if (array == null) {
+      return null;
+    }
+    Object[] result = new Object[end - start];
+    System.arraycopy(array, start, result, 0, result.length);
+    return result;
+  }
+
+  private static Node[] slice(Node[] array, int start, int end) {
+    Node[] result = new Node[end - start];
+    System.arraycopy(array, start, result, 0, result.length);
+    return result;
+  }
+
+  private static long[] concat(long[] left, long[] right) {
+    long[] result = new long[left.length + right.length];
+    System.arraycopy(left, 0, result, 0, left.length);
+    System.arraycopy(right, 0, result, left.length, right.length);
+    return result;
+  }
+
+  private static Object[] concat(Object[] left, Object[] right) {
+    Object[] result = new Object[left.length + right.length];
+    System.arraycopy(left, 0, result, 0, left.length);
+    System.arraycopy(right, 0, result, left.length, right.length);
+    return result;
+  }
+
+  private static Node[] concat(Node[] left, Node[] right) {
+    Node[] result = new Node[left.length + right.length];
+    System.arraycopy(left, 0, result, 0, left.length);
+    System.arraycopy(right, 0, result, left.length, right.length);
+    return result;
+  }
+}
@@ -14,6 +14,9 @@
 
 package com.google.firebase.database.collection;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -56,6 +59,156 @@ public abstract class ImmutableSortedMap<K, V> implements Iterable<Map.Entry<K,
 
   public abstract Comparator<K> getComparator();
 
+  /**
+   * Returns a map with the entries of this map and of {@code other}, with the values of {@code
+   * other} for keys that are in both maps. If both maps use the same comparator, this merges them
+   * in O(n + m) time instead of inserting the entries one by one.
+   */
+  public ImmutableSortedMap<K, V> insertAll(ImmutableSortedMap<K, V> other) {
+    if (other.isEmpty()) {
+      return this;
+    }
+    if (!getComparator().equals(other.getComparator()) || preferSingleUpdates(other.size())) {
+      ImmutableSortedMap<K, V> result = this;
+      for (Map.Entry<K, V> entry : other) {
+        result = result.insert(entry.getKey(), entry.getValue());
+      }
+      return result;
+    }
+    return union(other.iterator(), other.size());
+  }
+
+  /**
+   * Returns a map with the entries of this map and of {@code values}, with the values of {@code
+   * values} for keys that are in both. Large batches are sorted and merged in O(n + m log m) time
+   * instead of being inserted one by one.
+   */
+  public ImmutableSortedMap<K, V> insertAll(Map<K, V> values) {
+    if (values.isEmpty()) {
+      return this;
+    }
+    if (preferSingleUpdates(values.size())) {
+      ImmutableSortedMap<K, V> result = this;
+      for (Map.Entry<K, V> entry : values.entrySet()) {
+        result = result.insert(entry.getKey(), entry.getValue());
+      }
+      return result;
+    }
+    List<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>(values.entrySet());
+    final Comparator<K> comparator = getComparator();
+    Collections.sort(
+        entries,
+        new Comparator<Map.Entry<K, V>>() {
+          @Override
+          public int compare(Map.Entry<K, V> left, Map.Entry<K, V> right) {
+            return comparator.compare(left.getKey(), right.getKey());
+          }
+        });
+    return union(entries.iterator(), entries.size());
+  }
+
+  /**
+   * Returns a map without the keys of {@code other}. If both maps use the same comparator, this
+   * merges them in O(n + m) time instead of removing the keys one by one.
+   */
+  public ImmutableSortedMap<K, V> removeAll(ImmutableSortedMap<K, ?> other) {
+    if (other.isEmpty() || isEmpty()) {
+      return this;
+    }
+    if (!getComparator().equals(other.getComparator()) || preferSingleUpdates(other.size())) {
+      ImmutableSortedMap<K, V> result = this;
+      for (Map.Entry<K, ?> entry : other) {
+        result = result.remove(entry.getKey());
+      }
+      return result;
+    }
+    List<K> keys = new ArrayList<K>(other.size());
+    for (Map.Entry<K, ?> entry : other) {
+      keys.add(entry.getKey());
+    }
+    return difference(keys);
+  }
+
+  /**
+   * Returns a map without the given keys. Large batches are sorted and merged in O(n + m log m)
+   * time instead of being removed one by one.
+   */
+  public ImmutableSortedMap<K, V> removeAll(Collection<K> keys) {
+    if (keys.isEmpty() || isEmpty()) {
+      return this;
+    }
+    if (preferSingleUpdates(keys.size())) {
+      ImmutableSortedMap<K, V> result = this;
+      for (K key : keys) {
+        result = result.remove(key);
+      }
+      return result;
+    }
+    List<K> sortedKeys = new ArrayList<K>(keys);
+    Collections.sort(sortedKeys, getComparator());
+    return difference(sortedKeys);
+  }
+
+  /**
+   * Returns whether applying the given number of updates one at a time is cheaper than rebuilding
+   * the map, which is the case if each update takes less than O(log n) time per key.
+   */
+  private boolean preferSingleUpdates(int updateCount) {
+    int depth = 32 - Integer.numberOfLeadingZeros(size());
+    return (long) updateCount * depth < size();
+  }
+
+  /** Merges the map with entries that are sorted by the comparator of this map. */
+  private ImmutableSortedMap<K, V> union(Iterator<Map.Entry<K, V>> sortedEntries, int count) {
+    Comparator<K> comparator = getComparator();
+    List<K> keys = new ArrayList<K>(size() + count);
+    List<V> values = new ArrayList<V>(size() + count);
+    Iterator<Map.Entry<K, V>> existing = iterator();
+    Map.Entry<K, V> left = existing.hasNext() ? existing.next() : null;
+    Map.Entry<K, V> right = sortedEntries.hasNext() ? sortedEntries.next() : null;
+    while (left != null || right != null) {
+      int cmp =
+          left == null ? 1 : right == null ? -1 : comparator.compare(left.getKey(), right.getKey());
+      Map.Entry<K, V> next = cmp < 0 ? left : right;
+      keys.add(next.getKey());
+      values.add(next.getValue());
+      if (cmp <= 0) {
+        left = existing.hasNext() ? existing.next() : null;
+      }
+      if (cmp >= 0) {
+        right = sortedEntries.hasNext() ? sortedEntries.next() : null;
+      }
+    }
+    return withSortedEntries(keys, values);
+  }
+
+  /** Removes keys that are sorted by the comparator of this map in a single pass. */
+  private ImmutableSortedMap<K, V> difference(List<K> sortedKeys) {
+    Comparator<K> comparator = getComparator();
+    List<K> keys = new ArrayList<K>(size());
+    List<V> values = new ArrayList<V>(size());
+    Iterator<K> removed = sortedKeys.iterator();
+    K removedKey = removed.hasNext() ? removed.next() : null;
+    for (Map.Entry<K, V> entry : this) {
+      while (removedKey != null && comparator.compare(entry.getKey(), removedKey) > 0) {
+        removedKey = removed.hasNext() ? removed.next() : null;
+      }
+      if (removedKey == null || comparator.compare(entry.getKey(), removedKey) != 0) {
+        keys.add(entry.getKey());
+        values.add(entry.getValue());
+      }
+    }
+    return keys.size() == size() ? this : withSortedEntries(keys, values);
+  }
+
+  /**
+   * Returns a map of the same kind as this one with the given entries, whose keys are sorted by the
+   * comparator of this map.
+   */
+  ImmutableSortedMap<K, V> withSortedEntries(List<K> keys, List<V> values) {
+    return Builder.buildFromSorted(keys, values, getComparator());
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public boolean equals(Object o) {
@@ -139,6 +292,36 @@ public abstract class ImmutableSortedMap<K, V> implements Iterable<Map.Entry<K,
       }
     }
 
+    /**
+     * Builds a map from entries that are sorted by the comparator, which takes O(n) time instead
+     * of the O(n log n) time of sorting them.
+     *
+     * @throws IllegalArgumentException if the keys aren't strictly increasing
+     */
+    public static <A, B> ImmutableSortedMap<A, B> fromSortedIterator(
+        Iterator<Map.Entry<A, B>> entries, Comparator<A> comparator) {
+      List<A> keys = new ArrayList<A>();
+      List<B> values = new ArrayList<B>();
+      while (entries.hasNext()) {
+        Map.Entry<A, B> entry = entries.next();
+        if (!keys.isEmpty() && comparator.compare(keys.get(keys.size() - 1), entry.getKey()) >= 0) {
+          throw new IllegalArgumentException("Entries must be sorted by distinct keys");
+        }
+        keys.add(entry.getKey());
+        values.add(entry.getValue());
+      }
+      return buildFromSorted(keys, values, comparator);
+    }
+
+    static <A, B> ImmutableSortedMap<A, B> buildFromSorted(
+        List<A> keys, List<B> values, Comparator<A> comparator) {
+      if (keys.size() < ARRAY_TO_RB_TREE_SIZE_THRESHOLD) {
+        return ArraySortedMap.buildFromSorted(keys, values, comparator);
+      } else {
+        return RBTreeSortedMap.buildFromSorted(keys, values, comparator);
+      }
+    }
+
     public static <A, B, C> ImmutableSortedMap<A, C> buildFrom(
         List<A> keys,
         Map<B, C> values,
@@ -56,6 +56,16 @@ public class ImmutableSortedSet<T> implements Iterable<T> {
     this.map = map;
   }
 
+  /** Returns an empty set of ints that is backed by an {@link IntSortedMap}. */
+  public static ImmutableSortedSet<Integer> emptyIntSet() {
+    return new ImmutableSortedSet<Integer>(IntSortedMap.<Void>emptyMap());
+  }
+
+  /** Returns an empty set of strings that is backed by a {@link StringSortedMap}. */
+  public static ImmutableSortedSet<String> emptyStringSet() {
+    return new ImmutableSortedSet<String>(StringSortedMap.<Void>emptyMap());
+  }
+
   @Override
   public boolean equals(Object other) {
     if (this == other) {
@@ -87,20 +97,45 @@ public class ImmutableSortedSet<T> implements Iterable<T> {
     return new ImmutableSortedSet<T>(map.insert(entry, null));
   }
 
+  @SuppressWarnings("ReferenceEquality") // Detect unchanged immutable instance
   public ImmutableSortedSet<T> unionWith(ImmutableSortedSet<T> other) {
-    ImmutableSortedSet<T> result = this;
+    ImmutableSortedMap<T, Void> newMap = this.map.insertAll(other.map);
+    return (newMap == this.map) ? this : new ImmutableSortedSet<T>(newMap);
+  }
 
-    // Make sure `result` always refers to the larger one of the two sets.
-    if (result.size() < other.size()) {
-      result = other;
-      other = this;
-    }
+  /** Returns a set with the entries of this set that aren't in {@code other}. */
+  @SuppressWarnings("ReferenceEquality") // Detect unchanged immutable instance
+  public ImmutableSortedSet<T> difference(ImmutableSortedSet<T> other) {
+    ImmutableSortedMap<T, Void> newMap = this.map.removeAll(other.map);
+    return (newMap == this.map) ? this : new ImmutableSortedSet<T>(newMap);
+  }
 
-    for (T elem : other) {
-      result = result.insert(elem);
+  /** Returns a set with the entries of this set and the given entries. */
+  @SuppressWarnings("ReferenceEquality") // Detect unchanged immutable instance
+  public ImmutableSortedSet<T> insertAll(Collection<T> entries) {
+    if (entries.isEmpty()) {
+      return this;
+    }
+    Comparator<T> comparator = this.map.getComparator();
+    List<T> sorted = new ArrayList<T>(entries);
+    Collections.sort(sorted, comparator);
+    List<T> keys = new ArrayList<T>(sorted.size());
+    for (T entry : sorted) {
+      if (keys.isEmpty() || comparator.compare(keys.get(keys.size() - 1), entry) != 0) {
+        keys.add(entry);
+      }
     }
+    List<Void> values = Collections.nCopies(keys.size(), null);
+    ImmutableSortedMap<T, Void> newMap =
+        this.map.insertAll(ImmutableSortedMap.Builder.buildFromSorted(keys, values, comparator));
+    return (newMap == this.map) ? this : new ImmutableSortedSet<T>(newMap);
+  }
 
-    return result;
+  /** Returns a set without the given entries. */
+  @SuppressWarnings("ReferenceEquality") // Detect unchanged immutable instance
+  public ImmutableSortedSet<T> removeAll(Collection<T> entries) {
+    ImmutableSortedMap<T, Void> newMap = this.map.removeAll(entries);
+    return (newMap == this.map) ? this : new ImmutableSortedSet<T>(newMap);
   }
 
   public T getMinEntry() {
@@ -0,0 +1,103 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.collection;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * An ImmutableSortedMap with int keys. The keys are kept unboxed in the nodes of a persistent
+ * B-tree, and the methods that take an {@code int} find entries without boxing the key.
+ */
+public final class IntSortedMap<V> extends BTreeSortedMap<Integer, V> {
+
+  private static final IntSortedMap<?> EMPTY = new IntSortedMap<Object>(emptyRoot(true));
+
+  @SuppressWarnings("unchecked")
+  public static <V> IntSortedMap<V> emptyMap() {
+    return (IntSortedMap<V>) EMPTY;
+  }
+
+  public static <V> IntSortedMap<V> fromMap(Map<Integer, V> values) {
+    long[] codes = new long[values.size()];
+    int i = 0;
+    for (Integer key : values.keySet()) {
+      codes[i++] = key;
+    }
+    Arrays.sort(codes);
+    Object[] sortedValues = new Object[codes.length];
+    for (i = 0; i < codes.length; i++) {
+      sortedValues[i] = values.get((int) codes[i]);
+    }
+    return new IntSortedMap<V>(buildFromSorted(codes, null, sortedValues, codes.length));
+  }
+
+  private IntSortedMap(Node root) {
+    super(root);
+  }
+
+  public boolean containsKey(int key) {
+    return containsKey(key, null);
+  }
+
+  public V get(int key) {
+    return get(key, null);
+  }
+
+  public IntSortedMap<V> remove(int key) {
+    return (IntSortedMap<V>) remove(key, null);
+  }
+
+  @Override
+  public IntSortedMap<V> insert(Integer key, V value) {
+    return (IntSortedMap<V>) insert(key, null, value);
+  }
+
+  @Override
+  public IntSortedMap<V> remove(Integer key) {
+    return remove(key.intValue());
+  }
+
+  @Override
+  public Comparator<Integer> getComparator() {
+    return StandardComparator.getComparator(Integer.class);
+  }
+
+  @Override
+  long encode(Integer key) {
+    return key;
+  }
+
+  @Override
+  Integer decode(long code, Object storedKey) {
+    return (int) code;
+  }
+
+  @Override
+  boolean isExact() {
+    return true;
+  }
+
+  @Override
+  int compareKeys(Object storedKey, Integer key) {
+    throw new IllegalStateException("Int keys are encoded exactly");
+  }
+
+  @Override
+  BTreeSortedMap<Integer, V> withRoot(Node root) {
+    return new IntSortedMap<V>(root);
+  }
+}
@@ -0,0 +1,96 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.collection;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * An ImmutableSortedMap with String keys in their natural order. The nodes of its persistent
+ * B-tree cache the first four characters of every key as a long, so most comparisons during a
+ * lookup are a single compare of two longs and only keys with a common prefix of four characters
+ * get compared with {@link String#compareTo}.
+ */
+public final class StringSortedMap<V> extends BTreeSortedMap<String, V> {
+
+  private static final int PREFIX_LENGTH = 4;
+
+  private static final StringSortedMap<?> EMPTY = new StringSortedMap<Object>(emptyRoot(false));
+
+  @SuppressWarnings("unchecked")
+  public static <V> StringSortedMap<V> emptyMap() {
+    return (StringSortedMap<V>) EMPTY;
+  }
+
+  public static <V> StringSortedMap<V> fromMap(Map<String, V> values) {
+    String[] keys = values.keySet().toArray(new String[values.size()]);
+    Arrays.sort(keys);
+    long[] codes = new long[keys.length];
+    Object[] sortedValues = new Object[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      codes[i] = prefixCode(keys[i]);
+      sortedValues[i] = values.get(keys[i]);
+    }
+    return new StringSortedMap<V>(buildFromSorted(codes, keys, sortedValues, keys.length));
+  }
+
+  /**
+   * Packs the first characters of the string into a long that compares like the string. Missing
+   * characters are packed as zeros, and the sign bit is flipped so that a signed comparison of the
+   * codes orders the characters as unsigned values.
+   */
+  static long prefixCode(String key) {
+    long code = 0;
+    for (int i = 0; i < PREFIX_LENGTH; i++) {
+      code = (code << Character.SIZE) | (i < key.length() ? key.charAt(i) : 0);
+    }
+    return code ^ Long.MIN_VALUE;
+  }
+
+  private StringSortedMap(Node root) {
+    super(root);
+  }
+
+  @Override
+  public Comparator<String> getComparator() {
+    return StandardComparator.getComparator(String.class);
+  }
+
+  @Override
+  long encode(String key) {
+    return prefixCode(key);
+  }
+
+  @Override
+  String decode(long code, Object storedKey) {
+    return (String) storedKey;
+  }
+
+  @Override
+  boolean isExact() {
+    return false;
+  }
+
+  @Override
+  int compareKeys(Object storedKey, String key) {
+    return ((String) storedKey).compareTo(key);
+  }
+
+  @Override
+  BTreeSortedMap<String, V> withRoot(Node root) {
+    return new StringSortedMap<V>(root);
+  }
+}
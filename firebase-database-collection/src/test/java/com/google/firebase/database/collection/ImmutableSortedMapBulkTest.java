@@ -0,0 +1,162 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+
+public class ImmutableSortedMapBulkTest {
+
+  private static final Comparator<Integer> INT_COMPARATOR =
+      StandardComparator.getComparator(Integer.class);
+
+  /** Sizes of the map and of the batch that is applied to it. */
+  private static final int[][] SIZES = {
+    {0, 10}, {10, 0}, {10, 10}, {20, 100}, {100, 20}, {1000, 5}, {500, 500}
+  };
+
+  private static Map<Integer, Integer> randomMap(Random random, int size) {
+    Map<Integer, Integer> values = new HashMap<Integer, Integer>();
+    for (int i = 0; i < size; i++) {
+      values.put(random.nextInt(size * 2), random.nextInt());
+    }
+    return values;
+  }
+
+  private static List<ImmutableSortedMap<Integer, Integer>> emptyMaps() {
+    List<ImmutableSortedMap<Integer, Integer>> maps =
+        new ArrayList<ImmutableSortedMap<Integer, Integer>>();
+    maps.add(ImmutableSortedMap.Builder.<Integer, Integer>emptyMap(INT_COMPARATOR));
+    maps.add(RBTreeSortedMap.fromMap(Collections.<Integer, Integer>emptyMap(), INT_COMPARATOR));
+    maps.add(IntSortedMap.<Integer>emptyMap());
+    return maps;
+  }
+
+  private static void assertSameEntries(
+      Map<Integer, Integer> expected, ImmutableSortedMap<Integer, Integer> actual) {
+    assertEquals(
+        new ArrayList<Map.Entry<Integer, Integer>>(
+            new TreeMap<Integer, Integer>(expected).entrySet()),
+        toList(actual));
+  }
+
+  private static List<Map.Entry<Integer, Integer>> toList(
+      ImmutableSortedMap<Integer, Integer> map) {
+    List<Map.Entry<Integer, Integer>> entries = new ArrayList<Map.Entry<Integer, Integer>>();
+    for (Map.Entry<Integer, Integer> entry : map) {
+      entries.add(entry);
+    }
+    return entries;
+  }
+
+  @Test
+  public void insertAllMatchesSingleInserts() {
+    Random random = new Random(1);
+    for (ImmutableSortedMap<Integer, Integer> empty : emptyMaps()) {
+      for (int[] sizes : SIZES) {
+        Map<Integer, Integer> base = randomMap(random, sizes[0]);
+        Map<Integer, Integer> added = randomMap(random, sizes[1]);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>(base);
+        expected.putAll(added);
+
+        ImmutableSortedMap<Integer, Integer> map = empty.insertAll(base);
+        assertSameEntries(base, map);
+        assertSameEntries(expected, map.insertAll(added));
+        assertSameEntries(
+            expected, map.insertAll(ImmutableSortedMap.Builder.fromMap(added, INT_COMPARATOR)));
+        if (empty instanceof IntSortedMap) {
+          assertTrue(map.insertAll(added) instanceof IntSortedMap);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void removeAllMatchesSingleRemoves() {
+    Random random = new Random(2);
+    for (ImmutableSortedMap<Integer, Integer> empty : emptyMaps()) {
+      for (int[] sizes : SIZES) {
+        Map<Integer, Integer> base = randomMap(random, sizes[0]);
+        Map<Integer, Integer> removed = randomMap(random, sizes[1]);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>(base);
+        expected.keySet().removeAll(removed.keySet());
+
+        ImmutableSortedMap<Integer, Integer> map = empty.insertAll(base);
+        assertSameEntries(expected, map.removeAll(new ArrayList<Integer>(removed.keySet())));
+        assertSameEntries(
+            expected, map.removeAll(ImmutableSortedMap.Builder.fromMap(removed, INT_COMPARATOR)));
+      }
+    }
+  }
+
+  @Test
+  public void unchangedMapIsReturnedAsIs() {
+    ImmutableSortedMap<Integer, Integer> map =
+        RBTreeSortedMap.fromMap(randomMap(new Random(3), 100), INT_COMPARATOR);
+    assertSame(map, map.removeAll(Collections.singletonList(-1)));
+    assertSame(map, map.removeAll(Collections.<Integer>emptyList()));
+    assertSame(map, map.insertAll(Collections.<Integer, Integer>emptyMap()));
+  }
+
+  @Test
+  public void buildsFromSortedIterator() {
+    TreeMap<Integer, Integer> values = new TreeMap<Integer, Integer>(randomMap(new Random(4), 100));
+    ImmutableSortedMap<Integer, Integer> map =
+        ImmutableSortedMap.Builder.fromSortedIterator(
+            values.entrySet().iterator(), INT_COMPARATOR);
+    assertSameEntries(values, map);
+    assertTrue(map instanceof RBTreeSortedMap);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void buildingFromUnsortedIteratorFails() {
+    TreeMap<Integer, Integer> values = new TreeMap<Integer, Integer>(randomMap(new Random(5), 10));
+    ImmutableSortedMap.Builder.fromSortedIterator(
+        values.descendingMap().entrySet().iterator(), INT_COMPARATOR);
+  }
+
+  @Test
+  public void setOperationsMatchSingleUpdates() {
+    Random random = new Random(6);
+    List<Integer> first = new ArrayList<Integer>(randomMap(random, 300).keySet());
+    List<Integer> second = new ArrayList<Integer>(randomMap(random, 200).keySet());
+    ImmutableSortedSet<Integer> firstSet = new ImmutableSortedSet<Integer>(first, INT_COMPARATOR);
+    ImmutableSortedSet<Integer> secondSet =
+        new ImmutableSortedSet<Integer>(second, INT_COMPARATOR);
+
+    ImmutableSortedSet<Integer> union = firstSet;
+    ImmutableSortedSet<Integer> difference = firstSet;
+    for (Integer value : second) {
+      union = union.insert(value);
+      difference = difference.remove(value);
+    }
+
+    assertEquals(union, firstSet.unionWith(secondSet));
+    assertEquals(union, firstSet.insertAll(second));
+    assertEquals(difference, firstSet.difference(secondSet));
+    assertEquals(difference, firstSet.removeAll(second));
+  }
+}
@@ -0,0 +1,177 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+
+public class IntSortedMapTest {
+
+  private static void assertSameEntries(
+      NavigableMap<Integer, Integer> expected, ImmutableSortedMap<Integer, Integer> actual) {
+    assertEquals(expected.size(), actual.size());
+    assertEquals(expected.isEmpty(), actual.isEmpty());
+    assertEquals(new ArrayList<Map.Entry<Integer, Integer>>(expected.entrySet()), toList(actual));
+    assertEquals(
+        new ArrayList<Map.Entry<Integer, Integer>>(expected.descendingMap().entrySet()),
+        toList(actual.reverseIterator()));
+    assertEquals(expected.isEmpty() ? null : expected.firstKey(), actual.getMinKey());
+    assertEquals(expected.isEmpty() ? null : expected.lastKey(), actual.getMaxKey());
+  }
+
+  private static <K, V> List<Map.Entry<K, V>> toList(Iterable<Map.Entry<K, V>> iterable) {
+    return toList(iterable.iterator());
+  }
+
+  private static <K, V> List<Map.Entry<K, V>> toList(Iterator<Map.Entry<K, V>> iterator) {
+    List<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>();
+    while (iterator.hasNext()) {
+      entries.add(iterator.next());
+    }
+    return entries;
+  }
+
+  @Test
+  public void emptyMap() {
+    IntSortedMap<Integer> map = IntSortedMap.emptyMap();
+    assertTrue(map.isEmpty());
+    assertNull(map.get(1));
+    assertNull(map.getMinKey());
+    assertFalse(map.iterator().hasNext());
+    assertFalse(map.reverseIteratorFrom(1).hasNext());
+    assertEquals(-1, map.indexOf(1));
+  }
+
+  @Test
+  public void randomInsertsAndRemovesMatchTreeMap() {
+    Random random = new Random(42);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    IntSortedMap<Integer> map = IntSortedMap.emptyMap();
+    for (int i = 0; i < 20000; i++) {
+      int key = random.nextInt(2000) - 1000;
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        map = map.remove(key);
+      } else {
+        expected.put(key, i);
+        map = map.insert(key, i);
+      }
+      assertEquals(expected.get(key), map.get(key));
+      if (i % 1000 == 0) {
+        assertSameEntries(expected, map);
+      }
+    }
+    assertSameEntries(expected, map);
+
+    for (Integer key : new ArrayList<Integer>(expected.keySet())) {
+      expected.remove(key);
+      map = map.remove(key);
+      assertFalse(map.containsKey(key.intValue()));
+    }
+    assertSameEntries(expected, map);
+  }
+
+  @Test
+  public void positionalQueriesMatchTreeMap() {
+    Random random = new Random(7);
+    TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+    IntSortedMap<Integer> map = IntSortedMap.emptyMap();
+    for (int i = 0; i < 3000; i++) {
+      int key = random.nextInt();
+      expected.put(key, i);
+      map = map.insert(key, i);
+    }
+    expected.put(Integer.MIN_VALUE, -1);
+    map = map.insert(Integer.MIN_VALUE, -1);
+    expected.put(Integer.MAX_VALUE, -2);
+    map = map.insert(Integer.MAX_VALUE, -2);
+
+    List<Integer> keys = new ArrayList<Integer>(expected.keySet());
+    for (int i = 0; i < keys.size(); i++) {
+      Integer key = keys.get(i);
+      assertEquals(i, map.indexOf(key));
+      assertEquals(expected.lowerKey(key), map.getPredecessorKey(key));
+      assertEquals(expected.higherKey(key), map.getSuccessorKey(key));
+    }
+    for (int i = 0; i < 100; i++) {
+      int key = random.nextInt();
+      assertEquals(
+          new ArrayList<Map.Entry<Integer, Integer>>(expected.tailMap(key, true).entrySet()),
+          toList(map.iteratorFrom(key)));
+      assertEquals(
+          new ArrayList<Map.Entry<Integer, Integer>>(
+              expected.headMap(key, true).descendingMap().entrySet()),
+          toList(map.reverseIteratorFrom(key)));
+    }
+  }
+
+  @Test
+  public void fromMapMatchesInserts() {
+    Random random = new Random(3);
+    for (int size : new int[] {0, 1, 31, 32, 33, 1000, 1025, 5000}) {
+      Map<Integer, Integer> values = new HashMap<Integer, Integer>();
+      IntSortedMap<Integer> inserted = IntSortedMap.emptyMap();
+      while (values.size() < size) {
+        int key = random.nextInt();
+        values.put(key, size);
+        inserted = inserted.insert(key, size);
+      }
+      IntSortedMap<Integer> built = IntSortedMap.fromMap(values);
+      assertSameEntries(new TreeMap<Integer, Integer>(values), built);
+      assertEquals(inserted, built);
+      assertEquals(inserted.hashCode(), built.hashCode());
+    }
+  }
+
+  @Test
+  public void unchangedMapIsReturnedAsIs() {
+    Integer value = 1;
+    IntSortedMap<Integer> map = IntSortedMap.<Integer>emptyMap().insert(1, value);
+    assertSame(map, map.insert(1, value));
+    assertSame(map, map.remove(2));
+  }
+
+  @Test
+  public void intSetMatchesTreeSet() {
+    List<Integer> values = new ArrayList<Integer>();
+    ImmutableSortedSet<Integer> set = ImmutableSortedSet.emptyIntSet();
+    for (int i = 0; i < 200; i++) {
+      values.add(i * 7 % 200);
+      set = set.insert(i * 7 % 200);
+    }
+    Collections.sort(values);
+    List<Integer> actual = new ArrayList<Integer>();
+    for (Integer value : set) {
+      actual.add(value);
+    }
+    assertEquals(values, actual);
+    assertTrue(set.contains(13));
+    assertFalse(set.remove(13).contains(13));
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.collection;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the specialized maps to the red-black tree behind ImmutableSortedMap. The benchmarks
+ * are disabled by default, enable them by uncommenting their @Test annotations.
+ */
+public class SortedMapBenchmark {
+
+  private static final int ENTRY_COUNT = 100000;
+  private static final int ROUNDS = 5;
+
+  private interface Workload<K> {
+    K key(int i);
+  }
+
+  private static final Workload<Integer> INT_KEYS =
+      new Workload<Integer>() {
+        @Override
+        public Integer key(int i) {
+          return i * 31;
+        }
+      };
+
+  private static final Workload<String> STRING_KEYS =
+      new Workload<String>() {
+        @Override
+        public String key(int i) {
+          // Keys with a common prefix, like the push IDs of the children of one location.
+          return "-MxGqR" + Integer.toString(i * 31, 36);
+        }
+      };
+
+  private static <K> void run(
+      String name, ImmutableSortedMap<K, Integer> empty, Workload<K> workload) {
+    Random random = new Random(1);
+    int[] order = new int[ENTRY_COUNT];
+    for (int i = 0; i < ENTRY_COUNT; i++) {
+      order[i] = random.nextInt(ENTRY_COUNT);
+    }
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      ImmutableSortedMap<K, Integer> map = empty;
+      for (int i = 0; i < ENTRY_COUNT; i++) {
+        map = map.insert(workload.key(order[i]), i);
+      }
+      long inserted = System.nanoTime();
+      int found = 0;
+      for (int i = 0; i < ENTRY_COUNT; i++) {
+        if (map.get(workload.key(i)) != null) {
+          found++;
+        }
+      }
+      long lookedUp = System.nanoTime();
+      long sum = 0;
+      for (Iterator<Map.Entry<K, Integer>> it = map.iterator(); it.hasNext(); ) {
+        sum += it.next().getValue();
+      }
+      long iterated = System.nanoTime();
+      for (int i = 0; i < ENTRY_COUNT; i++) {
+        map = map.remove(workload.key(order[i]));
+      }
+      long removed = System.nanoTime();
+      System.err.println(
+          String.format(
+              "%s: insert %d ms, get %d ms, iterate %d ms, remove %d ms (%d, %d)",
+              name,
+              (inserted - start) / 1000000,
+              (lookedUp - inserted) / 1000000,
+              (iterated - lookedUp) / 1000000,
+              (removed - iterated) / 1000000,
+              found,
+              sum));
+    }
+  }
+
+  // @Test
+  public void intKeys() {
+    Comparator<Integer> comparator = StandardComparator.getComparator(Integer.class);
+    run(
+        "RBTreeSortedMap<Integer>",
+        RBTreeSortedMap.fromMap(Collections.<Integer, Integer>emptyMap(), comparator),
+        INT_KEYS);
+    run("IntSortedMap", IntSortedMap.<Integer>emptyMap(), INT_KEYS);
+  }
+
+  // @Test
+  public void stringKeys() {
+    Comparator<String> comparator = StandardComparator.getComparator(String.class);
+    run(
+        "RBTreeSortedMap<String>",
+        RBTreeSortedMap.fromMap(Collections.<String, Integer>emptyMap(), comparator),
+        STRING_KEYS);
+    run("StringSortedMap", StringSortedMap.<Integer>emptyMap(), STRING_KEYS);
+  }
+}
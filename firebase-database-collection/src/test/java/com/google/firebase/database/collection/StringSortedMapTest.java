@@ -0,0 +1,134 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.junit.Test;
+
+public class StringSortedMapTest {
+
+  private static final char[] CHARACTERS = {'\u0000', 'a', 'b', 'z', 'é', '世', '￿'};
+
+  /** Returns a random key that often shares a long prefix with other keys. */
+  private static String randomKey(Random random) {
+    int length = random.nextInt(8);
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      builder.append(CHARACTERS[random.nextInt(i < 4 ? 2 : CHARACTERS.length)]);
+    }
+    return builder.toString();
+  }
+
+  private static <K, V> List<Map.Entry<K, V>> toList(Iterator<Map.Entry<K, V>> iterator) {
+    List<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>();
+    while (iterator.hasNext()) {
+      entries.add(iterator.next());
+    }
+    return entries;
+  }
+
+  @Test
+  public void prefixCodesCompareLikeStrings() {
+    Random random = new Random(11);
+    for (int i = 0; i < 10000; i++) {
+      String left = randomKey(random);
+      String right = randomKey(random);
+      long leftCode = StringSortedMap.prefixCode(left);
+      long rightCode = StringSortedMap.prefixCode(right);
+      if (leftCode < rightCode) {
+        assertTrue(left.compareTo(right) < 0);
+      } else if (leftCode > rightCode) {
+        assertTrue(left.compareTo(right) > 0);
+      }
+    }
+    assertTrue(StringSortedMap.prefixCode("a") < StringSortedMap.prefixCode("￿"));
+  }
+
+  @Test
+  public void randomInsertsAndRemovesMatchTreeMap() {
+    Random random = new Random(42);
+    TreeMap<String, Integer> expected = new TreeMap<String, Integer>();
+    ImmutableSortedMap<String, Integer> map = StringSortedMap.emptyMap();
+    for (int i = 0; i < 20000; i++) {
+      String key = randomKey(random);
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        map = map.remove(key);
+      } else {
+        expected.put(key, i);
+        map = map.insert(key, i);
+      }
+      assertEquals(expected.get(key), map.get(key));
+      assertEquals(expected.containsKey(key), map.containsKey(key));
+    }
+
+    assertEquals(expected.size(), map.size());
+    assertEquals(
+        new ArrayList<Map.Entry<String, Integer>>(expected.entrySet()), toList(map.iterator()));
+    List<String> keys = new ArrayList<String>(expected.keySet());
+    for (int i = 0; i < keys.size(); i++) {
+      assertEquals(i, map.indexOf(keys.get(i)));
+      assertEquals(expected.lowerKey(keys.get(i)), map.getPredecessorKey(keys.get(i)));
+    }
+    for (int i = 0; i < 100; i++) {
+      String key = randomKey(random);
+      assertEquals(
+          new ArrayList<Map.Entry<String, Integer>>(expected.tailMap(key, true).entrySet()),
+          toList(map.iteratorFrom(key)));
+      assertEquals(
+          new ArrayList<Map.Entry<String, Integer>>(
+              expected.headMap(key, true).descendingMap().entrySet()),
+          toList(map.reverseIteratorFrom(key)));
+    }
+  }
+
+  @Test
+  public void fromMapMatchesInserts() {
+    Random random = new Random(5);
+    Map<String, Integer> values = new HashMap<String, Integer>();
+    ImmutableSortedMap<String, Integer> inserted = StringSortedMap.emptyMap();
+    for (int i = 0; i < 2000; i++) {
+      String key = randomKey(random) + i;
+      values.put(key, i);
+      inserted = inserted.insert(key, i);
+    }
+    StringSortedMap<Integer> built = StringSortedMap.fromMap(values);
+    assertEquals(inserted, built);
+    assertEquals(
+        new ArrayList<Map.Entry<String, Integer>>(new TreeMap<String, Integer>(values).entrySet()),
+        toList(built.iterator()));
+  }
+
+  @Test
+  public void stringSetContainsInsertedKeys() {
+    ImmutableSortedSet<String> set = ImmutableSortedSet.emptyStringSet();
+    set = set.insert("abcdx").insert("abcd").insert("abcdy").insert("");
+    assertEquals("", set.getMinEntry());
+    assertEquals("abcdy", set.getMaxEntry());
+    assertEquals("abcd", set.getPredecessorEntry("abcdx"));
+    assertTrue(set.contains("abcdx"));
+    assertFalse(set.contains("abc"));
+  }
+}
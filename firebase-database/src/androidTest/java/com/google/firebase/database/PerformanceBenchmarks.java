@@ -14,6 +14,9 @@
 
 package com.google.firebase.database;
 
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.WriteTree;
+import com.google.firebase.database.snapshot.NodeUtilities;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -261,4 +264,38 @@ public class PerformanceBenchmarks {
     System.err.println(String.format("Benchmark took %dms", System.currentTimeMillis() - start));
     ref.removeEventListener(listener);
   }
+
+  // @Test
+  public void pendingWritesPerformance() {
+    // The cost per write should stay flat as the number of pending writes grows.
+    for (int pendingWrites = 1000; pendingWrites <= 8000; pendingWrites *= 2) {
+      WriteTree writeTree = new WriteTree();
+      Path[] paths = new Path[pendingWrites];
+      for (int i = 0; i < pendingWrites; i++) {
+        paths[i] = new Path("items/k-" + (i % 500) + "/field-" + i);
+      }
+
+      long start = System.nanoTime();
+      for (int i = 0; i < pendingWrites; i++) {
+        writeTree.addOverwrite(paths[i], NodeUtilities.NodeFromJSON(i), (long) i, true);
+      }
+      long added = System.nanoTime();
+      for (int i = 0; i < pendingWrites; i++) {
+        writeTree.calcCompleteEventCache(paths[i], null);
+      }
+      long calculated = System.nanoTime();
+      for (int i = 0; i < pendingWrites; i++) {
+        writeTree.removeWrite(i);
+      }
+      long removed = System.nanoTime();
+
+      System.err.println(
+          String.format(
+              "%d pending writes: add %dns, calcCompleteEventCache %dns, remove %dns per write",
+              pendingWrites,
+              (added - start) / pendingWrites,
+              (calculated - added) / pendingWrites,
+              (removed - calculated) / pendingWrites));
+    }
+  }
 }
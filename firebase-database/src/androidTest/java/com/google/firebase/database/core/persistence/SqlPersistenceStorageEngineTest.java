@@ -404,6 +404,40 @@ public class SqlPersistenceStorageEngineTest {
     assertEquals(first.updateChild(path("a"), newA), engine.serverCache(path("")));
   }
 
+  @Test
+  public void testOverwriteOfSplitNodeWithOneChangedLeaf() {
+    Node initial = EmptyNode.Empty();
+    for (int i = 0; i < 100; i++) {
+      initial = initial.updateImmediateChild(ChildKey.fromString("key-" + i), leafNodeOfSize(1024));
+    }
+    overwriteServerCache(engine, path("foo"), initial);
+
+    Node updated = initial.updateChild(path("key-50"), NodeFromJSON("changed"));
+    overwriteServerCache(engine, path("foo"), updated);
+
+    assertEquals(updated, engine.serverCache(path("foo")));
+  }
+
+  @Test
+  public void testOverwriteOfSplitNodeWithRemovedChildren() {
+    Node initial = EmptyNode.Empty();
+    for (int i = 0; i < 100; i++) {
+      Node child = node("{'leaf': 1}").updateChild(path("big"), leafNodeOfSize(1024));
+      initial = initial.updateImmediateChild(ChildKey.fromString("key-" + i), child);
+    }
+    overwriteServerCache(engine, path("foo"), initial);
+
+    Node updated = initial;
+    for (int i = 0; i < 100; i += 2) {
+      updated = updated.updateImmediateChild(ChildKey.fromString("key-" + i), EmptyNode.Empty());
+    }
+    overwriteServerCache(engine, path("foo"), updated);
+
+    assertEquals(updated, engine.serverCache(path("foo")));
+    overwriteServerCache(engine, path("foo"), node("{'key-1': 'small'}"));
+    assertEquals(node("{'key-1': 'small'}"), engine.serverCache(path("foo")));
+  }
+
   @Test
   public void testAllowedSessionIdCharacters() {
     DatabaseConfig cfg = new DatabaseConfig();
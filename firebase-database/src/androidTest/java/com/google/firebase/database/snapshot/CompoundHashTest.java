@@ -24,6 +24,7 @@ import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.firebase.database.MapBuilder;
 import com.google.firebase.database.RetryRule;
 import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.utilities.NodeSizeEstimator;
 import com.google.firebase.database.core.utilities.Utilities;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -200,4 +201,40 @@ public class CompoundHashTest {
     CompoundHash hash = CompoundHash.fromNode(leafNode);
     assertEquals(2, hash.getHashes().size());
   }
+
+  @Test
+  public void defaultSplitWithMemoizedSubtreesMatchesFullWalk() {
+    Node node = EmptyNode.Empty();
+    for (int i = 0; i < 2000; i++) {
+      Map<String, Object> value =
+          new MapBuilder()
+              .put("name", "user-" + i + " \u00fc\"")
+              .put("score", i * 1.5)
+              .put("tags", new MapBuilder().put("a", true).put(".priority", i).build())
+              .build();
+      node = node.updateImmediateChild(ChildKey.fromString("key-" + i), NodeFromJSON(value));
+    }
+    final long threshold =
+        Math.max(512, (long) Math.sqrt(NodeSizeEstimator.estimateSerializedNodeSize(node) * 100));
+    // Same splits as the default strategy, but hashes every subtree by walking it.
+    CompoundHash.SplitStrategy walkingStrategy =
+        new CompoundHash.SplitStrategy() {
+          @Override
+          public boolean shouldSplit(CompoundHash.CompoundHashBuilder state) {
+            return state.currentHashLength() > threshold
+                && (state.currentPath().isEmpty()
+                    || !state.currentPath().getBack().equals(ChildKey.getPriorityKey()));
+          }
+        };
+
+    CompoundHash expected = CompoundHash.fromNode(node, walkingStrategy);
+    assertEquals(expected.getPosts(), CompoundHash.fromNode(node).getPosts());
+    assertEquals(expected.getHashes(), CompoundHash.fromNode(node).getHashes());
+
+    // Memoized subtrees are reused after an update.
+    Node updated = node.updateChild(path("key-1000/tags/b"), NodeFromJSON("new"));
+    expected = CompoundHash.fromNode(updated, walkingStrategy);
+    assertEquals(expected.getPosts(), CompoundHash.fromNode(updated).getPosts());
+    assertEquals(expected.getHashes(), CompoundHash.fromNode(updated).getHashes());
+  }
 }
@@ -22,6 +22,7 @@ import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
 import com.google.firebase.database.annotations.Nullable;
 import com.google.firebase.database.core.DatabaseConfig;
+import com.google.firebase.database.core.ParallelEventTarget;
 import com.google.firebase.database.core.Path;
 import com.google.firebase.database.core.Repo;
 import com.google.firebase.database.core.RepoInfo;
@@ -294,8 +295,9 @@ public class FirebaseDatabase {
    * and only needs to be called once per application.
    *
    * <p>Note that the specified cache size is only an approximation and the size on disk may
-   * temporarily exceed it at times. Cache sizes smaller than 1 MB or greater than 100 MB are not
-   * supported.
+   * temporarily exceed it at times. The cache size includes the storage overhead of cached data and
+   * the queries that are tracked for it, but not writes that are still pending. Cache sizes smaller
+   * than 1 MB or greater than 100 MB are not supported.
    *
    * @param cacheSizeInBytes The new size of the cache in bytes.
    */
@@ -304,6 +306,50 @@ public class FirebaseDatabase {
     this.config.setPersistenceCacheSizeBytes(cacheSizeInBytes);
   }
 
+  /**
+   * By default every write is persisted and sent to the server on its own. If your application
+   * writes to the same locations several times per second, you can set a write coalescing window
+   * to combine writes to overlapping locations that are made within the window after a first write
+   * into one persisted write and one request to the server. Completion listeners are still called
+   * for every write. This method must be called before creating your first Database reference.
+   *
+   * <p>Coalesced writes succeed or fail together. If the server rejects the combined request, for
+   * example because a security rule denies one of the writes, every write that was combined into
+   * it fails with the same error and is reverted locally. Don't coalesce writes that may be denied
+   * independently of each other.
+   *
+   * <p>Note that writes that have not been persisted yet are lost if the app is stopped before the
+   * window closes. Windows longer than 1 second are not supported.
+   *
+   * @param windowMillis The maximum delay of a write in milliseconds, or 0 to disable coalescing.
+   */
+  public synchronized void setWriteCoalescingWindowMillis(long windowMillis) {
+    assertUnfrozen("setWriteCoalescingWindowMillis");
+    this.config.setWriteCoalescingWindowMillis(windowMillis);
+  }
+
+  /**
+   * By default all listener callbacks are called one at a time, on the main thread on Android. If
+   * some of your listeners do expensive work, you can call this method to call the listeners of
+   * different queries in parallel, on a pool of background threads of the given size instead. This
+   * method must be called before creating your first Database reference.
+   *
+   * <p>With this setting, callbacks are no longer called on the main thread, so listeners must post
+   * any UI work to it themselves and must be safe to call from several threads. Each listener is
+   * still called one event at a time and in order, and completion listeners are called in the
+   * order of their writes. There is no ordering between the callbacks of different listeners, or
+   * between the callbacks of a listener and completion listeners.
+   *
+   * @param threadCount The number of threads that call listeners, at least 1.
+   */
+  public synchronized void setParallelListenerThreadCount(int threadCount) {
+    assertUnfrozen("setParallelListenerThreadCount");
+    if (threadCount < 1) {
+      throw new DatabaseException("The listener thread count must be at least 1.");
+    }
+    this.config.setEventTarget(new ParallelEventTarget(threadCount));
+  }
+
   /**
    * Modifies this FirebaseDatabase instance to communicate with the Realtime Database emulator.
    *
@@ -33,6 +33,7 @@ import com.google.firebase.database.core.persistence.CachePolicy;
 import com.google.firebase.database.core.persistence.DefaultPersistenceManager;
 import com.google.firebase.database.core.persistence.LRUCachePolicy;
 import com.google.firebase.database.core.persistence.PersistenceManager;
+import com.google.firebase.database.core.utilities.DefaultClock;
 import com.google.firebase.database.core.utilities.DefaultRunLoop;
 import com.google.firebase.database.logging.AndroidLogger;
 import com.google.firebase.database.logging.LogWrapper;
@@ -164,7 +165,8 @@ public class AndroidPlatform implements Platform {
     SqlPersistenceStorageEngine engine =
         new SqlPersistenceStorageEngine(this.applicationContext, firebaseContext, cacheId);
     CachePolicy cachePolicy = new LRUCachePolicy(firebaseContext.getPersistenceCacheSizeBytes());
-    return new DefaultPersistenceManager(firebaseContext, engine, cachePolicy);
+    return new DefaultPersistenceManager(
+        firebaseContext, engine, cachePolicy, new DefaultClock(), firebaseContext.getRunLoop());
   }
 
   @Override
@@ -23,6 +23,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabaseLockedException;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import com.google.firebase.database.DatabaseException;
 import com.google.firebase.database.core.CompoundWrite;
 import com.google.firebase.database.core.Path;
@@ -35,6 +36,7 @@ import com.google.firebase.database.core.utilities.NodeSizeEstimator;
 import com.google.firebase.database.core.utilities.Pair;
 import com.google.firebase.database.core.view.QuerySpec;
 import com.google.firebase.database.logging.LogWrapper;
+import com.google.firebase.database.snapshot.BinaryNodeSerializer;
 import com.google.firebase.database.snapshot.ChildKey;
 import com.google.firebase.database.snapshot.ChildrenNode;
 import com.google.firebase.database.snapshot.EmptyNode;
@@ -46,14 +48,18 @@ import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 /**
  * This class is an Android/SQL-backed implementation of PersistenceStorageEngine.
@@ -143,6 +149,12 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
 
   private static final String ROW_ID_COLUMN_NAME = "rowid";
 
+  private static final String SAVE_SERVER_CACHE_ROW =
+      "INSERT OR REPLACE INTO serverCache (path, value) VALUES (?, ?)";
+  private static final String DELETE_SERVER_CACHE_ROW = "DELETE FROM serverCache WHERE path = ?";
+  private static final String DELETE_SERVER_CACHE_RANGE =
+      "DELETE FROM serverCache WHERE path >= ? AND path < ?";
+
   /** Children of children nodes above this serialized size in bytes will be saved individually. */
   private static final int CHILDREN_NODE_SPLIT_SIZE_THRESHOLD = 16 * 1024;
 
@@ -155,13 +167,23 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
 
   private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
 
+  /** The value of PRAGMA auto_vacuum that lets free pages be given back with incremental_vacuum. */
+  private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
   private static class PersistentCacheOpenHelper extends SQLiteOpenHelper {
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
 
     public PersistentCacheOpenHelper(Context context, String cacheId) {
       super(context, cacheId, null, DATABASE_VERSION);
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+      // Only takes effect for new databases, which have no tables yet. Existing databases keep
+      // their vacuum mode, since switching them over would take a VACUUM of the whole file.
+      db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
       db.execSQL(CREATE_SERVER_CACHE);
@@ -187,9 +209,10 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
         // Create tracked queries/keys.
         db.execSQL(CREATE_TRACKED_KEYS);
         db.execSQL(CREATE_TRACKED_QUERIES);
-      } else {
-        throw new AssertionError("We don't handle upgrading to " + newVersion);
       }
+      // Version 3 saves nodes and writes in the binary format of BinaryNodeSerializer, which
+      // earlier versions can't read. Rows that they saved as JSON are still read, and replaced the
+      // next time they are saved, so no rows need to be converted here.
     }
 
     private void dropTable(SQLiteDatabase db, String table) {
@@ -203,6 +226,19 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   private final LogWrapper logger;
   private boolean insideTransaction;
   private long transactionStart = 0;
+  private final boolean incrementalVacuumEnabled;
+
+  // Compiled once and reused, since a large update saves and deletes many rows.
+  private final SQLiteStatement saveServerCacheRowStatement;
+  private final SQLiteStatement deleteServerCacheRowStatement;
+  private final SQLiteStatement deleteServerCacheRangeStatement;
+
+  /** The number of serverCache rows an update touched, for logging. */
+  private static class RowCounts {
+    private int savedRows;
+    private int removedRows;
+    private int unchangedRows;
+  }
 
   public SqlPersistenceStorageEngine(
       Context context, com.google.firebase.database.core.Context firebaseContext, String cacheId) {
@@ -214,13 +250,17 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     }
     this.logger = firebaseContext.getLogger(LOGGER_COMPONENT);
     this.database = this.openDatabase(context, sanitizedCacheId);
+    this.incrementalVacuumEnabled = queryPragma("auto_vacuum") == AUTO_VACUUM_INCREMENTAL;
+    this.saveServerCacheRowStatement = database.compileStatement(SAVE_SERVER_CACHE_ROW);
+    this.deleteServerCacheRowStatement = database.compileStatement(DELETE_SERVER_CACHE_ROW);
+    this.deleteServerCacheRangeStatement = database.compileStatement(DELETE_SERVER_CACHE_RANGE);
   }
 
   @Override
   public void saveUserOverwrite(Path path, Node node, long writeId) {
     verifyInsideTransaction();
     long start = System.currentTimeMillis();
-    byte[] serializedNode = serializeObject(node.getValue(true));
+    byte[] serializedNode = BinaryNodeSerializer.serializeNode(node);
     saveWrite(path, writeId, WRITE_TYPE_OVERWRITE, serializedNode);
     long duration = System.currentTimeMillis() - start;
     if (logger.logsDebug()) {
@@ -232,7 +272,7 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   public void saveUserMerge(Path path, CompoundWrite children, long writeId) {
     verifyInsideTransaction();
     long start = System.currentTimeMillis();
-    byte[] serializedNode = serializeObject(children.getValue(true));
+    byte[] serializedNode = BinaryNodeSerializer.serializeMerge(children);
     saveWrite(path, writeId, WRITE_TYPE_MERGE, serializedNode);
     long duration = System.currentTimeMillis() - start;
     if (logger.logsDebug()) {
@@ -294,15 +334,12 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
           cursor.moveToPrevious();
           serialized = joinBytes(parts);
         }
-        String serializedString = new String(serialized, UTF8_CHARSET);
-        Object writeValue = JsonMapper.parseJsonValue(serializedString);
         UserWriteRecord record;
         if (WRITE_TYPE_OVERWRITE.equals(type)) {
-          Node set = NodeUtilities.NodeFromJSON(writeValue);
+          Node set = deserializeNode(serialized);
           record = new UserWriteRecord(writeId, path, set, /*visible=*/ true);
         } else if (WRITE_TYPE_MERGE.equals(type)) {
-          @SuppressWarnings("unchecked")
-          CompoundWrite merge = CompoundWrite.fromValue((Map<String, Object>) writeValue);
+          CompoundWrite merge = deserializeMerge(serialized);
           record = new UserWriteRecord(writeId, path, merge);
         } else {
           throw new IllegalStateException("Got invalid write type: " + type);
@@ -314,8 +351,6 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
         logger.debug(String.format(Locale.US, "Loaded %d writes in %dms", writes.size(), duration));
       }
       return writes;
-    } catch (IOException e) {
-      throw new RuntimeException("Failed to load writes", e);
     } finally {
       cursor.close();
     }
@@ -366,17 +401,12 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
 
   private void updateServerCache(Path path, Node node, boolean merge) {
     long start = System.currentTimeMillis();
-    int removedRows;
-    int savedRows;
+    RowCounts counts = new RowCounts();
     if (!merge) {
-      removedRows = removeNested(SERVER_CACHE_TABLE, path);
-      savedRows = saveNested(path, node);
+      replaceNested(path, node, counts);
     } else {
-      removedRows = 0;
-      savedRows = 0;
       for (NamedNode child : node) {
-        removedRows += removeNested(SERVER_CACHE_TABLE, path.child(child.getName()));
-        savedRows += saveNested(path.child(child.getName()), child.getNode());
+        replaceNested(path.child(child.getName()), child.getNode(), counts);
       }
     }
     long duration = System.currentTimeMillis() - start;
@@ -384,9 +414,11 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
       logger.debug(
           String.format(
               Locale.US,
-              "Persisted a total of %d rows and deleted %d rows for a set at %s in %dms",
-              savedRows,
-              removedRows,
+              "Persisted a total of %d rows and deleted %d rows (%d rows unchanged) for a set at "
+                  + "%s in %dms",
+              counts.savedRows,
+              counts.removedRows,
+              counts.unchangedRows,
               path.toString(),
               duration));
     }
@@ -396,20 +428,20 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
   public void mergeIntoServerCache(Path path, CompoundWrite children) {
     verifyInsideTransaction();
     long start = System.currentTimeMillis();
-    int savedRows = 0;
-    int removedRows = 0;
+    RowCounts counts = new RowCounts();
     for (Map.Entry<Path, Node> entry : children) {
-      removedRows += removeNested(SERVER_CACHE_TABLE, path.child(entry.getKey()));
-      savedRows += saveNested(path.child(entry.getKey()), entry.getValue());
+      replaceNested(path.child(entry.getKey()), entry.getValue(), counts);
     }
     long duration = System.currentTimeMillis() - start;
     if (logger.logsDebug()) {
       logger.debug(
           String.format(
               Locale.US,
-              "Persisted a total of %d rows and deleted %d rows for a merge at %s in %dms",
-              savedRows,
-              removedRows,
+              "Persisted a total of %d rows and deleted %d rows (%d rows unchanged) for a merge "
+                  + "at %s in %dms",
+              counts.savedRows,
+              counts.removedRows,
+              counts.unchangedRows,
               path.toString(),
               duration));
     }
@@ -433,6 +465,69 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     }
   }
 
+  @Override
+  public long storageSizeInBytes() {
+    long usedPages = queryPragma("page_count") - queryPragma("freelist_count");
+    // Pending writes can't be pruned, so they don't count against the cache size.
+    return Math.max(0, usedPages * queryPragma("page_size") - pendingWritesSizeInBytes());
+  }
+
+  private long pendingWritesSizeInBytes() {
+    String query =
+        String.format(
+            "SELECT sum(length(%s) + length(%s)) FROM %s",
+            WRITE_NODE_COLUMN_NAME, PATH_COLUMN_NAME, WRITES_TABLE);
+    Cursor cursor = database.rawQuery(query, null);
+    try {
+      return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Override
+  public boolean reclaimFreeSpace(long maxBytes) {
+    if (!incrementalVacuumEnabled) {
+      // The database predates incremental vacuum. Its free pages are reused by later writes
+      // instead of being given back to the file system.
+      return false;
+    }
+    long start = System.currentTimeMillis();
+    long pages = Math.max(1, maxBytes / queryPragma("page_size"));
+    Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+    try {
+      // Every step of the statement frees a page.
+      while (cursor.moveToNext()) {}
+    } finally {
+      cursor.close();
+    }
+    long freePages = queryPragma("freelist_count");
+    long duration = System.currentTimeMillis() - start;
+    if (logger.logsDebug()) {
+      logger.debug(
+          String.format(
+              Locale.US,
+              "Reclaimed up to %d pages in %dms, %d free pages left",
+              pages,
+              duration,
+              freePages));
+    }
+    return freePages > 0;
+  }
+
+  private long queryPragma(String pragma) {
+    Cursor cursor = database.rawQuery("PRAGMA " + pragma, null);
+    try {
+      if (cursor.moveToFirst()) {
+        return cursor.getLong(0);
+      } else {
+        throw new IllegalStateException("Couldn't read PRAGMA " + pragma);
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
   @Override
   public void saveTrackedQuery(TrackedQuery trackedQuery) {
     verifyInsideTransaction();
@@ -822,6 +917,9 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
 
   @Override
   public void close() {
+    saveServerCacheRowStatement.close();
+    deleteServerCacheRowStatement.close();
+    deleteServerCacheRangeStatement.close();
     database.close();
   }
 
@@ -879,6 +977,107 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
    * @return The number of saved database rows
    */
   private int saveNested(Path path, Node node) {
+    Map<String, byte[]> rows = new LinkedHashMap<String, byte[]>();
+    collectNestedRows(path, node, rows);
+    for (Map.Entry<String, byte[]> row : rows.entrySet()) {
+      saveServerCacheRow(row.getKey(), row.getValue());
+    }
+    return rows.size();
+  }
+
+  /**
+   * Replaces the rows at and below a path with the rows of the given node, with the same result as
+   * deleting all of these rows and saving the node with {@link #saveNested}. Rows that already hold
+   * the same data are left alone, so an update of a large node only rewrites the rows of the parts
+   * of the node that changed.
+   *
+   * @param path The path to save the node at
+   * @param node The node to save
+   * @param counts Receives the number of saved, deleted and unchanged rows
+   */
+  private void replaceNested(Path path, Node node, RowCounts counts) {
+    Map<String, byte[]> rows = new LinkedHashMap<String, byte[]>();
+    collectNestedRows(path, node, rows);
+
+    String pathPrefixStart = pathToKey(path);
+    String pathPrefixEnd = pathPrefixStartToPrefixEnd(pathPrefixStart);
+    List<String> staleKeys = new ArrayList<String>();
+    SortedSet<String> unchangedKeys = new TreeSet<String>();
+    Cursor cursor =
+        database.query(
+            SERVER_CACHE_TABLE,
+            new String[] {PATH_COLUMN_NAME, VALUE_COLUMN_NAME},
+            PATH_COLUMN_NAME + " >= ? AND " + PATH_COLUMN_NAME + " < ?",
+            new String[] {pathPrefixStart, pathPrefixEnd},
+            null,
+            null,
+            null);
+    try {
+      while (cursor.moveToNext()) {
+        String key = cursor.getString(0);
+        byte[] serialized = rows.get(key);
+        if (serialized == null) {
+          staleKeys.add(key);
+        } else if (Arrays.equals(serialized, cursor.getBlob(1))) {
+          rows.remove(key);
+          unchangedKeys.add(key);
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+
+    if (!staleKeys.isEmpty()) {
+      if (unchangedKeys.isEmpty()) {
+        counts.removedRows += deleteServerCacheRange(pathPrefixStart);
+      } else {
+        counts.removedRows += deleteStaleRows(staleKeys, unchangedKeys);
+      }
+    }
+    for (Map.Entry<String, byte[]> row : rows.entrySet()) {
+      saveServerCacheRow(row.getKey(), row.getValue());
+    }
+    counts.savedRows += rows.size();
+    counts.unchangedRows += unchangedKeys.size();
+  }
+
+  /**
+   * Deletes rows that are no longer part of the cache. Where no kept row is below a stale row, the
+   * whole path-prefix range of the stale row is deleted with a single statement.
+   */
+  private int deleteStaleRows(List<String> staleKeys, SortedSet<String> keptKeys) {
+    // Sorting puts the keys below a path right after the key of the path.
+    Collections.sort(staleKeys);
+    int removedRows = 0;
+    String deletedPrefix = null;
+    for (String key : staleKeys) {
+      if (deletedPrefix != null && key.startsWith(deletedPrefix)) {
+        continue;
+      }
+      if (key.endsWith("/") && !containsKeyWithPrefix(keptKeys, key)) {
+        removedRows += deleteServerCacheRange(key);
+        deletedPrefix = key;
+      } else {
+        removedRows += deleteServerCacheRow(key);
+      }
+    }
+    return removedRows;
+  }
+
+  private static boolean containsKeyWithPrefix(SortedSet<String> keys, String prefix) {
+    // Keys with the prefix are sorted right at or after the prefix itself.
+    SortedSet<String> tail = keys.tailSet(prefix);
+    return !tail.isEmpty() && tail.first().startsWith(prefix);
+  }
+
+  /**
+   * Collects the rows that {@link #saveNested} saves for a node, by their path key.
+   *
+   * @param path The path to save the node at
+   * @param node The node to save
+   * @param rows Receives the serialized rows
+   */
+  private void collectNestedRows(Path path, Node node, Map<String, byte[]> rows) {
     long estimatedSize = NodeSizeEstimator.estimateSerializedNodeSize(node);
     if (node instanceof ChildrenNode && estimatedSize > CHILDREN_NODE_SPLIT_SIZE_THRESHOLD) {
       if (logger.logsDebug()) {
@@ -892,24 +1091,18 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
                 CHILDREN_NODE_SPLIT_SIZE_THRESHOLD));
       }
       // split up the children node into multiple nodes
-      int sum = 0;
       for (NamedNode child : node) {
-        sum += saveNested(path.child(child.getName()), child.getNode());
+        collectNestedRows(path.child(child.getName()), child.getNode(), rows);
       }
       if (!node.getPriority().isEmpty()) {
-        saveNode(path.child(ChildKey.getPriorityKey()), node.getPriority());
-        sum++;
+        collectNodeRows(path.child(ChildKey.getPriorityKey()), node.getPriority(), rows);
       }
 
       // Need to save an empty node here to make sure we still supersede anything written by parent
       // paths.
-      saveNode(path, EmptyNode.Empty());
-      sum++;
-
-      return sum;
+      collectNodeRows(path, EmptyNode.Empty(), rows);
     } else {
-      saveNode(path, node);
-      return 1;
+      collectNodeRows(path, node, rows);
     }
   }
 
@@ -917,29 +1110,39 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     return pathToKey(path) + String.format(Locale.US, PART_KEY_FORMAT, i);
   }
 
-  private void saveNode(Path path, Node node) {
-    byte[] serialized = serializeObject(node.getValue(true));
+  private void collectNodeRows(Path path, Node node, Map<String, byte[]> rows) {
+    byte[] serialized = BinaryNodeSerializer.serializeNode(node);
     if (serialized.length >= ROW_SPLIT_SIZE) {
       List<byte[]> parts = splitBytes(serialized, ROW_SPLIT_SIZE);
       if (logger.logsDebug()) {
         logger.debug("Saving huge leaf node with " + parts.size() + " parts.");
       }
       for (int i = 0; i < parts.size(); i++) {
-        ContentValues values = new ContentValues();
-        values.put(PATH_COLUMN_NAME, partKey(path, i));
-        values.put(VALUE_COLUMN_NAME, parts.get(i));
-        database.insertWithOnConflict(
-            SERVER_CACHE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        rows.put(partKey(path, i), parts.get(i));
       }
     } else {
-      ContentValues values = new ContentValues();
-      values.put(PATH_COLUMN_NAME, pathToKey(path));
-      values.put(VALUE_COLUMN_NAME, serialized);
-      database.insertWithOnConflict(
-          SERVER_CACHE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+      rows.put(pathToKey(path), serialized);
     }
   }
 
+  private void saveServerCacheRow(String key, byte[] value) {
+    saveServerCacheRowStatement.bindString(1, key);
+    saveServerCacheRowStatement.bindBlob(2, value);
+    saveServerCacheRowStatement.executeInsert();
+  }
+
+  private int deleteServerCacheRow(String key) {
+    deleteServerCacheRowStatement.bindString(1, key);
+    return deleteServerCacheRowStatement.executeUpdateDelete();
+  }
+
+  /** Deletes the row at the given path key and all rows below it. */
+  private int deleteServerCacheRange(String pathPrefixStart) {
+    deleteServerCacheRangeStatement.bindString(1, pathPrefixStart);
+    deleteServerCacheRangeStatement.bindString(2, pathPrefixStartToPrefixEnd(pathPrefixStart));
+    return deleteServerCacheRangeStatement.executeUpdateDelete();
+  }
+
   /**
    * Loads a node at a path. This method reads all rows that could contribute to the current state
    * of the node and combines them. It has no knowledge of whether the data is "complete" or not.
@@ -1092,13 +1295,6 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     return whereClause.toString();
   }
 
-  private int removeNested(String table, Path path) {
-    String pathPrefixQuery = PATH_COLUMN_NAME + " >= ? AND " + PATH_COLUMN_NAME + " < ?";
-    String pathPrefixStart = pathToKey(path);
-    String pathPrefixEnd = pathPrefixStartToPrefixEnd(pathPrefixStart);
-    return database.delete(table, pathPrefixQuery, new String[] {pathPrefixStart, pathPrefixEnd});
-  }
-
   private static List<byte[]> splitBytes(byte[] bytes, int size) {
     int parts = ((bytes.length - 1) / size) + 1;
     List<byte[]> partList = new ArrayList<byte[]>(parts);
@@ -1125,21 +1321,36 @@ public class SqlPersistenceStorageEngine implements PersistenceStorageEngine {
     return buffer;
   }
 
-  private byte[] serializeObject(Object object) {
+  /**
+   * Deserializes a node that was stored either in the binary format or in the JSON format that was
+   * used by earlier versions of the SDK. JSON rows are not migrated eagerly; they are replaced with
+   * the binary format the next time they are written.
+   */
+  private Node deserializeNode(byte[] value) {
+    if (BinaryNodeSerializer.isBinary(value)) {
+      return BinaryNodeSerializer.deserializeNode(value);
+    }
     try {
-      return JsonMapper.serializeJsonValue(object).getBytes(UTF8_CHARSET);
+      Object o = JsonMapper.parseJsonValue(new String(value, UTF8_CHARSET));
+      return NodeUtilities.NodeFromJSON(o);
     } catch (IOException e) {
-      throw new RuntimeException("Could not serialize leaf node", e);
+      String stringValue = new String(value, UTF8_CHARSET);
+      throw new RuntimeException("Could not deserialize node: " + stringValue, e);
     }
   }
 
-  private Node deserializeNode(byte[] value) {
+  private CompoundWrite deserializeMerge(byte[] value) {
+    if (BinaryNodeSerializer.isBinary(value)) {
+      return BinaryNodeSerializer.deserializeMerge(value);
+    }
     try {
-      Object o = JsonMapper.parseJsonValue(new String(value, UTF8_CHARSET));
-      return NodeUtilities.NodeFromJSON(o);
+      @SuppressWarnings("unchecked")
+      Map<String, Object> merge =
+          (Map<String, Object>) JsonMapper.parseJsonValue(new String(value, UTF8_CHARSET));
+      return CompoundWrite.fromValue(merge);
     } catch (IOException e) {
       String stringValue = new String(value, UTF8_CHARSET);
-      throw new RuntimeException("Could not deserialize node: " + stringValue, e);
+      throw new RuntimeException("Could not deserialize merge: " + stringValue, e);
     }
   }
 
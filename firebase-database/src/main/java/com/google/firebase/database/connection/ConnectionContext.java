@@ -27,6 +27,7 @@ public class ConnectionContext {
   private final String userAgent;
   private final String applicationId;
   private final String sslCacheDirectory;
+  private final PayloadDecoder payloadDecoder;
 
   public ConnectionContext(
       Logger logger,
@@ -38,6 +39,30 @@ public class ConnectionContext {
       String userAgent,
       String applicationId,
       String sslCacheDirectory) {
+    this(
+        logger,
+        authTokenProvider,
+        appCheckTokenProvider,
+        executorService,
+        persistenceEnabled,
+        clientSdkVersion,
+        userAgent,
+        applicationId,
+        sslCacheDirectory,
+        /* payloadDecoder= */ null);
+  }
+
+  public ConnectionContext(
+      Logger logger,
+      ConnectionTokenProvider authTokenProvider,
+      ConnectionTokenProvider appCheckTokenProvider,
+      ScheduledExecutorService executorService,
+      boolean persistenceEnabled,
+      String clientSdkVersion,
+      String userAgent,
+      String applicationId,
+      String sslCacheDirectory,
+      PayloadDecoder payloadDecoder) {
     this.logger = logger;
     this.authTokenProvider = authTokenProvider;
     this.appCheckTokenProvider = appCheckTokenProvider;
@@ -47,6 +72,7 @@ public class ConnectionContext {
     this.userAgent = userAgent;
     this.applicationId = applicationId;
     this.sslCacheDirectory = sslCacheDirectory;
+    this.payloadDecoder = payloadDecoder;
   }
 
   public Logger getLogger() {
@@ -84,4 +110,12 @@ public class ConnectionContext {
   public String getApplicationId() {
     return applicationId;
   }
+
+  /**
+   * Returns the decoder for the data of server data updates, or null if the data is passed on as
+   * parsed JSON.
+   */
+  public PayloadDecoder getPayloadDecoder() {
+    return payloadDecoder;
+  }
 }
@@ -0,0 +1,27 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.connection;
+
+import com.google.firebase.database.util.JsonStreamReader;
+import java.io.IOException;
+
+/**
+ * Decodes the data of server data updates while the message is read from the wire, so that large
+ * payloads are converted into their final representation without intermediate JSON objects.
+ */
+public interface PayloadDecoder {
+  /** Reads the next value from {@code reader}. The result is passed on as the update's data. */
+  Object decode(JsonStreamReader reader) throws IOException;
+}
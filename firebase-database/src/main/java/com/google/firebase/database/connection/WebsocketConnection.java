@@ -16,6 +16,7 @@ package com.google.firebase.database.connection;
 
 import com.google.firebase.database.connection.util.StringListReader;
 import com.google.firebase.database.logging.LogWrapper;
+import com.google.firebase.database.tubesock.ByteBufferPool;
 import com.google.firebase.database.tubesock.WebSocket;
 import com.google.firebase.database.tubesock.WebSocketEventHandler;
 import com.google.firebase.database.tubesock.WebSocketException;
@@ -24,8 +25,15 @@ import com.google.firebase.database.util.JsonMapper;
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -37,6 +45,7 @@ class WebsocketConnection {
   private static final long KEEP_ALIVE_TIMEOUT_MS = 45 * 1000; // 45 seconds
   private static final long CONNECT_TIMEOUT_MS = 30 * 1000; // 30 seconds
   private static final int MAX_FRAME_SIZE = 16384;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
 
   public interface Delegate {
     public void onMessage(Map<String, Object> message);
@@ -50,6 +59,8 @@ class WebsocketConnection {
     public void close();
 
     public void send(String msg);
+
+    public void sendText(ByteBuffer utf8Data);
   }
 
   private class WSClientTubesock implements WSClient, WebSocketEventHandler {
@@ -127,6 +138,11 @@ class WebsocketConnection {
       ws.send(msg);
     }
 
+    @Override
+    public void sendText(ByteBuffer utf8Data) {
+      ws.sendText(utf8Data);
+    }
+
     @Override
     public void close() {
       ws.close();
@@ -231,14 +247,15 @@ class WebsocketConnection {
     resetKeepAlive();
 
     try {
-      String toSend = JsonMapper.serializeJson(message);
-      String[] segs = splitIntoFrames(toSend, MAX_FRAME_SIZE);
-      if (segs.length > 1) {
-        conn.send("" + segs.length);
+      StringBuilder toSend = new StringBuilder();
+      JsonMapper.serializeJsonValue(message, toSend);
+      List<ByteBuffer> segs = encodeIntoFrames(toSend);
+      if (segs.size() > 1) {
+        conn.send("" + segs.size());
       }
 
-      for (int i = 0; i < segs.length; ++i) {
-        conn.send(segs[i]);
+      for (int i = 0; i < segs.size(); ++i) {
+        conn.sendText(segs.get(i));
       }
     } catch (IOException e) {
       logger.error("Failed to serialize message: " + message.toString(), e);
@@ -253,7 +270,8 @@ class WebsocketConnection {
       // Decode JSON
       try {
         frameReader.freeze();
-        Map<String, Object> decoded = JsonMapper.parseJson(frameReader.toString());
+        Map<String, Object> decoded =
+            WireMessageDecoder.decode(frameReader, connectionContext.getPayloadDecoder());
         frameReader = null;
         if (logger.logsDebug()) logger.debug("handleIncomingFrame complete frame: " + decoded);
         delegate.onMessage(decoded);
@@ -363,17 +381,31 @@ class WebsocketConnection {
     }
   }
 
-  private static String[] splitIntoFrames(String src, int maxFrameSize) {
-    if (src.length() <= maxFrameSize) {
-      return new String[] {src};
-    } else {
-      ArrayList<String> segs = new ArrayList<String>();
-      for (int i = 0; i < src.length(); i += maxFrameSize) {
-        int end = Math.min(i + maxFrameSize, src.length());
-        String seg = src.substring(i, end);
-        segs.add(seg);
+  /**
+   * Encodes a message as UTF-8 into pooled buffers of at most {@link #MAX_FRAME_SIZE} bytes each.
+   * Characters are never split across buffers, so that every buffer is a valid text frame.
+   */
+  private static List<ByteBuffer> encodeIntoFrames(CharSequence src) {
+    ByteBufferPool pool = ByteBufferPool.getInstance();
+    CharsetEncoder encoder =
+        UTF8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    CharBuffer chars = CharBuffer.wrap(src);
+    List<ByteBuffer> segs = new ArrayList<ByteBuffer>();
+    boolean flushed = false;
+    while (!flushed) {
+      ByteBuffer frame = pool.acquire();
+      int start = frame.position();
+      frame.limit(Math.min(frame.capacity(), start + MAX_FRAME_SIZE));
+      CoderResult result = encoder.encode(chars, frame, true);
+      if (result.isUnderflow()) {
+        flushed = encoder.flush(frame).isUnderflow();
       }
-      return segs.toArray(new String[segs.size()]);
+      frame.limit(frame.position());
+      frame.position(start);
+      segs.add(frame);
     }
+    return segs;
   }
 }
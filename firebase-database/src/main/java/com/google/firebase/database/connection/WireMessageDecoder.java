@@ -0,0 +1,128 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.connection;
+
+import com.google.firebase.database.connection.util.StringListReader;
+import com.google.firebase.database.util.JsonMapper;
+import com.google.firebase.database.util.JsonStreamReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses messages received over the websocket.
+ *
+ * <p>If a {@link PayloadDecoder} is provided, the data of server data updates and merges is read
+ * with it straight from the wire, while the rest of the message is parsed into maps. The message is
+ * read in a single pass. The server does not guarantee the order of the fields in a message, so if
+ * the payload of a data message comes before its action, the payload is parsed into maps like the
+ * rest of the message, which the receiver converts in the same way as messages that are parsed
+ * without a decoder.
+ */
+final class WireMessageDecoder {
+  private static final String SERVER_ENVELOPE_TYPE = "t";
+  private static final String SERVER_DATA_MESSAGE = "d";
+  private static final String SERVER_ENVELOPE_DATA = "d";
+  private static final String SERVER_ASYNC_ACTION = "a";
+  private static final String SERVER_ASYNC_PAYLOAD = "b";
+  private static final String SERVER_ASYNC_DATA_UPDATE = "d";
+  private static final String SERVER_ASYNC_DATA_MERGE = "m";
+  private static final String SERVER_DATA_UPDATE_BODY = "d";
+
+  private WireMessageDecoder() {}
+
+  static Map<String, Object> decode(StringListReader in, PayloadDecoder payloadDecoder)
+      throws IOException {
+    if (payloadDecoder == null) {
+      return JsonMapper.parseJson(in);
+    }
+
+    JsonStreamReader reader = new JsonStreamReader(in);
+    if (reader.peek() != JsonStreamReader.Token.BEGIN_OBJECT) {
+      throw new IOException("Invalid JSON: Expected an object");
+    }
+    return readEnvelope(reader, payloadDecoder);
+  }
+
+  private static Map<String, Object> readEnvelope(
+      JsonStreamReader reader, PayloadDecoder payloadDecoder) throws IOException {
+    Map<String, Object> envelope = new HashMap<String, Object>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      Object type = envelope.get(SERVER_ENVELOPE_TYPE);
+      // Only data messages have payloads to decode, so other messages are parsed into maps once
+      // their type is known.
+      if (name.equals(SERVER_ENVELOPE_DATA)
+          && (type == null || SERVER_DATA_MESSAGE.equals(type))
+          && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+        envelope.put(name, readDataMessage(reader, payloadDecoder));
+      } else {
+        envelope.put(name, reader.nextValue());
+      }
+    }
+    reader.endObject();
+    return envelope;
+  }
+
+  private static Map<String, Object> readDataMessage(
+      JsonStreamReader reader, PayloadDecoder payloadDecoder) throws IOException {
+    Map<String, Object> message = new HashMap<String, Object>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      Object action = message.get(SERVER_ASYNC_ACTION);
+      boolean isUpdate = SERVER_ASYNC_DATA_UPDATE.equals(action);
+      boolean isMerge = SERVER_ASYNC_DATA_MERGE.equals(action);
+      if (name.equals(SERVER_ASYNC_PAYLOAD)
+          && (isUpdate || isMerge)
+          && reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+        message.put(name, readPayload(reader, isMerge, payloadDecoder));
+      } else {
+        message.put(name, reader.nextValue());
+      }
+    }
+    reader.endObject();
+    return message;
+  }
+
+  private static Map<String, Object> readPayload(
+      JsonStreamReader reader, boolean isMerge, PayloadDecoder payloadDecoder) throws IOException {
+    Map<String, Object> payload = new HashMap<String, Object>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (!name.equals(SERVER_DATA_UPDATE_BODY)) {
+        payload.put(name, reader.nextValue());
+      } else if (!isMerge) {
+        payload.put(name, payloadDecoder.decode(reader));
+      } else if (reader.peek() == JsonStreamReader.Token.BEGIN_OBJECT) {
+        // Merges map paths to the data written at each path.
+        Map<String, Object> merge = new HashMap<String, Object>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String path = reader.nextName();
+          merge.put(path, payloadDecoder.decode(reader));
+        }
+        reader.endObject();
+        payload.put(name, merge);
+      } else {
+        payload.put(name, reader.nextValue());
+      }
+    }
+    reader.endObject();
+    return payload;
+  }
+}
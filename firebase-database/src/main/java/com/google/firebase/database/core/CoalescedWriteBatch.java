@@ -0,0 +1,114 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.snapshot.Node;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the user writes to overlapping locations that {@link Repo} makes within its write
+ * coalescing window, so that they are persisted as one write and sent as one request.
+ *
+ * <p>All writes of a batch are at or below the path of the batch. They are combined in the order
+ * in which they were made into a {@link CompoundWrite} relative to that path, so later writes win
+ * like they would if each write was sent on its own. Each write keeps its own write id and
+ * completion listener, but all writes of a batch are acked with the result of the combined request.
+ */
+final class CoalescedWriteBatch {
+
+  /** A user write that is part of the batch. */
+  static final class PendingWrite {
+    final long writeId;
+    final Path path;
+    final String writeType;
+    final DatabaseReference.CompletionListener onComplete;
+
+    private PendingWrite(
+        long writeId,
+        Path path,
+        String writeType,
+        DatabaseReference.CompletionListener onComplete) {
+      this.writeId = writeId;
+      this.path = path;
+      this.writeType = writeType;
+      this.onComplete = onComplete;
+    }
+  }
+
+  private final List<PendingWrite> writes = new ArrayList<PendingWrite>();
+  private Path path;
+  private CompoundWrite write = CompoundWrite.emptyWrite();
+
+  CoalescedWriteBatch(Path path) {
+    this.path = path;
+  }
+
+  /** Returns whether a write to the given path can join the batch. */
+  boolean overlaps(Path writePath) {
+    return path.contains(writePath) || writePath.contains(path);
+  }
+
+  void addOverwrite(
+      long writeId,
+      Path writePath,
+      Node unresolvedValue,
+      DatabaseReference.CompletionListener onComplete) {
+    rebase(writePath);
+    write = write.addWrite(Path.getRelative(path, writePath), unresolvedValue);
+    writes.add(new PendingWrite(writeId, writePath, "setValue", onComplete));
+  }
+
+  void addMerge(
+      long writeId,
+      Path writePath,
+      CompoundWrite unresolvedChildren,
+      DatabaseReference.CompletionListener onComplete) {
+    rebase(writePath);
+    write = write.addWrites(Path.getRelative(path, writePath), unresolvedChildren);
+    writes.add(new PendingWrite(writeId, writePath, "updateChildren", onComplete));
+  }
+
+  /** Moves the batch up to the given path if the path is above the batch. */
+  private void rebase(Path writePath) {
+    if (!path.contains(writePath)) {
+      write = CompoundWrite.emptyWrite().addWrites(Path.getRelative(writePath, path), write);
+      path = writePath;
+    }
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  /**
+   * Returns the combined writes of the batch relative to its path, which overwrite the path if they
+   * have a root write and are merged into it otherwise.
+   */
+  CompoundWrite getWrite() {
+    return write;
+  }
+
+  /** Returns the id of the last write, under which the combined write is persisted. */
+  long getLastWriteId() {
+    return writes.get(writes.size() - 1).writeId;
+  }
+
+  List<PendingWrite> getWrites() {
+    return Collections.unmodifiableList(writes);
+  }
+}
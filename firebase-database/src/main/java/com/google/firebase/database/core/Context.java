@@ -22,13 +22,17 @@ import com.google.firebase.database.android.AndroidPlatform;
 import com.google.firebase.database.connection.ConnectionContext;
 import com.google.firebase.database.connection.ConnectionTokenProvider;
 import com.google.firebase.database.connection.HostInfo;
+import com.google.firebase.database.connection.PayloadDecoder;
 import com.google.firebase.database.connection.PersistentConnection;
 import com.google.firebase.database.core.persistence.NoopPersistenceManager;
 import com.google.firebase.database.core.persistence.PersistenceManager;
 import com.google.firebase.database.core.utilities.DefaultRunLoop;
 import com.google.firebase.database.logging.LogWrapper;
 import com.google.firebase.database.logging.Logger;
+import com.google.firebase.database.snapshot.NodeUtilities;
+import com.google.firebase.database.util.JsonStreamReader;
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -47,6 +51,7 @@ public class Context {
   protected Logger.Level logLevel = Logger.Level.INFO;
   protected boolean persistenceEnabled;
   protected long cacheSize = DEFAULT_CACHE_SIZE;
+  protected long writeCoalescingWindowMillis = 0;
   protected FirebaseApp firebaseApp;
   private PersistenceManager forcedPersistenceManager;
   private boolean frozen = false;
@@ -149,7 +154,17 @@ public class Context {
         FirebaseDatabase.getSdkVersion(),
         this.getUserAgent(),
         firebaseApp.getOptions().getApplicationId(),
-        this.getSSLCacheDirectory().getAbsolutePath());
+        this.getSSLCacheDirectory().getAbsolutePath(),
+        new PayloadDecoder() {
+          @Override
+          public Object decode(JsonStreamReader reader) throws IOException {
+            try {
+              return NodeUtilities.NodeFromJSONStream(reader);
+            } catch (DatabaseException e) {
+              throw new IOException("Failed to decode data", e);
+            }
+          }
+        });
   }
 
   PersistenceManager getPersistenceManager(String firebaseId) {
@@ -178,11 +193,20 @@ public class Context {
     return this.cacheSize;
   }
 
+  public long getWriteCoalescingWindowMillis() {
+    return this.writeCoalescingWindowMillis;
+  }
+
   // For testing
   void forcePersistenceManager(PersistenceManager persistenceManager) {
     this.forcedPersistenceManager = persistenceManager;
   }
 
+  // For testing
+  void forcePlatform(Platform platform) {
+    this.platform = platform;
+  }
+
   public EventTarget getEventTarget() {
     return eventTarget;
   }
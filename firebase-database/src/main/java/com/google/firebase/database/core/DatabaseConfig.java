@@ -173,6 +173,29 @@ public class DatabaseConfig extends Context {
     this.cacheSize = cacheSizeInBytes;
   }
 
+  /**
+   * By default every write is persisted and sent to the server on its own. With a write coalescing
+   * window, writes to overlapping locations that are made within the window after a first write
+   * are combined into one persisted write and one request to the server. Completion listeners are
+   * still called for every write. Writes that have not been persisted yet are lost if the app is
+   * stopped before the window closes.
+   *
+   * @param windowMillis The maximum delay of a write in milliseconds, or 0 to disable coalescing.
+   */
+  public synchronized void setWriteCoalescingWindowMillis(long windowMillis) {
+    assertUnfrozen();
+
+    if (windowMillis < 0) {
+      throw new DatabaseException("The write coalescing window can't be negative");
+    }
+    if (windowMillis > 1000) {
+      throw new DatabaseException(
+          "Firebase Database currently doesn't support a write coalescing window longer than 1s");
+    }
+
+    this.writeCoalescingWindowMillis = windowMillis;
+  }
+
   public synchronized void setFirebaseApp(FirebaseApp app) {
     this.firebaseApp = app;
   }
@@ -0,0 +1,143 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An event target that raises the events of independent listeners in parallel on a bounded pool of
+ * threads.
+ *
+ * <p>Events that are posted with the same key run one at a time and in the order in which they
+ * were posted. The database uses the {@link EventRegistration} of a listener as its key, so each
+ * listener still sees its events in order, while a slow listener only delays its own events.
+ * Events posted without a key, such as completion callbacks, are ordered among themselves. There
+ * is no ordering between events with different keys.
+ *
+ * <p>Callbacks are raised on the threads of the pool rather than on the main thread. Apps opt in
+ * with {@link com.google.firebase.database.FirebaseDatabase#setParallelListenerThreadCount}.
+ */
+public class ParallelEventTarget implements EventTarget {
+
+  private static final Object UNKEYED = new Object();
+
+  private final int poolSize;
+  private final ThreadPoolExecutor executor;
+
+  /** Events that wait for the running event with the same key, by key. */
+  private final Map<Object, ArrayDeque<Runnable>> pendingEvents =
+      new HashMap<Object, ArrayDeque<Runnable>>();
+
+  public ParallelEventTarget(int poolSize) {
+    this(Executors.defaultThreadFactory(), ThreadInitializer.defaultInstance, poolSize);
+  }
+
+  public ParallelEventTarget(
+      final ThreadFactory wrappedFactory, final ThreadInitializer threadInitializer, int poolSize) {
+    if (poolSize < 1) {
+      throw new IllegalArgumentException("poolSize must be at least 1");
+    }
+    this.poolSize = poolSize;
+    final AtomicInteger threadCount = new AtomicInteger();
+    executor =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            3,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread thread = wrappedFactory.newThread(r);
+                threadInitializer.setName(
+                    thread, "FirebaseDatabaseEventTarget-" + threadCount.incrementAndGet());
+                threadInitializer.setDaemon(thread, true);
+                return thread;
+              }
+            });
+  }
+
+  @Override
+  public void postEvent(Runnable r) {
+    postEvent(UNKEYED, r);
+  }
+
+  /**
+   * Runs {@code r} after all events that were previously posted with an equal key.
+   *
+   * @param key The key that orders the event, compared with {@link Object#equals}
+   * @param r The callback to be run
+   */
+  public void postEvent(final Object key, Runnable r) {
+    synchronized (pendingEvents) {
+      ArrayDeque<Runnable> queue = pendingEvents.get(key);
+      if (queue != null) {
+        // An event with this key is running and will schedule this one once it is done.
+        queue.add(r);
+        return;
+      }
+      pendingEvents.put(key, new ArrayDeque<Runnable>());
+    }
+    schedule(key, r);
+  }
+
+  private void schedule(final Object key, final Runnable r) {
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              r.run();
+            } finally {
+              scheduleNext(key);
+            }
+          }
+        });
+  }
+
+  private void scheduleNext(Object key) {
+    Runnable next;
+    synchronized (pendingEvents) {
+      ArrayDeque<Runnable> queue = pendingEvents.get(key);
+      next = queue.poll();
+      if (next == null) {
+        pendingEvents.remove(key);
+        return;
+      }
+    }
+    // Go through the executor's queue, so that one busy key can't monopolize a thread.
+    schedule(key, next);
+  }
+
+  /** Lets the threads of the pool time out once there is no activity. */
+  @Override
+  public void shutdown() {
+    executor.setCorePoolSize(0);
+  }
+
+  @Override
+  public void restart() {
+    executor.setCorePoolSize(poolSize);
+  }
+}
@@ -0,0 +1,157 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import static com.google.firebase.database.core.utilities.Utilities.hardAssert;
+
+import com.google.firebase.database.snapshot.ChildKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes pending writes by their path, so that {@link WriteTree} only needs to look at the writes
+ * that overlap a location instead of scanning all pending writes.
+ *
+ * <p>Every location keeps the writes at its path in the order in which they were added, and counts
+ * the visible writes in its subtree. Updates and lookups along a path cost time proportional to the
+ * depth of the path.
+ */
+final class PendingWriteIndex {
+
+  private static final Comparator<UserWriteRecord> WRITE_ID_COMPARATOR =
+      new Comparator<UserWriteRecord>() {
+        @Override
+        public int compare(UserWriteRecord left, UserWriteRecord right) {
+          return Long.compare(left.getWriteId(), right.getWriteId());
+        }
+      };
+
+  private static final class IndexNode {
+    private final Map<ChildKey, IndexNode> children = new HashMap<ChildKey, IndexNode>();
+    private final List<UserWriteRecord> writes = new ArrayList<UserWriteRecord>();
+    private int writesInSubtree;
+    private int visibleWritesInSubtree;
+  }
+
+  private IndexNode root = new IndexNode();
+
+  public void addWrite(UserWriteRecord write) {
+    int visible = write.isVisible() ? 1 : 0;
+    IndexNode node = root;
+    for (ChildKey key : write.getPath()) {
+      node.writesInSubtree++;
+      node.visibleWritesInSubtree += visible;
+      IndexNode child = node.children.get(key);
+      if (child == null) {
+        child = new IndexNode();
+        node.children.put(key, child);
+      }
+      node = child;
+    }
+    node.writesInSubtree++;
+    node.visibleWritesInSubtree += visible;
+    node.writes.add(write);
+  }
+
+  public void removeWrite(UserWriteRecord write) {
+    int visible = write.isVisible() ? 1 : 0;
+    IndexNode node = root;
+    for (ChildKey key : write.getPath()) {
+      node.writesInSubtree--;
+      node.visibleWritesInSubtree -= visible;
+      IndexNode child = node.children.get(key);
+      hardAssert(child != null, "removeWrite called with a write that is not indexed");
+      if (child.writesInSubtree == 1) {
+        // The write is the last one in this subtree, so drop the subtree.
+        node.children.remove(key);
+        return;
+      }
+      node = child;
+    }
+    node.writesInSubtree--;
+    node.visibleWritesInSubtree -= visible;
+    boolean removed = node.writes.remove(write);
+    hardAssert(removed, "removeWrite called with a write that is not indexed");
+  }
+
+  public void clear() {
+    root = new IndexNode();
+  }
+
+  /** Returns whether there is a visible write at the given path or below it. */
+  public boolean hasVisibleWriteAtOrBelow(Path path) {
+    IndexNode node = findNode(path);
+    return node != null && node.visibleWritesInSubtree > 0;
+  }
+
+  /** Returns the writes at the given path and its ancestors, ordered by their write ID. */
+  public List<UserWriteRecord> getWritesAtOrAbove(Path path) {
+    List<UserWriteRecord> writes = new ArrayList<UserWriteRecord>();
+    IndexNode node = root;
+    writes.addAll(node.writes);
+    for (ChildKey key : path) {
+      node = node.children.get(key);
+      if (node == null) {
+        break;
+      }
+      writes.addAll(node.writes);
+    }
+    Collections.sort(writes, WRITE_ID_COMPARATOR);
+    return writes;
+  }
+
+  /**
+   * Returns the writes that overlap the given path, which are the writes at the path, at its
+   * ancestors and below it, ordered by their write ID.
+   */
+  public List<UserWriteRecord> getOverlappingWrites(Path path) {
+    List<UserWriteRecord> writes = new ArrayList<UserWriteRecord>();
+    IndexNode node = root;
+    for (ChildKey key : path) {
+      writes.addAll(node.writes);
+      node = node.children.get(key);
+      if (node == null) {
+        break;
+      }
+    }
+    if (node != null) {
+      collectWrites(node, writes);
+    }
+    Collections.sort(writes, WRITE_ID_COMPARATOR);
+    return writes;
+  }
+
+  private static void collectWrites(IndexNode node, List<UserWriteRecord> writes) {
+    writes.addAll(node.writes);
+    for (IndexNode child : node.children.values()) {
+      collectWrites(child, writes);
+    }
+  }
+
+  private IndexNode findNode(Path path) {
+    IndexNode node = root;
+    for (ChildKey key : path) {
+      node = node.children.get(key);
+      if (node == null) {
+        return null;
+      }
+    }
+    return node;
+  }
+}
@@ -81,6 +81,9 @@ public class Repo implements PersistentConnection.Delegate {
   private SyncTree serverSyncTree;
   private FirebaseDatabase database;
   private boolean loggedTransactionPersistenceWarning = false;
+  private final long writeCoalescingWindowMillis;
+  /** The writes of the current coalescing window that haven't been sent yet. */
+  private CoalescedWriteBatch pendingWriteBatch;
 
   Repo(RepoInfo repoInfo, Context ctx, FirebaseDatabase database) {
     this.repoInfo = repoInfo;
@@ -92,6 +95,7 @@ public class Repo implements PersistentConnection.Delegate {
     dataLogger = this.ctx.getLogger("DataOperation");
 
     this.eventRaiser = new EventRaiser(this.ctx);
+    this.writeCoalescingWindowMillis = ctx.getWriteCoalescingWindowMillis();
 
     // Kick off any expensive additional initialization
     scheduleNow(
@@ -469,23 +473,28 @@ public class Repo implements PersistentConnection.Delegate {
         ServerValues.resolveDeferredValueSnapshot(newValueUnresolved, existing, serverValues);
 
     final long writeId = this.getNextWriteId();
+    boolean coalesce = writeCoalescingWindowMillis > 0;
     List<? extends Event> events =
         this.serverSyncTree.applyUserOverwrite(
-            path, newValueUnresolved, newValue, writeId, /*visible=*/ true, /*persist=*/ true);
+            path, newValueUnresolved, newValue, writeId, /*visible=*/ true, /*persist=*/ !coalesce);
     this.postEvents(events);
 
-    connection.put(
-        path.asList(),
-        newValueUnresolved.getValue(true),
-        new RequestResultCallback() {
-          @Override
-          public void onRequestResult(String optErrorCode, String optErrorMessage) {
-            DatabaseError error = fromErrorCode(optErrorCode, optErrorMessage);
-            warnIfWriteFailed("setValue", path, error);
-            ackWriteAndRerunTransactions(writeId, path, error);
-            callOnComplete(onComplete, error, path);
-          }
-        });
+    if (coalesce) {
+      batchForWrite(path).addOverwrite(writeId, path, newValueUnresolved, onComplete);
+    } else {
+      connection.put(
+          path.asList(),
+          newValueUnresolved.getValue(true),
+          new RequestResultCallback() {
+            @Override
+            public void onRequestResult(String optErrorCode, String optErrorMessage) {
+              DatabaseError error = fromErrorCode(optErrorCode, optErrorMessage);
+              warnIfWriteFailed("setValue", path, error);
+              ackWriteAndRerunTransactions(writeId, path, error);
+              callOnComplete(onComplete, error, path);
+            }
+          });
+    }
 
     Path affectedPath = abortTransactions(path, DatabaseError.OVERRIDDEN_BY_SET);
     this.rerunTransactions(affectedPath);
@@ -589,24 +598,30 @@ public class Repo implements PersistentConnection.Delegate {
         ServerValues.resolveDeferredValueMerge(updates, serverSyncTree, path, serverValues);
 
     final long writeId = this.getNextWriteId();
+    boolean coalesce = writeCoalescingWindowMillis > 0;
     List<? extends Event> events =
-        this.serverSyncTree.applyUserMerge(path, updates, resolved, writeId, /*persist=*/ true);
+        this.serverSyncTree.applyUserMerge(
+            path, updates, resolved, writeId, /*persist=*/ !coalesce);
     this.postEvents(events);
 
-    // TODO: DatabaseReference.CompleteionListener isn't really appropriate (the DatabaseReference
-    // param is meaningless).
-    connection.merge(
-        path.asList(),
-        unParsedUpdates,
-        new RequestResultCallback() {
-          @Override
-          public void onRequestResult(String optErrorCode, String optErrorMessage) {
-            DatabaseError error = fromErrorCode(optErrorCode, optErrorMessage);
-            warnIfWriteFailed("updateChildren", path, error);
-            ackWriteAndRerunTransactions(writeId, path, error);
-            callOnComplete(onComplete, error, path);
-          }
-        });
+    if (coalesce) {
+      batchForWrite(path).addMerge(writeId, path, updates, onComplete);
+    } else {
+      // TODO: DatabaseReference.CompleteionListener isn't really appropriate (the DatabaseReference
+      // param is meaningless).
+      connection.merge(
+          path.asList(),
+          unParsedUpdates,
+          new RequestResultCallback() {
+            @Override
+            public void onRequestResult(String optErrorCode, String optErrorMessage) {
+              DatabaseError error = fromErrorCode(optErrorCode, optErrorMessage);
+              warnIfWriteFailed("updateChildren", path, error);
+              ackWriteAndRerunTransactions(writeId, path, error);
+              callOnComplete(onComplete, error, path);
+            }
+          });
+    }
 
     for (Entry<Path, Node> update : updates) {
       Path pathFromRoot = path.child(update.getKey());
@@ -615,10 +630,76 @@ public class Repo implements PersistentConnection.Delegate {
     }
   }
 
+  /**
+   * Returns the batch of the current write coalescing window that a write to the given path joins.
+   * Sends the current batch first if the write doesn't overlap it.
+   */
+  private CoalescedWriteBatch batchForWrite(Path path) {
+    if (pendingWriteBatch != null && !pendingWriteBatch.overlaps(path)) {
+      sendCoalescedWrites();
+    }
+    if (pendingWriteBatch == null) {
+      final CoalescedWriteBatch batch = new CoalescedWriteBatch(path);
+      pendingWriteBatch = batch;
+      scheduleDelayed(
+          new Runnable() {
+            @Override
+            public void run() {
+              if (pendingWriteBatch == batch) {
+                sendCoalescedWrites();
+              }
+            }
+          },
+          writeCoalescingWindowMillis);
+    }
+    return pendingWriteBatch;
+  }
+
+  /**
+   * Persists the writes of the current write coalescing window as one write and sends them as one
+   * request. Acks and completes every write of the batch once the server responds. A rejected
+   * request fails and reverts all of them, because resending the writes one at a time could order
+   * them after writes that were sent later.
+   */
+  private void sendCoalescedWrites() {
+    final CoalescedWriteBatch batch = pendingWriteBatch;
+    if (batch == null) {
+      return;
+    }
+    pendingWriteBatch = null;
+    if (operationLogger.logsDebug()) {
+      operationLogger.debug(
+          "Sending " + batch.getWrites().size() + " coalesced writes at " + batch.getPath());
+    }
+
+    CompoundWrite write = batch.getWrite();
+    serverSyncTree.persistCombinedUserWrite(batch.getPath(), write, batch.getLastWriteId());
+    RequestResultCallback onComplete =
+        new RequestResultCallback() {
+          @Override
+          public void onRequestResult(String optErrorCode, String optErrorMessage) {
+            DatabaseError error = fromErrorCode(optErrorCode, optErrorMessage);
+            for (CoalescedWriteBatch.PendingWrite pendingWrite : batch.getWrites()) {
+              warnIfWriteFailed(pendingWrite.writeType, pendingWrite.path, error);
+              ackWriteAndRerunTransactions(pendingWrite.writeId, pendingWrite.path, error);
+              callOnComplete(pendingWrite.onComplete, error, pendingWrite.path);
+            }
+          }
+        };
+    Node overwrite = write.rootWrite();
+    if (overwrite != null) {
+      connection.put(batch.getPath().asList(), overwrite.getValue(true), onComplete);
+    } else {
+      connection.merge(batch.getPath().asList(), write.getValue(true), onComplete);
+    }
+  }
+
   public void purgeOutstandingWrites() {
     if (operationLogger.logsDebug()) {
       operationLogger.debug("Purging writes");
     }
+    // Hand pending coalesced writes to the connection, so that they are canceled like other writes.
+    sendCoalescedWrites();
     List<? extends Event> events = serverSyncTree.removeAllWrites();
     postEvents(events);
     // Abort any transactions
@@ -1074,7 +1155,8 @@ public class Repo implements PersistentConnection.Delegate {
 
     final Repo repo = this;
 
-    // Send the put.
+    // Send the put after any coalesced writes, so that the server sees the writes in order.
+    sendCoalescedWrites();
     connection.compareAndPut(
         path.asList(),
         dataToSend,
@@ -227,6 +227,28 @@ public class SyncTree {
         });
   }
 
+  /**
+   * Persists a write that combines user writes which were applied without persisting them. It is
+   * persisted as an overwrite of the path if the combined write has a root write, and as a merge
+   * otherwise. Acking the write with the given id removes it again.
+   */
+  public void persistCombinedUserWrite(
+      final Path path, final CompoundWrite unresolvedWrite, final long writeId) {
+    persistenceManager.runInTransaction(
+        new Callable<Void>() {
+          @Override
+          public Void call() {
+            Node overwrite = unresolvedWrite.rootWrite();
+            if (overwrite != null) {
+              persistenceManager.saveUserOverwrite(path, overwrite, writeId);
+            } else {
+              persistenceManager.saveUserMerge(path, unresolvedWrite, writeId);
+            }
+            return null;
+          }
+        });
+  }
+
   /**
    * Acknowledge a pending user write that was previously registered with applyUserOverwrite() or
    * applyUserMerge().
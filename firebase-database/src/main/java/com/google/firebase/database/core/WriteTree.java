@@ -26,6 +26,7 @@ import com.google.firebase.database.snapshot.Node;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Defines a single user-initiated write operation. May be the result of a set(), transaction(), or
@@ -41,11 +42,14 @@ public class WriteTree {
   private CompoundWrite visibleWrites;
 
   /**
-   * A list of all pending writes, regardless of visibility and shadowed-ness. Used to calculate
-   * arbitrary sets of the changed data, such as hidden writes (from transactions) or changes with
-   * certain writes excluded (also used by transactions).
+   * All pending writes by their write ID, regardless of visibility and shadowed-ness. Used to
+   * calculate arbitrary sets of the changed data, such as hidden writes (from transactions) or
+   * changes with certain writes excluded (also used by transactions).
    */
-  private List<UserWriteRecord> allWrites;
+  private final TreeMap<Long, UserWriteRecord> allWrites;
+
+  /** The pending writes by path, so that only the writes overlapping a path need to be visited. */
+  private final PendingWriteIndex writeIndex;
 
   private Long lastWriteId;
 
@@ -56,7 +60,8 @@ public class WriteTree {
    */
   public WriteTree() {
     this.visibleWrites = CompoundWrite.emptyWrite();
-    this.allWrites = new ArrayList<UserWriteRecord>();
+    this.allWrites = new TreeMap<Long, UserWriteRecord>();
+    this.writeIndex = new PendingWriteIndex();
     this.lastWriteId = -1L;
   }
 
@@ -70,7 +75,7 @@ public class WriteTree {
   /** Record a new overwrite from user code. */
   public void addOverwrite(Path path, Node snap, Long writeId, boolean visible) {
     hardAssert(writeId > this.lastWriteId); // Stacking an older write on top of newer ones
-    this.allWrites.add(new UserWriteRecord(writeId, path, snap, visible));
+    this.addRecord(new UserWriteRecord(writeId, path, snap, visible));
     if (visible) {
       this.visibleWrites = this.visibleWrites.addWrite(path, snap);
     }
@@ -80,25 +85,26 @@ public class WriteTree {
   /** Record a new merge from user code. */
   public void addMerge(Path path, CompoundWrite changedChildren, Long writeId) {
     hardAssert(writeId > this.lastWriteId); // Stacking an older write on top of newer ones
-    this.allWrites.add(new UserWriteRecord(writeId, path, changedChildren));
+    this.addRecord(new UserWriteRecord(writeId, path, changedChildren));
     this.visibleWrites = this.visibleWrites.addWrites(path, changedChildren);
     this.lastWriteId = writeId;
   }
 
+  private void addRecord(UserWriteRecord record) {
+    this.allWrites.put(record.getWriteId(), record);
+    this.writeIndex.addWrite(record);
+  }
+
   public UserWriteRecord getWrite(long writeId) {
-    for (UserWriteRecord record : this.allWrites) {
-      if (record.getWriteId() == writeId) {
-        return record;
-      }
-    }
-    return null;
+    return this.allWrites.get(writeId);
   }
 
   public List<UserWriteRecord> purgeAllWrites() {
-    List<UserWriteRecord> purgedWrites = new ArrayList<UserWriteRecord>(this.allWrites);
+    List<UserWriteRecord> purgedWrites = new ArrayList<UserWriteRecord>(this.allWrites.values());
     // Reset everything
     this.visibleWrites = CompoundWrite.emptyWrite();
-    this.allWrites = new ArrayList<UserWriteRecord>();
+    this.allWrites.clear();
+    this.writeIndex.clear();
     return purgedWrites;
   }
 
@@ -118,38 +124,28 @@ public class WriteTree {
     // fb.core.util.assert(validClear, "Either we don't have this write, or it's the first one in
     //      the queue");
 
-    // TODO: maybe use hashmap
-    UserWriteRecord writeToRemove = null;
-    int idx = 0;
-    for (UserWriteRecord record : this.allWrites) {
-      if (record.getWriteId() == writeId) {
-        writeToRemove = record;
-        break;
-      }
-      idx++;
-    }
+    UserWriteRecord writeToRemove = this.allWrites.remove(writeId);
     hardAssert(writeToRemove != null, "removeWrite called with nonexistent writeId");
+    this.writeIndex.removeWrite(writeToRemove);
 
-    this.allWrites.remove(writeToRemove);
-
+    Path removedPath = writeToRemove.getPath();
     boolean removedWriteWasVisible = writeToRemove.isVisible();
-    boolean removedWriteOverlapsWithOtherWrites = false;
-    int i = this.allWrites.size() - 1;
-
-    while (removedWriteWasVisible && i >= 0) {
-      UserWriteRecord currentWrite = this.allWrites.get(i);
-      if (currentWrite.isVisible()) {
-        if (i >= idx && this.recordContainsPath(currentWrite, writeToRemove.getPath())) {
+    if (removedWriteWasVisible) {
+      // Only writes at or above the removed path can shadow it.
+      for (UserWriteRecord currentWrite : this.writeIndex.getWritesAtOrAbove(removedPath)) {
+        if (currentWrite.getWriteId() > writeId
+            && currentWrite.isVisible()
+            && this.recordContainsPath(currentWrite, removedPath)) {
           // The removed write was completely shadowed by a subsequent write.
           removedWriteWasVisible = false;
-        } else if (writeToRemove.getPath().contains(currentWrite.getPath())) {
-          // Either we're covering some writes or they're covering part of us (depending on which
-          // came first).
-          removedWriteOverlapsWithOtherWrites = true;
+          break;
         }
       }
-      i--;
     }
+    // Either we're covering some writes or they're covering part of us (depending on which came
+    // first).
+    boolean removedWriteOverlapsWithOtherWrites =
+        removedWriteWasVisible && this.writeIndex.hasVisibleWriteAtOrBelow(removedPath);
 
     if (!removedWriteWasVisible) {
       return false;
@@ -240,7 +236,8 @@ public class WriteTree {
                 }
               };
           Node layeredCache;
-          CompoundWrite mergeAtPath = WriteTree.layerTree(this.allWrites, filter, treePath);
+          CompoundWrite mergeAtPath =
+              WriteTree.layerTree(this.writeIndex.getOverlappingWrites(treePath), filter, treePath);
           layeredCache = completeServerCache != null ? completeServerCache : EmptyNode.Empty();
           return mergeAtPath.apply(layeredCache);
         }
@@ -400,9 +397,9 @@ public class WriteTree {
   /** Re-layer the writes and merges into a tree so we can efficiently calculate event snapshots */
   private void resetTree() {
     this.visibleWrites =
-        WriteTree.layerTree(this.allWrites, WriteTree.DEFAULT_FILTER, Path.getEmptyPath());
+        WriteTree.layerTree(this.allWrites.values(), WriteTree.DEFAULT_FILTER, Path.getEmptyPath());
     if (this.allWrites.size() > 0) {
-      this.lastWriteId = this.allWrites.get(this.allWrites.size() - 1).getWriteId();
+      this.lastWriteId = this.allWrites.lastKey();
     } else {
       this.lastWriteId = -1L;
     }
@@ -422,7 +419,7 @@ public class WriteTree {
    * construct a merge at that path.
    */
   private static CompoundWrite layerTree(
-      List<UserWriteRecord> writes, Predicate<UserWriteRecord> filter, Path treeRoot) {
+      Iterable<UserWriteRecord> writes, Predicate<UserWriteRecord> filter, Path treeRoot) {
     CompoundWrite compoundWrite = CompoundWrite.emptyWrite();
     for (UserWriteRecord write : writes) {
       // Theory, a later set will either:
@@ -19,6 +19,7 @@ import static com.google.firebase.database.core.utilities.Utilities.hardAssert;
 import com.google.firebase.database.core.CompoundWrite;
 import com.google.firebase.database.core.Context;
 import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.RunLoop;
 import com.google.firebase.database.core.UserWriteRecord;
 import com.google.firebase.database.core.utilities.Clock;
 import com.google.firebase.database.core.utilities.DefaultClock;
@@ -36,12 +37,22 @@ import java.util.concurrent.Callable;
 
 public class DefaultPersistenceManager implements PersistenceManager {
 
+  // Limits on the work done by every step of incremental pruning, to keep the run loop responsive.
+  private static final long MAX_QUERIES_TO_PRUNE_PER_STEP = 10;
+  private static final long MAX_BYTES_TO_RECLAIM_PER_STEP = 256 * 1024;
+
   private final PersistenceStorageEngine storageLayer;
   private final TrackedQueryManager trackedQueryManager;
   private final LogWrapper logger;
   private final CachePolicy cachePolicy;
   private long serverCacheUpdatesSinceLastPruneCheck = 0;
 
+  /** The run loop to prune on in small steps, or null to prune right after server updates. */
+  private final RunLoop pruneRunLoop;
+
+  private boolean pruneStepScheduled = false;
+  private boolean reclaimStepScheduled = false;
+
   public DefaultPersistenceManager(
       Context ctx, PersistenceStorageEngine engine, CachePolicy cachePolicy) {
     this(ctx, engine, cachePolicy, new DefaultClock());
@@ -49,10 +60,30 @@ public class DefaultPersistenceManager implements PersistenceManager {
 
   public DefaultPersistenceManager(
       Context ctx, PersistenceStorageEngine engine, CachePolicy cachePolicy, Clock clock) {
+    this(ctx, engine, cachePolicy, clock, null);
+  }
+
+  /**
+   * Creates a persistence manager that prunes the cache in small steps that are interleaved with
+   * other work on the given run loop, so that pruning doesn't hold up the server update that
+   * triggered it. The steps still run on the run loop, not on a separate thread.
+   *
+   * <p>The cache is measured by {@link PersistenceStorageEngine#storageSizeInBytes}, which accounts
+   * for the actual size of the stored rows, including tracked queries and keys. While the cache is
+   * over budget, every step prunes a few of the least recently used queries in its own
+   * transaction. Once pruning is done, the freed storage is given back in small steps.
+   */
+  public DefaultPersistenceManager(
+      Context ctx,
+      PersistenceStorageEngine engine,
+      CachePolicy cachePolicy,
+      Clock clock,
+      RunLoop pruneRunLoop) {
     this.storageLayer = engine;
     this.logger = ctx.getLogger("Persistence");
     this.trackedQueryManager = new TrackedQueryManager(storageLayer, logger, clock);
     this.cachePolicy = cachePolicy;
+    this.pruneRunLoop = pruneRunLoop;
   }
 
   /**
@@ -254,6 +285,10 @@ public class DefaultPersistenceManager implements PersistenceManager {
         logger.debug("Reached prune check threshold.");
       }
       serverCacheUpdatesSinceLastPruneCheck = 0;
+      if (pruneRunLoop != null) {
+        schedulePruneStep();
+        return;
+      }
       boolean canPrune = true;
       long cacheSize = storageLayer.serverCacheEstimatedSizeInBytes();
       if (logger.logsDebug()) {
@@ -274,4 +309,71 @@ public class DefaultPersistenceManager implements PersistenceManager {
       }
     }
   }
+
+  private void schedulePruneStep() {
+    if (pruneStepScheduled) {
+      return;
+    }
+    pruneStepScheduled = true;
+    pruneRunLoop.scheduleNow(
+        new Runnable() {
+          @Override
+          public void run() {
+            pruneStepScheduled = false;
+            boolean prunedAnything =
+                runInTransaction(
+                    new Callable<Boolean>() {
+                      @Override
+                      public Boolean call() {
+                        return pruneStep();
+                      }
+                    });
+            if (prunedAnything) {
+              // Let other work run before checking whether the cache is still over budget.
+              schedulePruneStep();
+            } else {
+              scheduleReclaimStep();
+            }
+          }
+        });
+  }
+
+  /**
+   * Prunes a few of the least recently used queries if the cache is over budget.
+   *
+   * @return Whether anything was pruned
+   */
+  private boolean pruneStep() {
+    long cacheSize = storageLayer.storageSizeInBytes();
+    if (logger.logsDebug()) {
+      logger.debug("Cache size: " + cacheSize);
+    }
+    if (!cachePolicy.shouldPrune(cacheSize, trackedQueryManager.countOfPrunableQueries())) {
+      return false;
+    }
+    PruneForest pruneForest =
+        trackedQueryManager.pruneOldQueries(cachePolicy, MAX_QUERIES_TO_PRUNE_PER_STEP);
+    if (!pruneForest.prunesAnything()) {
+      return false;
+    }
+    storageLayer.pruneCache(Path.getEmptyPath(), pruneForest);
+    return true;
+  }
+
+  private void scheduleReclaimStep() {
+    if (reclaimStepScheduled) {
+      return;
+    }
+    reclaimStepScheduled = true;
+    pruneRunLoop.scheduleNow(
+        new Runnable() {
+          @Override
+          public void run() {
+            reclaimStepScheduled = false;
+            if (storageLayer.reclaimFreeSpace(MAX_BYTES_TO_RECLAIM_PER_STEP)) {
+              scheduleReclaimStep();
+            }
+          }
+        });
+  }
 }
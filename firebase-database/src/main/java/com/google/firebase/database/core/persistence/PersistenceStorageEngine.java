@@ -99,6 +99,22 @@ public interface PersistenceStorageEngine {
 
   public long serverCacheEstimatedSizeInBytes();
 
+  /**
+   * Returns the number of bytes that the cache takes up in storage, including the storage overhead
+   * of its rows and of tracked queries and keys, but not the free space that {@link
+   * #reclaimFreeSpace} can give back. Pending writes are not counted, since they can't be pruned.
+   */
+  public long storageSizeInBytes();
+
+  /**
+   * Gives back up to the given number of bytes of free storage space, such as the space of pruned
+   * rows. Does not need to be called within a transaction.
+   *
+   * @param maxBytes The maximum number of bytes to give back
+   * @return Whether there is free space left that can be given back
+   */
+  public boolean reclaimFreeSpace(long maxBytes);
+
   public void saveTrackedQuery(TrackedQuery trackedQuery);
 
   public void deleteTrackedQuery(long trackedQueryId);
@@ -210,8 +210,17 @@ public class TrackedQueryManager {
   }
 
   public PruneForest pruneOldQueries(CachePolicy cachePolicy) {
+    return pruneOldQueries(cachePolicy, Long.MAX_VALUE);
+  }
+
+  /**
+   * Like {@link #pruneOldQueries(CachePolicy)}, but prunes at most the given number of queries, so
+   * that pruning can be spread over several small transactions.
+   */
+  public PruneForest pruneOldQueries(CachePolicy cachePolicy, long maxCountToPrune) {
     List<TrackedQuery> prunable = getQueriesMatching(IS_QUERY_PRUNABLE_PREDICATE);
-    long countToPrune = calculateCountToPrune(cachePolicy, prunable.size());
+    long countToPrune =
+        Math.min(calculateCountToPrune(cachePolicy, prunable.size()), maxCountToPrune);
     PruneForest forest = new PruneForest();
 
     if (logger.logsDebug()) {
@@ -122,6 +122,18 @@ public class Utilities {
     }
   }
 
+  /** Returns the digest of {@code length} bytes of {@code input} starting at {@code offset}. */
+  public static String sha1HexDigest(byte[] input, int offset, int length) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-1");
+      md.update(input, offset, length);
+      byte[] bytes = md.digest();
+      return Base64.encodeToString(bytes, Base64.NO_WRAP);
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Missing SHA-1 MessageDigest provider.", e);
+    }
+  }
+
   public static String stringHashV2Representation(String value) {
     String escaped = value;
     if (value.indexOf('\\') != -1) {
@@ -30,6 +30,11 @@ public class CancelEvent implements Event {
     this.error = error;
   }
 
+  @Override
+  public EventRegistration getEventRegistration() {
+    return this.eventRegistration;
+  }
+
   @Override
   public Path getPath() {
     return this.path;
@@ -36,6 +36,11 @@ public class DataEvent implements Event {
     this.prevName = prevName;
   }
 
+  @Override
+  public EventRegistration getEventRegistration() {
+    return this.eventRegistration;
+  }
+
   @Override
   public Path getPath() {
     Path path = this.snapshot.getRef().getPath();
@@ -15,10 +15,14 @@
 package com.google.firebase.database.core.view;
 
 import com.google.firebase.database.core.Context;
+import com.google.firebase.database.core.EventRegistration;
 import com.google.firebase.database.core.EventTarget;
+import com.google.firebase.database.core.ParallelEventTarget;
 import com.google.firebase.database.logging.LogWrapper;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Each view owns an instance of this class, and it is used to send events to the event target
@@ -42,19 +46,39 @@ public class EventRaiser {
     if (logger.logsDebug()) {
       logger.debug("Raising " + events.size() + " event(s)");
     }
-    // TODO: Use an immutable data structure for events so we don't have to clone to be safe.
-    final ArrayList<Event> eventsClone = new ArrayList<Event>(events);
-    eventTarget.postEvent(
-        new Runnable() {
-          @Override
-          public void run() {
-            for (Event event : eventsClone) {
-              if (logger.logsDebug()) {
-                logger.debug("Raising " + event.toString());
-              }
-              event.fire();
-            }
+    if (eventTarget instanceof ParallelEventTarget) {
+      // Keep the events of each registration in order, but let registrations run in parallel.
+      Map<EventRegistration, List<Event>> eventsByRegistration =
+          new LinkedHashMap<EventRegistration, List<Event>>();
+      for (Event event : events) {
+        List<Event> registrationEvents = eventsByRegistration.get(event.getEventRegistration());
+        if (registrationEvents == null) {
+          registrationEvents = new ArrayList<Event>();
+          eventsByRegistration.put(event.getEventRegistration(), registrationEvents);
+        }
+        registrationEvents.add(event);
+      }
+      ParallelEventTarget parallelEventTarget = (ParallelEventTarget) eventTarget;
+      for (Map.Entry<EventRegistration, List<Event>> entry : eventsByRegistration.entrySet()) {
+        parallelEventTarget.postEvent(entry.getKey(), newFireEventsRunnable(entry.getValue()));
+      }
+    } else {
+      // TODO: Use an immutable data structure for events so we don't have to clone to be safe.
+      eventTarget.postEvent(newFireEventsRunnable(new ArrayList<Event>(events)));
+    }
+  }
+
+  private Runnable newFireEventsRunnable(final List<Event> events) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        for (Event event : events) {
+          if (logger.logsDebug()) {
+            logger.debug("Raising " + event.toString());
           }
-        });
+          event.fire();
+        }
+      }
+    };
   }
 }
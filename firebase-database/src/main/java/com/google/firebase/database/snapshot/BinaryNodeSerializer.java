@@ -0,0 +1,372 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.snapshot;
+
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.database.core.CompoundWrite;
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.util.JsonMapper;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary serialization of {@link Node} trees and merges, used by the persistence layer
+ * instead of JSON.
+ *
+ * <p>Every serialized value starts with a zero byte, which never starts a UTF-8 JSON document, so
+ * that callers can tell both formats apart with {@link #isBinary}, followed by the version of the
+ * format. Values with a version that this class doesn't know are rejected. Nodes are written as a
+ * type tag followed by their priority and value. Children are written in key order, with each key
+ * written in full the first time it is used and as a reference to the earlier occurrence
+ * afterwards. Lengths and counts are written as varints.
+ *
+ * <p>Deserialization creates {@link ChildrenNode} and {@link LeafNode} instances directly, without
+ * going through the intermediate {@code Map<String, Object>} representation used for JSON.
+ */
+public final class BinaryNodeSerializer {
+  private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+  private static final byte MAGIC = 0;
+  private static final byte FORMAT_VERSION = 1;
+
+  private static final byte TYPE_EMPTY = 0;
+  private static final byte TYPE_CHILDREN = 1;
+  private static final byte TYPE_STRING = 2;
+  private static final byte TYPE_LONG = 3;
+  private static final byte TYPE_DOUBLE = 4;
+  private static final byte TYPE_TRUE = 5;
+  private static final byte TYPE_FALSE = 6;
+  private static final byte TYPE_DEFERRED_VALUE = 7;
+  private static final byte TYPE_MERGE = 8;
+
+  /** Key reference that is followed by a key that has not been written before. */
+  private static final int NEW_KEY = 0;
+
+  private BinaryNodeSerializer() {}
+
+  /** Returns whether {@code bytes} were produced by this serializer rather than being JSON. */
+  public static boolean isBinary(byte[] bytes) {
+    return bytes.length > 0 && bytes[0] == MAGIC;
+  }
+
+  public static byte[] serializeNode(Node node) {
+    Writer writer = new Writer();
+    writer.writeNode(node);
+    return writer.toByteArray();
+  }
+
+  public static Node deserializeNode(byte[] bytes) {
+    Reader reader = new Reader(bytes);
+    Node node = reader.readNode();
+    reader.checkFullyConsumed();
+    return node;
+  }
+
+  public static byte[] serializeMerge(CompoundWrite merge) {
+    List<Map.Entry<Path, Node>> writes = new ArrayList<>();
+    for (Map.Entry<Path, Node> write : merge) {
+      writes.add(write);
+    }
+
+    Writer writer = new Writer();
+    writer.writeByte(TYPE_MERGE);
+    writer.writeVarint(writes.size());
+    for (Map.Entry<Path, Node> write : writes) {
+      writer.writeString(write.getKey().wireFormat());
+      writer.writeNode(write.getValue());
+    }
+    return writer.toByteArray();
+  }
+
+  public static CompoundWrite deserializeMerge(byte[] bytes) {
+    Reader reader = new Reader(bytes);
+    reader.expectType(TYPE_MERGE);
+    int count = reader.readVarint();
+    Map<Path, Node> writes = new HashMap<>(count);
+    for (int i = 0; i < count; i++) {
+      Path path = new Path(reader.readString());
+      writes.put(path, reader.readNode());
+    }
+    reader.checkFullyConsumed();
+    return CompoundWrite.fromPathMerge(writes);
+  }
+
+  private static class Writer {
+    private final Map<ChildKey, Integer> keyIds = new HashMap<>();
+    private byte[] buffer = new byte[256];
+    private int position;
+
+    Writer() {
+      writeByte(MAGIC);
+      writeByte(FORMAT_VERSION);
+    }
+
+    void writeNode(Node node) {
+      if (node.isEmpty()) {
+        writeByte(TYPE_EMPTY);
+      } else if (node instanceof ChildrenNode) {
+        writeByte(TYPE_CHILDREN);
+        writeVarint(node.getChildCount());
+        for (NamedNode child : node) {
+          writeKey(child.getName());
+          writeNode(child.getNode());
+        }
+        writeNode(node.getPriority());
+      } else if (node instanceof StringNode) {
+        writeByte(TYPE_STRING);
+        writeNode(node.getPriority());
+        writeString((String) node.getValue());
+      } else if (node instanceof LongNode) {
+        writeByte(TYPE_LONG);
+        writeNode(node.getPriority());
+        long value = (Long) node.getValue();
+        // Zig-zag encoding keeps small negative numbers short.
+        writeVarint((value << 1) ^ (value >> 63));
+      } else if (node instanceof DoubleNode) {
+        writeByte(TYPE_DOUBLE);
+        writeNode(node.getPriority());
+        writeFixed64(Double.doubleToLongBits((Double) node.getValue()));
+      } else if (node instanceof BooleanNode) {
+        writeByte((Boolean) node.getValue() ? TYPE_TRUE : TYPE_FALSE);
+        writeNode(node.getPriority());
+      } else if (node instanceof DeferredValueNode) {
+        writeByte(TYPE_DEFERRED_VALUE);
+        writeNode(node.getPriority());
+        try {
+          writeString(JsonMapper.serializeJsonValue(node.getValue()));
+        } catch (IOException e) {
+          throw new DatabaseException("Failed to serialize deferred value", e);
+        }
+      } else {
+        throw new DatabaseException("Unknown node type: " + node.getClass());
+      }
+    }
+
+    void writeKey(ChildKey key) {
+      Integer id = keyIds.get(key);
+      if (id != null) {
+        writeVarint(id);
+      } else {
+        keyIds.put(key, keyIds.size() + 1);
+        writeVarint(NEW_KEY);
+        writeString(key.asString());
+      }
+    }
+
+    void writeString(String value) {
+      byte[] bytes = value.getBytes(UTF8_CHARSET);
+      writeVarint(bytes.length);
+      ensureCapacity(bytes.length);
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+
+    void writeVarint(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      buffer[position++] = (byte) value;
+    }
+
+    void writeFixed64(long value) {
+      ensureCapacity(8);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer[position++] = (byte) (value >>> shift);
+      }
+    }
+
+    void writeByte(byte value) {
+      ensureCapacity(1);
+      buffer[position++] = value;
+    }
+
+    private void ensureCapacity(int additionalBytes) {
+      if (position + additionalBytes > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + additionalBytes));
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, position);
+    }
+  }
+
+  private static class Reader {
+    private final List<ChildKey> keys = new ArrayList<>();
+    private final byte[] bytes;
+    private int position;
+
+    Reader(byte[] bytes) {
+      this.bytes = bytes;
+      if (readByte() != MAGIC) {
+        throw new DatabaseException("Not a binary serialized node");
+      }
+      byte version = readByte();
+      if (version != FORMAT_VERSION) {
+        throw new DatabaseException("Unsupported node format version: " + version);
+      }
+    }
+
+    Node readNode() {
+      byte type = readByte();
+      switch (type) {
+        case TYPE_EMPTY:
+          return EmptyNode.Empty();
+        case TYPE_CHILDREN:
+          return readChildrenNode();
+        case TYPE_STRING:
+          {
+            Node priority = readNode();
+            return new StringNode(readString(), priority);
+          }
+        case TYPE_LONG:
+          {
+            Node priority = readNode();
+            long zigZag = readVarint64();
+            return new LongNode((zigZag >>> 1) ^ -(zigZag & 1), priority);
+          }
+        case TYPE_DOUBLE:
+          {
+            Node priority = readNode();
+            return new DoubleNode(Double.longBitsToDouble(readFixed64()), priority);
+          }
+        case TYPE_TRUE:
+          return new BooleanNode(true, readNode());
+        case TYPE_FALSE:
+          return new BooleanNode(false, readNode());
+        case TYPE_DEFERRED_VALUE:
+          {
+            Node priority = readNode();
+            return readDeferredValueNode(priority);
+          }
+        default:
+          throw new DatabaseException("Unknown node type tag: " + type);
+      }
+    }
+
+    private Node readChildrenNode() {
+      int childCount = readVarint();
+      List<Map.Entry<ChildKey, Node>> children = new ArrayList<>(childCount);
+      for (int i = 0; i < childCount; i++) {
+        ChildKey key = readKey();
+        children.add(new AbstractMap.SimpleImmutableEntry<>(key, readNode()));
+      }
+      Node priority = readNode();
+      // Children are written in key order, so the map is built without sorting them again.
+      ImmutableSortedMap<ChildKey, Node> childSet;
+      try {
+        childSet =
+            ImmutableSortedMap.Builder.fromSortedIterator(
+                children.iterator(), ChildrenNode.NAME_ONLY_COMPARATOR);
+      } catch (IllegalArgumentException e) {
+        throw new DatabaseException("Children of serialized node are not sorted by key", e);
+      }
+      return new ChildrenNode(childSet, priority);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node readDeferredValueNode(Node priority) {
+      try {
+        Map<Object, Object> value = (Map<Object, Object>) JsonMapper.parseJsonValue(readString());
+        return new DeferredValueNode(value, priority);
+      } catch (IOException e) {
+        throw new DatabaseException("Failed to deserialize deferred value", e);
+      }
+    }
+
+    private ChildKey readKey() {
+      int id = readVarint();
+      if (id == NEW_KEY) {
+        ChildKey key = ChildKey.fromString(readString());
+        keys.add(key);
+        return key;
+      }
+      if (id > keys.size()) {
+        throw new DatabaseException("Invalid key reference: " + id);
+      }
+      return keys.get(id - 1);
+    }
+
+    void expectType(byte type) {
+      byte actual = readByte();
+      if (actual != type) {
+        throw new DatabaseException("Expected type tag " + type + " but got " + actual);
+      }
+    }
+
+    String readString() {
+      int length = readVarint();
+      checkAvailable(length);
+      String value = new String(bytes, position, length, UTF8_CHARSET);
+      position += length;
+      return value;
+    }
+
+    int readVarint() {
+      long value = readVarint64();
+      if (value < 0 || value > Integer.MAX_VALUE) {
+        throw new DatabaseException("Varint out of range: " + value);
+      }
+      return (int) value;
+    }
+
+    long readVarint64() {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new DatabaseException("Malformed varint");
+    }
+
+    long readFixed64() {
+      checkAvailable(8);
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+        value = (value << 8) | (bytes[position++] & 0xFF);
+      }
+      return value;
+    }
+
+    byte readByte() {
+      checkAvailable(1);
+      return bytes[position++];
+    }
+
+    private void checkAvailable(int length) {
+      if (length < 0 || position + length > bytes.length) {
+        throw new DatabaseException("Unexpected end of serialized node");
+      }
+    }
+
+    void checkFullyConsumed() {
+      if (position != bytes.length) {
+        throw new DatabaseException("Unexpected trailing bytes in serialized node");
+      }
+    }
+  }
+}
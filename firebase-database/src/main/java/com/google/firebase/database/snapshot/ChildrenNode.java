@@ -42,6 +42,7 @@ public class ChildrenNode implements Node {
   private final Node priority;
 
   private String lazyHash = null;
+  private CompoundHash.RangeFragment lazyRangeFragment = null;
 
   private static class NamedNodeIterator implements Iterator<NamedNode> {
 
@@ -211,6 +212,13 @@ public class ChildrenNode implements Node {
     return this.lazyHash;
   }
 
+  CompoundHash.RangeFragment getRangeFragment() {
+    if (this.lazyRangeFragment == null) {
+      this.lazyRangeFragment = CompoundHash.computeRangeFragment(this);
+    }
+    return this.lazyRangeFragment;
+  }
+
   @Override
   public boolean isLeafNode() {
     return false;
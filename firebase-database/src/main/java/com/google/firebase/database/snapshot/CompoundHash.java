@@ -20,11 +20,26 @@ import com.google.firebase.database.core.Path;
 import com.google.firebase.database.core.utilities.NodeSizeEstimator;
 import com.google.firebase.database.core.utilities.Utilities;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Stack;
 
+/**
+ * Hashes a node in ranges, so that the server only needs to send the ranges that changed.
+ *
+ * <p>With the default split strategy, the hash input of small subtrees is memoized on the
+ * immutable {@link ChildrenNode} as a {@link RangeFragment}. A subtree whose fragment fits into the
+ * current range is hashed by appending its fragment, so only the large subtrees on the path to
+ * modified children are walked again when a mostly unchanged tree is hashed.
+ */
 public class CompoundHash {
+  /**
+   * The maximum length of a memoized fragment. It does not exceed the smallest split threshold,
+   * and it bounds the memory that the memoized fragments of nested subtrees use.
+   */
+  private static final int MAX_FRAGMENT_LENGTH = 512;
+
   private final List<Path> posts;
   private final List<String> hashes;
 
@@ -65,6 +80,11 @@ public class CompoundHash {
       this.splitThreshold = Math.max(512, (long) Math.sqrt(estimatedNodeSize * 100));
     }
 
+    /** Returns whether appending {@code length} chars to the current range won't split it. */
+    boolean fitsInRange(CompoundHashBuilder state, int length) {
+      return state.currentHashLength() + (long) length <= this.splitThreshold;
+    }
+
     @Override
     public boolean shouldSplit(CompoundHashBuilder state) {
       // Never split on priorities
@@ -74,10 +94,108 @@ public class CompoundHash {
     }
   }
 
+  /**
+   * The hash input of a subtree, which is all of its children with their keys. It is only valid
+   * for the node that it was computed for.
+   */
+  static final class RangeFragment {
+    static final RangeFragment TOO_LARGE = new RangeFragment(null, Integer.MAX_VALUE, null);
+
+    private final byte[] utf8;
+    private final int length;
+    /** The path of the last leaf of the subtree, relative to the subtree. */
+    private final Path lastLeafPath;
+
+    private RangeFragment(byte[] utf8, int length, Path lastLeafPath) {
+      this.utf8 = utf8;
+      this.length = length;
+      this.lastLeafPath = lastLeafPath;
+    }
+  }
+
+  /**
+   * Hash input encoded as UTF-8, like {@link Utilities#sha1HexDigest(String)} encodes it. Its
+   * length is counted in chars, like the length of the equivalent String.
+   */
+  private static final class HashInput {
+    private byte[] bytes = new byte[64];
+    private int size;
+    private int length;
+
+    int length() {
+      return length;
+    }
+
+    void reset() {
+      size = 0;
+      length = 0;
+    }
+
+    void append(char ascii) {
+      ensureCapacity(size + 1);
+      bytes[size++] = (byte) ascii;
+      length++;
+    }
+
+    void append(String value) {
+      ensureCapacity(size + value.length() * 3);
+      for (int i = 0; i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c < 0x80) {
+          bytes[size++] = (byte) c;
+        } else if (c < 0x800) {
+          bytes[size++] = (byte) (0xc0 | (c >> 6));
+          bytes[size++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isHighSurrogate(c)
+            && i + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, value.charAt(++i));
+          bytes[size++] = (byte) (0xf0 | (codePoint >> 18));
+          bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+          bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+          bytes[size++] = (byte) (0x80 | (codePoint & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+          // Unpaired surrogates are replaced, like String.getBytes() does.
+          bytes[size++] = (byte) '?';
+        } else {
+          bytes[size++] = (byte) (0xe0 | (c >> 12));
+          bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+          bytes[size++] = (byte) (0x80 | (c & 0x3f));
+        }
+      }
+      length += value.length();
+    }
+
+    void append(RangeFragment fragment) {
+      ensureCapacity(size + fragment.utf8.length);
+      System.arraycopy(fragment.utf8, 0, bytes, size, fragment.utf8.length);
+      size += fragment.utf8.length;
+      length += fragment.length;
+    }
+
+    void appendKey(ChildKey key) {
+      append(Utilities.stringHashV2Representation(key.asString()));
+    }
+
+    String sha1HexDigest() {
+      return Utilities.sha1HexDigest(bytes, 0, size);
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+      }
+    }
+  }
+
   static class CompoundHashBuilder {
-    // NOTE: We use the existence of this to know if we've started building a range (i.e.
-    // encountered a leaf node).
-    private StringBuilder optHashValueBuilder = null;
+    // NOTE: We use this to know if we've started building a range (i.e. encountered a leaf node).
+    private boolean buildingRange = false;
+    private final HashInput hashInput = new HashInput();
 
     // The current path as a stack. This is used in combination with currentPathDepth to
     // simultaneously store the last leaf node path. The depth is changed when descending and
@@ -101,11 +219,11 @@ public class CompoundHash {
     }
 
     public boolean buildingRange() {
-      return this.optHashValueBuilder != null;
+      return this.buildingRange;
     }
 
     public int currentHashLength() {
-      return this.optHashValueBuilder.length();
+      return this.hashInput.length();
     }
 
     public Path currentPath() {
@@ -122,45 +240,78 @@ public class CompoundHash {
 
     private void ensureRange() {
       if (!buildingRange()) {
-        optHashValueBuilder = new StringBuilder();
-        optHashValueBuilder.append("(");
-        for (ChildKey key : currentPath(currentPathDepth)) {
-          appendKey(optHashValueBuilder, key);
-          optHashValueBuilder.append(":(");
+        buildingRange = true;
+        hashInput.reset();
+        hashInput.append('(');
+        for (int i = 0; i < currentPathDepth; i++) {
+          hashInput.appendKey(currentPath.get(i));
+          hashInput.append(':');
+          hashInput.append('(');
         }
         needsComma = false;
       }
     }
 
-    private void appendKey(StringBuilder builder, ChildKey key) {
-      builder.append(Utilities.stringHashV2Representation(key.asString()));
-    }
-
     private void processLeaf(LeafNode<?> node) {
       ensureRange();
 
       lastLeafDepth = currentPathDepth;
-      optHashValueBuilder.append(node.getHashRepresentation(Node.HashVersion.V2));
+      hashInput.append(node.getHashRepresentation(Node.HashVersion.V2));
       needsComma = true;
       if (splitStrategy.shouldSplit(this)) {
         endRange();
       }
     }
 
-    private void startChild(ChildKey key) {
-      ensureRange();
+    /**
+     * Returns whether fragments are used to hash subtrees, which is the case if they can't contain
+     * a split.
+     */
+    private boolean usesFragments() {
+      return splitStrategy instanceof SimpleSizeSplitStrategy;
+    }
 
-      if (needsComma) {
-        optHashValueBuilder.append(",");
+    /**
+     * Appends the memoized fragment of a subtree if the subtree fits into the current range.
+     *
+     * @return false if the subtree needs to be walked instead
+     */
+    private boolean tryProcessFragment(RangeFragment fragment) {
+      ensureRange();
+      if (fragment == RangeFragment.TOO_LARGE
+          || !((SimpleSizeSplitStrategy) splitStrategy).fitsInRange(this, fragment.length)) {
+        return false;
+      }
+      hashInput.append(fragment);
+      // Remember the last leaf of the subtree, like walking it would have done.
+      int depth = currentPathDepth;
+      for (ChildKey key : fragment.lastLeafPath) {
+        setPathKey(depth++, key);
       }
-      appendKey(optHashValueBuilder, key);
-      optHashValueBuilder.append(":(");
+      lastLeafDepth = depth;
+      needsComma = true;
+      return true;
+    }
 
-      if (currentPathDepth == currentPath.size()) {
+    private void setPathKey(int depth, ChildKey key) {
+      if (depth == currentPath.size()) {
         currentPath.add(key);
       } else {
-        currentPath.set(currentPathDepth, key);
+        currentPath.set(depth, key);
       }
+    }
+
+    private void startChild(ChildKey key) {
+      ensureRange();
+
+      if (needsComma) {
+        hashInput.append(',');
+      }
+      hashInput.appendKey(key);
+      hashInput.append(':');
+      hashInput.append('(');
+
+      setPathKey(currentPathDepth, key);
       currentPathDepth++;
       needsComma = false;
     }
@@ -168,7 +319,7 @@ public class CompoundHash {
     private void endChild() {
       currentPathDepth--;
       if (buildingRange()) {
-        optHashValueBuilder.append(")");
+        hashInput.append(')');
       }
       needsComma = true;
     }
@@ -186,16 +337,16 @@ public class CompoundHash {
       hardAssert(buildingRange(), "Can't end range without starting a range!");
       // Add closing parenthesis for current depth
       for (int i = 0; i < currentPathDepth; i++) {
-        optHashValueBuilder.append(")");
+        hashInput.append(')');
       }
-      optHashValueBuilder.append(")");
+      hashInput.append(')');
 
       Path lastLeafPath = currentPath(lastLeafDepth);
-      String hash = Utilities.sha1HexDigest(optHashValueBuilder.toString());
+      String hash = hashInput.sha1HexDigest();
       currentHashes.add(hash);
       currentPaths.add(lastLeafPath);
 
-      optHashValueBuilder = null;
+      buildingRange = false;
     }
   }
 
@@ -224,6 +375,9 @@ public class CompoundHash {
         throw new IllegalStateException("Expected children node, but got: " + node);
       }
       ChildrenNode childrenNode = (ChildrenNode) node;
+      if (state.usesFragments() && state.tryProcessFragment(childrenNode.getRangeFragment())) {
+        return;
+      }
       ChildrenNode.ChildVisitor visitor =
           new ChildrenNode.ChildVisitor() {
             @Override
@@ -236,4 +390,54 @@ public class CompoundHash {
       childrenNode.forEachChild(visitor, /*includePriority=*/ true);
     }
   }
+
+  /**
+   * Computes the fragment of a children node from the fragments of its children, or returns {@link
+   * RangeFragment#TOO_LARGE} once it exceeds {@link #MAX_FRAGMENT_LENGTH}.
+   */
+  static RangeFragment computeRangeFragment(ChildrenNode node) {
+    final HashInput input = new HashInput();
+    final ChildKey[] lastKey = new ChildKey[1];
+    final Node[] lastChild = new Node[1];
+    final boolean[] tooLarge = new boolean[1];
+    node.forEachChild(
+        new ChildrenNode.ChildVisitor() {
+          @Override
+          public void visitChild(ChildKey name, Node child) {
+            if (tooLarge[0]) {
+              return;
+            }
+            if (lastKey[0] != null) {
+              input.append(',');
+            }
+            input.appendKey(name);
+            input.append(':');
+            input.append('(');
+            if (child.isLeafNode()) {
+              input.append(child.getHashRepresentation(Node.HashVersion.V2));
+            } else {
+              RangeFragment fragment = ((ChildrenNode) child).getRangeFragment();
+              if (fragment == RangeFragment.TOO_LARGE) {
+                tooLarge[0] = true;
+                return;
+              }
+              input.append(fragment);
+            }
+            input.append(')');
+            lastKey[0] = name;
+            lastChild[0] = child;
+            tooLarge[0] = input.length() > MAX_FRAGMENT_LENGTH;
+          }
+        },
+        /*includePriority=*/ true);
+    if (tooLarge[0] || lastKey[0] == null) {
+      return RangeFragment.TOO_LARGE;
+    }
+    Path lastLeafPath = new Path(lastKey[0]);
+    if (!lastChild[0].isLeafNode()) {
+      RangeFragment lastFragment = ((ChildrenNode) lastChild[0]).getRangeFragment();
+      lastLeafPath = lastLeafPath.child(lastFragment.lastLeafPath);
+    }
+    return new RangeFragment(input.toByteArray(), input.length(), lastLeafPath);
+  }
 }
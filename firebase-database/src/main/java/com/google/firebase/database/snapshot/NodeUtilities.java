@@ -17,6 +17,8 @@ package com.google.firebase.database.snapshot;
 import com.google.firebase.database.DatabaseException;
 import com.google.firebase.database.collection.ImmutableSortedMap;
 import com.google.firebase.database.core.ServerValues;
+import com.google.firebase.database.util.JsonStreamReader;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -29,6 +31,11 @@ public class NodeUtilities {
   }
 
   public static Node NodeFromJSON(Object value, Node priority) throws DatabaseException {
+    if (value instanceof Node) {
+      // Already decoded, for example by NodeFromJSONStream() while reading the wire protocol.
+      Node node = (Node) value;
+      return priority.isEmpty() ? node : node.updatePriority(priority);
+    }
     try {
       if (value instanceof Map) {
         Map mapValue = (Map) value;
@@ -107,6 +114,100 @@ public class NodeUtilities {
     }
   }
 
+  /**
+   * Reads the next JSON value from {@code reader} and decodes it into a {@link Node}.
+   *
+   * <p>This produces the same result as {@link #NodeFromJSON(Object)} on the parsed value, but
+   * builds the children directly from the stream instead of going through an intermediate {@code
+   * Map<String, Object>}.
+   */
+  public static Node NodeFromJSONStream(JsonStreamReader reader) throws IOException {
+    switch (reader.peek()) {
+      case BEGIN_OBJECT:
+        return objectNodeFromJSONStream(reader);
+      case BEGIN_ARRAY:
+        {
+          Map<ChildKey, Node> childData = new HashMap<ChildKey, Node>();
+          reader.beginArray();
+          for (int i = 0; reader.hasNext(); i++) {
+            Node childNode = NodeFromJSONStream(reader);
+            if (!childNode.isEmpty()) {
+              childData.put(ChildKey.fromString("" + i), childNode);
+            }
+          }
+          reader.endArray();
+          return childrenNodeFromData(childData, PriorityUtilities.NullPriority());
+        }
+      case STRING:
+        return new StringNode(reader.nextString(), PriorityUtilities.NullPriority());
+      case NUMBER:
+        return NodeFromJSON(reader.nextNumber());
+      case BOOLEAN:
+        return new BooleanNode(reader.nextBoolean(), PriorityUtilities.NullPriority());
+      case NULL:
+        reader.nextNull();
+        return EmptyNode.Empty();
+      default:
+        throw new IOException("Invalid JSON: Expected a value");
+    }
+  }
+
+  private static Node objectNodeFromJSONStream(JsonStreamReader reader) throws IOException {
+    Node priority = PriorityUtilities.NullPriority();
+    Object priorityValue = null;
+    boolean hasValue = false;
+    Object value = null;
+    Object serverValue = null;
+    Map<ChildKey, Node> childData = new HashMap<ChildKey, Node>();
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String key = reader.nextName();
+      if (key.equals(".priority")) {
+        priorityValue = reader.nextValue();
+        priority = PriorityUtilities.parsePriority(priorityValue);
+      } else if (key.equals(".value")) {
+        hasValue = true;
+        value = reader.nextValue();
+      } else if (key.equals(ServerValues.NAME_SUBKEY_SERVERVALUE)) {
+        serverValue = reader.nextValue();
+      } else if (key.startsWith(".")) {
+        reader.skipValue();
+      } else {
+        Node childNode = NodeFromJSONStream(reader);
+        if (!childNode.isEmpty()) {
+          childData.put(ChildKey.fromString(key), childNode);
+        }
+      }
+    }
+    reader.endObject();
+
+    if (hasValue) {
+      return NodeFromJSON(value, priority);
+    } else if (serverValue != null) {
+      // Server values are not sent by the server, so rebuilding the raw map is rare.
+      Map<Object, Object> mapValue = new HashMap<Object, Object>();
+      mapValue.put(ServerValues.NAME_SUBKEY_SERVERVALUE, serverValue);
+      if (priorityValue != null) {
+        mapValue.put(".priority", priorityValue);
+      }
+      for (Map.Entry<ChildKey, Node> child : childData.entrySet()) {
+        mapValue.put(child.getKey().asString(), child.getValue().getValue(true));
+      }
+      return new DeferredValueNode(mapValue, priority);
+    }
+    return childrenNodeFromData(childData, priority);
+  }
+
+  private static Node childrenNodeFromData(Map<ChildKey, Node> childData, Node priority) {
+    if (childData.isEmpty()) {
+      return EmptyNode.Empty();
+    }
+    ImmutableSortedMap<ChildKey, Node> childSet =
+        ImmutableSortedMap.Builder.fromMap(childData, ChildrenNode.NAME_ONLY_COMPARATOR);
+    return new ChildrenNode(childSet, priority);
+  }
+
   public static int nameAndPriorityCompare(
       ChildKey aKey, Node aPriority, ChildKey bKey, Node bPriority) {
 
@@ -0,0 +1,76 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.tubesock;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A pool of buffers for outgoing websocket frames.
+ *
+ * <p>Every buffer has room for a frame header in front of its payload, so that the header can be
+ * written in place and the frame can be sent from a single buffer. Buffers are heap buffers, since
+ * the socket is written through an {@link java.io.OutputStream} that needs a backing array.
+ */
+public final class ByteBufferPool {
+  /** The payload capacity of pooled buffers. */
+  public static final int PAYLOAD_SIZE = 16 * 1024;
+
+  /** The room in front of the payload for the frame header. */
+  static final int HEADER_RESERVE = WebSocketWriter.MAX_HEADER_LENGTH;
+
+  private static final int BUFFER_CAPACITY = HEADER_RESERVE + PAYLOAD_SIZE;
+  private static final int MAX_POOLED_BUFFERS = 8;
+
+  private static final ByteBufferPool INSTANCE = new ByteBufferPool();
+
+  private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<ByteBuffer>();
+
+  public static ByteBufferPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Returns a buffer for a frame payload. The buffer is positioned after the room reserved for the
+   * header and has {@link #PAYLOAD_SIZE} bytes remaining.
+   */
+  public ByteBuffer acquire() {
+    ByteBuffer buffer;
+    synchronized (this) {
+      buffer = freeBuffers.pollFirst();
+    }
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(BUFFER_CAPACITY);
+    }
+    buffer.clear();
+    buffer.position(HEADER_RESERVE);
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool. Buffers that were not acquired from a pool are ignored. The
+   * buffer must not be used afterwards.
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer.capacity() != BUFFER_CAPACITY || !buffer.hasArray()) {
+      return;
+    }
+    synchronized (this) {
+      if (freeBuffers.size() < MAX_POOLED_BUFFERS) {
+        freeBuffers.addFirst(buffer);
+      }
+    }
+  }
+}
@@ -16,10 +16,8 @@ package com.google.firebase.database.tubesock;
 
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
-import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
@@ -33,7 +31,11 @@ import java.util.List;
 class MessageBuilderFactory {
 
   interface Builder {
-    boolean appendBytes(byte[] bytes);
+    /**
+     * Appends the bytes between the position and limit of {@code bytes}. The buffer may be reused
+     * by the caller once this method returns.
+     */
+    boolean appendBytes(ByteBuffer bytes);
 
     WebSocketMessage toMessage();
   }
@@ -47,9 +49,11 @@ class MessageBuilderFactory {
     }
 
     @Override
-    public boolean appendBytes(byte[] bytes) {
-      pendingBytes.add(bytes);
-      pendingByteCount += bytes.length;
+    public boolean appendBytes(ByteBuffer bytes) {
+      byte[] copy = new byte[bytes.remaining()];
+      bytes.get(copy);
+      pendingBytes.add(copy);
+      pendingByteCount += copy.length;
       return true;
     }
 
@@ -66,131 +70,84 @@ class MessageBuilderFactory {
     }
   }
 
+  /**
+   * Decodes UTF-8 directly into a {@link StringBuilder} as frames arrive. Characters that are split
+   * across frames are carried over to the next frame.
+   */
   static class TextBuilder implements Builder {
-    private static ThreadLocal<CharsetDecoder> localDecoder =
-        new ThreadLocal<CharsetDecoder>() {
-          @Override
-          protected CharsetDecoder initialValue() {
-            Charset utf8 = Charset.forName("UTF8");
-            CharsetDecoder decoder = utf8.newDecoder();
-            decoder.onMalformedInput(CodingErrorAction.REPORT);
-            decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
-            return decoder;
-          }
-        };
-    private static ThreadLocal<CharsetEncoder> localEncoder =
-        new ThreadLocal<CharsetEncoder>() {
-          @Override
-          protected CharsetEncoder initialValue() {
-            Charset utf8 = Charset.forName("UTF8");
-            CharsetEncoder encoder = utf8.newEncoder();
-            encoder.onMalformedInput(CodingErrorAction.REPORT);
-            encoder.onUnmappableCharacter(CodingErrorAction.REPORT);
-            return encoder;
-          }
-        };
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int CHAR_BUFFER_SIZE = 4 * 1024;
 
-    private StringBuilder builder;
-    private ByteBuffer carryOver;
+    private final CharsetDecoder decoder;
+    private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+
+    /** The bytes of a character that was split across frames, at most 3 bytes plus 1 new byte. */
+    private final ByteBuffer carryOver = ByteBuffer.allocate(4);
+
+    private final StringBuilder builder;
 
     TextBuilder() {
       builder = new StringBuilder();
+      decoder = UTF8.newDecoder();
+      decoder.onMalformedInput(CodingErrorAction.REPORT);
+      decoder.onUnmappableCharacter(CodingErrorAction.REPORT);
     }
 
     @Override
-    public boolean appendBytes(byte[] bytes) {
-      // Uncomment if you want slower but more precise decoding. Useful if you're splitting
-      // multi-byte utf8 chars
-      // across websocket frames
-      // String nextFrame = decodeStringStreaming(bytes);
-      String nextFrame = decodeString(bytes);
-      if (nextFrame != null) {
-        builder.append(nextFrame);
-        return true;
+    public boolean appendBytes(ByteBuffer bytes) {
+      if (carryOver.position() > 0) {
+        // Complete the split character one byte at a time.
+        while (carryOver.position() > 0 && bytes.hasRemaining()) {
+          carryOver.put(bytes.get());
+          carryOver.flip();
+          if (!decode(carryOver, /* endOfInput= */ false)) {
+            return false;
+          }
+          carryOver.compact();
+          if (!carryOver.hasRemaining()) {
+            return false;
+          }
+        }
+        if (carryOver.position() > 0) {
+          return true;
+        }
+      }
+      if (!decode(bytes, /* endOfInput= */ false)) {
+        return false;
+      }
+      if (bytes.remaining() > carryOver.remaining()) {
+        return false;
       }
-      return false;
+      carryOver.put(bytes);
+      return true;
     }
 
     @Override
     public WebSocketMessage toMessage() {
-      if (carryOver != null) {
+      if (carryOver.position() > 0) {
         return null;
       }
-      return new WebSocketMessage(builder.toString());
-    }
-
-    /**
-     * Quicker but less precise utf8 decoding. Does not handle characters split across websocket
-     * frames.
-     *
-     * @param bytes Bytes representing a utf8 string
-     * @return The decoded string
-     */
-    private String decodeString(byte[] bytes) {
-      try {
-        ByteBuffer input = ByteBuffer.wrap(bytes);
-        CharBuffer buf = localDecoder.get().decode(input);
-        String text = buf.toString();
-        return text;
-      } catch (CharacterCodingException e) {
+      ByteBuffer empty = ByteBuffer.allocate(0);
+      if (!decode(empty, /* endOfInput= */ true)) {
         return null;
       }
+      decoder.flush(chars);
+      chars.flip();
+      builder.append(chars);
+      return new WebSocketMessage(builder.toString());
     }
 
-    /**
-     * Left in for reference. Less efficient, but potentially catches more errors. Behavior is
-     * largely dependent on how strict the JVM's utf8 decoder is. It is possible on some JVMs to
-     * decode a string that then throws an error when attempting to return it to bytes.
-     *
-     * @param bytes Bytes representing a utf8 string
-     * @return The decoded string
-     */
-    private String decodeStringStreaming(byte[] bytes) {
-      try {
-        ByteBuffer input = getBuffer(bytes);
-        int bufSize = (int) (input.remaining() * localDecoder.get().averageCharsPerByte());
-        CharBuffer output = CharBuffer.allocate(bufSize);
-        for (; ; ) {
-          CoderResult result = localDecoder.get().decode(input, output, false);
-          if (result.isError()) {
-            return null;
-          }
-          if (result.isUnderflow()) {
-            break;
-          }
-          if (result.isOverflow()) {
-            // We need more room in our output buffer
-            bufSize = 2 * bufSize + 1;
-            CharBuffer o = CharBuffer.allocate(bufSize);
-            output.flip();
-            o.put(output);
-            output = o;
-          }
+    private boolean decode(ByteBuffer input, boolean endOfInput) {
+      while (true) {
+        CoderResult result = decoder.decode(input, chars, endOfInput);
+        chars.flip();
+        builder.append(chars);
+        chars.clear();
+        if (result.isError()) {
+          return false;
+        } else if (result.isUnderflow()) {
+          return true;
         }
-        if (input.remaining() > 0) {
-          carryOver = input;
-        }
-        // Re-encode to work around bugs in UTF-8 decoder
-        CharBuffer test = CharBuffer.wrap(output);
-        localEncoder.get().encode(test);
-        output.flip();
-        String text = output.toString();
-        return text;
-      } catch (CharacterCodingException e) {
-        return null;
-      }
-    }
-
-    private ByteBuffer getBuffer(byte[] bytes) {
-      if (carryOver != null) {
-        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + carryOver.remaining());
-        buffer.put(carryOver);
-        carryOver = null;
-        buffer.put(bytes);
-        buffer.flip();
-        return buffer;
-      } else {
-        return ByteBuffer.wrap(bytes);
       }
     }
   }
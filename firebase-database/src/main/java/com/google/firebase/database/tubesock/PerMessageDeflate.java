@@ -0,0 +1,190 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.tubesock;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The permessage-deflate extension (RFC 7692), which compresses the payload of data messages.
+ *
+ * <p>The client offers the extension without parameters. The server may ask either side not to
+ * keep the compression context between messages, and may limit its own window size, which the
+ * inflater supports for any size. Compressing on the client requires {@link Deflater#SYNC_FLUSH},
+ * so the extension is only offered on API level 19 and above.
+ */
+@TargetApi(Build.VERSION_CODES.KITKAT)
+class PerMessageDeflate {
+  static final String EXTENSION_NAME = "permessage-deflate";
+
+  /** Messages smaller than this are not worth the compression overhead and are sent as is. */
+  private static final int MIN_COMPRESSED_MESSAGE_SIZE = 256;
+
+  /** The empty stored block that ends every message, which is not sent over the wire. */
+  private static final byte[] MESSAGE_TAIL = {0, 0, (byte) 0xff, (byte) 0xff};
+
+  private static final int INFLATE_CHUNK_SIZE = 16 * 1024;
+
+  private final boolean clientNoContextTakeover;
+  private final boolean serverNoContextTakeover;
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, /* nowrap= */ true);
+  private final Inflater inflater = new Inflater(/* nowrap= */ true);
+  private final byte[] inflateChunk = new byte[INFLATE_CHUNK_SIZE];
+
+  PerMessageDeflate(boolean clientNoContextTakeover, boolean serverNoContextTakeover) {
+    this.clientNoContextTakeover = clientNoContextTakeover;
+    this.serverNoContextTakeover = serverNoContextTakeover;
+  }
+
+  static boolean isSupported() {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+  }
+
+  /**
+   * Parses the lowercased {@code Sec-WebSocket-Extensions} header of the server handshake.
+   *
+   * @return the negotiated extension, or null if the server did not accept it
+   */
+  static PerMessageDeflate fromServerHandshake(String extensionsHeader) {
+    if (extensionsHeader == null || extensionsHeader.trim().isEmpty()) {
+      return null;
+    }
+    String[] extensions = extensionsHeader.split(",");
+    if (extensions.length != 1) {
+      throw new WebSocketException("Server accepted extensions that were not offered");
+    }
+    String[] params = extensions[0].split(";");
+    if (!params[0].trim().equals(EXTENSION_NAME)) {
+      throw new WebSocketException("Server accepted an extension that was not offered");
+    }
+    boolean clientNoContextTakeover = false;
+    boolean serverNoContextTakeover = false;
+    for (int i = 1; i < params.length; i++) {
+      String param = params[i].trim();
+      if (param.equals("client_no_context_takeover")) {
+        clientNoContextTakeover = true;
+      } else if (param.equals("server_no_context_takeover")) {
+        serverNoContextTakeover = true;
+      } else if (param.startsWith("server_max_window_bits")) {
+        // The inflater accepts any window size up to the maximum.
+      } else {
+        throw new WebSocketException("Unsupported permessage-deflate parameter: " + param);
+      }
+    }
+    return new PerMessageDeflate(clientNoContextTakeover, serverNoContextTakeover);
+  }
+
+  boolean shouldCompress(int payloadLength) {
+    return payloadLength >= MIN_COMPRESSED_MESSAGE_SIZE;
+  }
+
+  /**
+   * Compresses the payload between the position and limit of {@code payload}, which is released
+   * to {@code pool}. The returned buffer holds the compressed payload between its position and
+   * limit, with room for a frame header in front of it.
+   */
+  synchronized ByteBuffer compress(ByteBuffer payload, ByteBufferPool pool) {
+    if (payload.hasArray()) {
+      deflater.setInput(
+          payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+    } else {
+      byte[] input = new byte[payload.remaining()];
+      payload.duplicate().get(input);
+      deflater.setInput(input);
+    }
+
+    ByteBuffer output = pool.acquire();
+    int start = output.position();
+    while (true) {
+      int written =
+          deflater.deflate(
+              output.array(),
+              output.arrayOffset() + output.position(),
+              output.remaining(),
+              Deflater.SYNC_FLUSH);
+      output.position(output.position() + written);
+      if (output.hasRemaining()) {
+        break;
+      }
+      ByteBuffer larger = ByteBuffer.allocate(output.capacity() * 2);
+      output.flip();
+      larger.put(output);
+      pool.release(output);
+      output = larger;
+    }
+    pool.release(payload);
+    if (clientNoContextTakeover) {
+      deflater.reset();
+    }
+
+    // A sync flush always ends with the message tail, which the receiver adds back.
+    output.limit(output.position() - MESSAGE_TAIL.length);
+    output.position(start);
+    return output;
+  }
+
+  /**
+   * Decompresses a frame of a compressed message and appends the result to {@code builder}.
+   *
+   * @return false if the builder rejected the decompressed bytes
+   */
+  boolean decompress(byte[] data, int offset, int length, MessageBuilderFactory.Builder builder) {
+    inflater.setInput(data, offset, length);
+    try {
+      while (true) {
+        int inflated = inflater.inflate(inflateChunk);
+        if (inflated > 0) {
+          if (!builder.appendBytes(ByteBuffer.wrap(inflateChunk, 0, inflated))) {
+            return false;
+          }
+        } else if (inflater.needsInput() || inflater.finished()) {
+          return true;
+        } else if (inflater.needsDictionary()) {
+          throw new WebSocketException("Compressed message requires a dictionary");
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new WebSocketException("Invalid compressed message", e);
+    }
+  }
+
+  /**
+   * Completes a compressed message after its last frame was passed to {@link #decompress}.
+   *
+   * @return false if the builder rejected the decompressed bytes
+   */
+  boolean finishMessage(MessageBuilderFactory.Builder builder) {
+    boolean result =
+        inflater.finished() || decompress(MESSAGE_TAIL, 0, MESSAGE_TAIL.length, builder);
+    if (serverNoContextTakeover || inflater.finished()) {
+      inflater.reset();
+    }
+    return result;
+  }
+
+  /** Releases the native resources of the compressor. */
+  synchronized void endDeflater() {
+    deflater.end();
+  }
+
+  /** Releases the native resources of the decompressor. */
+  void endInflater() {
+    inflater.end();
+  }
+}
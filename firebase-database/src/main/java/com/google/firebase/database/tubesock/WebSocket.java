@@ -25,6 +25,7 @@ import java.io.OutputStream;
 import java.net.Socket;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -77,6 +78,7 @@ public class WebSocket {
   private final WebSocketReceiver receiver;
   private final WebSocketWriter writer;
   private final WebSocketHandshake handshake;
+  private volatile PerMessageDeflate perMessageDeflate;
   private final LogWrapper logger;
   private final int clientId = clientCount.incrementAndGet();
 
@@ -146,7 +148,8 @@ public class WebSocket {
     this.url = url;
     sslCacheDirectory = context.getSslCacheDirectory();
     logger = new LogWrapper(context.getLogger(), "WebSocket", "sk_" + clientId);
-    handshake = new WebSocketHandshake(url, protocol, extraHeaders);
+    handshake =
+        new WebSocketHandshake(url, protocol, extraHeaders, PerMessageDeflate.isSupported());
     receiver = new WebSocketReceiver(this);
     writer = new WebSocketWriter(this, THREAD_BASE_NAME, clientId);
   }
@@ -185,7 +188,18 @@ public class WebSocket {
    * @param data The text payload to be sent
    */
   public synchronized void send(String data) {
-    send(OPCODE_TEXT, data.getBytes(UTF8));
+    send(OPCODE_TEXT, ByteBuffer.wrap(data.getBytes(UTF8)));
+  }
+
+  /**
+   * Send a TEXT message over the socket without copying it.
+   *
+   * @param utf8Data The UTF-8 encoded payload between the position and the limit of the buffer.
+   *     The socket takes ownership of the buffer and releases it to the {@link ByteBufferPool} once
+   *     it was written, so the buffer must not be used afterwards.
+   */
+  public synchronized void sendText(ByteBuffer utf8Data) {
+    send(OPCODE_TEXT, utf8Data);
   }
 
   /**
@@ -194,16 +208,18 @@ public class WebSocket {
    * @param data The binary payload to be sent
    */
   public synchronized void send(byte[] data) {
-    send(OPCODE_BINARY, data);
+    // The payload is masked in place, so don't modify the caller's array.
+    send(OPCODE_BINARY, ByteBuffer.wrap(data.clone()));
   }
 
   synchronized void pong(byte[] data) {
-    send(OPCODE_PONG, data);
+    send(OPCODE_PONG, ByteBuffer.wrap(data));
   }
 
-  private synchronized void send(byte opcode, byte[] data) {
+  private synchronized void send(byte opcode, ByteBuffer data) {
     if (state != State.CONNECTED) {
       // We might have been disconnected on another thread, just report an error
+      ByteBufferPool.getInstance().release(data);
       eventHandler.onError(new WebSocketException("error while sending data: not connected"));
     } else {
       try {
@@ -258,6 +274,9 @@ public class WebSocket {
     }
     receiver.stopit();
     writer.stopIt();
+    if (perMessageDeflate != null) {
+      perMessageDeflate.endDeflater();
+    }
     if (socket != null) {
       try {
         socket.close();
@@ -419,6 +438,12 @@ public class WebSocket {
             keyValue[0].toLowerCase(Locale.US), keyValue[1].toLowerCase(Locale.US));
       }
       handshake.verifyServerHandshakeHeaders(lowercaseHeaders);
+      perMessageDeflate = handshake.negotiatePerMessageDeflate(lowercaseHeaders);
+      if (perMessageDeflate != null) {
+        logger.debug("Using permessage-deflate");
+        writer.setPerMessageDeflate(perMessageDeflate);
+        receiver.setPerMessageDeflate(perMessageDeflate);
+      }
 
       writer.setOutput(output);
       receiver.setInput(input);
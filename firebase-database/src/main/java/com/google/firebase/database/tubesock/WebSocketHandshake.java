@@ -28,11 +28,18 @@ class WebSocketHandshake {
   private String protocol = null;
   private String nonce = null;
   private Map<String, String> extraHeaders = null;
+  private boolean offerPerMessageDeflate = false;
 
   public WebSocketHandshake(URI url, String protocol, Map<String, String> extraHeaders) {
+    this(url, protocol, extraHeaders, false);
+  }
+
+  public WebSocketHandshake(
+      URI url, String protocol, Map<String, String> extraHeaders, boolean offerPerMessageDeflate) {
     this.url = url;
     this.protocol = protocol;
     this.extraHeaders = extraHeaders;
+    this.offerPerMessageDeflate = offerPerMessageDeflate;
     this.nonce = this.createNonce();
   }
 
@@ -57,6 +64,10 @@ class WebSocketHandshake {
       header.put("Sec-WebSocket-Protocol", this.protocol);
     }
 
+    if (this.offerPerMessageDeflate) {
+      header.put("Sec-WebSocket-Extensions", PerMessageDeflate.EXTENSION_NAME);
+    }
+
     if (this.extraHeaders != null) {
       for (String fieldName : this.extraHeaders.keySet()) {
         // Only checks for Field names with the exact same text,
@@ -116,6 +127,22 @@ class WebSocketHandshake {
     }
   }
 
+  /**
+   * Returns the permessage-deflate extension accepted by the server, or null if the server did not
+   * accept it.
+   */
+  public PerMessageDeflate negotiatePerMessageDeflate(HashMap<String, String> lowercaseHeaders) {
+    String extensions = lowercaseHeaders.get("sec-websocket-extensions");
+    if (!offerPerMessageDeflate) {
+      if (extensions != null && !extensions.trim().isEmpty()) {
+        throw new WebSocketException(
+            "connection failed: server accepted extensions that were not offered: " + extensions);
+      }
+      return null;
+    }
+    return PerMessageDeflate.fromServerHandshake(extensions);
+  }
+
   private int rand(int min, int max) {
     int rand = (int) (Math.random() * max + min);
     return rand;
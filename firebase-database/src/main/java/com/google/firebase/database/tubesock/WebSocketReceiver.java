@@ -17,18 +17,29 @@ package com.google.firebase.database.tubesock;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * This class encapsulates the receiving and decoding of websocket frames. It is run from the thread
  * started by the websocket class. It does some best-effort error detection for violations of the
  * websocket spec.
+ *
+ * <p>Frame payloads are read into a reusable buffer and decoded from there, so that receiving a
+ * message does not allocate per frame.
  */
 class WebSocketReceiver {
+  /** Payloads up to this size are read into the reusable buffer, larger ones get their own. */
+  private static final int MAX_REUSED_PAYLOAD_SIZE = 64 * 1024;
+
   private DataInputStream input = null;
   private WebSocket websocket = null;
   private WebSocketEventHandler eventHandler = null;
   private byte[] inputHeader = new byte[112];
+  private byte[] payloadBuffer = new byte[4 * 1024];
   private MessageBuilderFactory.Builder pendingBuilder;
+  private boolean pendingCompressed;
+  private PerMessageDeflate perMessageDeflate;
 
   private volatile boolean stop = false;
 
@@ -40,6 +51,10 @@ class WebSocketReceiver {
     this.input = input;
   }
 
+  void setPerMessageDeflate(PerMessageDeflate perMessageDeflate) {
+    this.perMessageDeflate = perMessageDeflate;
+  }
+
   void run() {
     this.eventHandler = websocket.getEventHandler();
     while (!stop) {
@@ -47,11 +62,17 @@ class WebSocketReceiver {
         int offset = 0;
         offset += read(inputHeader, offset, 1);
         boolean fin = (inputHeader[0] & 0x80) != 0;
-        boolean rsv = (inputHeader[0] & 0x70) != 0;
-        if (rsv) {
+        int rsv = inputHeader[0] & 0x70;
+        byte opcode = (byte) (inputHeader[0] & 0xf);
+        // RSV1 marks the first frame of a compressed message when permessage-deflate is in use.
+        boolean compressed =
+            rsv == 0x40
+                && perMessageDeflate != null
+                && pendingBuilder == null
+                && (opcode == WebSocket.OPCODE_TEXT || opcode == WebSocket.OPCODE_BINARY);
+        if (rsv != 0 && !compressed) {
           throw new WebSocketException("Invalid frame received");
         } else {
-          byte opcode = (byte) (inputHeader[0] & 0xf);
           offset += read(inputHeader, offset, 1);
           byte length = inputHeader[1];
           long payload_length = 0;
@@ -69,8 +90,9 @@ class WebSocketReceiver {
             payload_length = parseLong(inputHeader, offset - 8);
           }
 
-          byte[] payload = new byte[(int) payload_length];
-          read(payload, 0, (int) payload_length);
+          int payloadLength = (int) payload_length;
+          byte[] payload = getPayloadBuffer(payloadLength);
+          read(payload, 0, payloadLength);
           if (opcode == WebSocket.OPCODE_CLOSE) {
             websocket.onCloseOpReceived();
           } else if (opcode == WebSocket.OPCODE_PONG) {
@@ -80,7 +102,7 @@ class WebSocketReceiver {
               || opcode == WebSocket.OPCODE_PING
               || opcode == WebSocket.OPCODE_NONE) {
             // It's some form of application data. Decode the payload
-            appendBytes(fin, opcode, payload);
+            appendBytes(fin, opcode, compressed, payload, payloadLength);
           } else {
             // Unsupported opcode
             throw new WebSocketException("Unsupported opcode: " + opcode);
@@ -94,13 +116,27 @@ class WebSocketReceiver {
         handleError(e);
       }
     }
+    if (perMessageDeflate != null) {
+      perMessageDeflate.endInflater();
+    }
   }
 
-  private void appendBytes(boolean fin, byte opcode, byte[] data) {
+  private byte[] getPayloadBuffer(int payloadLength) {
+    if (payloadLength > MAX_REUSED_PAYLOAD_SIZE) {
+      return new byte[payloadLength];
+    }
+    if (payloadBuffer.length < payloadLength) {
+      payloadBuffer = new byte[Math.max(payloadLength, payloadBuffer.length * 2)];
+    }
+    return payloadBuffer;
+  }
+
+  private void appendBytes(
+      boolean fin, byte opcode, boolean compressed, byte[] data, int length) {
     // A ping can show up in the middle of another fragmented message
     if (opcode == WebSocket.OPCODE_PING) {
       if (fin) {
-        handlePing(data);
+        handlePing(Arrays.copyOf(data, length));
       } else {
         throw new WebSocketException("PING must not fragment across frames");
       }
@@ -114,8 +150,16 @@ class WebSocketReceiver {
         if (pendingBuilder == null) {
           // We aren't continuing another message
           pendingBuilder = MessageBuilderFactory.builder(opcode);
+          pendingCompressed = compressed;
+        }
+        boolean appended =
+            pendingCompressed
+                ? perMessageDeflate.decompress(data, 0, length, pendingBuilder)
+                : pendingBuilder.appendBytes(ByteBuffer.wrap(data, 0, length));
+        if (appended && fin && pendingCompressed) {
+          appended = perMessageDeflate.finishMessage(pendingBuilder);
         }
-        if (!pendingBuilder.appendBytes(data)) {
+        if (!appended) {
           throw new WebSocketException("Failed to decode frame");
         } else if (fin) {
           WebSocketMessage message = pendingBuilder.toMessage();
@@ -14,11 +14,10 @@
 
 package com.google.firebase.database.tubesock;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
 import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -26,15 +25,26 @@ import java.util.concurrent.LinkedBlockingQueue;
 /**
  * This class handles blocking write operations to the websocket. Given an opcode and some bytes, it
  * frames a message and sends it over the wire. The actual sending happens in a separate thread.
+ *
+ * <p>Payloads are masked in place, and if there is room in front of the payload (as in buffers
+ * from the {@link ByteBufferPool}), the frame header is written in place as well. The writer
+ * thread writes all queued buffers before flushing the socket, so that small frames share a
+ * single write.
  */
 class WebSocketWriter {
+  /** The largest frame header: 2 bytes, an 8 byte extended length and a 4 byte mask. */
+  static final int MAX_HEADER_LENGTH = 14;
+
+  private static final int OUTPUT_BUFFER_SIZE = 8 * 1024;
 
   private BlockingQueue<ByteBuffer> pendingBuffers;
   private final Random random = new Random();
+  private final ByteBufferPool bufferPool = ByteBufferPool.getInstance();
   private volatile boolean stop = false;
   private boolean closeSent = false;
   private WebSocket websocket;
-  private WritableByteChannel channel;
+  private OutputStream output;
+  private PerMessageDeflate perMessageDeflate;
   private final Thread innerThread;
 
   WebSocketWriter(WebSocket websocket, String threadBaseName, int clientId) {
@@ -54,15 +64,24 @@ class WebSocketWriter {
   }
 
   void setOutput(OutputStream output) {
-    channel = Channels.newChannel(output);
+    this.output = new BufferedOutputStream(output, OUTPUT_BUFFER_SIZE);
+  }
+
+  synchronized void setPerMessageDeflate(PerMessageDeflate perMessageDeflate) {
+    this.perMessageDeflate = perMessageDeflate;
   }
 
-  private ByteBuffer frameInBuffer(byte opcode, boolean masking, byte[] data) throws IOException {
-    int headerLength = 2; // This is just an assumed headerLength, as we use a ByteArrayOutputStream
+  /**
+   * Frames the payload between the position and limit of {@code payload} and queues it. The writer
+   * takes ownership of the buffer, which is masked in place and released to the buffer pool once
+   * it has been written.
+   */
+  private void queueFrame(byte opcode, boolean compressed, boolean masking, ByteBuffer payload) {
+    int length = payload.remaining();
+    int headerLength = 2;
     if (masking) {
       headerLength += 4;
     }
-    int length = data.length;
     if (length < 126) {
       // nothing add to header length
     } else if (length <= 65535) {
@@ -70,50 +89,75 @@ class WebSocketWriter {
     } else {
       headerLength += 8;
     }
-    ByteBuffer frame = ByteBuffer.allocate(data.length + headerLength);
 
-    byte fin = (byte) 0x80;
-    byte startByte = (byte) (fin | opcode);
-    frame.put(startByte);
+    int payloadStart = payload.position();
+    ByteBuffer header;
+    int headerStart;
+    if (payloadStart >= headerLength) {
+      // Write the header into the room in front of the payload and send a single buffer.
+      header = payload;
+      headerStart = payloadStart - headerLength;
+    } else {
+      header = ByteBuffer.allocate(headerLength);
+      headerStart = 0;
+    }
 
-    int length_field;
+    int index = headerStart;
+    byte fin = (byte) 0x80;
+    byte rsv1 = compressed ? (byte) 0x40 : 0;
+    header.put(index++, (byte) (fin | rsv1 | opcode));
 
+    int lengthField;
     if (length < 126) {
-      if (masking) {
-        length = 0x80 | length;
-      }
-      frame.put((byte) length);
+      lengthField = length;
     } else if (length <= 65535) {
-      length_field = 126;
-      if (masking) {
-        length_field = 0x80 | length_field;
-      }
-      frame.put((byte) length_field);
-      // We check the size above, so we know we aren't losing anything with the cast
-      frame.putShort((short) length);
+      lengthField = 126;
     } else {
-      length_field = 127;
-      if (masking) {
-        length_field = 0x80 | length_field;
-      }
-      frame.put((byte) length_field);
-      // Since an integer occupies just 4 bytes we fill the 4 leading length bytes with zero
-      frame.putInt(0);
-      frame.putInt(length);
+      lengthField = 127;
     }
-
-    byte[] mask;
     if (masking) {
-      mask = generateMask();
-      frame.put(mask);
+      lengthField = 0x80 | lengthField;
+    }
+    header.put(index++, (byte) lengthField);
+    if (length >= 126 && length <= 65535) {
+      // We check the size above, so we know we aren't losing anything with the cast
+      header.putShort(index, (short) length);
+      index += 2;
+    } else if (length > 65535) {
+      header.putLong(index, length);
+      index += 8;
+    }
 
-      for (int i = 0; i < data.length; i++) {
-        frame.put((byte) (data[i] ^ mask[i % 4]));
+    if (masking) {
+      byte[] mask = generateMask();
+      for (int i = 0; i < mask.length; i++) {
+        header.put(index++, mask[i]);
       }
+      maskInPlace(payload, mask);
     }
 
-    frame.flip();
-    return frame;
+    if (header == payload) {
+      payload.position(headerStart);
+    } else {
+      pendingBuffers.add(header);
+    }
+    pendingBuffers.add(payload);
+  }
+
+  private static void maskInPlace(ByteBuffer payload, byte[] mask) {
+    if (payload.hasArray()) {
+      byte[] data = payload.array();
+      int start = payload.arrayOffset() + payload.position();
+      int end = start + payload.remaining();
+      for (int i = start; i < end; i++) {
+        data[i] = (byte) (data[i] ^ mask[(i - start) & 3]);
+      }
+    } else {
+      int start = payload.position();
+      for (int i = start; i < payload.limit(); i++) {
+        payload.put(i, (byte) (payload.get(i) ^ mask[(i - start) & 3]));
+      }
+    }
   }
 
   private byte[] generateMask() {
@@ -123,19 +167,50 @@ class WebSocketWriter {
   }
 
   synchronized void send(byte opcode, boolean masking, byte[] data) throws IOException {
-    ByteBuffer frame = frameInBuffer(opcode, masking, data);
+    send(opcode, masking, ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Sends the payload between the position and limit of {@code payload}. The writer takes
+   * ownership of the buffer.
+   */
+  synchronized void send(byte opcode, boolean masking, ByteBuffer payload) throws IOException {
     if (stop && (closeSent || opcode != WebSocket.OPCODE_CLOSE)) {
+      bufferPool.release(payload);
       throw new WebSocketException("Shouldn't be sending");
     }
     if (opcode == WebSocket.OPCODE_CLOSE) {
       closeSent = true;
     }
-    pendingBuffers.add(frame);
+    boolean compressed = false;
+    if (perMessageDeflate != null
+        && (opcode == WebSocket.OPCODE_TEXT || opcode == WebSocket.OPCODE_BINARY)
+        && perMessageDeflate.shouldCompress(payload.remaining())) {
+      payload = perMessageDeflate.compress(payload, bufferPool);
+      compressed = true;
+    }
+    queueFrame(opcode, compressed, masking, payload);
   }
 
-  private void writeMessage() throws InterruptedException, IOException {
-    ByteBuffer msg = pendingBuffers.take();
-    channel.write(msg);
+  /** Writes all queued buffers, waiting for at least one, and then flushes the socket. */
+  private void writeMessages() throws InterruptedException, IOException {
+    ByteBuffer buffer = pendingBuffers.take();
+    do {
+      write(buffer);
+      buffer = pendingBuffers.poll();
+    } while (buffer != null);
+    output.flush();
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    if (buffer.hasArray()) {
+      output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    } else {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      output.write(bytes);
+    }
+    bufferPool.release(buffer);
   }
 
   void stopIt() {
@@ -149,12 +224,14 @@ class WebSocketWriter {
   private void runWriter() {
     try {
       while (!stop && !Thread.interrupted()) {
-        writeMessage();
+        writeMessages();
       }
       // We're stopping, clear any remaining messages
-      for (int i = 0; i < pendingBuffers.size(); ++i) {
-        writeMessage();
+      ByteBuffer buffer;
+      while ((buffer = pendingBuffers.poll()) != null) {
+        write(buffer);
       }
+      output.flush();
     } catch (IOException e) {
       handleError(new WebSocketException("IO Exception", e));
     } catch (InterruptedException e) {
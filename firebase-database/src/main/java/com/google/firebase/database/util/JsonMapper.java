@@ -15,17 +15,10 @@
 package com.google.firebase.database.util;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONStringer;
-import org.json.JSONTokener;
 
 /**
  * Helper class to convert from/to JSON strings. TODO: This class should ideally not live in
@@ -38,97 +31,124 @@ public class JsonMapper {
     return serializeJsonValue(object);
   }
 
-  @SuppressWarnings("unchecked")
   public static String serializeJsonValue(Object object) throws IOException {
+    StringBuilder builder = new StringBuilder();
+    serializeJsonValue(object, builder);
+    return builder.toString();
+  }
+
+  /** Writes the JSON representation of {@code object} to {@code out}. */
+  public static void serializeJsonValue(Object object, StringBuilder out) throws IOException {
     if (object == null) {
-      return "null";
+      out.append("null");
     } else if (object instanceof String) {
-      return JSONObject.quote((String) object);
+      appendQuoted((String) object, out);
     } else if (object instanceof Number) {
-      try {
-        return JSONObject.numberToString((Number) object);
-      } catch (JSONException e) {
-        throw new IOException("Could not serialize number", e);
-      }
+      out.append(numberToString((Number) object));
     } else if (object instanceof Boolean) {
-      return ((Boolean) object) ? "true" : "false";
-    } else {
-      try {
-        JSONStringer stringer = new JSONStringer();
-        serializeJsonValue(object, stringer);
-        return stringer.toString();
-      } catch (JSONException e) {
-        throw new IOException("Failed to serialize JSON", e);
-      }
-    }
-  }
-
-  private static void serializeJsonValue(Object object, JSONStringer stringer)
-      throws IOException, JSONException {
-    if (object instanceof Map) {
-      stringer.object();
+      out.append(((Boolean) object) ? "true" : "false");
+    } else if (object instanceof Map) {
+      out.append('{');
+      boolean first = true;
       @SuppressWarnings("unchecked")
       Map<String, Object> map = (Map<String, Object>) object;
       for (Map.Entry<String, Object> entry : map.entrySet()) {
-        stringer.key(entry.getKey());
-        serializeJsonValue(entry.getValue(), stringer);
+        if (!first) {
+          out.append(',');
+        }
+        first = false;
+        if (entry.getKey() == null) {
+          throw new IOException("Failed to serialize JSON: Names must be non-null");
+        }
+        appendQuoted(entry.getKey(), out);
+        out.append(':');
+        serializeJsonValue(entry.getValue(), out);
       }
-      stringer.endObject();
+      out.append('}');
     } else if (object instanceof Collection) {
-      Collection<?> collection = (Collection<?>) object;
-      stringer.array();
-      for (Object entry : collection) {
-        serializeJsonValue(entry, stringer);
+      out.append('[');
+      boolean first = true;
+      for (Object entry : (Collection<?>) object) {
+        if (!first) {
+          out.append(',');
+        }
+        first = false;
+        serializeJsonValue(entry, out);
       }
-      stringer.endArray();
+      out.append(']');
     } else {
-      stringer.value(object);
+      appendQuoted(object.toString(), out);
     }
   }
 
-  public static Map<String, Object> parseJson(String json) throws IOException {
-    try {
-      return unwrapJsonObject(new JSONObject(json));
-    } catch (JSONException e) {
-      throw new IOException(e);
+  /** Formats numbers the same way as {@code org.json}, which omits the fraction of integers. */
+  private static String numberToString(Number number) throws IOException {
+    double doubleValue = number.doubleValue();
+    if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+      throw new IOException("Could not serialize number: " + number);
     }
+    if (number.equals(-0.0d)) {
+      return "-0";
+    }
+    long longValue = number.longValue();
+    if (doubleValue == (double) longValue) {
+      return Long.toString(longValue);
+    }
+    return number.toString();
   }
 
-  public static Object parseJsonValue(String json) throws IOException {
-    try {
-      return unwrapJson(new JSONTokener(json).nextValue());
-    } catch (JSONException e) {
-      throw new IOException(e);
+  private static void appendQuoted(String value, StringBuilder out) {
+    out.append('"');
+    for (int i = 0, length = value.length(); i < length; i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+          out.append('\\').append(c);
+          break;
+        case '\t':
+          out.append("\\t");
+          break;
+        case '\b':
+          out.append("\\b");
+          break;
+        case '\n':
+          out.append("\\n");
+          break;
+        case '\r':
+          out.append("\\r");
+          break;
+        case '\f':
+          out.append("\\f");
+          break;
+        default:
+          if (c <= 0x1F) {
+            out.append(String.format("\\u%04x", (int) c));
+          } else {
+            out.append(c);
+          }
+          break;
+      }
     }
+    out.append('"');
   }
 
-  private static Map<String, Object> unwrapJsonObject(JSONObject jsonObject) throws JSONException {
-    Map<String, Object> map = new HashMap<String, Object>(jsonObject.length());
-    Iterator<String> keys = jsonObject.keys();
-    while (keys.hasNext()) {
-      String key = keys.next();
-      map.put(key, unwrapJson(jsonObject.get(key)));
-    }
-    return map;
+  public static Map<String, Object> parseJson(String json) throws IOException {
+    return parseJson(new StringReader(json));
   }
 
-  private static List<Object> unwrapJsonArray(JSONArray jsonArray) throws JSONException {
-    List<Object> list = new ArrayList<Object>(jsonArray.length());
-    for (int i = 0; i < jsonArray.length(); i++) {
-      list.add(unwrapJson(jsonArray.get(i)));
+  /** Parses a JSON object from {@code reader} without building an intermediate document. */
+  @SuppressWarnings("unchecked")
+  public static Map<String, Object> parseJson(Reader reader) throws IOException {
+    JsonStreamReader jsonReader = new JsonStreamReader(reader);
+    if (jsonReader.peek() != JsonStreamReader.Token.BEGIN_OBJECT) {
+      throw new IOException("Invalid JSON: Expected an object");
     }
-    return list;
+    return (Map<String, Object>) jsonReader.nextValue();
   }
 
-  private static Object unwrapJson(Object o) throws JSONException {
-    if (o instanceof JSONObject) {
-      return unwrapJsonObject((JSONObject) o);
-    } else if (o instanceof JSONArray) {
-      return unwrapJsonArray((JSONArray) o);
-    } else if (o.equals(JSONObject.NULL)) {
-      return null;
-    } else {
-      return o;
-    }
+  public static Object parseJsonValue(String json) throws IOException {
+    return new JsonStreamReader(new StringReader(json)).nextValue();
   }
 }
@@ -0,0 +1,440 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pull parser that reads JSON tokens from a {@link Reader} without building an intermediate
+ * document tree, so that callers can decode values directly into their own representation.
+ *
+ * <p>Objects and arrays are read by calling {@link #beginObject}/{@link #beginArray}, then {@link
+ * #hasNext} before each member, and finally {@link #endObject}/{@link #endArray}. Object members
+ * start with {@link #nextName}. Numbers are returned with the same types that {@code org.json}
+ * uses: {@link Integer} or {@link Long} for integral literals and {@link Double} otherwise.
+ */
+public final class JsonStreamReader {
+
+  /** The type of the next value in the stream. */
+  public enum Token {
+    BEGIN_OBJECT,
+    END_OBJECT,
+    BEGIN_ARRAY,
+    END_ARRAY,
+    STRING,
+    NUMBER,
+    BOOLEAN,
+    NULL,
+    END_DOCUMENT
+  }
+
+  private final Reader in;
+  private final char[] buffer = new char[1024];
+  private int position;
+  private int limit;
+
+  private final StringBuilder scratch = new StringBuilder();
+
+  /** For every open object or array, whether a comma is expected before the next member. */
+  private boolean[] needsComma = new boolean[32];
+
+  private int depth;
+
+  public JsonStreamReader(Reader in) {
+    this.in = in;
+  }
+
+  /** Returns the type of the next value without consuming it. */
+  public Token peek() throws IOException {
+    int c = peekNonWhitespace();
+    switch (c) {
+      case -1:
+        return Token.END_DOCUMENT;
+      case '{':
+        return Token.BEGIN_OBJECT;
+      case '}':
+        return Token.END_OBJECT;
+      case '[':
+        return Token.BEGIN_ARRAY;
+      case ']':
+        return Token.END_ARRAY;
+      case '"':
+        return Token.STRING;
+      case 't':
+      case 'f':
+        return Token.BOOLEAN;
+      case 'n':
+        return Token.NULL;
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          return Token.NUMBER;
+        }
+        throw syntaxError("Unexpected character '" + (char) c + "'");
+    }
+  }
+
+  public void beginObject() throws IOException {
+    expect('{');
+    push();
+  }
+
+  public void endObject() throws IOException {
+    expect('}');
+    pop();
+  }
+
+  public void beginArray() throws IOException {
+    expect('[');
+    push();
+  }
+
+  public void endArray() throws IOException {
+    expect(']');
+    pop();
+  }
+
+  /** Returns whether the current object or array has another member, consuming its separator. */
+  public boolean hasNext() throws IOException {
+    if (depth == 0) {
+      throw new IllegalStateException("hasNext() called outside of an object or array");
+    }
+    int c = peekNonWhitespace();
+    if (c == '}' || c == ']' || c == -1) {
+      return false;
+    }
+    if (needsComma[depth - 1]) {
+      expect(',');
+      needsComma[depth - 1] = false;
+    }
+    return true;
+  }
+
+  /** Reads the name of the next object member. */
+  public String nextName() throws IOException {
+    String name = readString();
+    expect(':');
+    return name;
+  }
+
+  public String nextString() throws IOException {
+    String value = readString();
+    onValueRead();
+    return value;
+  }
+
+  public Number nextNumber() throws IOException {
+    String literal = readLiteral();
+    Number value = parseNumber(literal);
+    onValueRead();
+    return value;
+  }
+
+  public boolean nextBoolean() throws IOException {
+    String literal = readLiteral();
+    boolean value;
+    if (literal.equals("true")) {
+      value = true;
+    } else if (literal.equals("false")) {
+      value = false;
+    } else {
+      throw syntaxError("Expected a boolean but was " + literal);
+    }
+    onValueRead();
+    return value;
+  }
+
+  public void nextNull() throws IOException {
+    String literal = readLiteral();
+    if (!literal.equals("null")) {
+      throw syntaxError("Expected null but was " + literal);
+    }
+    onValueRead();
+  }
+
+  /**
+   * Reads the next value as a {@link Map}, {@link List}, {@link String}, {@link Number}, {@link
+   * Boolean} or {@code null}.
+   */
+  public Object nextValue() throws IOException {
+    switch (peek()) {
+      case BEGIN_OBJECT:
+        {
+          Map<String, Object> map = new HashMap<String, Object>();
+          beginObject();
+          while (hasNext()) {
+            String name = nextName();
+            map.put(name, nextValue());
+          }
+          endObject();
+          return map;
+        }
+      case BEGIN_ARRAY:
+        {
+          List<Object> list = new ArrayList<Object>();
+          beginArray();
+          while (hasNext()) {
+            list.add(nextValue());
+          }
+          endArray();
+          return list;
+        }
+      case STRING:
+        return nextString();
+      case NUMBER:
+        return nextNumber();
+      case BOOLEAN:
+        return nextBoolean();
+      case NULL:
+        nextNull();
+        return null;
+      default:
+        throw syntaxError("Expected a value");
+    }
+  }
+
+  /** Skips the next value, including all of its members, without decoding it. */
+  public void skipValue() throws IOException {
+    switch (peek()) {
+      case BEGIN_OBJECT:
+        beginObject();
+        while (hasNext()) {
+          skipString();
+          expect(':');
+          skipValue();
+        }
+        endObject();
+        break;
+      case BEGIN_ARRAY:
+        beginArray();
+        while (hasNext()) {
+          skipValue();
+        }
+        endArray();
+        break;
+      case STRING:
+        skipString();
+        onValueRead();
+        break;
+      case NUMBER:
+      case BOOLEAN:
+      case NULL:
+        readLiteral();
+        onValueRead();
+        break;
+      default:
+        throw syntaxError("Expected a value");
+    }
+  }
+
+  private void push() {
+    if (depth == needsComma.length) {
+      needsComma = Arrays.copyOf(needsComma, depth * 2);
+    }
+    needsComma[depth++] = false;
+  }
+
+  private void pop() {
+    depth--;
+    onValueRead();
+  }
+
+  private void onValueRead() {
+    if (depth > 0) {
+      needsComma[depth - 1] = true;
+    }
+  }
+
+  private Number parseNumber(String literal) throws IOException {
+    try {
+      if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+        try {
+          long value = Long.parseLong(literal);
+          if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+          }
+          return value;
+        } catch (NumberFormatException e) {
+          // Out of range for a long, fall back to a double.
+        }
+      }
+      return Double.valueOf(literal);
+    } catch (NumberFormatException e) {
+      throw syntaxError("Invalid number " + literal);
+    }
+  }
+
+  private String readString() throws IOException {
+    expect('"');
+    // Fast path: the string has no escapes and ends within the buffer.
+    for (int i = position; i < limit; i++) {
+      char c = buffer[i];
+      if (c == '"') {
+        String value = new String(buffer, position, i - position);
+        position = i + 1;
+        return value;
+      } else if (c == '\\') {
+        break;
+      }
+    }
+
+    scratch.setLength(0);
+    while (true) {
+      int start = position;
+      while (position < limit && buffer[position] != '"' && buffer[position] != '\\') {
+        position++;
+      }
+      scratch.append(buffer, start, position - start);
+      if (position == limit) {
+        if (!fillBuffer()) {
+          throw syntaxError("Unterminated string");
+        }
+        continue;
+      }
+      char c = buffer[position++];
+      if (c == '"') {
+        return scratch.toString();
+      }
+      scratch.append(readEscapeCharacter());
+    }
+  }
+
+  private void skipString() throws IOException {
+    expect('"');
+    while (true) {
+      int c = read();
+      if (c == '"') {
+        return;
+      } else if (c == '\\') {
+        readEscapeCharacter();
+      } else if (c == -1) {
+        throw syntaxError("Unterminated string");
+      }
+    }
+  }
+
+  private char readEscapeCharacter() throws IOException {
+    int c = read();
+    switch (c) {
+      case 'u':
+        {
+          int value = 0;
+          for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+              throw syntaxError("Invalid unicode escape");
+            }
+            value = (value << 4) | digit;
+          }
+          return (char) value;
+        }
+      case 't':
+        return '\t';
+      case 'b':
+        return '\b';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 'f':
+        return '\f';
+      case '"':
+      case '\\':
+      case '/':
+        return (char) c;
+      default:
+        throw syntaxError("Invalid escape sequence");
+    }
+  }
+
+  /** Reads an unquoted literal, that is a number, {@code true}, {@code false} or {@code null}. */
+  private String readLiteral() throws IOException {
+    peekNonWhitespace();
+    scratch.setLength(0);
+    while (true) {
+      int start = position;
+      while (position < limit && isLiteralCharacter(buffer[position])) {
+        position++;
+      }
+      scratch.append(buffer, start, position - start);
+      if (position < limit || !fillBuffer()) {
+        break;
+      }
+    }
+    if (scratch.length() == 0) {
+      throw syntaxError("Expected a literal");
+    }
+    return scratch.toString();
+  }
+
+  private static boolean isLiteralCharacter(char c) {
+    return (c >= '0' && c <= '9')
+        || (c >= 'a' && c <= 'z')
+        || (c >= 'A' && c <= 'Z')
+        || c == '-'
+        || c == '+'
+        || c == '.';
+  }
+
+  private void expect(char expected) throws IOException {
+    int c = peekNonWhitespace();
+    if (c != expected) {
+      String actual = c == -1 ? "end of input" : "'" + (char) c + "'";
+      throw syntaxError("Expected '" + expected + "' but was " + actual);
+    }
+    position++;
+  }
+
+  private int peekNonWhitespace() throws IOException {
+    while (true) {
+      if (position == limit && !fillBuffer()) {
+        return -1;
+      }
+      char c = buffer[position];
+      if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+        position++;
+      } else {
+        return c;
+      }
+    }
+  }
+
+  private int read() throws IOException {
+    if (position == limit && !fillBuffer()) {
+      return -1;
+    }
+    return buffer[position++];
+  }
+
+  private boolean fillBuffer() throws IOException {
+    position = 0;
+    limit = 0;
+    int read = in.read(buffer, 0, buffer.length);
+    if (read <= 0) {
+      return false;
+    }
+    limit = read;
+    return true;
+  }
+
+  private IOException syntaxError(String message) {
+    return new IOException("Invalid JSON: " + message);
+  }
+}
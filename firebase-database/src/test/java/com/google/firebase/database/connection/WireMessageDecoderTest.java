@@ -0,0 +1,110 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.connection;
+
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.connection.util.StringListReader;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.NodeUtilities;
+import com.google.firebase.database.util.JsonMapper;
+import java.io.IOException;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class WireMessageDecoderTest {
+
+  private static final PayloadDecoder NODE_DECODER = NodeUtilities::NodeFromJSONStream;
+
+  private static Map<String, Object> decode(String json, PayloadDecoder decoder)
+      throws IOException {
+    StringListReader reader = new StringListReader();
+    // Split the message like the websocket frames it arrives in.
+    for (int i = 0; i < json.length(); i += 7) {
+      reader.addString(json.substring(i, Math.min(json.length(), i + 7)));
+    }
+    reader.freeze();
+    return WireMessageDecoder.decode(reader, decoder);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> payload(Map<String, Object> message) {
+    Map<String, Object> data = (Map<String, Object>) message.get("d");
+    return (Map<String, Object>) data.get("b");
+  }
+
+  @Test
+  public void decodesDataUpdatesIntoNodes() throws IOException {
+    String data = "{\"a\":{\".priority\":1,\"b\":[1,null,\"x\"]},\"c\":true,\"d\":2.5,\"e\":null}";
+    for (String json :
+        new String[] {
+          "{\"t\":\"d\",\"d\":{\"a\":\"d\",\"b\":{\"p\":\"foo\",\"d\":" + data + "}}}",
+          "{\"d\":{\"a\":\"d\",\"b\":{\"d\":" + data + ",\"p\":\"foo\"}},\"t\":\"d\"}",
+        }) {
+      Map<String, Object> body = payload(decode(json, NODE_DECODER));
+
+      assertEquals("foo", body.get("p"));
+      assertTrue(body.get("d") instanceof Node);
+      assertEquals(NodeFromJSON(JsonMapper.parseJsonValue(data)), body.get("d"));
+    }
+  }
+
+  @Test
+  public void parsesPayloadThatPrecedesActionAsJson() throws IOException {
+    String data = "{\"a\":{\".priority\":1,\"b\":[1,null,\"x\"]},\"c\":true}";
+    String json = "{\"t\":\"d\",\"d\":{\"b\":{\"p\":\"foo\",\"d\":" + data + "},\"a\":\"d\"}}";
+
+    // The payload is kept as JSON, which the receiver converts like messages without a decoder.
+    assertEquals(JsonMapper.parseJson(json), decode(json, NODE_DECODER));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void decodesMergesIntoNodesPerPath() throws IOException {
+    String data = "{\"a/b\":1,\"c\":{\"d\":\"e\"}}";
+    String json = "{\"t\":\"d\",\"d\":{\"a\":\"m\",\"b\":{\"p\":\"foo\",\"d\":" + data + "}}}";
+
+    Map<String, Object> merge = (Map<String, Object>) payload(decode(json, NODE_DECODER)).get("d");
+
+    assertEquals(NodeFromJSON(1), merge.get("a/b"));
+    assertEquals(NodeFromJSON(JsonMapper.parseJsonValue("{\"d\":\"e\"}")), merge.get("c"));
+  }
+
+  @Test
+  public void leavesOtherMessagesAsJson() throws IOException {
+    String[] messages = {
+      "{\"t\":\"d\",\"d\":{\"r\":1,\"b\":{\"s\":\"ok\",\"d\":{\"w\":[\"no_index\"]}}}}",
+      "{\"t\":\"c\",\"d\":{\"t\":\"h\",\"d\":{\"ts\":1,\"v\":\"5\",\"h\":\"host\",\"s\":\"\"}}}",
+      "{\"t\":\"d\",\"d\":{\"a\":\"c\",\"b\":{\"p\":\"foo\"}}}",
+    };
+    for (String json : messages) {
+      assertEquals(JsonMapper.parseJson(json), decode(json, NODE_DECODER));
+    }
+  }
+
+  @Test
+  public void withoutDecoderParsesJson() throws IOException {
+    String json = "{\"t\":\"d\",\"d\":{\"a\":\"d\",\"b\":{\"p\":\"foo\",\"d\":{\"a\":1}}}}";
+
+    assertEquals(JsonMapper.parseJson(json), decode(json, null));
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.snapshot.NodeUtilities;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class CoalescedWriteBatchTest {
+
+  private static CompoundWrite merge(String key, Object value) {
+    Map<String, Object> values = new HashMap<String, Object>();
+    values.put(key, value);
+    return CompoundWrite.fromValue(values);
+  }
+
+  @Test
+  public void combinesWritesBelowBatchPathIntoMerge() {
+    CoalescedWriteBatch batch = new CoalescedWriteBatch(new Path("a"));
+    batch.addOverwrite(1, new Path("a/b"), NodeUtilities.NodeFromJSON(1L), null);
+    batch.addMerge(2, new Path("a"), merge("c", 2L), null);
+    batch.addOverwrite(3, new Path("a/b"), NodeUtilities.NodeFromJSON(3L), null);
+
+    Map<String, Object> expected = new HashMap<String, Object>();
+    expected.put("b", 3L);
+    expected.put("c", 2L);
+    assertEquals(new Path("a"), batch.getPath());
+    assertNull(batch.getWrite().rootWrite());
+    assertEquals(expected, batch.getWrite().getValue(true));
+    assertEquals(3, batch.getLastWriteId());
+    assertEquals(3, batch.getWrites().size());
+    assertEquals("updateChildren", batch.getWrites().get(1).writeType);
+  }
+
+  @Test
+  public void rebasesOntoWriteAbovePath() {
+    CoalescedWriteBatch batch = new CoalescedWriteBatch(new Path("a/b"));
+    batch.addOverwrite(1, new Path("a/b"), NodeUtilities.NodeFromJSON("old"), null);
+    batch.addMerge(2, new Path("a"), merge("c", "new"), null);
+
+    Map<String, Object> expected = new HashMap<String, Object>();
+    expected.put("b", "old");
+    expected.put("c", "new");
+    assertEquals(new Path("a"), batch.getPath());
+    assertEquals(expected, batch.getWrite().getValue(true));
+  }
+
+  @Test
+  public void laterOverwriteOfBatchPathReplacesEarlierWrites() {
+    CoalescedWriteBatch batch = new CoalescedWriteBatch(new Path("a/b"));
+    batch.addOverwrite(1, new Path("a/b/c"), NodeUtilities.NodeFromJSON(1L), null);
+    batch.addOverwrite(2, new Path("a"), NodeUtilities.NodeFromJSON(2L), null);
+    batch.addMerge(3, new Path("a"), merge(".priority", 5L), null);
+
+    assertEquals(new Path("a"), batch.getPath());
+    assertEquals(
+        NodeUtilities.NodeFromJSON(2L)
+            .updatePriority(NodeUtilities.NodeFromJSON(5L)),
+        batch.getWrite().rootWrite());
+  }
+
+  @Test
+  public void onlyOverlappingWritesCanJoin() {
+    CoalescedWriteBatch batch = new CoalescedWriteBatch(new Path("a/b"));
+    assertTrue(batch.overlaps(new Path("a/b")));
+    assertTrue(batch.overlaps(new Path("a/b/c")));
+    assertTrue(batch.overlaps(new Path("a")));
+    assertTrue(batch.overlaps(Path.getEmptyPath()));
+    assertFalse(batch.overlaps(new Path("a/c")));
+    assertFalse(batch.overlaps(new Path("b")));
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class ParallelEventTargetTest {
+
+  private static final long TIMEOUT_SECONDS = 10;
+
+  @Test
+  public void slowKeyDoesNotBlockOtherKeys() throws InterruptedException {
+    ParallelEventTarget target = new ParallelEventTarget(2);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch otherRan = new CountDownLatch(1);
+
+    target.postEvent(
+        "slow",
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+    target.postEvent(
+        "other",
+        new Runnable() {
+          @Override
+          public void run() {
+            otherRan.countDown();
+          }
+        });
+
+    assertTrue(otherRan.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    release.countDown();
+  }
+
+  @Test
+  public void eventsWithSameKeyRunInOrder() throws InterruptedException {
+    ParallelEventTarget target = new ParallelEventTarget(4);
+    final List<Integer> first = Collections.synchronizedList(new ArrayList<Integer>());
+    final List<Integer> second = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(2000);
+    List<Integer> expected = new ArrayList<Integer>();
+
+    for (int i = 0; i < 1000; i++) {
+      final int value = i;
+      expected.add(i);
+      target.postEvent(new String("first"), addRunnable(first, value, done));
+      target.postEvent("second", addRunnable(second, value, done));
+    }
+
+    assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertEquals(expected, first);
+    assertEquals(expected, second);
+  }
+
+  @Test
+  public void failingEventDoesNotStallItsKey() throws InterruptedException {
+    ParallelEventTarget target = new ParallelEventTarget(1);
+    final CountDownLatch ran = new CountDownLatch(1);
+
+    target.postEvent(
+        "key",
+        new Runnable() {
+          @Override
+          public void run() {
+            throw new RuntimeException("Listener failed");
+          }
+        });
+    target.postEvent(
+        "key",
+        new Runnable() {
+          @Override
+          public void run() {
+            ran.countDown();
+          }
+        });
+
+    assertTrue(ran.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  private static Runnable addRunnable(
+      final List<Integer> list, final int value, final CountDownLatch done) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        list.add(value);
+        done.countDown();
+      }
+    };
+  }
+}
@@ -0,0 +1,110 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.NodeUtilities;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PendingWriteIndexTest {
+
+  private static final Node LEAF_NODE = NodeUtilities.NodeFromJSON("leaf-node");
+
+  private static UserWriteRecord write(long writeId, String path, boolean visible) {
+    return new UserWriteRecord(writeId, new Path(path), LEAF_NODE, visible);
+  }
+
+  @Test
+  public void findsWritesAtOrAbovePathInWriteIdOrder() {
+    PendingWriteIndex index = new PendingWriteIndex();
+    UserWriteRecord deep = write(1, "a/b/c", true);
+    UserWriteRecord root = write(2, "", true);
+    UserWriteRecord sibling = write(3, "a/d", true);
+    UserWriteRecord parent = write(4, "a", true);
+    index.addWrite(deep);
+    index.addWrite(root);
+    index.addWrite(sibling);
+    index.addWrite(parent);
+
+    assertEquals(Arrays.asList(root, parent), index.getWritesAtOrAbove(new Path("a/b")));
+    assertEquals(Arrays.asList(deep, root, parent), index.getWritesAtOrAbove(new Path("a/b/c/e")));
+    assertEquals(Arrays.asList(root), index.getWritesAtOrAbove(new Path("x")));
+  }
+
+  @Test
+  public void findsOverlappingWritesInWriteIdOrder() {
+    PendingWriteIndex index = new PendingWriteIndex();
+    UserWriteRecord deep = write(1, "a/b/c", true);
+    UserWriteRecord sibling = write(2, "a/d", true);
+    UserWriteRecord parent = write(3, "a", true);
+    UserWriteRecord other = write(4, "x/y", true);
+    index.addWrite(deep);
+    index.addWrite(sibling);
+    index.addWrite(parent);
+    index.addWrite(other);
+
+    assertEquals(Arrays.asList(deep, parent), index.getOverlappingWrites(new Path("a/b")));
+    assertEquals(
+        Arrays.asList(deep, sibling, parent, other),
+        index.getOverlappingWrites(Path.getEmptyPath()));
+    assertEquals(Collections.emptyList(), index.getOverlappingWrites(new Path("q")));
+  }
+
+  @Test
+  public void tracksVisibleWritesInSubtree() {
+    PendingWriteIndex index = new PendingWriteIndex();
+    UserWriteRecord visible = write(1, "a/b", true);
+    UserWriteRecord hidden = write(2, "a/c", false);
+    index.addWrite(visible);
+    index.addWrite(hidden);
+
+    assertTrue(index.hasVisibleWriteAtOrBelow(new Path("a")));
+    assertTrue(index.hasVisibleWriteAtOrBelow(new Path("a/b")));
+    assertFalse(index.hasVisibleWriteAtOrBelow(new Path("a/c")));
+    assertFalse(index.hasVisibleWriteAtOrBelow(new Path("a/b/d")));
+
+    index.removeWrite(visible);
+
+    assertFalse(index.hasVisibleWriteAtOrBelow(new Path("a")));
+    assertEquals(Arrays.asList(hidden), index.getOverlappingWrites(new Path("a")));
+  }
+
+  @Test
+  public void removingLastWriteDropsSubtree() {
+    PendingWriteIndex index = new PendingWriteIndex();
+    UserWriteRecord first = write(1, "a/b", true);
+    UserWriteRecord second = write(2, "a/b", true);
+    index.addWrite(first);
+    index.addWrite(second);
+
+    index.removeWrite(first);
+    assertEquals(Arrays.asList(second), index.getWritesAtOrAbove(new Path("a/b")));
+
+    index.removeWrite(second);
+    assertEquals(Collections.emptyList(), index.getOverlappingWrites(Path.getEmptyPath()));
+    assertFalse(index.hasVisibleWriteAtOrBelow(Path.getEmptyPath()));
+  }
+}
@@ -0,0 +1,225 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.core;
+
+import static com.google.firebase.database.UnitTestHelpers.fromSingleQuotedString;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.InternalHelpers;
+import com.google.firebase.database.TestValues;
+import com.google.firebase.database.UnitTestHelpers;
+import com.google.firebase.database.ValueEventListener;
+import com.google.firebase.database.android.AndroidPlatform;
+import com.google.firebase.database.connection.PersistentConnection;
+import com.google.firebase.database.connection.RequestResultCallback;
+import com.google.firebase.database.core.utilities.Utilities;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RepoWriteCoalescingTest {
+
+  private static final long TIMEOUT_MS = 10 * 1000;
+
+  private final PersistentConnection connection = mock(PersistentConnection.class);
+
+  private Repo newRepo(long windowMillis) {
+    DatabaseConfig config = UnitTestHelpers.newTestConfig();
+    config.setWriteCoalescingWindowMillis(windowMillis);
+    Platform platform = spy(new AndroidPlatform(FirebaseApp.getInstance()));
+    doReturn(connection).when(platform).newPersistentConnection(any(), any(), any(), any());
+    config.forcePlatform(platform);
+    return RepoManager.getRepo(config, Utilities.parseUrl(TestValues.TEST_NAMESPACE).repoInfo);
+  }
+
+  private static DatabaseReference ref(Repo repo, String path) {
+    return InternalHelpers.createReference(repo, new Path(path));
+  }
+
+  private static DatabaseReference.CompletionListener recordTo(
+      final List<String> completions, final String name, final Semaphore semaphore) {
+    return new DatabaseReference.CompletionListener() {
+      @Override
+      public void onComplete(DatabaseError error, DatabaseReference ref) {
+        completions.add(name + ":" + (error == null ? "ok" : error.getCode()));
+        semaphore.release();
+      }
+    };
+  }
+
+  private RequestResultCallback awaitPut(String path, Object value) {
+    ArgumentCaptor<RequestResultCallback> callback =
+        ArgumentCaptor.forClass(RequestResultCallback.class);
+    verify(connection, timeout(TIMEOUT_MS))
+        .put(eq(Arrays.asList(path)), eq(value), callback.capture());
+    return callback.getValue();
+  }
+
+  /** Delivers the server's response to a request on the run loop, like the connection does. */
+  private static void respond(
+      Repo repo, final RequestResultCallback callback, final String optErrorCode) {
+    repo.scheduleNow(
+        new Runnable() {
+          @Override
+          public void run() {
+            callback.onRequestResult(optErrorCode, optErrorCode);
+          }
+        });
+  }
+
+  @Test
+  public void combinedWriteCompletesEveryWriteInOrder() throws InterruptedException {
+    Repo repo = newRepo(100);
+    List<String> completions = Collections.synchronizedList(new ArrayList<String>());
+    Semaphore completed = new Semaphore(0);
+
+    ref(repo, "a")
+        .setValue(
+            fromSingleQuotedString("{'b':'1','c':'1'}"),
+            recordTo(completions, "first", completed));
+    ref(repo, "a/b").setValue("2", recordTo(completions, "second", completed));
+
+    RequestResultCallback callback = awaitPut("a", fromSingleQuotedString("{'b':'2','c':'1'}"));
+    assertEquals(0, completed.availablePermits());
+    respond(repo, callback, null);
+
+    UnitTestHelpers.waitFor(completed, 2);
+    assertEquals(Arrays.asList("first:ok", "second:ok"), completions);
+  }
+
+  @Test
+  public void listenersSeeEachWriteBeforeItIsSent() throws InterruptedException {
+    Repo repo = newRepo(1000);
+    BlockingQueue<Object> values = new LinkedBlockingQueue<Object>();
+    ref(repo, "a").addValueEventListener(recordValuesTo(values));
+
+    ref(repo, "a").setValue(fromSingleQuotedString("{'b':'1','c':'1'}"));
+    ref(repo, "a/b").setValue("2");
+
+    assertEquals(fromSingleQuotedString("{'b':'1','c':'1'}"), nextValue(values));
+    assertEquals(fromSingleQuotedString("{'b':'2','c':'1'}"), nextValue(values));
+    verify(connection, never()).put(any(), any(), any());
+
+    respond(repo, awaitPut("a", fromSingleQuotedString("{'b':'2','c':'1'}")), null);
+  }
+
+  @Test
+  public void rejectedCombinedWriteFailsAndRevertsEveryWrite() throws InterruptedException {
+    final Repo repo = newRepo(100);
+    BlockingQueue<Object> values = new LinkedBlockingQueue<Object>();
+    ref(repo, "a").addValueEventListener(recordValuesTo(values));
+    repo.scheduleNow(
+        new Runnable() {
+          @Override
+          public void run() {
+            repo.onDataUpdate(
+                Arrays.asList("a"), fromSingleQuotedString("{'b':'0','c':'0'}"), false, null);
+          }
+        });
+    assertEquals(fromSingleQuotedString("{'b':'0','c':'0'}"), nextValue(values));
+
+    List<String> completions = Collections.synchronizedList(new ArrayList<String>());
+    Semaphore completed = new Semaphore(0);
+    ref(repo, "a/b").setValue("1", recordTo(completions, "first", completed));
+    ref(repo, "a")
+        .updateChildren(
+            fromSingleQuotedString("{'c':'1'}"), recordTo(completions, "second", completed));
+    assertEquals(fromSingleQuotedString("{'b':'1','c':'0'}"), nextValue(values));
+    assertEquals(fromSingleQuotedString("{'b':'1','c':'1'}"), nextValue(values));
+
+    ArgumentCaptor<RequestResultCallback> callback =
+        ArgumentCaptor.forClass(RequestResultCallback.class);
+    verify(connection, timeout(TIMEOUT_MS))
+        .merge(
+            eq(Arrays.asList("a")),
+            eq(fromSingleQuotedString("{'b':'1','c':'1'}")),
+            callback.capture());
+    respond(repo, callback.getValue(), "permission_denied");
+
+    UnitTestHelpers.waitFor(completed, 2);
+    assertEquals(
+        Arrays.asList(
+            "first:" + DatabaseError.PERMISSION_DENIED,
+            "second:" + DatabaseError.PERMISSION_DENIED),
+        completions);
+    assertEquals(fromSingleQuotedString("{'b':'0','c':'1'}"), nextValue(values));
+    assertEquals(fromSingleQuotedString("{'b':'0','c':'0'}"), nextValue(values));
+  }
+
+  @Test
+  public void writeToOtherLocationSendsPendingWritesFirst() throws InterruptedException {
+    Repo repo = newRepo(1000);
+
+    ref(repo, "a").setValue("1");
+    ref(repo, "b").setValue("2");
+    ref(repo, "a").setValue("3");
+
+    awaitPut("a", "3");
+    InOrder inOrder = inOrder(connection);
+    inOrder.verify(connection).put(eq(Arrays.asList("a")), eq("1"), any());
+    inOrder.verify(connection).put(eq(Arrays.asList("b")), eq("2"), any());
+    inOrder.verify(connection).put(eq(Arrays.asList("a")), eq("3"), any());
+  }
+
+  private static ValueEventListener recordValuesTo(final BlockingQueue<Object> values) {
+    return new ValueEventListener() {
+      @Override
+      public void onDataChange(DataSnapshot snapshot) {
+        if (snapshot.exists()) {
+          values.add(snapshot.getValue());
+        }
+      }
+
+      @Override
+      public void onCancelled(DatabaseError error) {
+        values.add(error);
+      }
+    };
+  }
+
+  private static Object nextValue(BlockingQueue<Object> values) throws InterruptedException {
+    Object value = values.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    if (value == null) {
+      throw new AssertionError("Timed out waiting for a value event");
+    }
+    return value;
+  }
+}
@@ -26,6 +26,8 @@ import static org.junit.Assert.assertTrue;
 
 import com.google.firebase.database.core.CompoundWrite;
 import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.RunLoop;
+import com.google.firebase.database.core.utilities.DefaultClock;
 import com.google.firebase.database.core.view.CacheNode;
 import com.google.firebase.database.core.view.QueryParams;
 import com.google.firebase.database.core.view.QuerySpec;
@@ -33,6 +35,9 @@ import com.google.firebase.database.snapshot.EmptyNode;
 import com.google.firebase.database.snapshot.Index;
 import com.google.firebase.database.snapshot.Node;
 import com.google.firebase.database.snapshot.PathIndex;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 import org.junit.Test;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
@@ -121,4 +126,50 @@ public class DefaultPersistenceManagerTest {
     Node actual = engine.serverCache(path(""));
     assertEquals(expected, actual);
   }
+
+  @Test
+  public void prunesInBackgroundSteps() {
+    MockPersistenceStorageEngine engine = new MockPersistenceStorageEngine();
+    engine.disableTransactionCheck = true;
+    TestCachePolicy cachePolicy = new TestCachePolicy(1.0f, Long.MAX_VALUE);
+    final List<Runnable> scheduled = new ArrayList<Runnable>();
+    RunLoop runLoop =
+        new RunLoop() {
+          @Override
+          public void scheduleNow(Runnable r) {
+            scheduled.add(r);
+          }
+
+          @Override
+          public ScheduledFuture schedule(Runnable r, long milliseconds) {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public void shutdown() {}
+
+          @Override
+          public void restart() {}
+        };
+    DefaultPersistenceManager manager =
+        new DefaultPersistenceManager(
+            newFrozenTestConfig(), engine, cachePolicy, new DefaultClock(), runLoop);
+
+    manager.setQueryActive(defaultFooQuery);
+    manager.updateServerCache(defaultFooQuery, NodeFromJSON("foo-value"));
+    manager.setQueryInactive(defaultFooQuery);
+    manager.setQueryActive(defaultQueryAt("bar"));
+    cachePolicy.pruneOnNextServerUpdate();
+    manager.updateServerCache(defaultQueryAt("bar"), NodeFromJSON("bar-value"));
+
+    // The update doesn't prune the cache itself.
+    assertEquals(NodeFromJSON("foo-value"), engine.serverCache(path("foo")));
+
+    while (!scheduled.isEmpty()) {
+      scheduled.remove(0).run();
+    }
+
+    assertEquals(EmptyNode.Empty(), engine.serverCache(path("foo")));
+    assertEquals(NodeFromJSON("bar-value"), engine.serverCache(path("bar")));
+  }
 }
@@ -0,0 +1,162 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.snapshot;
+
+import static com.google.firebase.database.UnitTestHelpers.fromSingleQuotedString;
+import static com.google.firebase.database.UnitTestHelpers.path;
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.MapBuilder;
+import com.google.firebase.database.core.CompoundWrite;
+import java.nio.charset.Charset;
+import java.util.Map;
+import org.junit.Test;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@org.junit.runner.RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BinaryNodeSerializerTest {
+
+  private static Node roundTrip(Node node) {
+    byte[] serialized = BinaryNodeSerializer.serializeNode(node);
+    assertTrue(BinaryNodeSerializer.isBinary(serialized));
+    return BinaryNodeSerializer.deserializeNode(serialized);
+  }
+
+  @Test
+  public void leafNodesRoundTrip() {
+    Node priority = new StringNode("pri", EmptyNode.Empty());
+    Node[] nodes = {
+      EmptyNode.Empty(),
+      new StringNode("hello ü世", priority),
+      new LongNode(0L, EmptyNode.Empty()),
+      new LongNode(-1L, EmptyNode.Empty()),
+      new LongNode(Long.MIN_VALUE, priority),
+      new LongNode(Long.MAX_VALUE, EmptyNode.Empty()),
+      new DoubleNode(4.5623, new DoubleNode(1.5, EmptyNode.Empty())),
+      new DoubleNode(Double.NaN, EmptyNode.Empty()),
+      new BooleanNode(true, EmptyNode.Empty()),
+      new BooleanNode(false, priority),
+    };
+    for (Node node : nodes) {
+      Node result = roundTrip(node);
+      assertEquals(node, result);
+      assertEquals(node.getPriority(), result.getPriority());
+    }
+  }
+
+  @Test
+  public void childrenNodesRoundTrip() {
+    Map<String, Object> data =
+        fromSingleQuotedString(
+            "{'.priority': 3, 'users': {"
+                + "'alice': {'name': 'Alice', 'age': 32, 'admin': true},"
+                + "'bob': {'name': 'Bob', 'age': 27.5, '.priority': 'b'},"
+                + "'0': 'zero', '10': 'ten', '2': 'two'}}");
+    Node node = NodeFromJSON(data);
+
+    Node result = roundTrip(node);
+
+    assertEquals(node, result);
+    assertEquals(node.getHash(), result.getHash());
+    assertEquals(node.getValue(true), result.getValue(true));
+  }
+
+  @Test
+  public void largeChildrenNodesRoundTrip() {
+    MapBuilder builder = new MapBuilder();
+    for (int i = 0; i < 1000; i++) {
+      builder.put("child" + i, new MapBuilder().put("value", i).put("name", "n" + i).build());
+    }
+    Node node = NodeFromJSON(builder.build());
+
+    Node result = roundTrip(node);
+
+    assertEquals(node, result);
+    assertEquals(node.getFirstChildKey(), result.getFirstChildKey());
+    assertEquals(node.getLastChildKey(), result.getLastChildKey());
+  }
+
+  @Test
+  public void repeatedKeysAreWrittenOnce() {
+    MapBuilder builder = new MapBuilder();
+    for (int i = 0; i < 100; i++) {
+      builder.put("child" + i, new MapBuilder().put("someLongFieldName", i).build());
+    }
+    Node node = NodeFromJSON(builder.build());
+
+    byte[] serialized = BinaryNodeSerializer.serializeNode(node);
+    String asString = new String(serialized, Charset.forName("UTF-8"));
+
+    assertEquals(asString.indexOf("someLongFieldName"), asString.lastIndexOf("someLongFieldName"));
+  }
+
+  @Test
+  public void deferredValuesRoundTrip() {
+    Node node = NodeFromJSON(fromSingleQuotedString("{'time': {'.sv': 'timestamp'}}"));
+
+    assertEquals(node, roundTrip(node));
+  }
+
+  @Test
+  public void mergesRoundTrip() {
+    CompoundWrite merge =
+        CompoundWrite.emptyWrite()
+            .addWrite(path("a/b"), NodeFromJSON("value"))
+            .addWrite(path("c"), NodeFromJSON(fromSingleQuotedString("{'d': 1, 'e': false}")))
+            .addWrite(path("f"), EmptyNode.Empty());
+
+    byte[] serialized = BinaryNodeSerializer.serializeMerge(merge);
+
+    assertTrue(BinaryNodeSerializer.isBinary(serialized));
+    assertEquals(merge, BinaryNodeSerializer.deserializeMerge(serialized));
+  }
+
+  @Test
+  public void jsonIsNotBinary() {
+    for (String json : new String[] {"{\"a\":1}", "\"a\"", "1", "true", "null", "[1]"}) {
+      assertFalse(BinaryNodeSerializer.isBinary(json.getBytes(Charset.forName("UTF-8"))));
+    }
+  }
+
+  @Test(expected = DatabaseException.class)
+  public void truncatedInputThrows() {
+    byte[] serialized =
+        BinaryNodeSerializer.serializeNode(new StringNode("hello", EmptyNode.Empty()));
+    byte[] truncated = new byte[serialized.length - 1];
+    System.arraycopy(serialized, 0, truncated, 0, truncated.length);
+    BinaryNodeSerializer.deserializeNode(truncated);
+  }
+
+  @Test(expected = DatabaseException.class)
+  public void unknownVersionThrows() {
+    byte[] serialized =
+        BinaryNodeSerializer.serializeNode(new BooleanNode(true, EmptyNode.Empty()));
+    serialized[1]++;
+    BinaryNodeSerializer.deserializeNode(serialized);
+  }
+
+  @Test(expected = DatabaseException.class)
+  public void unsortedChildrenThrow() {
+    // A children node with the keys "b" and "a", each with the value true and no priority.
+    byte[] serialized = new byte[] {0, 1, 1, 2, 0, 1, 'b', 5, 0, 0, 1, 'a', 5, 0, 0};
+    BinaryNodeSerializer.deserializeNode(serialized);
+  }
+}
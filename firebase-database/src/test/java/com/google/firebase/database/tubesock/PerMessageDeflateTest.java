@@ -0,0 +1,136 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.database.tubesock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PerMessageDeflateTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static String repeat(String value, int count) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      builder.append(value);
+    }
+    return builder.toString();
+  }
+
+  private static byte[] compress(PerMessageDeflate deflate, String message) {
+    ByteBufferPool pool = ByteBufferPool.getInstance();
+    ByteBuffer payload = pool.acquire();
+    payload.put(message.getBytes(UTF8)).flip();
+    payload.position(ByteBufferPool.HEADER_RESERVE);
+    ByteBuffer compressed = deflate.compress(payload, pool);
+    byte[] result = new byte[compressed.remaining()];
+    compressed.get(result);
+    pool.release(compressed);
+    return result;
+  }
+
+  private static String decompress(PerMessageDeflate inflate, byte[] compressed) {
+    MessageBuilderFactory.Builder builder = MessageBuilderFactory.builder(WebSocket.OPCODE_TEXT);
+    // Split the message like the frames it arrives in.
+    int half = compressed.length / 2;
+    assertTrue(inflate.decompress(compressed, 0, half, builder));
+    assertTrue(inflate.decompress(compressed, half, compressed.length - half, builder));
+    assertTrue(inflate.finishMessage(builder));
+    return builder.toMessage().getText();
+  }
+
+  @Test
+  public void compressedMessagesRoundTrip() {
+    PerMessageDeflate client = new PerMessageDeflate(false, false);
+    PerMessageDeflate server = new PerMessageDeflate(false, false);
+    String message = "{\"t\":\"d\",\"d\":{\"b\":" + repeat("{\"ü世\":\"value\"},", 500) + "}}";
+
+    byte[] first = compress(client, message);
+    byte[] second = compress(client, message);
+
+    assertTrue(first.length < message.length() / 10);
+    // The second message refers back to the first one through the shared context.
+    assertTrue(second.length < first.length);
+    assertEquals(message, decompress(server, first));
+    assertEquals(message, decompress(server, second));
+  }
+
+  @Test
+  public void noContextTakeoverResetsBetweenMessages() {
+    PerMessageDeflate client = new PerMessageDeflate(true, true);
+    PerMessageDeflate server = new PerMessageDeflate(true, true);
+    String message = repeat("abcdefgh", 100);
+
+    byte[] first = compress(client, message);
+    byte[] second = compress(client, message);
+
+    assertEquals(first.length, second.length);
+    assertEquals(message, decompress(server, first));
+    assertEquals(message, decompress(server, second));
+  }
+
+  @Test
+  public void parsesServerHandshake() {
+    assertNull(PerMessageDeflate.fromServerHandshake(null));
+    assertNull(PerMessageDeflate.fromServerHandshake(""));
+    assertTrue(PerMessageDeflate.fromServerHandshake("permessage-deflate") != null);
+    assertTrue(
+        PerMessageDeflate.fromServerHandshake(
+                "permessage-deflate; client_no_context_takeover; server_max_window_bits=10")
+            != null);
+  }
+
+  @Test(expected = WebSocketException.class)
+  public void rejectsUnknownExtensions() {
+    PerMessageDeflate.fromServerHandshake("x-webkit-deflate-frame");
+  }
+
+  @Test(expected = WebSocketException.class)
+  public void rejectsUnknownParameters() {
+    PerMessageDeflate.fromServerHandshake("permessage-deflate; client_max_window_bits=10");
+  }
+
+  @Test
+  public void decodesCharactersSplitAcrossFrames() {
+    byte[] bytes = "aü世😀b".getBytes(UTF8);
+    MessageBuilderFactory.Builder builder = MessageBuilderFactory.builder(WebSocket.OPCODE_TEXT);
+
+    for (byte b : bytes) {
+      assertTrue(builder.appendBytes(ByteBuffer.wrap(new byte[] {b})));
+    }
+
+    assertEquals("aü世😀b", builder.toMessage().getText());
+  }
+
+  @Test
+  public void incompleteCharacterIsRejected() {
+    byte[] bytes = "世".getBytes(UTF8);
+    MessageBuilderFactory.Builder builder = MessageBuilderFactory.builder(WebSocket.OPCODE_TEXT);
+
+    assertTrue(builder.appendBytes(ByteBuffer.wrap(bytes, 0, 2)));
+
+    assertNull(builder.toMessage());
+  }
+}
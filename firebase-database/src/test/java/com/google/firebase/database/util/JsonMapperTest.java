@@ -15,8 +15,10 @@
 package com.google.firebase.database.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -62,4 +64,60 @@ public class JsonMapperTest {
     Object value = JsonMapper.parseJsonValue(jsonString);
     assertEquals(root, value);
   }
+
+  @Test
+  public void parsesNumbersWithOrgJsonTypes() throws IOException {
+    Map<String, Object> parsed =
+        JsonMapper.parseJson("{\"i\": 1, \"l\": 12345678901, \"d\": 1.5, \"e\": 1e3}");
+
+    assertEquals(1, parsed.get("i"));
+    assertEquals(12345678901L, parsed.get("l"));
+    assertEquals(1.5, parsed.get("d"));
+    assertEquals(1000.0, parsed.get("e"));
+  }
+
+  @Test
+  public void serializesLikeOrgJson() throws IOException {
+    assertEquals("1", JsonMapper.serializeJsonValue(1.0));
+    assertEquals("-0", JsonMapper.serializeJsonValue(-0.0));
+    assertEquals("1.5", JsonMapper.serializeJsonValue(1.5));
+    assertEquals(
+        "\"a\\\"b\\\\c\\/d\\n\\u0001\"", JsonMapper.serializeJsonValue("a\"b\\c/d\n\u0001"));
+    assertEquals("[1,null,true]", JsonMapper.serializeJsonValue(Arrays.asList(1, null, true)));
+  }
+
+  @Test(expected = IOException.class)
+  public void cannotSerializeNaN() throws IOException {
+    JsonMapper.serializeJsonValue(Double.NaN);
+  }
+
+  @Test
+  public void roundTripsEscapedStrings() throws IOException {
+    StringBuilder longString = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      longString.append((char) ('a' + i % 26)).append(i % 100 == 0 ? "\\\"\u00fc\n" : "");
+    }
+    Map<String, Object> original = new HashMap<>();
+    original.put("key \"with\" quotes", longString.toString());
+    original.put("nested", Arrays.asList("x", 1, 2.5, false, null));
+
+    String json = JsonMapper.serializeJsonValue(original);
+
+    assertEquals(original, JsonMapper.parseJson(new StringReader(json)));
+  }
+
+  @Test
+  public void parsesNull() throws IOException {
+    assertNull(JsonMapper.parseJsonValue(" null "));
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsMissingSeparators() throws IOException {
+    JsonMapper.parseJson("{\"a\": 1 \"b\": 2}");
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsNonObjects() throws IOException {
+    JsonMapper.parseJson("[1, 2]");
+  }
 }
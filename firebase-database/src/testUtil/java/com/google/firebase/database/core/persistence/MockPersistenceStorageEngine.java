@@ -135,6 +135,16 @@ public class MockPersistenceStorageEngine implements PersistenceStorageEngine {
     }
   }
 
+  @Override
+  public long storageSizeInBytes() {
+    return serverCacheEstimatedSizeInBytes();
+  }
+
+  @Override
+  public boolean reclaimFreeSpace(long maxBytes) {
+    return false;
+  }
+
   @Override
   public void saveTrackedQuery(TrackedQuery trackedQuery) {
     verifyInsideTransaction();
@@ -39,6 +39,8 @@ public final class FirebaseFirestoreSettings {
     private boolean sslEnabled;
     private boolean persistenceEnabled;
     private long cacheSizeBytes;
+    private boolean incrementalGarbageCollectionEnabled;
+    private boolean streamPipeliningEnabled;
 
     /** Constructs a new {@code FirebaseFirestoreSettings} Builder object. */
     public Builder() {
@@ -46,6 +48,8 @@ public final class FirebaseFirestoreSettings {
       sslEnabled = true;
       persistenceEnabled = true;
       cacheSizeBytes = DEFAULT_CACHE_SIZE_BYTES;
+      incrementalGarbageCollectionEnabled = false;
+      streamPipeliningEnabled = false;
     }
 
     /**
@@ -58,6 +62,8 @@ public final class FirebaseFirestoreSettings {
       sslEnabled = settings.sslEnabled;
       persistenceEnabled = settings.persistenceEnabled;
       cacheSizeBytes = settings.cacheSizeBytes;
+      incrementalGarbageCollectionEnabled = settings.incrementalGarbageCollectionEnabled;
+      streamPipeliningEnabled = settings.streamPipeliningEnabled;
     }
 
     /**
@@ -116,6 +122,41 @@ public final class FirebaseFirestoreSettings {
       return this;
     }
 
+    /**
+     * Enables or disables incremental garbage collection of the on-disk cache. The default is to
+     * collect all data that is due in a single step, during which no other operations run.
+     *
+     * <p>When enabled, the data is collected in small steps between other operations. Collection
+     * also starts as soon as the cache grows to twice the size set by {@link #setCacheSizeBytes},
+     * instead of at the next periodic check. Has no effect if local persistent storage or garbage
+     * collection is disabled.
+     *
+     * @return A settings object that collects garbage incrementally as specified by the given
+     *     <tt>value</tt>.
+     */
+    @NonNull
+    public Builder setIncrementalGarbageCollectionEnabled(boolean value) {
+      this.incrementalGarbageCollectionEnabled = value;
+      return this;
+    }
+
+    /**
+     * Enables or disables stream pipelining. The default is to decode the messages that Firestore
+     * receives from the backend and to encode the writes it sends on the thread that processes
+     * them.
+     *
+     * <p>When enabled, messages are decoded and encoded on a background thread, so that large
+     * query results and batches of writes don't hold up other operations. Messages are still
+     * processed in the order in which they were received or sent.
+     *
+     * @return A settings object that pipelines streams as specified by the given <tt>value</tt>.
+     */
+    @NonNull
+    public Builder setStreamPipeliningEnabled(boolean value) {
+      this.streamPipeliningEnabled = value;
+      return this;
+    }
+
     /** @return the host of the Cloud Firestore backend. */
     @NonNull
     public String getHost() {
@@ -137,6 +178,16 @@ public final class FirebaseFirestoreSettings {
       return cacheSizeBytes;
     }
 
+    /** @return boolean indicating whether incremental garbage collection is enabled or not. */
+    public boolean isIncrementalGarbageCollectionEnabled() {
+      return incrementalGarbageCollectionEnabled;
+    }
+
+    /** @return boolean indicating whether stream pipelining is enabled or not. */
+    public boolean isStreamPipeliningEnabled() {
+      return streamPipeliningEnabled;
+    }
+
     @NonNull
     public FirebaseFirestoreSettings build() {
       if (!this.sslEnabled && this.host.equals(DEFAULT_HOST)) {
@@ -151,6 +202,8 @@ public final class FirebaseFirestoreSettings {
   private final boolean sslEnabled;
   private final boolean persistenceEnabled;
   private final long cacheSizeBytes;
+  private final boolean incrementalGarbageCollectionEnabled;
+  private final boolean streamPipeliningEnabled;
 
   /** Constructs a {@code FirebaseFirestoreSettings} object based on the values in the Builder. */
   private FirebaseFirestoreSettings(Builder builder) {
@@ -158,6 +211,8 @@ public final class FirebaseFirestoreSettings {
     sslEnabled = builder.sslEnabled;
     persistenceEnabled = builder.persistenceEnabled;
     cacheSizeBytes = builder.cacheSizeBytes;
+    incrementalGarbageCollectionEnabled = builder.incrementalGarbageCollectionEnabled;
+    streamPipeliningEnabled = builder.streamPipeliningEnabled;
   }
 
   @Override
@@ -173,7 +228,9 @@ public final class FirebaseFirestoreSettings {
     return host.equals(that.host)
         && sslEnabled == that.sslEnabled
         && persistenceEnabled == that.persistenceEnabled
-        && cacheSizeBytes == that.cacheSizeBytes;
+        && cacheSizeBytes == that.cacheSizeBytes
+        && incrementalGarbageCollectionEnabled == that.incrementalGarbageCollectionEnabled
+        && streamPipeliningEnabled == that.streamPipeliningEnabled;
   }
 
   @Override
@@ -182,6 +239,8 @@ public final class FirebaseFirestoreSettings {
     result = 31 * result + (sslEnabled ? 1 : 0);
     result = 31 * result + (persistenceEnabled ? 1 : 0);
     result = 31 * result + (int) cacheSizeBytes;
+    result = 31 * result + (incrementalGarbageCollectionEnabled ? 1 : 0);
+    result = 31 * result + (streamPipeliningEnabled ? 1 : 0);
     return result;
   }
 
@@ -197,6 +256,10 @@ public final class FirebaseFirestoreSettings {
         + persistenceEnabled
         + ", cacheSizeBytes="
         + cacheSizeBytes
+        + ", incrementalGarbageCollectionEnabled="
+        + incrementalGarbageCollectionEnabled
+        + ", streamPipeliningEnabled="
+        + streamPipeliningEnabled
         + "}";
   }
 
@@ -223,4 +286,14 @@ public final class FirebaseFirestoreSettings {
   public long getCacheSizeBytes() {
     return cacheSizeBytes;
   }
+
+  /** Returns whether or not to collect garbage from the on-disk cache incrementally. */
+  public boolean isIncrementalGarbageCollectionEnabled() {
+    return incrementalGarbageCollectionEnabled;
+  }
+
+  /** Returns whether or not to decode and encode stream messages on a background thread. */
+  public boolean isStreamPipeliningEnabled() {
+    return streamPipeliningEnabled;
+  }
 }
@@ -23,12 +23,24 @@ import com.google.firebase.firestore.model.MutableDocument;
 /** Interface implemented by components that can apply changes from a bundle to local storage. */
 public interface BundleCallback {
   /**
-   * Applies the documents from a bundle to the "ground-state" (remote) documents.
+   * Returns the number of documents of the given bundle that an earlier, interrupted load has
+   * already applied, or 0 if the bundle has not been partially loaded.
+   */
+  int getLoadedBundleDocumentCount(BundleMetadata bundleMetadata);
+
+  /**
+   * Applies a chunk of the documents from a bundle to the "ground-state" (remote) documents, and
+   * records in the same transaction that the first {@code loadedDocumentCount} documents of the
+   * bundle are applied. The chunk with {@code firstChunk} set restarts the set of documents that
+   * is held by the bundle.
    *
    * <p>LocalDocuments are re-calculated if there are remaining mutations in the queue.
    */
-  ImmutableSortedMap<DocumentKey, Document> applyBundledDocuments(
-      ImmutableSortedMap<DocumentKey, MutableDocument> documents, String bundleId);
+  ImmutableSortedMap<DocumentKey, Document> applyBundledDocumentChunk(
+      ImmutableSortedMap<DocumentKey, MutableDocument> documents,
+      BundleMetadata bundleMetadata,
+      boolean firstChunk,
+      int loadedDocumentCount);
 
   /** Saves the given NamedQuery to local persistence. */
   void saveNamedQuery(NamedQuery namedQuery, ImmutableSortedSet<DocumentKey> documentKeys);
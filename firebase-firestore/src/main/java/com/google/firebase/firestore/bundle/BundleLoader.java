@@ -14,6 +14,7 @@
 
 package com.google.firebase.firestore.bundle;
 
+import static com.google.firebase.firestore.model.DocumentCollections.emptyDocumentMap;
 import static com.google.firebase.firestore.model.DocumentCollections.emptyMutableDocumentMap;
 
 import androidx.annotation.Nullable;
@@ -32,23 +33,45 @@ import java.util.Map;
 /**
  * A class to process the elements from a bundle, load them into local storage and provide progress
  * update while loading.
+ *
+ * <p>Documents are applied to local storage in chunks of a bounded size, each in its own
+ * transaction that also records how many documents of the bundle are applied. If a load is
+ * interrupted, a later load of the same bundle skips the documents that are already applied.
  */
 public class BundleLoader {
+  /** The number of documents that {@code SyncEngine} applies to local storage at a time. */
+  public static final int DEFAULT_CHUNK_SIZE = 500;
+
   private final BundleCallback bundleCallback;
   private final BundleMetadata bundleMetadata;
+  private final int chunkSize;
   private final List<NamedQuery> queries;
-  private final Map<DocumentKey, BundledDocumentMetadata> documentsMetadata;
+  private final Map<String, ImmutableSortedSet<DocumentKey>> queryDocuments;
 
-  private ImmutableSortedMap<DocumentKey, MutableDocument> documents;
+  private ImmutableSortedMap<DocumentKey, MutableDocument> documentChunk;
+  private int documentsLoaded;
+  private int documentsApplied;
   private long bytesLoaded;
   @Nullable private BundledDocumentMetadata currentMetadata;
 
+  /** Creates a loader that applies all documents of the bundle in {@link #applyChanges}. */
   public BundleLoader(BundleCallback bundleCallback, BundleMetadata bundleMetadata) {
+    this(bundleCallback, bundleMetadata, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Creates a loader whose callers apply the documents with {@link #applyDocumentChunk} whenever
+   * {@code chunkSize} documents are added.
+   */
+  public BundleLoader(BundleCallback bundleCallback, BundleMetadata bundleMetadata, int chunkSize) {
+    Preconditions.checkArgument(chunkSize > 0, "Chunk size must be positive.");
     this.bundleCallback = bundleCallback;
     this.bundleMetadata = bundleMetadata;
+    this.chunkSize = chunkSize;
     this.queries = new ArrayList<>();
-    this.documents = emptyMutableDocumentMap();
-    this.documentsMetadata = new HashMap<>();
+    this.queryDocuments = new HashMap<>();
+    this.documentChunk = emptyMutableDocumentMap();
+    this.documentsApplied = bundleCallback.getLoadedBundleDocumentCount(bundleMetadata);
   }
 
   /**
@@ -61,21 +84,25 @@ public class BundleLoader {
     Preconditions.checkArgument(
         !(bundleElement instanceof BundleMetadata), "Unexpected bundle metadata element.");
 
-    int beforeDocumentCount = documents.size();
+    int beforeDocumentCount = documentsLoaded;
 
     if (bundleElement instanceof NamedQuery) {
       queries.add((NamedQuery) bundleElement);
     } else if (bundleElement instanceof BundledDocumentMetadata) {
       BundledDocumentMetadata bundledDocumentMetadata = (BundledDocumentMetadata) bundleElement;
-      documentsMetadata.put(bundledDocumentMetadata.getKey(), bundledDocumentMetadata);
+      for (String query : bundledDocumentMetadata.getQueries()) {
+        ImmutableSortedSet<DocumentKey> matchingKeys = queryDocuments.get(query);
+        if (matchingKeys == null) {
+          matchingKeys = DocumentKey.emptyKeySet();
+        }
+        queryDocuments.put(query, matchingKeys.insert(bundledDocumentMetadata.getKey()));
+      }
       currentMetadata = bundledDocumentMetadata;
       if (!((BundledDocumentMetadata) bundleElement).exists()) {
-        documents =
-            documents.insert(
-                bundledDocumentMetadata.getKey(),
-                MutableDocument.newNoDocument(
-                        bundledDocumentMetadata.getKey(), bundledDocumentMetadata.getReadTime())
-                    .setReadTime(bundledDocumentMetadata.getReadTime()));
+        addDocument(
+            MutableDocument.newNoDocument(
+                    bundledDocumentMetadata.getKey(), bundledDocumentMetadata.getReadTime())
+                .setReadTime(bundledDocumentMetadata.getReadTime()));
         currentMetadata = null;
       }
     } else if (bundleElement instanceof BundleDocument) {
@@ -84,18 +111,15 @@ public class BundleLoader {
         throw new IllegalArgumentException(
             "The document being added does not match the stored metadata.");
       }
-      documents =
-          documents.insert(
-              bundleDocument.getKey(),
-              bundleDocument.getDocument().setReadTime(currentMetadata.getReadTime()));
+      addDocument(bundleDocument.getDocument().setReadTime(currentMetadata.getReadTime()));
       currentMetadata = null;
     }
 
     bytesLoaded += byteSize;
 
-    return beforeDocumentCount != documents.size()
+    return beforeDocumentCount != documentsLoaded
         ? new LoadBundleTaskProgress(
-            documents.size(),
+            documentsLoaded,
             bundleMetadata.getTotalDocuments(),
             bytesLoaded,
             bundleMetadata.getTotalBytes(),
@@ -104,43 +128,61 @@ public class BundleLoader {
         : null;
   }
 
-  /** Applies the loaded documents and queries to local store. Returns the document view changes. */
+  private void addDocument(MutableDocument document) {
+    ++documentsLoaded;
+    // Documents that an interrupted load already applied are not applied again.
+    if (documentsLoaded > documentsApplied) {
+      documentChunk = documentChunk.insert(document.getKey(), document);
+    }
+  }
+
+  /** Returns whether enough documents were added to apply them with {@link #applyDocumentChunk}. */
+  public boolean isDocumentChunkFull() {
+    return documentChunk.size() >= chunkSize;
+  }
+
+  /**
+   * Applies the documents that were added since the last chunk to local store, and records that
+   * they are applied. Returns the document view changes.
+   */
+  public ImmutableSortedMap<DocumentKey, Document> applyDocumentChunk() {
+    boolean firstChunk = documentsApplied == 0;
+    documentsApplied = Math.max(documentsApplied, documentsLoaded);
+    ImmutableSortedMap<DocumentKey, Document> changes =
+        bundleCallback.applyBundledDocumentChunk(
+            documentChunk, bundleMetadata, firstChunk, documentsApplied);
+    documentChunk = emptyMutableDocumentMap();
+    return changes;
+  }
+
+  /**
+   * Applies the remaining documents and the queries to local store. Returns the document view
+   * changes of the remaining documents.
+   */
   public ImmutableSortedMap<DocumentKey, Document> applyChanges() {
     Preconditions.checkArgument(
         currentMetadata == null,
         "Bundled documents end with a document metadata element instead of a document.");
     Preconditions.checkArgument(bundleMetadata.getBundleId() != null, "Bundle ID must be set");
     Preconditions.checkArgument(
-        documents.size() == bundleMetadata.getTotalDocuments(),
+        documentsLoaded == bundleMetadata.getTotalDocuments(),
         "Expected %s documents, but loaded %s.",
         bundleMetadata.getTotalDocuments(),
-        documents.size());
+        documentsLoaded);
 
+    // The last chunk is applied even if it is empty, unless earlier chunks were applied, so that
+    // the documents held by an empty bundle are reset as well.
     ImmutableSortedMap<DocumentKey, Document> changes =
-        bundleCallback.applyBundledDocuments(documents, bundleMetadata.getBundleId());
+        documentChunk.isEmpty() && documentsApplied > 0 ? emptyDocumentMap() : applyDocumentChunk();
 
-    Map<String, ImmutableSortedSet<DocumentKey>> queryDocumentMap = getQueryDocumentMapping();
     for (NamedQuery namedQuery : queries) {
-      bundleCallback.saveNamedQuery(namedQuery, queryDocumentMap.get(namedQuery.getName()));
+      ImmutableSortedSet<DocumentKey> matchingKeys = queryDocuments.get(namedQuery.getName());
+      bundleCallback.saveNamedQuery(
+          namedQuery, matchingKeys != null ? matchingKeys : DocumentKey.emptyKeySet());
     }
 
     bundleCallback.saveBundle(bundleMetadata);
 
     return changes;
   }
-
-  private Map<String, ImmutableSortedSet<DocumentKey>> getQueryDocumentMapping() {
-    Map<String, ImmutableSortedSet<DocumentKey>> queryDocumentMap = new HashMap<>();
-    for (NamedQuery namedQuery : queries) {
-      queryDocumentMap.put(namedQuery.getName(), DocumentKey.emptyKeySet());
-    }
-    for (BundledDocumentMetadata metadata : documentsMetadata.values()) {
-      for (String query : metadata.getQueries()) {
-        ImmutableSortedSet<DocumentKey> matchingKeys = queryDocumentMap.get(query);
-        queryDocumentMap.put(query, matchingKeys.insert(metadata.getKey()));
-      }
-    }
-
-    return queryDocumentMap;
-  }
 }
@@ -16,12 +16,18 @@ package com.google.firebase.firestore.bundle;
 
 import androidx.annotation.Nullable;
 import com.google.firebase.firestore.util.Logger;
+import com.google.protobuf.InvalidProtocolBufferException;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -30,25 +36,80 @@ import org.json.JSONObject;
  *
  * <p>The class takes a bundle stream and presents abstractions to read bundled elements out of the
  * underlying content.
+ *
+ * <p>Bundles that start with {@link #BINARY_MAGIC} are binary bundles instead. Their elements are
+ * {@code firestore.BundleElement} protos, each prefixed with its size as a varint, which are
+ * decoded without going through JSON.
+ *
+ * <p>If the reader is created with a decode executor, the thread that calls {@link
+ * #getNextElement} only splits the stream into elements, and the JSON of each element is decoded on
+ * the executor. Up to {@link #MAX_PENDING_ELEMENTS} elements are read ahead of the caller, and
+ * elements are still returned in the order of the stream.
  */
 public class BundleReader {
   /** The capacity for the internal char buffer. */
   protected static final int BUFFER_CAPACITY = 1024;
 
+  /** The maximum number of elements that are read ahead while earlier ones are decoded. */
+  static final int MAX_PENDING_ELEMENTS = 64;
+
+  /**
+   * The bytes that a binary bundle starts with. A JSON bundle starts with the digits of its first
+   * length prefix instead, and 0xFF never occurs in UTF-8 text.
+   */
+  static final byte[] BINARY_MAGIC = {(byte) 0xFF, 'F', 'S', 'B'};
+
+  /**
+   * The maximum size of the metadata element. Elements after it are limited by the size of the
+   * bundle that the metadata declares instead.
+   */
+  static final int MAX_METADATA_BYTE_COUNT = 64 * 1024;
+
   private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
 
+  /** An element that is being decoded on the decode executor. */
+  private static class PendingElement {
+    final FutureTask<BundleElement> element;
+    final long byteSize;
+
+    PendingElement(FutureTask<BundleElement> element, long byteSize) {
+      this.element = element;
+      this.byteSize = byteSize;
+    }
+  }
+
   private final BundleSerializer serializer;
   private final InputStream bundleInputStream;
   private final InputStreamReader dataReader;
+  @Nullable private final Executor decodeExecutor;
+  private final ArrayDeque<PendingElement> pendingElements = new ArrayDeque<>();
 
   @Nullable BundleMetadata metadata;
   private ByteBuffer buffer;
   long bytesRead;
+  private long lastElementByteSize;
+  private long bytesPulled;
+  /** The position in the stream at which the elements after the metadata start. */
+  private long elementsStartPosition;
+  private boolean endOfStream;
+  private boolean binary;
 
   public BundleReader(BundleSerializer serializer, InputStream bundleInputStream) {
+    this(serializer, bundleInputStream, /* decodeExecutor= */ null);
+  }
+
+  /**
+   * Creates a reader that decodes the elements of the bundle on the given executor, or on the
+   * calling thread if {@code decodeExecutor} is null.
+   */
+  public BundleReader(
+      BundleSerializer serializer,
+      InputStream bundleInputStream,
+      @Nullable Executor decodeExecutor) {
     this.serializer = serializer;
     this.bundleInputStream = bundleInputStream;
     this.dataReader = new InputStreamReader(this.bundleInputStream);
+    this.decodeExecutor = decodeExecutor;
     buffer = ByteBuffer.allocate(BUFFER_CAPACITY);
 
     buffer.flip(); // Start the buffer in "reading mode"
@@ -59,11 +120,13 @@ public class BundleReader {
     if (metadata != null) {
       return metadata;
     }
+    binary = readBinaryMagic();
     BundleElement element = readNextElement();
     if (!(element instanceof BundleMetadata)) {
       throw abort("Expected first element in bundle to be a metadata object");
     }
     metadata = (BundleMetadata) element;
+    elementsStartPosition = bytesConsumed();
     // We don't consider the metadata as part ot the bundle size, as it used to encode the size of
     // all remaining elements.
     bytesRead = 0;
@@ -78,7 +141,7 @@ public class BundleReader {
     // Makes sure metadata is read before proceeding. The metadata element is the first element
     // in the bundle stream.
     getBundleMetadata();
-    return readNextElement();
+    return decodeExecutor != null ? readNextPendingElement() : readNextElement();
   }
 
   /** Returns the number of bytes processed so far. */
@@ -87,6 +150,10 @@ public class BundleReader {
   }
 
   public void close() throws IOException {
+    for (PendingElement pendingElement : pendingElements) {
+      pendingElement.element.cancel(/* mayInterruptIfRunning= */ false);
+    }
+    pendingElements.clear();
     bundleInputStream.close();
   }
 
@@ -100,15 +167,148 @@ public class BundleReader {
    */
   @Nullable
   private BundleElement readNextElement() throws IOException, JSONException {
-    String lengthPrefix = readLengthPrefix();
-    if (lengthPrefix == null) {
+    byte[] elementBytes = readNextElementBytes();
+    if (elementBytes == null) {
       return null;
     }
 
-    int jsonStringByteCount = Integer.parseInt(lengthPrefix);
-    String json = readJsonString(jsonStringByteCount);
-    bytesRead += lengthPrefix.getBytes(UTF8_CHARSET).length + jsonStringByteCount;
-    return decodeBundleElement(json);
+    bytesRead += lastElementByteSize;
+    try {
+      return decodeBundleElement(elementBytes);
+    } catch (IllegalArgumentException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Tops up the elements that are decoded on the decode executor, and returns the next one once it
+   * is decoded. Returns null if we have reached the end of the stream.
+   */
+  @Nullable
+  private BundleElement readNextPendingElement() throws IOException, JSONException {
+    while (!endOfStream && pendingElements.size() < MAX_PENDING_ELEMENTS) {
+      byte[] elementBytes = readNextElementBytes();
+      if (elementBytes == null) {
+        endOfStream = true;
+        break;
+      }
+      FutureTask<BundleElement> element =
+          new FutureTask<>(() -> decodeBundleElement(elementBytes));
+      decodeExecutor.execute(element);
+      pendingElements.add(new PendingElement(element, lastElementByteSize));
+    }
+
+    PendingElement next = pendingElements.poll();
+    if (next == null) {
+      return null;
+    }
+
+    bytesRead += next.byteSize;
+    try {
+      return next.element.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      close();
+      throw new InterruptedIOException("Interrupted while decoding bundle element");
+    } catch (ExecutionException e) {
+      close();
+      Throwable cause = e.getCause();
+      if (cause instanceof JSONException) {
+        throw (JSONException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("Failed to decode bundle element", cause);
+    }
+  }
+
+  /**
+   * Consumes the magic bytes of a binary bundle from the start of the stream. Returns false and
+   * leaves the stream untouched if the bundle doesn't start with them.
+   */
+  private boolean readBinaryMagic() throws IOException {
+    while (buffer.remaining() < BINARY_MAGIC.length) {
+      if (!pullMoreData()) {
+        return false;
+      }
+    }
+    for (int i = 0; i < BINARY_MAGIC.length; ++i) {
+      if (buffer.get(buffer.position() + i) != BINARY_MAGIC[i]) {
+        return false;
+      }
+    }
+    buffer.position(buffer.position() + BINARY_MAGIC.length);
+    return true;
+  }
+
+  /**
+   * Reads the encoded bytes of the next element and records its size, including the length prefix,
+   * in {@code lastElementByteSize}. Returns null if we have reached the end of the stream.
+   */
+  @Nullable
+  private byte[] readNextElementBytes() throws IOException {
+    int elementByteCount;
+    int prefixByteCount;
+    if (binary) {
+      long startPosition = bytesConsumed();
+      elementByteCount = readVarintLengthPrefix();
+      if (elementByteCount == -1) {
+        return null;
+      }
+      prefixByteCount = (int) (bytesConsumed() - startPosition);
+    } else {
+      String lengthPrefix = readLengthPrefix();
+      if (lengthPrefix == null) {
+        return null;
+      }
+      elementByteCount = Integer.parseInt(lengthPrefix);
+      prefixByteCount = lengthPrefix.getBytes(UTF8_CHARSET).length;
+    }
+
+    // The length prefix isn't trusted, so check it before a buffer of that size is allocated.
+    if (elementByteCount < 0 || elementByteCount > maxElementByteCount()) {
+      throw abort("Element length exceeds the size of the bundle.");
+    }
+    byte[] elementBytes = readElementBytes(elementByteCount);
+    lastElementByteSize = prefixByteCount + elementByteCount;
+    return elementBytes;
+  }
+
+  /**
+   * Returns the largest size that the element after the current length prefix can have, which is
+   * the rest of the size that the metadata declares for the bundle.
+   */
+  private long maxElementByteCount() {
+    if (metadata == null) {
+      return MAX_METADATA_BYTE_COUNT;
+    }
+    return metadata.getTotalBytes() - (bytesConsumed() - elementsStartPosition);
+  }
+
+  /**
+   * Reads the varint length prefix of the next element of a binary bundle. Returns -1 if we have
+   * reached the end of the stream.
+   */
+  private int readVarintLengthPrefix() throws IOException {
+    int length = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      if (buffer.remaining() == 0 && !pullMoreData()) {
+        if (shift == 0) {
+          return -1;
+        }
+        throw abort("Reached the end of bundle when a length was expected.");
+      }
+      byte b = buffer.get();
+      length |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        if (length < 0) {
+          break;
+        }
+        return length;
+      }
+    }
+    throw abort("Invalid element length.");
   }
 
   /**
@@ -162,14 +362,14 @@ public class BundleReader {
    * Reads from a specified position from the internal buffer, for a specified number of bytes,
    * pulling more data from the underlying stream if needed.
    *
-   * <p>Returns an object containing the Json string and its UTF8 byte count.
+   * <p>Returns the encoded bytes of the element.
    */
-  private String readJsonString(int bytesToRead) throws IOException {
-    ByteArrayOutputStream jsonBytes = new ByteArrayOutputStream();
+  private byte[] readElementBytes(int bytesToRead) throws IOException {
+    ByteArrayOutputStream elementBytes = new ByteArrayOutputStream(bytesToRead);
 
     // Read at least `bytesToRead` number of bytes from the bundle into `this.buffer`, pulling more
     // data if necessary.
-    // Exactly `bytesToRead` number of bytes will be put in `jsonBytes` after the loop completes.
+    // Exactly `bytesToRead` number of bytes will be put in `elementBytes` after the loop completes.
     int remaining = bytesToRead;
     while (remaining > 0) {
       if (buffer.remaining() == 0 && !pullMoreData()) {
@@ -177,15 +377,15 @@ public class BundleReader {
       }
 
       // `read` is the number of bytes guaranteed to exist in `this.buffer` after the above
-      // call to `pullMoreData`. Copy them to `jsonBytes` and advance `this.buffer`'s position.
+      // call to `pullMoreData`. Copy them to `elementBytes` and advance `this.buffer`'s position.
       int read = Math.min(remaining, buffer.remaining());
-      jsonBytes.write(buffer.array(), buffer.arrayOffset() + buffer.position(), read);
+      elementBytes.write(buffer.array(), buffer.arrayOffset() + buffer.position(), read);
       buffer.position(buffer.position() + read);
 
       remaining -= read;
     }
 
-    return jsonBytes.toString(UTF8_CHARSET.name());
+    return elementBytes.toByteArray();
   }
 
   /**
@@ -202,14 +402,63 @@ public class BundleReader {
     boolean readSuccess = bytesRead > 0;
     if (readSuccess) {
       buffer.position(buffer.position() + bytesRead);
+      bytesPulled += bytesRead;
     }
 
     buffer.flip();
     return readSuccess;
   }
 
+  /** Returns the number of bytes of the stream that were consumed from the internal buffer. */
+  private long bytesConsumed() {
+    return bytesPulled - buffer.remaining();
+  }
+
+  /**
+   * Converts an encoded bundle element into its model class. This may run on the decode executor,
+   * so it must not touch the stream.
+   */
+  private BundleElement decodeBundleElement(byte[] elementBytes) throws JSONException {
+    return binary
+        ? decodeBinaryBundleElement(elementBytes)
+        : decodeJsonBundleElement(new String(elementBytes, UTF8_CHARSET));
+  }
+
+  /** Converts a binary bundle element into its model class. */
+  private BundleElement decodeBinaryBundleElement(byte[] elementBytes) {
+    com.google.firestore.bundle.BundleElement element;
+    try {
+      element = com.google.firestore.bundle.BundleElement.parseFrom(elementBytes);
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalArgumentException("Invalid bundle: Cannot parse Bundle element", e);
+    }
+
+    switch (element.getElementTypeCase()) {
+      case METADATA:
+        Logger.debug("BundleElement", "BundleMetadata element loaded");
+        return serializer.decodeBundleMetadata(element.getMetadata());
+      case NAMED_QUERY:
+        NamedQuery namedQuery = serializer.decodeNamedQuery(element.getNamedQuery());
+        Logger.debug("BundleElement", "Query loaded: " + namedQuery.getName());
+        return namedQuery;
+      case DOCUMENT_METADATA:
+        BundledDocumentMetadata documentMetadata =
+            serializer.decodeBundledDocumentMetadata(element.getDocumentMetadata());
+        Logger.debug("BundleElement", "Document metadata loaded: " + documentMetadata.getKey());
+        return documentMetadata;
+      case DOCUMENT:
+        BundleDocument document = serializer.decodeDocument(element.getDocument());
+        Logger.debug("BundleElement", "Document loaded: " + document.getKey());
+        return document;
+      default:
+        throw new IllegalArgumentException(
+            "Invalid bundle: Cannot decode unknown Bundle element: "
+                + element.getElementTypeCase());
+    }
+  }
+
   /** Converts a JSON-encoded bundle element into its model class. */
-  private BundleElement decodeBundleElement(String json) throws JSONException, IOException {
+  private BundleElement decodeJsonBundleElement(String json) throws JSONException {
     JSONObject object = new JSONObject(json);
 
     if (object.has("metadata")) {
@@ -230,7 +479,8 @@ public class BundleReader {
       Logger.debug("BundleElement", "Document loaded: " + document.getKey());
       return document;
     } else {
-      throw abort("Cannot decode unknown Bundle element: " + json);
+      throw new IllegalArgumentException(
+          "Invalid bundle: Cannot decode unknown Bundle element: " + json);
     }
   }
 
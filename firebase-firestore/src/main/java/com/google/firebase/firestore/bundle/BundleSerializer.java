@@ -33,6 +33,7 @@ import com.google.firebase.firestore.model.Values;
 import com.google.firebase.firestore.remote.RemoteSerializer;
 import com.google.firestore.v1.ArrayValue;
 import com.google.firestore.v1.MapValue;
+import com.google.firestore.v1.StructuredQuery;
 import com.google.firestore.v1.Value;
 import com.google.protobuf.ByteString;
 import com.google.protobuf.NullValue;
@@ -50,11 +51,22 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-/** A JSON serializer to deserialize Firestore Bundles. */
+/**
+ * A JSON serializer to deserialize Firestore Bundles.
+ *
+ * <p>This class is thread-safe, so that {@link BundleReader} can decode elements in parallel.
+ */
 public class BundleSerializer {
 
   private static final long MILLIS_PER_SECOND = 1000;
 
+  private static final String MULTIPLE_FROM_NOT_SUPPORTED =
+      "Only queries with a single 'from' clause are supported by the Android SDK";
+  private static final String OFFSET_NOT_SUPPORTED =
+      "Queries with offsets are not supported by the Android SDK";
+  private static final String SELECT_NOT_SUPPORTED =
+      "Queries with 'select' statements are not supported by the Android SDK";
+
   private final SimpleDateFormat timestampFormat;
   private final RemoteSerializer remoteSerializer;
 
@@ -102,6 +114,41 @@ public class BundleSerializer {
     return new BundledDocumentMetadata(key, readTime, exists, queries);
   }
 
+  BundleMetadata decodeBundleMetadata(com.google.firestore.bundle.BundleMetadata bundleMetadata) {
+    return new BundleMetadata(
+        bundleMetadata.getId(),
+        bundleMetadata.getVersion(),
+        decodeSnapshotVersion(bundleMetadata.getCreateTime()),
+        bundleMetadata.getTotalDocuments(),
+        bundleMetadata.getTotalBytes());
+  }
+
+  NamedQuery decodeNamedQuery(com.google.firestore.bundle.NamedQuery namedQuery) {
+    return new NamedQuery(
+        namedQuery.getName(),
+        decodeBundledQuery(namedQuery.getBundledQuery()),
+        decodeSnapshotVersion(namedQuery.getReadTime()));
+  }
+
+  BundledDocumentMetadata decodeBundledDocumentMetadata(
+      com.google.firestore.bundle.BundledDocumentMetadata bundledDocumentMetadata) {
+    return new BundledDocumentMetadata(
+        DocumentKey.fromPath(decodeName(bundledDocumentMetadata.getName())),
+        decodeSnapshotVersion(bundledDocumentMetadata.getReadTime()),
+        bundledDocumentMetadata.getExists(),
+        new ArrayList<>(bundledDocumentMetadata.getQueriesList()));
+  }
+
+  /** Decodes a document from a binary bundle, whose fields are used as they are. */
+  BundleDocument decodeDocument(com.google.firestore.v1.Document document) {
+    DocumentKey key = DocumentKey.fromPath(decodeName(document.getName()));
+    return new BundleDocument(
+        MutableDocument.newFoundDocument(
+            key,
+            decodeSnapshotVersion(document.getUpdateTime()),
+            ObjectValue.fromMap(document.getFieldsMap())));
+  }
+
   BundleDocument decodeDocument(JSONObject document) throws JSONException {
     String name = document.getString("name");
     DocumentKey key = DocumentKey.fromPath(decodeName(name));
@@ -128,6 +175,33 @@ public class BundleSerializer {
     return new SnapshotVersion(decodeTimestamp(timestamp));
   }
 
+  private SnapshotVersion decodeSnapshotVersion(com.google.protobuf.Timestamp timestamp) {
+    return new SnapshotVersion(remoteSerializer.decodeTimestamp(timestamp));
+  }
+
+  private BundledQuery decodeBundledQuery(com.google.firestore.bundle.BundledQuery bundledQuery) {
+    StructuredQuery structuredQuery = bundledQuery.getStructuredQuery();
+    if (structuredQuery.hasSelect()) {
+      throw new IllegalArgumentException(SELECT_NOT_SUPPORTED);
+    }
+    if (structuredQuery.getFromCount() != 1) {
+      throw new IllegalArgumentException(MULTIPLE_FROM_NOT_SUPPORTED);
+    }
+    if (structuredQuery.getOffset() != 0) {
+      throw new IllegalArgumentException(OFFSET_NOT_SUPPORTED);
+    }
+    // Verifies that the query belongs to the current instance.
+    decodeName(bundledQuery.getParent());
+
+    Target target =
+        remoteSerializer.decodeQueryTarget(bundledQuery.getParent(), structuredQuery);
+    Query.LimitType limitType =
+        bundledQuery.getLimitType() == com.google.firestore.bundle.BundledQuery.LimitType.LAST
+            ? Query.LimitType.LIMIT_TO_LAST
+            : Query.LimitType.LIMIT_TO_FIRST;
+    return new BundledQuery(target, limitType);
+  }
+
   private BundledQuery decodeBundledQuery(JSONObject bundledQuery) throws JSONException {
     JSONObject structuredQuery = bundledQuery.getJSONObject("structuredQuery");
     verifyNoSelect(structuredQuery);
@@ -352,7 +426,11 @@ public class BundleSerializer {
         secondValue = timeValue.substring(0, pointPosition);
         nanoValue = timeValue.substring(pointPosition + 1);
       }
-      Date date = timestampFormat.parse(secondValue);
+      Date date;
+      // SimpleDateFormat isn't thread-safe.
+      synchronized (timestampFormat) {
+        date = timestampFormat.parse(secondValue);
+      }
       long seconds = date.getTime() / MILLIS_PER_SECOND;
       int nanos = nanoValue.isEmpty() ? 0 : parseNanos(nanoValue);
       // Parse timezone offsets.
@@ -466,22 +544,19 @@ public class BundleSerializer {
 
   private void verifyCollectionSelector(JSONArray from) {
     if (from.length() != 1) {
-      throw new IllegalArgumentException(
-          "Only queries with a single 'from' clause are supported by the Android SDK");
+      throw new IllegalArgumentException(MULTIPLE_FROM_NOT_SUPPORTED);
     }
   }
 
   private void verifyNoOffset(JSONObject structuredQuery) {
     if (structuredQuery.has("offset")) {
-      throw new IllegalArgumentException(
-          "Queries with offsets are not supported by the Android SDK");
+      throw new IllegalArgumentException(OFFSET_NOT_SUPPORTED);
     }
   }
 
   private void verifyNoSelect(JSONObject structuredQuery) {
     if (structuredQuery.has("select")) {
-      throw new IllegalArgumentException(
-          "Queries with 'select' statements are not supported by the Android SDK");
+      throw new IllegalArgumentException(SELECT_NOT_SUPPORTED);
     }
   }
 }
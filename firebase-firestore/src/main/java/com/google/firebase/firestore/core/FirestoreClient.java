@@ -47,6 +47,7 @@ import com.google.firebase.firestore.remote.GrpcMetadataProvider;
 import com.google.firebase.firestore.remote.RemoteSerializer;
 import com.google.firebase.firestore.remote.RemoteStore;
 import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firebase.firestore.util.Executors;
 import com.google.firebase.firestore.util.Function;
 import com.google.firebase.firestore.util.Logger;
 import java.io.InputStream;
@@ -257,7 +258,13 @@ public final class FirestoreClient {
 
     Datastore datastore =
         new Datastore(
-            databaseInfo, asyncQueue, authProvider, appCheckProvider, context, metadataProvider);
+            databaseInfo,
+            asyncQueue,
+            authProvider,
+            appCheckProvider,
+            context,
+            metadataProvider,
+            settings.isStreamPipeliningEnabled() ? Executors.BACKGROUND_EXECUTOR : null);
     ComponentProvider.Configuration configuration =
         new ComponentProvider.Configuration(
             context,
@@ -298,7 +305,8 @@ public final class FirestoreClient {
 
   public void loadBundle(InputStream bundleData, LoadBundleTask resultTask) {
     verifyNotTerminated();
-    BundleReader bundleReader = new BundleReader(bundleSerializer, bundleData);
+    BundleReader bundleReader =
+        new BundleReader(bundleSerializer, bundleData, Executors.BACKGROUND_EXECUTOR);
     asyncQueue.enqueueAndForget(() -> syncEngine.loadBundle(bundleReader, resultTask));
   }
 
@@ -14,6 +14,7 @@
 
 package com.google.firebase.firestore.core;
 
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
 import com.google.firebase.firestore.local.IndexBackfiller;
 import com.google.firebase.firestore.local.LocalSerializer;
 import com.google.firebase.firestore.local.LruDelegate;
@@ -25,6 +26,11 @@ import com.google.firebase.firestore.remote.RemoteSerializer;
 
 /** Provides all components needed for Firestore with SQLite persistence. */
 public class SQLiteComponentProvider extends MemoryComponentProvider {
+  /** The number of sequence numbers that incremental garbage collection removes per slice. */
+  private static final int GC_SEQUENCE_NUMBERS_PER_SLICE = 100;
+
+  /** How long incremental garbage collection may run before it yields the AsyncQueue. */
+  private static final long GC_SLICE_TIME_BUDGET_MS = 20;
 
   @Override
   protected Scheduler createGarbageCollectionScheduler(Configuration configuration) {
@@ -42,14 +48,31 @@ public class SQLiteComponentProvider extends MemoryComponentProvider {
   protected Persistence createPersistence(Configuration configuration) {
     LocalSerializer serializer =
         new LocalSerializer(new RemoteSerializer(configuration.getDatabaseInfo().getDatabaseId()));
+    FirebaseFirestoreSettings settings = configuration.getSettings();
+    long cacheSizeBytes = settings.getCacheSizeBytes();
     LruGarbageCollector.Params params =
-        LruGarbageCollector.Params.WithCacheSizeBytes(
-            configuration.getSettings().getCacheSizeBytes());
+        LruGarbageCollector.Params.WithCacheSizeBytes(cacheSizeBytes);
+    if (settings.isIncrementalGarbageCollectionEnabled()
+        && cacheSizeBytes != FirebaseFirestoreSettings.CACHE_SIZE_UNLIMITED) {
+      params =
+          params
+              .withIncrementalCollection(GC_SEQUENCE_NUMBERS_PER_SLICE, GC_SLICE_TIME_BUDGET_MS)
+              .withHighWatermark(2 * cacheSizeBytes);
+    }
     return new SQLitePersistence(
         configuration.getContext(),
         configuration.getDatabaseInfo().getPersistenceKey(),
         configuration.getDatabaseInfo().getDatabaseId(),
         serializer,
-        params);
+        params,
+        getDecodedDocumentCacheSizeBytes(configuration));
+  }
+
+  /**
+   * Returns how many bytes of decoded remote documents the persistence layer keeps in memory, or
+   * {@link SQLitePersistence#DECODED_DOCUMENT_CACHE_DISABLED} to decode every document it reads.
+   */
+  protected long getDecodedDocumentCacheSizeBytes(Configuration configuration) {
+    return SQLitePersistence.DEFAULT_DECODED_DOCUMENT_CACHE_SIZE_BYTES;
   }
 }
@@ -529,7 +529,8 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
       @Nullable LoadBundleTaskProgress progress = LoadBundleTaskProgress.forInitial(bundleMetadata);
       resultTask.updateProgress(progress);
 
-      BundleLoader bundleLoader = new BundleLoader(localStore, bundleMetadata);
+      BundleLoader bundleLoader =
+          new BundleLoader(localStore, bundleMetadata, BundleLoader.DEFAULT_CHUNK_SIZE);
 
       long currentBytesRead = 0;
       BundleElement bundleElement;
@@ -540,6 +541,10 @@ public class SyncEngine implements RemoteStore.RemoteStoreCallback {
         if (progress != null) {
           resultTask.updateProgress(progress);
         }
+        if (bundleLoader.isDocumentChunkFull()) {
+          ImmutableSortedMap<DocumentKey, Document> changes = bundleLoader.applyDocumentChunk();
+          emitNewSnapsAndNotifyLocalStore(changes, /* remoteEvent= */ null);
+        }
       }
 
       ImmutableSortedMap<DocumentKey, Document> changes = bundleLoader.applyChanges();
@@ -39,4 +39,16 @@ public interface BundleCache {
 
   /** Saves a NamedQuery from a bundle, using its name as the persistent key. */
   void saveNamedQuery(NamedQuery query);
+
+  /**
+   * Returns the number of documents of the given bundle that an interrupted load has already
+   * applied, or 0 if there is no such load of a bundle with the same id and create time.
+   */
+  int getLoadedDocumentCount(BundleMetadata metadata);
+
+  /** Records that the first {@code documentCount} documents of the given bundle are applied. */
+  void saveLoadedDocumentCount(BundleMetadata metadata, int documentCount);
+
+  /** Removes the load progress of the bundle with the given id. */
+  void removeLoadedDocumentCount(String bundleId);
 }
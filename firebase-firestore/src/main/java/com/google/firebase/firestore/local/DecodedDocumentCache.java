@@ -0,0 +1,161 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.util.Assert.hardAssert;
+
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MutableDocument;
+import com.google.firebase.firestore.model.SnapshotVersion;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded, least-recently-used cache of documents that were decoded from the {@code
+ * remote_documents} table.
+ *
+ * <p>The cache stores documents by their key. Since {@link MutableDocument} is mutable, all
+ * documents are copied when they are added and when they are returned. The size of each entry is
+ * approximated by the size of its serialized representation.
+ *
+ * <p>This class is thread-safe, as documents are added from the background threads that decode
+ * them.
+ */
+final class DecodedDocumentCache {
+  private static class Entry {
+    final MutableDocument document;
+    final long sizeBytes;
+
+    Entry(MutableDocument document, long sizeBytes) {
+      this.document = document;
+      this.sizeBytes = sizeBytes;
+    }
+  }
+
+  private final long maxSizeBytes;
+  private final LinkedHashMap<DocumentKey, Entry> entries =
+      new LinkedHashMap<>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+
+  private long currentSizeBytes;
+  private long hitCount;
+  private long missCount;
+
+  DecodedDocumentCache(long maxSizeBytes) {
+    hardAssert(maxSizeBytes > 0, "maxSizeBytes must be positive");
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  /** Returns a copy of the cached document for the given key, or null if it is not cached. */
+  @Nullable
+  synchronized MutableDocument get(DocumentKey key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      ++missCount;
+      return null;
+    }
+    ++hitCount;
+    return entry.document.mutableCopy();
+  }
+
+  /**
+   * Returns a copy of the cached document for the given key if it was read at {@code readTime}, or
+   * null otherwise.
+   */
+  @Nullable
+  synchronized MutableDocument get(DocumentKey key, SnapshotVersion readTime) {
+    Entry entry = entries.get(key);
+    if (entry == null || !entry.document.getReadTime().equals(readTime)) {
+      ++missCount;
+      return null;
+    }
+    ++hitCount;
+    return entry.document.mutableCopy();
+  }
+
+  /**
+   * Adds a copy of the document to the cache, evicting the least recently used documents if the
+   * cache exceeds its maximum size.
+   */
+  synchronized void put(MutableDocument document, long sizeBytes) {
+    if (sizeBytes > maxSizeBytes) {
+      remove(document.getKey());
+      return;
+    }
+
+    Entry previous = entries.put(document.getKey(), new Entry(document.mutableCopy(), sizeBytes));
+    if (previous != null) {
+      currentSizeBytes -= previous.sizeBytes;
+    }
+    currentSizeBytes += sizeBytes;
+
+    Iterator<Map.Entry<DocumentKey, Entry>> it = entries.entrySet().iterator();
+    while (currentSizeBytes > maxSizeBytes && it.hasNext()) {
+      currentSizeBytes -= it.next().getValue().sizeBytes;
+      it.remove();
+    }
+  }
+
+  /** Removes the document with the given key from the cache. */
+  synchronized void remove(DocumentKey key) {
+    Entry entry = entries.remove(key);
+    if (entry != null) {
+      currentSizeBytes -= entry.sizeBytes;
+    }
+  }
+
+  /** Removes all documents from the cache. */
+  synchronized void clear() {
+    entries.clear();
+    currentSizeBytes = 0;
+  }
+
+  /** Returns the number of cached documents. */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /** Returns the approximate size of all cached documents. */
+  synchronized long getSizeBytes() {
+    return currentSizeBytes;
+  }
+
+  /** Returns the number of lookups that were served from the cache. */
+  synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of lookups that were not served from the cache. */
+  synchronized long getMissCount() {
+    return missCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "DecodedDocumentCache{documents="
+        + entries.size()
+        + ", sizeBytes="
+        + currentSizeBytes
+        + ", maxSizeBytes="
+        + maxSizeBytes
+        + ", hits="
+        + hitCount
+        + ", misses="
+        + missCount
+        + "}";
+  }
+}
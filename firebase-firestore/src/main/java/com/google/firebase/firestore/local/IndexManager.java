@@ -107,6 +107,12 @@ public interface IndexManager {
    */
   List<DocumentKey> getDocumentsMatchingTarget(Target target);
 
+  /**
+   * Returns the number of documents with index entries within the bounds of the given target, or 0
+   * if the target cannot be served from an index. Used as a cost estimate for indexed execution.
+   */
+  long getIndexEntryCount(Target target);
+
   /** Returns the next collection group to update. Returns {@code null} if no group exists. */
   @Nullable
   String getNextCollectionGroupToUpdate();
@@ -19,6 +19,7 @@ import static com.google.firebase.firestore.model.DocumentCollections.emptyDocum
 import com.google.firebase.database.collection.ImmutableSortedMap;
 import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -38,12 +39,12 @@ public final class LocalDocumentsResult {
 
   public static LocalDocumentsResult fromOverlayedDocuments(
       int batchId, Map<DocumentKey, OverlayedDocument> overlays) {
-    ImmutableSortedMap<DocumentKey, Document> documents = emptyDocumentMap();
+    Map<DocumentKey, Document> documents = new HashMap<>();
     for (Map.Entry<DocumentKey, OverlayedDocument> entry : overlays.entrySet()) {
-      documents = documents.insert(entry.getKey(), entry.getValue().getDocument());
+      documents.put(entry.getKey(), entry.getValue().getDocument());
     }
 
-    return new LocalDocumentsResult(batchId, documents);
+    return new LocalDocumentsResult(batchId, emptyDocumentMap().insertAll(documents));
   }
 
   public int getBatchId() {
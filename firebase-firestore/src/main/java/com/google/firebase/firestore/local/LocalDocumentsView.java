@@ -119,13 +119,13 @@ class LocalDocumentsView {
       Map<DocumentKey, MutableDocument> docs, Set<DocumentKey> existenceStateChanged) {
     Map<DocumentKey, Overlay> overlays = new HashMap<>();
     populateOverlays(overlays, docs.keySet());
-    ImmutableSortedMap<DocumentKey, Document> result = emptyDocumentMap();
+    Map<DocumentKey, Document> result = new HashMap<>();
     for (Map.Entry<DocumentKey, OverlayedDocument> entry :
         computeViews(docs, overlays, existenceStateChanged).entrySet()) {
-      result = result.insert(entry.getKey(), entry.getValue().getDocument());
+      result.put(entry.getKey(), entry.getValue().getDocument());
     }
 
-    return result;
+    return emptyDocumentMap().insertAll(result);
   }
 
   /**
@@ -294,9 +294,7 @@ class LocalDocumentsView {
       Query collectionQuery = query.asCollectionQueryAtPath(parent.append(collectionId));
       ImmutableSortedMap<DocumentKey, Document> collectionResults =
           getDocumentsMatchingCollectionQuery(collectionQuery, offset);
-      for (Map.Entry<DocumentKey, Document> docEntry : collectionResults) {
-        results = results.insert(docEntry.getKey(), docEntry.getValue());
-      }
+      results = results.insertAll(collectionResults);
     }
     return results;
   }
@@ -373,7 +371,7 @@ class LocalDocumentsView {
     }
 
     // Apply the overlays and match against the query.
-    ImmutableSortedMap<DocumentKey, Document> results = emptyDocumentMap();
+    Map<DocumentKey, Document> results = new HashMap<>();
     for (Map.Entry<DocumentKey, MutableDocument> docEntry : remoteDocuments.entrySet()) {
       Overlay overlay = overlays.get(docEntry.getKey());
       if (overlay != null) {
@@ -383,11 +381,11 @@ class LocalDocumentsView {
       }
       // Finally, insert the documents that still match the query
       if (query.matches(docEntry.getValue())) {
-        results = results.insert(docEntry.getKey(), docEntry.getValue());
+        results.put(docEntry.getKey(), docEntry.getValue());
       }
     }
 
-    return results;
+    return emptyDocumentMap().insertAll(results);
   }
 
   /** Returns a base document that can be used to apply `overlay`. */
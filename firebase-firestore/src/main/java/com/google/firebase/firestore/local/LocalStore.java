@@ -705,10 +705,17 @@ public final class LocalStore implements BundleCallback {
         "Save bundle",
         () -> {
           bundleCache.saveBundleMetadata(bundleMetadata);
+          bundleCache.removeLoadedDocumentCount(bundleMetadata.getBundleId());
         });
   }
 
   @Override
+  public int getLoadedBundleDocumentCount(BundleMetadata bundleMetadata) {
+    return persistence.runTransaction(
+        "Get loaded bundle documents", () -> bundleCache.getLoadedDocumentCount(bundleMetadata));
+  }
+
+  /** Applies all documents from a bundle to the "ground-state" (remote) documents. */
   public ImmutableSortedMap<DocumentKey, Document> applyBundledDocuments(
       ImmutableSortedMap<DocumentKey, MutableDocument> documents, String bundleId) {
     // Allocates a target to hold all document keys from the bundle, such that
@@ -717,27 +724,57 @@ public final class LocalStore implements BundleCallback {
 
     return persistence.runTransaction(
         "Apply bundle documents",
-        () -> {
-          ImmutableSortedSet<DocumentKey> documentKeys = DocumentKey.emptyKeySet();
-          Map<DocumentKey, MutableDocument> documentMap = new HashMap<>();
+        () -> applyBundledDocuments(documents, umbrellaTargetData, /* firstChunk= */ true));
+  }
 
-          for (Entry<DocumentKey, MutableDocument> entry : documents) {
-            DocumentKey documentKey = entry.getKey();
-            MutableDocument document = entry.getValue();
+  @Override
+  public ImmutableSortedMap<DocumentKey, Document> applyBundledDocumentChunk(
+      ImmutableSortedMap<DocumentKey, MutableDocument> documents,
+      BundleMetadata bundleMetadata,
+      boolean firstChunk,
+      int loadedDocumentCount) {
+    TargetData umbrellaTargetData =
+        allocateTarget(newUmbrellaTarget(bundleMetadata.getBundleId()));
 
-            if (document.isFoundDocument()) {
-              documentKeys = documentKeys.insert(documentKey);
-            }
-            documentMap.put(documentKey, document);
-          }
+    return persistence.runTransaction(
+        "Apply bundle document chunk",
+        () -> {
+          ImmutableSortedMap<DocumentKey, Document> changes =
+              applyBundledDocuments(documents, umbrellaTargetData, firstChunk);
+          bundleCache.saveLoadedDocumentCount(bundleMetadata, loadedDocumentCount);
+          return changes;
+        });
+  }
+
+  /**
+   * Writes the given bundled documents and adds them to the umbrella target of their bundle, which
+   * is cleared first if {@code resetUmbrellaTarget} is set. Must run inside a transaction.
+   */
+  private ImmutableSortedMap<DocumentKey, Document> applyBundledDocuments(
+      ImmutableSortedMap<DocumentKey, MutableDocument> documents,
+      TargetData umbrellaTargetData,
+      boolean resetUmbrellaTarget) {
+    ImmutableSortedSet<DocumentKey> documentKeys = DocumentKey.emptyKeySet();
+    Map<DocumentKey, MutableDocument> documentMap = new HashMap<>();
+
+    for (Entry<DocumentKey, MutableDocument> entry : documents) {
+      DocumentKey documentKey = entry.getKey();
+      MutableDocument document = entry.getValue();
+
+      if (document.isFoundDocument()) {
+        documentKeys = documentKeys.insert(documentKey);
+      }
+      documentMap.put(documentKey, document);
+    }
 
-          targetCache.removeMatchingKeysForTargetId(umbrellaTargetData.getTargetId());
-          targetCache.addMatchingKeys(documentKeys, umbrellaTargetData.getTargetId());
+    if (resetUmbrellaTarget) {
+      targetCache.removeMatchingKeysForTargetId(umbrellaTargetData.getTargetId());
+    }
+    targetCache.addMatchingKeys(documentKeys, umbrellaTargetData.getTargetId());
 
-          DocumentChangeResult result = populateDocumentChanges(documentMap);
-          Map<DocumentKey, MutableDocument> changedDocs = result.changedDocuments;
-          return localDocuments.getLocalViewOfDocuments(changedDocs, result.existenceChangedKeys);
-        });
+    DocumentChangeResult result = populateDocumentChanges(documentMap);
+    Map<DocumentKey, MutableDocument> changedDocs = result.changedDocuments;
+    return localDocuments.getLocalViewOfDocuments(changedDocs, result.existenceChangedKeys);
   }
 
   @Override
@@ -32,24 +32,31 @@ public interface LruDelegate {
   void forEachOrphanedDocumentSequenceNumber(Consumer<Long> consumer);
 
   /**
-   * Removes all targets that have a sequence number less than or equal to `upperBound`, and are not
-   * present in the `activeTargetIds` set.
+   * Removes all targets that have a sequence number greater than `lowerBound` and less than or
+   * equal to `upperBound`, and are not present in the `activeTargetIds` set.
    *
    * @return the number of targets removed.
    */
-  int removeTargets(long upperBound, SparseArray<?> activeTargetIds);
+  int removeTargets(long lowerBound, long upperBound, SparseArray<?> activeTargetIds);
 
   /**
-   * Removes all unreferenced documents from the cache that have a sequence number less than or
-   * equal to the given sequence number.
+   * Removes all unreferenced documents from the cache that have a sequence number greater than
+   * `lowerBound` and less than or equal to `upperBound`.
    *
    * @return the number of documents removed.
    */
-  int removeOrphanedDocuments(long upperBound);
+  int removeOrphanedDocuments(long lowerBound, long upperBound);
 
   /** Access to the underlying LRU Garbage collector instance. */
   LruGarbageCollector getGarbageCollector();
 
   /** Return the size of the cache in bytes. */
   long getByteSize();
+
+  /**
+   * Return the number of bytes that the cache currently uses. Unlike {@link #getByteSize}, this
+   * excludes storage that was freed by removing data but has not been given back to the file
+   * system.
+   */
+  long getUsedByteSize();
 }
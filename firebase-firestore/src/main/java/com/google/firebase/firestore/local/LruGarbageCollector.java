@@ -14,6 +14,8 @@
 
 package com.google.firebase.firestore.local;
 
+import static com.google.firebase.firestore.util.Assert.hardAssert;
+
 import android.util.SparseArray;
 import androidx.annotation.Nullable;
 import com.google.firebase.firestore.FirebaseFirestoreSettings;
@@ -31,6 +33,14 @@ public class LruGarbageCollector {
   private static final long INITIAL_GC_DELAY_MS = TimeUnit.MINUTES.toMillis(1);
   /** Minimum amount of time between GC checks, after the first one. */
   private static final long REGULAR_GC_DELAY_MS = TimeUnit.MINUTES.toMillis(5);
+  /** How often the cache size is compared against the high watermark, if one is configured. */
+  private static final long HIGH_WATERMARK_CHECK_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+  /**
+   * Minimum amount of time between a GC run and a GC run triggered by the high watermark. Pinned
+   * documents and active targets are never collected, so the cache may remain above the watermark
+   * after a collection.
+   */
+  private static final long MIN_HIGH_WATERMARK_GC_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
 
   public static class Params {
     private static final long COLLECTION_DISABLED = FirebaseFirestoreSettings.CACHE_SIZE_UNLIMITED;
@@ -61,20 +71,89 @@ public class LruGarbageCollector {
       return new Params(cacheSizeBytes, 10, 1000);
     }
 
+    private static final int INCREMENTAL_COLLECTION_DISABLED = 0;
+    private static final long HIGH_WATERMARK_DISABLED = -1;
+
     final long minBytesThreshold;
     final int percentileToCollect;
     final int maximumSequenceNumbersToCollect;
+    final int sequenceNumbersPerSlice;
+    final long sliceTimeBudgetMs;
+    final long highWatermarkBytes;
 
     Params(long minBytesThreshold, int percentileToCollect, int maximumSequenceNumbersToCollect) {
+      this(
+          minBytesThreshold,
+          percentileToCollect,
+          maximumSequenceNumbersToCollect,
+          INCREMENTAL_COLLECTION_DISABLED,
+          0,
+          HIGH_WATERMARK_DISABLED);
+    }
+
+    private Params(
+        long minBytesThreshold,
+        int percentileToCollect,
+        int maximumSequenceNumbersToCollect,
+        int sequenceNumbersPerSlice,
+        long sliceTimeBudgetMs,
+        long highWatermarkBytes) {
       this.minBytesThreshold = minBytesThreshold;
       this.percentileToCollect = percentileToCollect;
       this.maximumSequenceNumbersToCollect = maximumSequenceNumbersToCollect;
+      this.sequenceNumbersPerSlice = sequenceNumbersPerSlice;
+      this.sliceTimeBudgetMs = sliceTimeBudgetMs;
+      this.highWatermarkBytes = highWatermarkBytes;
+    }
+
+    /**
+     * Returns a copy of these params that collects garbage incrementally. Instead of removing all
+     * collectable sequence numbers at once, each AsyncQueue turn removes slices of {@code
+     * sequenceNumbersPerSlice} sequence numbers until {@code timeBudgetMs} is exhausted, and the
+     * remaining slices are collected in subsequent turns.
+     */
+    public Params withIncrementalCollection(int sequenceNumbersPerSlice, long timeBudgetMs) {
+      hardAssert(sequenceNumbersPerSlice > 0, "sequenceNumbersPerSlice must be positive");
+      return new Params(
+          minBytesThreshold,
+          percentileToCollect,
+          maximumSequenceNumbersToCollect,
+          sequenceNumbersPerSlice,
+          timeBudgetMs,
+          highWatermarkBytes);
+    }
+
+    /**
+     * Returns a copy of these params that runs garbage collection as soon as the storage used by
+     * the cache exceeds {@code highWatermarkBytes}, rather than waiting for the next scheduled run.
+     * Storage that was freed by an earlier collection does not count towards the watermark.
+     */
+    public Params withHighWatermark(long highWatermarkBytes) {
+      hardAssert(
+          highWatermarkBytes >= minBytesThreshold,
+          "The high watermark must not be lower than the cache size threshold");
+      return new Params(
+          minBytesThreshold,
+          percentileToCollect,
+          maximumSequenceNumbersToCollect,
+          sequenceNumbersPerSlice,
+          sliceTimeBudgetMs,
+          highWatermarkBytes);
+    }
+
+    boolean isIncremental() {
+      return sequenceNumbersPerSlice != INCREMENTAL_COLLECTION_DISABLED;
+    }
+
+    boolean hasHighWatermark() {
+      return highWatermarkBytes != HIGH_WATERMARK_DISABLED;
     }
   }
 
   public static class Results {
     private final boolean hasRun;
     private final int sequenceNumbersCollected;
+    private final int sequenceNumbersToCollect;
     private final int targetsRemoved;
     private final int documentsRemoved;
 
@@ -84,8 +163,23 @@ public class LruGarbageCollector {
 
     Results(
         boolean hasRun, int sequenceNumbersCollected, int targetsRemoved, int documentsRemoved) {
+      this(
+          hasRun,
+          sequenceNumbersCollected,
+          sequenceNumbersCollected,
+          targetsRemoved,
+          documentsRemoved);
+    }
+
+    Results(
+        boolean hasRun,
+        int sequenceNumbersCollected,
+        int sequenceNumbersToCollect,
+        int targetsRemoved,
+        int documentsRemoved) {
       this.hasRun = hasRun;
       this.sequenceNumbersCollected = sequenceNumbersCollected;
+      this.sequenceNumbersToCollect = sequenceNumbersToCollect;
       this.targetsRemoved = targetsRemoved;
       this.documentsRemoved = documentsRemoved;
     }
@@ -94,10 +188,26 @@ public class LruGarbageCollector {
       return hasRun;
     }
 
+    /**
+     * Returns false if this is the result of an incremental collection that has remaining slices.
+     */
+    public boolean isComplete() {
+      return sequenceNumbersCollected >= sequenceNumbersToCollect;
+    }
+
+    /**
+     * Returns the number of sequence numbers collected so far. For incremental collections, this
+     * includes all previous slices of the same collection.
+     */
     public int getSequenceNumbersCollected() {
       return sequenceNumbersCollected;
     }
 
+    /** Returns the total number of sequence numbers that the collection is going to collect. */
+    public int getSequenceNumbersToCollect() {
+      return sequenceNumbersToCollect;
+    }
+
     public int getTargetsRemoved() {
       return targetsRemoved;
     }
@@ -115,7 +225,9 @@ public class LruGarbageCollector {
     private final AsyncQueue asyncQueue;
     private final LocalStore localStore;
     private boolean hasRun = false;
+    private long lastRunTimeMs;
     @Nullable private AsyncQueue.DelayedTask gcTask;
+    @Nullable private AsyncQueue.DelayedTask highWatermarkTask;
 
     public GCScheduler(AsyncQueue asyncQueue, LocalStore localStore) {
       this.asyncQueue = asyncQueue;
@@ -134,18 +246,63 @@ public class LruGarbageCollector {
       if (gcTask != null) {
         gcTask.cancel();
       }
+      if (highWatermarkTask != null) {
+        highWatermarkTask.cancel();
+      }
     }
 
     private void scheduleGC() {
       long delay = hasRun ? REGULAR_GC_DELAY_MS : INITIAL_GC_DELAY_MS;
       gcTask =
+          asyncQueue.enqueueAfterDelay(AsyncQueue.TimerId.GARBAGE_COLLECTION, delay, this::runGC);
+      if (params.hasHighWatermark()) {
+        scheduleHighWatermarkCheck();
+      }
+    }
+
+    private void runGC() {
+      if (highWatermarkTask != null) {
+        highWatermarkTask.cancel();
+        highWatermarkTask = null;
+      }
+
+      Results results = localStore.collectGarbage(LruGarbageCollector.this);
+      hasRun = true;
+      lastRunTimeMs = System.currentTimeMillis();
+
+      if (results.isComplete()) {
+        scheduleGC();
+      } else {
+        // Yield to other operations on the AsyncQueue before collecting the next slices.
+        gcTask =
+            asyncQueue.enqueueAfterDelay(
+                AsyncQueue.TimerId.GARBAGE_COLLECTION, /* delayMs= */ 0, this::runGC);
+      }
+    }
+
+    private void scheduleHighWatermarkCheck() {
+      highWatermarkTask =
           asyncQueue.enqueueAfterDelay(
               AsyncQueue.TimerId.GARBAGE_COLLECTION,
-              delay,
+              HIGH_WATERMARK_CHECK_DELAY_MS,
               () -> {
-                localStore.collectGarbage(LruGarbageCollector.this);
-                hasRun = true;
-                scheduleGC();
+                boolean canRun =
+                    System.currentTimeMillis() - lastRunTimeMs >= MIN_HIGH_WATERMARK_GC_INTERVAL_MS;
+                // The used size shrinks as soon as data is collected, unlike the file size, which
+                // would keep triggering collections until the freed pages are reused.
+                if (canRun && delegate.getUsedByteSize() >= params.highWatermarkBytes) {
+                  Logger.debug(
+                      "LruGarbageCollector",
+                      "Cache size exceeds high watermark of %d bytes, collecting garbage early",
+                      params.highWatermarkBytes);
+                  highWatermarkTask = null;
+                  if (gcTask != null) {
+                    gcTask.cancel();
+                  }
+                  runGC();
+                } else {
+                  scheduleHighWatermarkCheck();
+                }
               });
     }
   }
@@ -153,6 +310,9 @@ public class LruGarbageCollector {
   private final LruDelegate delegate;
   private final Params params;
 
+  /** The collection that is in progress if garbage is collected incrementally. */
+  @Nullable private IncrementalCollection pendingCollection;
+
   LruGarbageCollector(LruDelegate delegate, Params params) {
     this.delegate = delegate;
     this.params = params;
@@ -199,6 +359,17 @@ public class LruGarbageCollector {
     long getMaxValue() {
       return queue.peek();
     }
+
+    /** Returns the buffered sequence numbers in ascending order. */
+    long[] getSortedValues() {
+      long[] values = new long[queue.size()];
+      int i = values.length;
+      // The queue returns the highest value first.
+      while (!queue.isEmpty()) {
+        values[--i] = queue.poll();
+      }
+      return values;
+    }
   }
 
   /** Returns the nth sequence number, counting in order from the smallest. */
@@ -212,12 +383,23 @@ public class LruGarbageCollector {
     return buffer.getMaxValue();
   }
 
+  /** Returns the {@code count} smallest sequence numbers in ascending order. */
+  long[] getLowestSequenceNumbers(int count) {
+    if (count == 0) {
+      return new long[0];
+    }
+    RollingSequenceNumberBuffer buffer = new RollingSequenceNumberBuffer(count);
+    delegate.forEachTarget((targetData) -> buffer.addElement(targetData.getSequenceNumber()));
+    delegate.forEachOrphanedDocumentSequenceNumber(buffer::addElement);
+    return buffer.getSortedValues();
+  }
+
   /**
    * Removes targets with a sequence number equal to or less than the given upper bound, and removes
    * document associations with those targets.
    */
   int removeTargets(long upperBound, SparseArray<?> activeTargetIds) {
-    return delegate.removeTargets(upperBound, activeTargetIds);
+    return delegate.removeTargets(ListenSequence.INVALID, upperBound, activeTargetIds);
   }
 
   /**
@@ -225,7 +407,7 @@ public class LruGarbageCollector {
    * otherwise pinned.
    */
   int removeOrphanedDocuments(long upperBound) {
-    return delegate.removeOrphanedDocuments(upperBound);
+    return delegate.removeOrphanedDocuments(ListenSequence.INVALID, upperBound);
   }
 
   Results collect(SparseArray<?> activeTargetIds) {
@@ -234,6 +416,10 @@ public class LruGarbageCollector {
       return Results.DidNotRun();
     }
 
+    if (params.isIncremental() && pendingCollection != null) {
+      return collectNextSlices(activeTargetIds);
+    }
+
     long cacheSize = getByteSize();
     if (cacheSize < params.minBytesThreshold) {
       Logger.debug(
@@ -243,13 +429,17 @@ public class LruGarbageCollector {
               + " is lower than threshold "
               + params.minBytesThreshold);
       return Results.DidNotRun();
+    } else if (params.isIncremental()) {
+      pendingCollection =
+          new IncrementalCollection(getLowestSequenceNumbers(getSequenceNumbersToCollect()));
+      return collectNextSlices(activeTargetIds);
     } else {
       return runGarbageCollection(activeTargetIds);
     }
   }
 
-  private Results runGarbageCollection(SparseArray<?> liveTargetIds) {
-    long startTs = System.currentTimeMillis();
+  /** Returns the number of sequence numbers to collect, capped at the configured maximum. */
+  private int getSequenceNumbersToCollect() {
     int sequenceNumbers = calculateQueryCount(params.percentileToCollect);
     // Cap at the configured max
     if (sequenceNumbers > params.maximumSequenceNumbersToCollect) {
@@ -261,6 +451,40 @@ public class LruGarbageCollector {
               + sequenceNumbers);
       sequenceNumbers = params.maximumSequenceNumbersToCollect;
     }
+    return sequenceNumbers;
+  }
+
+  /**
+   * Collects slices of the pending incremental collection until the time budget is exhausted. At
+   * least one slice is collected per call.
+   */
+  private Results collectNextSlices(SparseArray<?> activeTargetIds) {
+    IncrementalCollection collection = pendingCollection;
+    long deadline = System.currentTimeMillis() + params.sliceTimeBudgetMs;
+    do {
+      collection.collectNextSlice(activeTargetIds);
+    } while (!collection.isComplete() && System.currentTimeMillis() < deadline);
+
+    Logger.debug(
+        "LruGarbageCollector",
+        "Incremental LRU Garbage Collection: collected %d of %d sequence numbers",
+        collection.collected,
+        collection.sequenceNumbers.length);
+
+    if (collection.isComplete()) {
+      pendingCollection = null;
+    }
+    return new Results(
+        /* hasRun= */ true,
+        collection.collected,
+        collection.sequenceNumbers.length,
+        collection.targetsRemoved,
+        collection.documentsRemoved);
+  }
+
+  private Results runGarbageCollection(SparseArray<?> liveTargetIds) {
+    long startTs = System.currentTimeMillis();
+    int sequenceNumbers = getSequenceNumbersToCollect();
     long countedTargetsTs = System.currentTimeMillis();
 
     long upperBound = getNthSequenceNumber(sequenceNumbers);
@@ -302,4 +526,39 @@ public class LruGarbageCollector {
   long getByteSize() {
     return delegate.getByteSize();
   }
+
+  /**
+   * The state of a garbage collection that runs in slices. Each slice removes the targets and
+   * documents with sequence numbers up to the next {@code sequenceNumbersPerSlice} entries of the
+   * sequence numbers that were selected when the collection started. A slice only reads the
+   * targets and documents above the upper bound of the previous slice, so a document that is
+   * orphaned by a later slice but has a lower sequence number is left to the next collection.
+   */
+  private class IncrementalCollection {
+    /** The sequence numbers to collect, in ascending order. */
+    private final long[] sequenceNumbers;
+
+    private int collected;
+    private int targetsRemoved;
+    private int documentsRemoved;
+
+    IncrementalCollection(long[] sequenceNumbers) {
+      this.sequenceNumbers = sequenceNumbers;
+    }
+
+    boolean isComplete() {
+      return collected >= sequenceNumbers.length;
+    }
+
+    void collectNextSlice(SparseArray<?> activeTargetIds) {
+      if (isComplete()) {
+        return;
+      }
+      long lowerBound = collected == 0 ? ListenSequence.INVALID : sequenceNumbers[collected - 1];
+      collected = Math.min(sequenceNumbers.length, collected + params.sequenceNumbersPerSlice);
+      long upperBound = sequenceNumbers[collected - 1];
+      targetsRemoved += delegate.removeTargets(lowerBound, upperBound, activeTargetIds);
+      documentsRemoved += delegate.removeOrphanedDocuments(lowerBound, upperBound);
+    }
+  }
 }
@@ -24,6 +24,8 @@ import java.util.Map;
 /* package */ class MemoryBundleCache implements BundleCache {
   private final Map<String, BundleMetadata> bundles = new HashMap<>();
   private final Map<String, NamedQuery> namedQueries = new HashMap<>();
+  private final Map<String, BundleMetadata> loadingBundles = new HashMap<>();
+  private final Map<String, Integer> loadedDocumentCounts = new HashMap<>();
 
   @Nullable
   @Override
@@ -46,4 +48,25 @@ import java.util.Map;
   public void saveNamedQuery(NamedQuery query) {
     namedQueries.put(query.getName(), query);
   }
+
+  @Override
+  public int getLoadedDocumentCount(BundleMetadata metadata) {
+    BundleMetadata loadingBundle = loadingBundles.get(metadata.getBundleId());
+    if (loadingBundle == null || !loadingBundle.getCreateTime().equals(metadata.getCreateTime())) {
+      return 0;
+    }
+    return loadedDocumentCounts.get(metadata.getBundleId());
+  }
+
+  @Override
+  public void saveLoadedDocumentCount(BundleMetadata metadata, int documentCount) {
+    loadingBundles.put(metadata.getBundleId(), metadata);
+    loadedDocumentCounts.put(metadata.getBundleId(), documentCount);
+  }
+
+  @Override
+  public void removeLoadedDocumentCount(String bundleId) {
+    loadingBundles.remove(bundleId);
+    loadedDocumentCounts.remove(bundleId);
+  }
 }
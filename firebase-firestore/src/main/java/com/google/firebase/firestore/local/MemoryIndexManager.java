@@ -67,6 +67,12 @@ class MemoryIndexManager implements IndexManager {
     return null;
   }
 
+  @Override
+  public long getIndexEntryCount(Target target) {
+    // Field indices are not supported with memory persistence.
+    return 0;
+  }
+
   @Nullable
   @Override
   public String getNextCollectionGroupToUpdate() {
@@ -99,7 +99,7 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
     for (Map.Entry<DocumentKey, Long> entry : orphanedSequenceNumbers.entrySet()) {
       // Pass in the exact sequence number as the upper bound so we know it won't be pinned by being
       // too recent.
-      if (!isPinned(entry.getKey(), entry.getValue())) {
+      if (!isPinned(entry.getKey(), ListenSequence.INVALID, entry.getValue())) {
         consumer.accept(entry.getValue());
       }
     }
@@ -111,17 +111,17 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
   }
 
   @Override
-  public int removeTargets(long upperBound, SparseArray<?> activeTargetIds) {
-    return persistence.getTargetCache().removeQueries(upperBound, activeTargetIds);
+  public int removeTargets(long lowerBound, long upperBound, SparseArray<?> activeTargetIds) {
+    return persistence.getTargetCache().removeQueries(lowerBound, upperBound, activeTargetIds);
   }
 
   @Override
-  public int removeOrphanedDocuments(long upperBound) {
+  public int removeOrphanedDocuments(long lowerBound, long upperBound) {
     MemoryRemoteDocumentCache cache = persistence.getRemoteDocumentCache();
     List<DocumentKey> docsToRemove = new ArrayList<>();
     for (Document doc : cache.getDocuments()) {
       DocumentKey key = doc.getKey();
-      if (!isPinned(key, upperBound)) {
+      if (!isPinned(key, lowerBound, upperBound)) {
         docsToRemove.add(key);
         orphanedSequenceNumbers.remove(key);
       }
@@ -169,7 +169,7 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
    * @return true if there is anything that would keep the given document alive or if the document's
    *     sequence number is greater than the provided upper bound.
    */
-  private boolean isPinned(DocumentKey key, long upperBound) {
+  private boolean isPinned(DocumentKey key, long lowerBound, long upperBound) {
     if (mutationQueuesContainsKey(key)) {
       return true;
     }
@@ -183,7 +183,7 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
     }
 
     Long sequenceNumber = orphanedSequenceNumbers.get(key);
-    return sequenceNumber != null && sequenceNumber > upperBound;
+    return sequenceNumber != null && (sequenceNumber <= lowerBound || sequenceNumber > upperBound);
   }
 
   @Override
@@ -199,4 +199,9 @@ class MemoryLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
     }
     return count;
   }
+
+  @Override
+  public long getUsedByteSize() {
+    return getByteSize();
+  }
 }
@@ -128,6 +128,23 @@ final class MemoryRemoteDocumentCache implements RemoteDocumentCache {
     return result;
   }
 
+  @Override
+  public long getDocumentCount(ResourcePath collection) {
+    long count = 0;
+    DocumentKey prefix = DocumentKey.fromPath(collection.append(""));
+    Iterator<Map.Entry<DocumentKey, Document>> iterator = docs.iteratorFrom(prefix);
+    while (iterator.hasNext()) {
+      ResourcePath path = iterator.next().getKey().getPath();
+      if (!collection.isPrefixOf(path)) {
+        break;
+      }
+      if (path.length() == collection.length() + 1) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
   Iterable<Document> getDocuments() {
     return new DocumentIterable();
   }
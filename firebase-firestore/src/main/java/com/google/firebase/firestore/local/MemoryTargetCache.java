@@ -110,19 +110,22 @@ final class MemoryTargetCache implements TargetCache {
   }
 
   /**
-   * Drops any targets with sequence number less than or equal to the upper bound, excepting those
-   * present in `activeTargetIds`. Document associations for the removed targets are also removed.
+   * Drops any targets with a sequence number in the range ({@code lowerBound}, {@code upperBound}],
+   * excepting those present in `activeTargetIds`. Document associations for the removed targets
+   * are also removed.
    *
    * @return the number of targets removed
    */
-  int removeQueries(long upperBound, SparseArray<?> activeTargetIds) {
+  int removeQueries(long lowerBound, long upperBound, SparseArray<?> activeTargetIds) {
     int removed = 0;
     for (Iterator<Map.Entry<Target, TargetData>> it = targets.entrySet().iterator();
         it.hasNext(); ) {
       Map.Entry<Target, TargetData> entry = it.next();
       int targetId = entry.getValue().getTargetId();
       long sequenceNumber = entry.getValue().getSequenceNumber();
-      if (sequenceNumber <= upperBound && activeTargetIds.get(targetId) == null) {
+      if (sequenceNumber > lowerBound
+          && sequenceNumber <= upperBound
+          && activeTargetIds.get(targetId) == null) {
         it.remove();
         removeMatchingKeysForTargetId(targetId);
         removed++;
@@ -14,9 +14,11 @@
 
 package com.google.firebase.firestore.local;
 
+import static com.google.firebase.firestore.util.Assert.fail;
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 import static com.google.firebase.firestore.util.Util.values;
 
+import androidx.annotation.VisibleForTesting;
 import com.google.firebase.database.collection.ImmutableSortedMap;
 import com.google.firebase.database.collection.ImmutableSortedSet;
 import com.google.firebase.firestore.core.Query;
@@ -26,8 +28,10 @@ import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.FieldIndex;
 import com.google.firebase.firestore.model.FieldIndex.IndexOffset;
+import com.google.firebase.firestore.model.ResourcePath;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.util.Logger;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -66,13 +70,66 @@ import javax.annotation.Nullable;
  *       that is in the local cache.
  *   <li>Queries that have never been CURRENT or free of limbo documents.
  * </ol>
+ *
+ * <p>By default, the execution modes are tried in the order described above. If cost-based planning
+ * is enabled, the engine instead estimates the number of documents each mode reads, based on the
+ * number of documents in the collection, the number of index entries within the query's bounds and
+ * the size of the previous result, and tries the cheapest mode first. The document and index entry
+ * counts are read with {@code COUNT} queries that visit every counted row, so they are only read if
+ * more than one mode can execute the query.
  */
 public class QueryEngine {
   private static final String LOG_TAG = "QueryEngine";
 
+  /** The relative cost of reading a document as part of a collection scan. */
+  static final double DOCUMENT_SCAN_COST = 1.0;
+
+  /**
+   * The relative cost of reading a document by its key, which requires a separate index lookup for
+   * each document.
+   */
+  static final double DOCUMENT_LOOKUP_COST = 2.0;
+
+  /** The relative cost of reading an index entry, which does not require a proto decode. */
+  static final double INDEX_ENTRY_SCAN_COST = 0.25;
+
+  /** A way of executing a query, which the planner ranks by its estimated cost. */
+  interface QueryStrategy {
+    /** Returns a short name that identifies the strategy in a {@link QueryPlan}. */
+    String getName();
+
+    /**
+     * Returns whether the strategy can be used for the query. Unlike {@link #estimateCost}, this
+     * does not read any statistics from persistence.
+     */
+    boolean isApplicable(Query query, SnapshotVersion lastLimboFreeSnapshotVersion);
+
+    /**
+     * Returns the estimated number of document reads needed to execute the query. Only called for
+     * strategies that are applicable to the query.
+     */
+    double estimateCost(Query query, ImmutableSortedSet<DocumentKey> remoteKeys);
+
+    /** Executes the query. Returns {@code null} if the strategy cannot be used for the query. */
+    @Nullable
+    ImmutableSortedMap<DocumentKey, Document> execute(
+        Query query,
+        SnapshotVersion lastLimboFreeSnapshotVersion,
+        ImmutableSortedSet<DocumentKey> remoteKeys);
+  }
+
+  private final List<QueryStrategy> strategies = new ArrayList<>();
+  private final QueryStrategy fullScanStrategy = new FullCollectionScanStrategy();
+
   private LocalDocumentsView localDocumentsView;
   private IndexManager indexManager;
   private boolean initialized;
+  private boolean costBasedPlanningEnabled;
+
+  public QueryEngine() {
+    strategies.add(new IndexStrategy());
+    strategies.add(new RemoteKeysStrategy());
+  }
 
   public void initialize(LocalDocumentsView localDocumentsView, IndexManager indexManager) {
     this.localDocumentsView = localDocumentsView;
@@ -80,23 +137,205 @@ public class QueryEngine {
     this.initialized = true;
   }
 
+  /**
+   * Enables or disables cost-based planning. If disabled, the query engine tries index-based
+   * execution, then the previous query result and then a full collection scan. Disabled by default.
+   */
+  public void setCostBasedPlanningEnabled(boolean enabled) {
+    this.costBasedPlanningEnabled = enabled;
+  }
+
+  /**
+   * Registers an additional strategy. Strategies are tried in registration order unless cost-based
+   * planning is enabled. A full collection scan is always used if no other strategy applies.
+   */
+  void addStrategy(QueryStrategy strategy) {
+    strategies.add(strategy);
+  }
+
   public ImmutableSortedMap<DocumentKey, Document> getDocumentsMatchingQuery(
       Query query,
       SnapshotVersion lastLimboFreeSnapshotVersion,
       ImmutableSortedSet<DocumentKey> remoteKeys) {
     hardAssert(initialized, "initialize() not called");
 
-    ImmutableSortedMap<DocumentKey, Document> result = performQueryUsingIndex(query);
-    if (result != null) {
-      return result;
+    List<QueryStrategy> orderedStrategies =
+        getApplicableStrategies(query, lastLimboFreeSnapshotVersion);
+    // The statistics behind the estimates are not free to read, so they are only read if there is
+    // more than one way to execute the query.
+    if (costBasedPlanningEnabled && orderedStrategies.size() > 1) {
+      QueryPlan plan = rank(query, remoteKeys, orderedStrategies);
+      if (Logger.isDebugEnabled()) {
+        Logger.debug(LOG_TAG, "Using %s to execute query: %s", plan, query);
+      }
+      orderedStrategies.clear();
+      for (QueryPlan.Candidate candidate : plan.getCandidates()) {
+        orderedStrategies.add(candidate.getStrategy());
+      }
+    }
+
+    for (QueryStrategy strategy : orderedStrategies) {
+      ImmutableSortedMap<DocumentKey, Document> result =
+          strategy.execute(query, lastLimboFreeSnapshotVersion, remoteKeys);
+      if (result != null) {
+        return result;
+      }
     }
 
-    result = performQueryUsingRemoteKeys(query, remoteKeys, lastLimboFreeSnapshotVersion);
-    if (result != null) {
-      return result;
+    throw fail("Full collection scan did not produce a result for query: %s", query);
+  }
+
+  /**
+   * Returns the strategies that can execute the query along with their estimated costs, in the
+   * order in which {@link #getDocumentsMatchingQuery} tries them.
+   */
+  @VisibleForTesting
+  QueryPlan explain(
+      Query query,
+      SnapshotVersion lastLimboFreeSnapshotVersion,
+      ImmutableSortedSet<DocumentKey> remoteKeys) {
+    hardAssert(initialized, "initialize() not called");
+    return rank(query, remoteKeys, getApplicableStrategies(query, lastLimboFreeSnapshotVersion));
+  }
+
+  /** Returns the strategies that can execute the query in their default order. */
+  private List<QueryStrategy> getApplicableStrategies(
+      Query query, SnapshotVersion lastLimboFreeSnapshotVersion) {
+    List<QueryStrategy> applicableStrategies = new ArrayList<>();
+    for (QueryStrategy strategy : strategies) {
+      if (strategy.isApplicable(query, lastLimboFreeSnapshotVersion)) {
+        applicableStrategies.add(strategy);
+      }
     }
+    applicableStrategies.add(fullScanStrategy);
+    return applicableStrategies;
+  }
 
-    return executeFullCollectionScan(query);
+  /**
+   * Estimates the cost of each strategy and, if cost-based planning is enabled, orders them by
+   * their cost.
+   */
+  private QueryPlan rank(
+      Query query,
+      ImmutableSortedSet<DocumentKey> remoteKeys,
+      List<QueryStrategy> applicableStrategies) {
+    List<QueryPlan.Candidate> candidates = new ArrayList<>();
+    for (QueryStrategy strategy : applicableStrategies) {
+      candidates.add(new QueryPlan.Candidate(strategy, strategy.estimateCost(query, remoteKeys)));
+    }
+
+    if (costBasedPlanningEnabled) {
+      // The sort is stable, which preserves the default order for strategies of equal cost.
+      Collections.sort(
+          candidates, (lhs, rhs) -> Double.compare(lhs.getEstimatedCost(), rhs.getEstimatedCost()));
+    }
+    return new QueryPlan(candidates);
+  }
+
+  /** Executes queries using a persisted field index. */
+  private class IndexStrategy implements QueryStrategy {
+    @Override
+    public String getName() {
+      return "IndexScan";
+    }
+
+    @Override
+    public boolean isApplicable(Query query, SnapshotVersion lastLimboFreeSnapshotVersion) {
+      return !query.matchesAllDocuments()
+          && !indexManager.getIndexType(query.toTarget()).equals(IndexType.NONE);
+    }
+
+    @Override
+    public double estimateCost(Query query, ImmutableSortedSet<DocumentKey> remoteKeys) {
+      Target target = query.toTarget();
+      IndexType indexType = indexManager.getIndexType(target);
+
+      // The index scan reads the entries within the target's bounds and looks up every document
+      // they point to. Full indexes can apply the query's limit to the lookups.
+      long indexEntryCount = indexManager.getIndexEntryCount(target);
+      long estimatedMatches = indexEntryCount;
+      if (indexType.equals(IndexType.FULL) && target.hasLimit()) {
+        estimatedMatches = Math.min(estimatedMatches, target.getLimit());
+      }
+      return indexEntryCount * INDEX_ENTRY_SCAN_COST + estimatedMatches * DOCUMENT_LOOKUP_COST;
+    }
+
+    @Nullable
+    @Override
+    public ImmutableSortedMap<DocumentKey, Document> execute(
+        Query query,
+        SnapshotVersion lastLimboFreeSnapshotVersion,
+        ImmutableSortedSet<DocumentKey> remoteKeys) {
+      return performQueryUsingIndex(query);
+    }
+  }
+
+  /** Executes queries by re-using the document keys that matched the query previously. */
+  private class RemoteKeysStrategy implements QueryStrategy {
+    @Override
+    public String getName() {
+      return "RemoteKeys";
+    }
+
+    @Override
+    public boolean isApplicable(Query query, SnapshotVersion lastLimboFreeSnapshotVersion) {
+      return !query.matchesAllDocuments()
+          && !lastLimboFreeSnapshotVersion.equals(SnapshotVersion.NONE);
+    }
+
+    @Override
+    public double estimateCost(Query query, ImmutableSortedSet<DocumentKey> remoteKeys) {
+      return remoteKeys.size() * DOCUMENT_LOOKUP_COST;
+    }
+
+    @Nullable
+    @Override
+    public ImmutableSortedMap<DocumentKey, Document> execute(
+        Query query,
+        SnapshotVersion lastLimboFreeSnapshotVersion,
+        ImmutableSortedSet<DocumentKey> remoteKeys) {
+      return performQueryUsingRemoteKeys(query, remoteKeys, lastLimboFreeSnapshotVersion);
+    }
+  }
+
+  /** Executes queries by reading all documents in the query's collection. */
+  private class FullCollectionScanStrategy implements QueryStrategy {
+    @Override
+    public String getName() {
+      return "FullCollectionScan";
+    }
+
+    @Override
+    public boolean isApplicable(Query query, SnapshotVersion lastLimboFreeSnapshotVersion) {
+      return true;
+    }
+
+    @Override
+    public double estimateCost(Query query, ImmutableSortedSet<DocumentKey> remoteKeys) {
+      if (query.isDocumentQuery()) {
+        return DOCUMENT_LOOKUP_COST;
+      }
+
+      RemoteDocumentCache remoteDocumentCache = localDocumentsView.getRemoteDocumentCache();
+      long documentCount = 0;
+      if (query.isCollectionGroupQuery()) {
+        String collectionGroup = query.getCollectionGroup();
+        for (ResourcePath parent : indexManager.getCollectionParents(collectionGroup)) {
+          documentCount += remoteDocumentCache.getDocumentCount(parent.append(collectionGroup));
+        }
+      } else {
+        documentCount = remoteDocumentCache.getDocumentCount(query.getPath());
+      }
+      return documentCount * DOCUMENT_SCAN_COST;
+    }
+
+    @Override
+    public ImmutableSortedMap<DocumentKey, Document> execute(
+        Query query,
+        SnapshotVersion lastLimboFreeSnapshotVersion,
+        ImmutableSortedSet<DocumentKey> remoteKeys) {
+      return executeFullCollectionScan(query);
+    }
   }
 
   /**
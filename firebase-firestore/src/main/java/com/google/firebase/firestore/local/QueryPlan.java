@@ -0,0 +1,82 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import androidx.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes how the {@link QueryEngine} executes a query: the strategies that can execute the
+ * query, their estimated costs and the order in which they are tried.
+ *
+ * <p>A strategy can decline to execute a query at runtime (for example, if a limit query needs to
+ * be refilled), in which case the next strategy is used. A full collection scan is always a
+ * candidate and never declines.
+ */
+final class QueryPlan {
+  /** A strategy that can execute the query along with its estimated cost. */
+  static final class Candidate {
+    private final QueryEngine.QueryStrategy strategy;
+    private final double estimatedCost;
+
+    Candidate(QueryEngine.QueryStrategy strategy, double estimatedCost) {
+      this.strategy = strategy;
+      this.estimatedCost = estimatedCost;
+    }
+
+    QueryEngine.QueryStrategy getStrategy() {
+      return strategy;
+    }
+
+    String getStrategyName() {
+      return strategy.getName();
+    }
+
+    /** The estimated number of document reads needed to execute the query. */
+    double getEstimatedCost() {
+      return estimatedCost;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+      return strategy.getName() + "(cost=" + estimatedCost + ")";
+    }
+  }
+
+  private final List<Candidate> candidates;
+
+  QueryPlan(List<Candidate> candidates) {
+    this.candidates = Collections.unmodifiableList(new ArrayList<>(candidates));
+  }
+
+  /** Returns the applicable strategies in the order in which they are tried. */
+  List<Candidate> getCandidates() {
+    return candidates;
+  }
+
+  /** Returns the name of the strategy that is tried first. */
+  String getPreferredStrategyName() {
+    return candidates.get(0).getStrategyName();
+  }
+
+  @NonNull
+  @Override
+  public String toString() {
+    return "QueryPlan" + candidates;
+  }
+}
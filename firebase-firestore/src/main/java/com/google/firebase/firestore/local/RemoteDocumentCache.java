@@ -84,4 +84,11 @@ interface RemoteDocumentCache {
    * @return A newly created map with the set of documents in the collection.
    */
   Map<DocumentKey, MutableDocument> getAll(ResourcePath collection, IndexOffset offset);
+
+  /**
+   * Returns the number of documents stored directly in the provided collection, excluding documents
+   * in subcollections. This is used as a cost estimate for collection scans and does not decode any
+   * documents.
+   */
+  long getDocumentCount(ResourcePath collection);
 }
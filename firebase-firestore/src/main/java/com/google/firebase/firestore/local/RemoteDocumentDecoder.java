@@ -0,0 +1,172 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.util.Assert.fail;
+import static com.google.firebase.firestore.util.Assert.hardAssert;
+
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MutableDocument;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Decodes rows read from the {@code remote_documents} table on a bounded number of background
+ * workers.
+ *
+ * <p>Rows are buffered into batches of {@code batchSize} entries. Each batch is decoded by a worker
+ * that holds exclusive ownership of one result partition, so decoded documents can be stored
+ * without any locking. Partitions are merged into the caller's result map once in {@link
+ * #drain}. If all workers are busy, {@link #add} blocks the reading thread until a partition
+ * becomes available again, which bounds the number of undecoded rows held in memory to {@code
+ * (workerCount + 1) * batchSize}.
+ *
+ * <p>This class is not thread-safe. {@link #add} and {@link #drain} must be called from the same
+ * thread.
+ */
+final class RemoteDocumentDecoder {
+  /** Decodes the contents of a single {@code remote_documents} row. */
+  interface RowDecoder {
+    MutableDocument decode(byte[] contents, int readTimeSeconds, int readTimeNanos);
+  }
+
+  /**
+   * The number of parse workers. Matches the maximum concurrency of {@link
+   * com.google.firebase.firestore.util.Executors#BACKGROUND_EXECUTOR}.
+   */
+  static final int DEFAULT_WORKER_COUNT = 4;
+
+  /** The number of rows that are handed to a worker at once. */
+  static final int DEFAULT_BATCH_SIZE = 50;
+
+  private final Executor executor;
+  private final RowDecoder rowDecoder;
+  private final int workerCount;
+  private final int batchSize;
+
+  /** Result partitions that are not currently owned by a worker. */
+  private final BlockingQueue<Map<DocumentKey, MutableDocument>> idlePartitions;
+
+  private List<RawRow> pendingRows;
+  private volatile @Nullable Throwable failure;
+
+  RemoteDocumentDecoder(Executor executor, RowDecoder rowDecoder, int workerCount, int batchSize) {
+    hardAssert(workerCount > 0, "workerCount must be positive");
+    hardAssert(batchSize > 0, "batchSize must be positive");
+    this.executor = executor;
+    this.rowDecoder = rowDecoder;
+    this.workerCount = workerCount;
+    this.batchSize = batchSize;
+    this.idlePartitions = new ArrayBlockingQueue<>(workerCount);
+    for (int i = 0; i < workerCount; ++i) {
+      idlePartitions.add(new HashMap<>());
+    }
+    this.pendingRows = new ArrayList<>(batchSize);
+  }
+
+  /**
+   * Buffers a row for decoding. Dispatches the current batch to a worker once it is full, blocking
+   * if no worker is available.
+   */
+  void add(byte[] contents, int readTimeSeconds, int readTimeNanos) {
+    pendingRows.add(new RawRow(contents, readTimeSeconds, readTimeNanos));
+    if (pendingRows.size() >= batchSize) {
+      dispatch(pendingRows);
+      pendingRows = new ArrayList<>(batchSize);
+    }
+  }
+
+  /**
+   * Decodes all remaining rows, waits for all workers to finish and merges their results into
+   * {@code results}.
+   */
+  void drain(Map<DocumentKey, MutableDocument> results) {
+    // The last batch is decoded on the calling thread since it would otherwise sit idle.
+    try {
+      decodeInto(pendingRows, results);
+    } catch (RuntimeException | Error e) {
+      failure = e;
+    }
+    pendingRows = new ArrayList<>(batchSize);
+
+    List<Map<DocumentKey, MutableDocument>> partitions = new ArrayList<>(workerCount);
+    for (int i = 0; i < workerCount; ++i) {
+      partitions.add(takePartition());
+    }
+    for (Map<DocumentKey, MutableDocument> partition : partitions) {
+      results.putAll(partition);
+      partition.clear();
+    }
+    idlePartitions.addAll(partitions);
+
+    Throwable t = failure;
+    if (t != null) {
+      failure = null;
+      if (t instanceof Error) {
+        throw (Error) t;
+      }
+      throw (RuntimeException) t;
+    }
+  }
+
+  private void dispatch(List<RawRow> rows) {
+    Map<DocumentKey, MutableDocument> partition = takePartition();
+    executor.execute(
+        () -> {
+          try {
+            decodeInto(rows, partition);
+          } catch (RuntimeException | Error e) {
+            failure = e;
+          } finally {
+            idlePartitions.add(partition);
+          }
+        });
+  }
+
+  private Map<DocumentKey, MutableDocument> takePartition() {
+    try {
+      return idlePartitions.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw fail(e, "Interrupted while waiting for document decode");
+    }
+  }
+
+  private void decodeInto(List<RawRow> rows, Map<DocumentKey, MutableDocument> target) {
+    for (RawRow row : rows) {
+      MutableDocument document =
+          rowDecoder.decode(row.contents, row.readTimeSeconds, row.readTimeNanos);
+      target.put(document.getKey(), document);
+    }
+  }
+
+  private static final class RawRow {
+    final byte[] contents;
+    final int readTimeSeconds;
+    final int readTimeNanos;
+
+    RawRow(byte[] contents, int readTimeSeconds, int readTimeNanos) {
+      this.contents = contents;
+      this.readTimeSeconds = readTimeSeconds;
+      this.readTimeNanos = readTimeNanos;
+    }
+  }
+}
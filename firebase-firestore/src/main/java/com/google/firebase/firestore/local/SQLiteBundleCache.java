@@ -104,4 +104,35 @@ class SQLiteBundleCache implements BundleCache {
         query.getReadTime().getTimestamp().getNanoseconds(),
         bundledQuery.toByteArray());
   }
+
+  @Override
+  public int getLoadedDocumentCount(BundleMetadata metadata) {
+    Integer documentCount =
+        db.query(
+                "SELECT loaded_documents FROM bundle_load_progress "
+                    + "WHERE bundle_id = ? AND create_time_seconds = ? AND create_time_nanos = ?")
+            .binding(
+                metadata.getBundleId(),
+                metadata.getCreateTime().getTimestamp().getSeconds(),
+                metadata.getCreateTime().getTimestamp().getNanoseconds())
+            .firstValue(row -> row.getInt(0));
+    return documentCount != null ? documentCount : 0;
+  }
+
+  @Override
+  public void saveLoadedDocumentCount(BundleMetadata metadata, int documentCount) {
+    db.execute(
+        "INSERT OR REPLACE INTO bundle_load_progress "
+            + "(bundle_id, create_time_seconds, create_time_nanos, loaded_documents) "
+            + "VALUES (?, ?, ?, ?)",
+        metadata.getBundleId(),
+        metadata.getCreateTime().getTimestamp().getSeconds(),
+        metadata.getCreateTime().getTimestamp().getNanoseconds(),
+        documentCount);
+  }
+
+  @Override
+  public void removeLoadedDocumentCount(String bundleId) {
+    db.execute("DELETE FROM bundle_load_progress WHERE bundle_id = ?", bundleId);
+  }
 }
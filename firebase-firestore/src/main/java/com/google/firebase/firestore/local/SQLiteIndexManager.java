@@ -68,6 +68,9 @@ final class SQLiteIndexManager implements IndexManager {
   private static final String TAG = SQLiteIndexManager.class.getSimpleName();
   private static final byte[] EMPTY_BYTES_VALUE = new byte[] {};
 
+  /** The number of bind args per index entry in batched inserts and deletes. */
+  private static final int BINDS_PER_INDEX_ENTRY = 5;
+
   private final SQLitePersistence db;
   private final LocalSerializer serializer;
   private final String uid;
@@ -243,30 +246,44 @@ final class SQLiteIndexManager implements IndexManager {
   public void updateIndexEntries(ImmutableSortedMap<DocumentKey, Document> documents) {
     hardAssert(started, "IndexManager not started");
 
+    // Group the documents by the field indexes that apply to them, so that the existing entries
+    // for all documents of an index can be read with a single query.
+    Map<Integer, FieldIndex> fieldIndexesById = new HashMap<>();
+    Map<Integer, List<Document>> documentsByIndexId = new HashMap<>();
     for (Map.Entry<DocumentKey, Document> entry : documents) {
       Collection<FieldIndex> fieldIndexes = getFieldIndexes(entry.getKey().getCollectionGroup());
       for (FieldIndex fieldIndex : fieldIndexes) {
-        SortedSet<IndexEntry> existingEntries = getExistingIndexEntries(entry.getKey(), fieldIndex);
-        SortedSet<IndexEntry> newEntries = computeIndexEntries(entry.getValue(), fieldIndex);
+        List<Document> indexDocuments = documentsByIndexId.get(fieldIndex.getIndexId());
+        if (indexDocuments == null) {
+          indexDocuments = new ArrayList<>();
+          fieldIndexesById.put(fieldIndex.getIndexId(), fieldIndex);
+          documentsByIndexId.put(fieldIndex.getIndexId(), indexDocuments);
+        }
+        indexDocuments.add(entry.getValue());
+      }
+    }
+
+    List<IndexEntry> addedEntries = new ArrayList<>();
+    List<IndexEntry> deletedEntries = new ArrayList<>();
+    for (Map.Entry<Integer, List<Document>> entry : documentsByIndexId.entrySet()) {
+      FieldIndex fieldIndex = fieldIndexesById.get(entry.getKey());
+      Map<DocumentKey, SortedSet<IndexEntry>> existingEntriesByKey =
+          getExistingIndexEntries(fieldIndex, entry.getValue());
+      for (Document document : entry.getValue()) {
+        SortedSet<IndexEntry> existingEntries = existingEntriesByKey.get(document.getKey());
+        if (existingEntries == null) {
+          existingEntries = new TreeSet<>();
+        }
+        SortedSet<IndexEntry> newEntries = computeIndexEntries(document, fieldIndex);
         if (!existingEntries.equals(newEntries)) {
-          updateEntries(entry.getValue(), existingEntries, newEntries);
+          Logger.debug(TAG, "Updating index entries for document '%s'", document.getKey());
+          diffCollections(existingEntries, newEntries, addedEntries::add, deletedEntries::add);
         }
       }
     }
-  }
 
-  /**
-   * Updates the index entries for the provided document by deleting entries that are no longer
-   * referenced in {@code newEntries} and adding all newly added entries.
-   */
-  private void updateEntries(
-      Document document, SortedSet<IndexEntry> existingEntries, SortedSet<IndexEntry> newEntries) {
-    Logger.debug(TAG, "Updating index entries for document '%s'", document.getKey());
-    diffCollections(
-        existingEntries,
-        newEntries,
-        entry -> addIndexEntry(document, entry),
-        entry -> deleteIndexEntry(document, entry));
+    deleteIndexEntries(deletedEntries);
+    addIndexEntries(addedEntries);
   }
 
   @Override
@@ -423,40 +440,93 @@ final class SQLiteIndexManager implements IndexManager {
     return result;
   }
 
-  private void addIndexEntry(Document document, IndexEntry indexEntry) {
-    db.execute(
-        "INSERT INTO index_entries (index_id, uid, array_value, directional_value, document_key) "
-            + "VALUES(?, ?, ?, ?, ?)",
-        indexEntry.getIndexId(),
-        uid,
-        indexEntry.getArrayValue(),
-        indexEntry.getDirectionalValue(),
-        document.getKey().toString());
+  /**
+   * Inserts the provided index entries using multi-row INSERT statements. Each statement inserts as
+   * many rows as fit into SQLite's limit for bind arguments.
+   */
+  private void addIndexEntries(List<IndexEntry> indexEntries) {
+    int rowsPerStatement = SQLitePersistence.MAX_ARGS / BINDS_PER_INDEX_ENTRY;
+    for (int i = 0; i < indexEntries.size(); i += rowsPerStatement) {
+      List<IndexEntry> rows =
+          indexEntries.subList(i, Math.min(indexEntries.size(), i + rowsPerStatement));
+      db.execute(
+          "INSERT INTO index_entries (index_id, uid, array_value, directional_value, document_key) "
+              + "VALUES "
+              + repeatSequence("(?, ?, ?, ?, ?)", rows.size(), ", "),
+          getBindArgs(rows));
+    }
   }
 
-  private void deleteIndexEntry(Document document, IndexEntry indexEntry) {
-    db.execute(
-        "DELETE FROM index_entries WHERE index_id = ? AND uid = ? AND array_value = ? "
-            + "AND directional_value = ? AND document_key = ?",
-        indexEntry.getIndexId(),
-        uid,
-        indexEntry.getArrayValue(),
-        indexEntry.getDirectionalValue(),
-        document.getKey().toString());
-  }
-
-  private SortedSet<IndexEntry> getExistingIndexEntries(
-      DocumentKey documentKey, FieldIndex fieldIndex) {
-    SortedSet<IndexEntry> results = new TreeSet<>();
-    db.query(
-            "SELECT array_value, directional_value FROM index_entries "
-                + "WHERE index_id = ? AND document_key = ? AND uid = ?")
-        .binding(fieldIndex.getIndexId(), documentKey.toString(), uid)
-        .forEach(
-            row ->
-                results.add(
+  /**
+   * Deletes the provided index entries, matching as many entries per DELETE statement as fit into
+   * SQLite's limit for bind arguments.
+   */
+  private void deleteIndexEntries(List<IndexEntry> indexEntries) {
+    int rowsPerStatement = SQLitePersistence.MAX_ARGS / BINDS_PER_INDEX_ENTRY;
+    for (int i = 0; i < indexEntries.size(); i += rowsPerStatement) {
+      List<IndexEntry> rows =
+          indexEntries.subList(i, Math.min(indexEntries.size(), i + rowsPerStatement));
+      db.execute(
+          "DELETE FROM index_entries WHERE "
+              + repeatSequence(
+                  "(index_id = ? AND uid = ? AND array_value = ? "
+                      + "AND directional_value = ? AND document_key = ?)",
+                  rows.size(),
+                  " OR "),
+          getBindArgs(rows));
+    }
+  }
+
+  /** Returns the bind args for the provided entries in the order of the index_entries columns. */
+  private Object[] getBindArgs(List<IndexEntry> indexEntries) {
+    Object[] bindArgs = new Object[indexEntries.size() * BINDS_PER_INDEX_ENTRY];
+    int offset = 0;
+    for (IndexEntry indexEntry : indexEntries) {
+      bindArgs[offset++] = indexEntry.getIndexId();
+      bindArgs[offset++] = uid;
+      bindArgs[offset++] = indexEntry.getArrayValue();
+      bindArgs[offset++] = indexEntry.getDirectionalValue();
+      bindArgs[offset++] = indexEntry.getDocumentKey().toString();
+    }
+    return bindArgs;
+  }
+
+  /**
+   * Returns the existing index entries of the provided documents for the given field index, keyed
+   * by document. Documents without index entries are not included in the result.
+   */
+  private Map<DocumentKey, SortedSet<IndexEntry>> getExistingIndexEntries(
+      FieldIndex fieldIndex, List<Document> documents) {
+    List<Object> documentKeys = new ArrayList<>(documents.size());
+    for (Document document : documents) {
+      documentKeys.add(document.getKey().toString());
+    }
+
+    Map<DocumentKey, SortedSet<IndexEntry>> results = new HashMap<>();
+    SQLitePersistence.LongQuery longQuery =
+        new SQLitePersistence.LongQuery(
+            db,
+            "SELECT document_key, array_value, directional_value FROM index_entries "
+                + "WHERE index_id = ? AND uid = ? AND document_key IN (",
+            Arrays.asList(fieldIndex.getIndexId(), uid),
+            documentKeys,
+            ")");
+    while (longQuery.hasMoreSubqueries()) {
+      longQuery
+          .performNextSubquery()
+          .forEach(
+              row -> {
+                DocumentKey documentKey = DocumentKey.fromPathString(row.getString(0));
+                SortedSet<IndexEntry> entries = results.get(documentKey);
+                if (entries == null) {
+                  entries = new TreeSet<>();
+                  results.put(documentKey, entries);
+                }
+                entries.add(
                     IndexEntry.create(
-                        fieldIndex.getIndexId(), documentKey, row.getBlob(0), row.getBlob(1))));
+                        fieldIndex.getIndexId(), documentKey, row.getBlob(1), row.getBlob(2)));
+              });
+    }
     return results;
   }
 
@@ -464,8 +534,38 @@ final class SQLiteIndexManager implements IndexManager {
   public List<DocumentKey> getDocumentsMatchingTarget(Target target) {
     hardAssert(started, "IndexManager not started");
 
-    List<String> subQueries = new ArrayList<>();
     List<Object> bindings = new ArrayList<>();
+    String indexScan = generateIndexScan(target, bindings);
+    if (indexScan == null) {
+      return null;
+    }
+
+    String queryString = "SELECT DISTINCT document_key FROM (" + indexScan + ")";
+
+    if (target.hasLimit()) {
+      queryString = queryString + " LIMIT " + target.getLimit();
+    }
+
+    hardAssert(bindings.size() < 1000, "Cannot perform query with more than 999 bind elements");
+
+    SQLitePersistence.Query query = db.query(queryString).binding(bindings.toArray());
+
+    List<DocumentKey> result = new ArrayList<>();
+    query.forEach(
+        row -> result.add(DocumentKey.fromPath(ResourcePath.fromString(row.getString(0)))));
+
+    Logger.debug(TAG, "Index scan returned %s documents", result.size());
+    return result;
+  }
+
+  /**
+   * Returns the SQL query that scans the index entries that match the target and its sub-targets,
+   * and adds its binding arguments to {@code bindings}. Returns {@code null} if any sub-target
+   * cannot be served from an index.
+   */
+  @Nullable
+  private String generateIndexScan(Target target, List<Object> bindings) {
+    List<String> subQueries = new ArrayList<>();
 
     for (Target subTarget : getSubTargets(target)) {
       FieldIndex fieldIndex = getFieldIndex(subTarget);
@@ -509,23 +609,7 @@ final class SQLiteIndexManager implements IndexManager {
       bindings.addAll(Arrays.asList(subQueryAndBindings).subList(1, subQueryAndBindings.length));
     }
 
-    String queryString =
-        "SELECT DISTINCT document_key FROM (" + TextUtils.join(" UNION ", subQueries) + ")";
-
-    if (target.hasLimit()) {
-      queryString = queryString + " LIMIT " + target.getLimit();
-    }
-
-    hardAssert(bindings.size() < 1000, "Cannot perform query with more than 999 bind elements");
-
-    SQLitePersistence.Query query = db.query(queryString).binding(bindings.toArray());
-
-    List<DocumentKey> result = new ArrayList<>();
-    query.forEach(
-        row -> result.add(DocumentKey.fromPath(ResourcePath.fromString(row.getString(0)))));
-
-    Logger.debug(TAG, "Index scan returned %s documents", result.size());
-    return result;
+    return TextUtils.join(" UNION ", subQueries);
   }
 
   /**
@@ -581,6 +665,28 @@ final class SQLiteIndexManager implements IndexManager {
     return result.toArray();
   }
 
+  /**
+   * Returns the number of documents whose index entries fall within the bounds of the target and
+   * its sub-targets. The count only visits the index entries in those bounds, which are the entries
+   * that an index scan for the target reads.
+   */
+  @Override
+  public long getIndexEntryCount(Target target) {
+    hardAssert(started, "IndexManager not started");
+
+    List<Object> bindings = new ArrayList<>();
+    String indexScan = generateIndexScan(target, bindings);
+    if (indexScan == null) {
+      return 0;
+    }
+
+    hardAssert(bindings.size() < 1000, "Cannot perform query with more than 999 bind elements");
+
+    return db.query("SELECT COUNT(DISTINCT document_key) FROM (" + indexScan + ")")
+        .binding(bindings.toArray())
+        .firstValue(row -> row.getLong(0));
+  }
+
   /** Returns the bind arguments for all {@code statementCount} statements. */
   private Object[] fillBounds(
       int statementCount,
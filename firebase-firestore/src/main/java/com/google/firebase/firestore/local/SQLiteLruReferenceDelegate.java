@@ -19,7 +19,6 @@ import static com.google.firebase.firestore.util.Assert.hardAssert;
 import android.util.SparseArray;
 import com.google.firebase.firestore.core.ListenSequence;
 import com.google.firebase.firestore.model.DocumentKey;
-import com.google.firebase.firestore.model.ResourcePath;
 import com.google.firebase.firestore.util.Consumer;
 import java.util.ArrayList;
 import java.util.List;
@@ -119,8 +118,8 @@ class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
   }
 
   @Override
-  public int removeTargets(long upperBound, SparseArray<?> activeTargetIds) {
-    return persistence.getTargetCache().removeQueries(upperBound, activeTargetIds);
+  public int removeTargets(long lowerBound, long upperBound, SparseArray<?> activeTargetIds) {
+    return persistence.getTargetCache().removeQueries(lowerBound, upperBound, activeTargetIds);
   }
 
   @Override
@@ -155,35 +154,57 @@ class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
         EncodedPath.encode(key.getPath()));
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The sentinel rows of the documents are read in pages of {@link
+   * #REMOVE_ORPHANED_DOCUMENTS_BATCH_SIZE} in the order of the document_sequence_numbers index, so
+   * that only the rows in the range are visited.
+   */
   @Override
-  public int removeOrphanedDocuments(long upperBound) {
-    int[] count = new int[1];
-
-    boolean resultsRemaining = true;
-
+  public int removeOrphanedDocuments(long lowerBound, long upperBound) {
+    // The position of the last row read, by sequence number and path. The first page starts right
+    // after the lower bound.
+    long[] lastSequenceNumber = new long[] {lowerBound + 1};
+    String[] lastPath = new String[] {""};
     List<DocumentKey> docsToRemove = new ArrayList<>();
-    while (resultsRemaining) {
-      int rowsProccessed =
+    List<DocumentKey> pageDocsToRemove = new ArrayList<>();
+    int rowsProcessed;
+    do {
+      pageDocsToRemove.clear();
+      rowsProcessed =
           persistence
               .query(
-                  "select path from target_documents group by path having COUNT(*) = 1 AND target_id = 0 AND sequence_number <= ? LIMIT ?")
-              .binding(upperBound, REMOVE_ORPHANED_DOCUMENTS_BATCH_SIZE)
+                  "SELECT path, sequence_number FROM target_documents AS sentinel "
+                      + "WHERE target_id = 0 AND sequence_number >= ? AND sequence_number <= ? "
+                      + "AND (sequence_number > ? OR path > ?) "
+                      + "AND NOT EXISTS (SELECT 1 FROM target_documents "
+                      + "WHERE path = sentinel.path AND target_id != 0) "
+                      + "ORDER BY sequence_number, path LIMIT ?")
+              .binding(
+                  lastSequenceNumber[0],
+                  upperBound,
+                  lastSequenceNumber[0],
+                  lastPath[0],
+                  REMOVE_ORPHANED_DOCUMENTS_BATCH_SIZE)
               .forEach(
                   row -> {
-                    ResourcePath path = EncodedPath.decodeResourcePath(row.getString(0));
-                    DocumentKey key = DocumentKey.fromPath(path);
+                    lastPath[0] = row.getString(0);
+                    lastSequenceNumber[0] = row.getLong(1);
+                    DocumentKey key =
+                        DocumentKey.fromPath(EncodedPath.decodeResourcePath(lastPath[0]));
                     if (!isPinned(key)) {
-                      count[0]++;
-                      docsToRemove.add(key);
-                      removeSentinel(key);
+                      pageDocsToRemove.add(key);
                     }
                   });
-
-      resultsRemaining = (rowsProccessed == REMOVE_ORPHANED_DOCUMENTS_BATCH_SIZE);
-    }
+      for (DocumentKey key : pageDocsToRemove) {
+        removeSentinel(key);
+      }
+      docsToRemove.addAll(pageDocsToRemove);
+    } while (rowsProcessed == REMOVE_ORPHANED_DOCUMENTS_BATCH_SIZE);
 
     persistence.getRemoteDocumentCache().removeAll(docsToRemove);
-    return count[0];
+    return docsToRemove.size();
   }
 
   @Override
@@ -209,4 +230,9 @@ class SQLiteLruReferenceDelegate implements ReferenceDelegate, LruDelegate {
   public long getByteSize() {
     return persistence.getByteSize();
   }
+
+  @Override
+  public long getUsedByteSize() {
+    return persistence.getUsedByteSize();
+  }
 }
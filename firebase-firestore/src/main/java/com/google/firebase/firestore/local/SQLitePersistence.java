@@ -60,6 +60,12 @@ public final class SQLitePersistence extends Persistence {
    */
   public static final int MAX_ARGS = 900;
 
+  /** The size that disables the in-memory cache of decoded remote documents. */
+  public static final long DECODED_DOCUMENT_CACHE_DISABLED = 0;
+
+  /** The default size of the in-memory cache of decoded remote documents. */
+  public static final long DEFAULT_DECODED_DOCUMENT_CACHE_SIZE_BYTES = 4 * 1024 * 1024;
+
   /**
    * Creates the database name that is used to identify the database to be used with a Firestore
    * instance. Note that this needs to stay stable across releases. The database is uniquely
@@ -102,7 +108,9 @@ public final class SQLitePersistence extends Persistence {
         }
 
         @Override
-        public void onRollback() {}
+        public void onRollback() {
+          remoteDocumentCache.clearDecodedDocumentCache();
+        }
       };
 
   private SQLiteDatabase db;
@@ -115,18 +123,49 @@ public final class SQLitePersistence extends Persistence {
       LocalSerializer serializer,
       LruGarbageCollector.Params params) {
     this(
+        context,
+        persistenceKey,
+        databaseId,
         serializer,
         params,
-        new OpenHelper(context, serializer, databaseName(persistenceKey, databaseId)));
+        DEFAULT_DECODED_DOCUMENT_CACHE_SIZE_BYTES);
+  }
+
+  /**
+   * Creates a persistence layer that keeps up to {@code decodedDocumentCacheSizeBytes} of decoded
+   * remote documents in memory. Pass {@link #DECODED_DOCUMENT_CACHE_DISABLED} to decode every
+   * document that is read.
+   */
+  public SQLitePersistence(
+      Context context,
+      String persistenceKey,
+      DatabaseId databaseId,
+      LocalSerializer serializer,
+      LruGarbageCollector.Params params,
+      long decodedDocumentCacheSizeBytes) {
+    this(
+        serializer,
+        params,
+        new OpenHelper(context, serializer, databaseName(persistenceKey, databaseId)),
+        decodedDocumentCacheSizeBytes);
   }
 
   public SQLitePersistence(
       LocalSerializer serializer, LruGarbageCollector.Params params, OpenHelper openHelper) {
+    this(serializer, params, openHelper, DEFAULT_DECODED_DOCUMENT_CACHE_SIZE_BYTES);
+  }
+
+  public SQLitePersistence(
+      LocalSerializer serializer,
+      LruGarbageCollector.Params params,
+      OpenHelper openHelper,
+      long decodedDocumentCacheSizeBytes) {
     this.opener = openHelper;
     this.serializer = serializer;
     this.targetCache = new SQLiteTargetCache(this, this.serializer);
     this.bundleCache = new SQLiteBundleCache(this, this.serializer);
-    this.remoteDocumentCache = new SQLiteRemoteDocumentCache(this, this.serializer);
+    this.remoteDocumentCache =
+        new SQLiteRemoteDocumentCache(this, this.serializer, decodedDocumentCacheSizeBytes);
     this.referenceDelegate = new SQLiteLruReferenceDelegate(this, params);
   }
 
@@ -259,6 +298,14 @@ public final class SQLitePersistence extends Persistence {
     return getPageCount() * getPageSize();
   }
 
+  /**
+   * Returns the size of the pages that hold data. Unlike {@link #getByteSize}, this shrinks when
+   * data is removed, since the pages that are freed move to the freelist until they are reused.
+   */
+  long getUsedByteSize() {
+    return (getPageCount() - getFreelistCount()) * getPageSize();
+  }
+
   /**
    * Gets the page size of the database. Typically 4096.
    *
@@ -278,6 +325,15 @@ public final class SQLitePersistence extends Persistence {
     return query("PRAGMA page_count").firstValue(row -> row.getLong(/*column=*/ 0));
   }
 
+  /**
+   * Gets the number of unused pages in the database file.
+   *
+   * @see "https://www.sqlite.org/pragma.html#pragma_freelist_count"
+   */
+  private long getFreelistCount() {
+    return query("PRAGMA freelist_count").firstValue(row -> row.getLong(/*column=*/ 0));
+  }
+
   /**
    * A SQLiteOpenHelper that configures database connections just the way we like them, delegating
    * to SQLiteSchema to actually do the work of migration.
@@ -320,6 +376,12 @@ public final class SQLitePersistence extends Persistence {
       configured = true;
       Cursor cursor = db.rawQuery("PRAGMA locking_mode = EXCLUSIVE", new String[0]);
       cursor.close();
+
+      // The connection keeps the statements that it compiles, including those of execSQL, in an
+      // LRU cache keyed by their SQL text. The default size of 25 is smaller than the set of
+      // statements that Firestore runs repeatedly, which would otherwise evict each other and get
+      // recompiled on every use.
+      db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
     }
 
     /**
@@ -403,6 +465,31 @@ public final class SQLitePersistence extends Persistence {
     return new Query(db, sql);
   }
 
+  /**
+   * Replaces the contents of the temporary table that {@link LongQuery} joins against with the
+   * given arguments.
+   */
+  private void loadLongQueryArgs(Iterator<Object> args) {
+    // Created on every use rather than tracked, since a rollback of the enclosing transaction also
+    // drops the table again.
+    execute("CREATE TEMP TABLE IF NOT EXISTS " + LongQuery.ARGS_TABLE + " (arg)");
+    execute("DELETE FROM " + LongQuery.ARGS_TABLE);
+
+    List<Object> rowArgs = new ArrayList<>(MAX_ARGS);
+    while (args.hasNext()) {
+      rowArgs.add(args.next());
+      if (rowArgs.size() == MAX_ARGS || !args.hasNext()) {
+        execute(
+            "INSERT INTO "
+                + LongQuery.ARGS_TABLE
+                + " (arg) VALUES "
+                + repeatSequence("(?)", rowArgs.size(), ", "),
+            rowArgs.toArray());
+        rowArgs.clear();
+      }
+    }
+  }
+
   /**
    * A wrapper around SQLiteDatabase's various query methods that serves to file down the rough
    * edges of using the SQLiteDatabase API. The wrapper provides:
@@ -593,6 +680,12 @@ public final class SQLitePersistence extends Persistence {
    *     query.performNextSubquery(); // "SELECT name WHERE id in (?, ?)", binding "baz" and "spam"
    *     query.performNextSubquery(); // "SELECT name WHERE id in (?)", binding "eggs"
    * </pre>
+   *
+   * <p>If there are more than {@link #TEMP_TABLE_THRESHOLD} arguments, they are instead inserted
+   * into a temporary table and a single query of the following form is issued, which requires the
+   * placeholders to form the list of an {@code IN} expression:
+   *
+   * <p>[head][argsHead]SELECT arg FROM temp.long_query_args[tail]
    */
   static class LongQuery {
     private final SQLitePersistence db;
@@ -613,6 +706,14 @@ public final class SQLitePersistence extends Persistence {
     // limit.
     private static final int LIMIT = 900;
 
+    // Number of arguments above which they are inserted into a temporary table that a single
+    // query joins against, instead of being split into subqueries.
+    @VisibleForTesting static final int TEMP_TABLE_THRESHOLD = 4 * LIMIT;
+
+    private static final String ARGS_TABLE = "temp.long_query_args";
+
+    private final boolean useTempTable;
+
     /**
      * Creates a new {@code LongQuery} with parameters that describe a template for creating each
      * subquery.
@@ -630,6 +731,7 @@ public final class SQLitePersistence extends Persistence {
       this.argsHead = Collections.emptyList();
       this.tail = tail;
 
+      useTempTable = allArgs.size() > TEMP_TABLE_THRESHOLD;
       argsIter = allArgs.iterator();
     }
 
@@ -650,6 +752,7 @@ public final class SQLitePersistence extends Persistence {
       this.argsHead = argsHead;
       this.tail = tail;
 
+      useTempTable = allArgs.size() > TEMP_TABLE_THRESHOLD;
       argsIter = allArgs.iterator();
     }
 
@@ -669,6 +772,10 @@ public final class SQLitePersistence extends Persistence {
     /** Performs the next subquery and returns a {@link Query} object for method chaining. */
     Query performNextSubquery() {
       ++subqueriesPerformed;
+      if (useTempTable) {
+        db.loadLongQueryArgs(argsIter);
+        return db.query(head + "SELECT arg FROM " + ARGS_TABLE + tail).binding(argsHead.toArray());
+      }
       Object[] subqueryArgs = getNextSubqueryArgs();
       return db.query(head + repeatSequence("?", subqueryArgs.length, ", ") + tail)
           .binding(subqueryArgs);
@@ -677,6 +784,11 @@ public final class SQLitePersistence extends Persistence {
     /** Executes the next subquery. */
     void executeNextSubquery() {
       ++subqueriesPerformed;
+      if (useTempTable) {
+        db.loadLongQueryArgs(argsIter);
+        db.execute(head + "SELECT arg FROM " + ARGS_TABLE + tail, argsHead.toArray());
+        return;
+      }
       Object[] subqueryArgs = getNextSubqueryArgs();
       db.execute(head + repeatSequence("?", subqueryArgs.length, ", ") + tail, subqueryArgs);
     }
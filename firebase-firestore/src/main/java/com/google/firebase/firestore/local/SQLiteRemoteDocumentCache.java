@@ -21,6 +21,7 @@ import static com.google.firebase.firestore.util.Util.firstNEntries;
 import static com.google.firebase.firestore.util.Util.repeatSequence;
 
 import android.database.Cursor;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import com.google.firebase.Timestamp;
 import com.google.firebase.database.collection.ImmutableSortedMap;
@@ -30,8 +31,8 @@ import com.google.firebase.firestore.model.FieldIndex.IndexOffset;
 import com.google.firebase.firestore.model.MutableDocument;
 import com.google.firebase.firestore.model.ResourcePath;
 import com.google.firebase.firestore.model.SnapshotVersion;
-import com.google.firebase.firestore.util.BackgroundQueue;
 import com.google.firebase.firestore.util.Executors;
+import com.google.firebase.firestore.util.Logger;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.MessageLite;
 import java.util.ArrayList;
@@ -40,9 +41,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executor;
 
 final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
+  private static final String TAG = SQLiteRemoteDocumentCache.class.getSimpleName();
+
   /** The number of bind args per collection group in {@link #getAll(String, IndexOffset, int)} */
   @VisibleForTesting static final int BINDS_PER_STATEMENT = 9;
 
@@ -50,9 +52,39 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
   private final LocalSerializer serializer;
   private IndexManager indexManager;
 
-  SQLiteRemoteDocumentCache(SQLitePersistence persistence, LocalSerializer serializer) {
+  /** An in-memory cache of decoded documents, or null if decoded documents are not cached. */
+  @Nullable private final DecodedDocumentCache decodedDocumentCache;
+
+  /**
+   * Creates a remote document cache that keeps up to {@code decodedDocumentCacheSizeBytes} of
+   * decoded documents in memory, or none if the size is {@link
+   * SQLitePersistence#DECODED_DOCUMENT_CACHE_DISABLED}.
+   */
+  SQLiteRemoteDocumentCache(
+      SQLitePersistence persistence,
+      LocalSerializer serializer,
+      long decodedDocumentCacheSizeBytes) {
     this.db = persistence;
     this.serializer = serializer;
+    this.decodedDocumentCache =
+        decodedDocumentCacheSizeBytes == SQLitePersistence.DECODED_DOCUMENT_CACHE_DISABLED
+            ? null
+            : new DecodedDocumentCache(decodedDocumentCacheSizeBytes);
+  }
+
+  @Nullable
+  DecodedDocumentCache getDecodedDocumentCache() {
+    return decodedDocumentCache;
+  }
+
+  /**
+   * Drops all decoded documents, which may no longer match the persisted state after a transaction
+   * was rolled back.
+   */
+  void clearDecodedDocumentCache() {
+    if (decodedDocumentCache != null) {
+      decodedDocumentCache.clear();
+    }
   }
 
   @Override
@@ -80,6 +112,10 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
         timestamp.getNanoseconds(),
         message.toByteArray());
 
+    if (decodedDocumentCache != null) {
+      decodedDocumentCache.remove(documentKey);
+    }
+
     indexManager.addToCollectionParentIndex(document.getKey().getCollectionPath());
   }
 
@@ -94,6 +130,9 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
       encodedPaths.add(EncodedPath.encode(key.getPath()));
       deletedDocs =
           deletedDocs.insert(key, MutableDocument.newNoDocument(key, SnapshotVersion.NONE));
+      if (decodedDocumentCache != null) {
+        decodedDocumentCache.remove(key);
+      }
     }
 
     SQLitePersistence.LongQuery longQuery =
@@ -116,6 +155,13 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
     Map<DocumentKey, MutableDocument> results = new HashMap<>();
     List<Object> bindVars = new ArrayList<>();
     for (DocumentKey key : documentKeys) {
+      MutableDocument cachedDocument =
+          decodedDocumentCache != null ? decodedDocumentCache.get(key) : null;
+      if (cachedDocument != null) {
+        results.put(key, cachedDocument);
+        continue;
+      }
+
       bindVars.add(EncodedPath.encode(key.getPath()));
 
       // Make sure each key has a corresponding entry, which is null in case the document is not
@@ -131,13 +177,12 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
             bindVars,
             ") ORDER BY path");
 
-    BackgroundQueue backgroundQueue = new BackgroundQueue();
+    RemoteDocumentDecoder decoder = newDecoder();
     while (longQuery.hasMoreSubqueries()) {
-      longQuery
-          .performNextSubquery()
-          .forEach(row -> processRowInBackground(backgroundQueue, results, row));
+      longQuery.performNextSubquery().forEach(row -> processRow(decoder, row));
     }
-    backgroundQueue.drain();
+    decoder.drain(results);
+    logDecodedDocumentCacheStats();
     return results;
   }
 
@@ -203,32 +248,67 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
     }
     bindVars[i] = count;
 
-    BackgroundQueue backgroundQueue = new BackgroundQueue();
+    RemoteDocumentDecoder decoder = newDecoder();
     Map<DocumentKey, MutableDocument> results = new HashMap<>();
     db.query(sql.toString())
         .binding(bindVars)
-        .forEach(row -> processRowInBackground(backgroundQueue, results, row));
-    backgroundQueue.drain();
+        .forEach(row -> processCollectionRow(decoder, results, row));
+    decoder.drain(results);
+    logDecodedDocumentCacheStats();
     return results;
   }
 
-  private void processRowInBackground(
-      BackgroundQueue backgroundQueue, Map<DocumentKey, MutableDocument> results, Cursor row) {
-    byte[] rawDocument = row.getBlob(0);
-    int readTimeSeconds = row.getInt(1);
-    int readTimeNanos = row.getInt(2);
+  /** Logs the size and the hit rate of the cache of decoded documents. */
+  private void logDecodedDocumentCacheStats() {
+    if (decodedDocumentCache != null && Logger.isDebugEnabled()) {
+      Logger.debug(TAG, "%s", decodedDocumentCache);
+    }
+  }
 
-    // Since scheduling background tasks incurs overhead, we only dispatch to a
-    // background thread if there are still some documents remaining.
-    Executor executor = row.isLast() ? Executors.DIRECT_EXECUTOR : backgroundQueue;
-    executor.execute(
-        () -> {
-          MutableDocument document =
-              decodeMaybeDocument(rawDocument, readTimeSeconds, readTimeNanos);
-          synchronized (results) {
-            results.put(document.getKey(), document);
-          }
-        });
+  @Override
+  public long getDocumentCount(ResourcePath collection) {
+    String prefixPath = EncodedPath.encode(collection);
+    return db.query(
+            "SELECT COUNT(*) FROM remote_documents "
+                + "WHERE path >= ? AND path < ? AND path_length = ?")
+        .binding(prefixPath, EncodedPath.prefixSuccessor(prefixPath), collection.length() + 1)
+        .firstValue(row -> row.getLong(0));
+  }
+
+  /**
+   * Returns a decoder that parses rows on a bounded number of background workers. Rows are read
+   * from the cursor only as fast as the workers can decode them, which keeps the number of raw
+   * blobs in memory proportional to the batch size rather than to the size of the result.
+   */
+  private RemoteDocumentDecoder newDecoder() {
+    return new RemoteDocumentDecoder(
+        Executors.BACKGROUND_EXECUTOR,
+        this::decodeAndCacheMaybeDocument,
+        RemoteDocumentDecoder.DEFAULT_WORKER_COUNT,
+        RemoteDocumentDecoder.DEFAULT_BATCH_SIZE);
+  }
+
+  private void processRow(RemoteDocumentDecoder decoder, Cursor row) {
+    decoder.add(row.getBlob(0), row.getInt(1), row.getInt(2));
+  }
+
+  /**
+   * Processes a row that contains the document's path in its fourth column. If the cache contains
+   * a decoded version of the document with the same read time, the cached document is used and the
+   * row's contents are never read.
+   */
+  private void processCollectionRow(
+      RemoteDocumentDecoder decoder, Map<DocumentKey, MutableDocument> results, Cursor row) {
+    if (decodedDocumentCache != null) {
+      DocumentKey key = DocumentKey.fromPath(EncodedPath.decodeResourcePath(row.getString(3)));
+      SnapshotVersion readTime = new SnapshotVersion(new Timestamp(row.getInt(1), row.getInt(2)));
+      MutableDocument cachedDocument = decodedDocumentCache.get(key, readTime);
+      if (cachedDocument != null) {
+        results.put(key, cachedDocument);
+        return;
+      }
+    }
+    processRow(decoder, row);
   }
 
   @Override
@@ -236,6 +316,15 @@ final class SQLiteRemoteDocumentCache implements RemoteDocumentCache {
     return getAll(Collections.singletonList(collection), offset, Integer.MAX_VALUE);
   }
 
+  private MutableDocument decodeAndCacheMaybeDocument(
+      byte[] bytes, int readTimeSeconds, int readTimeNanos) {
+    MutableDocument document = decodeMaybeDocument(bytes, readTimeSeconds, readTimeNanos);
+    if (decodedDocumentCache != null) {
+      decodedDocumentCache.put(document, bytes.length);
+    }
+    return document;
+  }
+
   private MutableDocument decodeMaybeDocument(
       byte[] bytes, int readTimeSeconds, int readTimeNanos) {
     try {
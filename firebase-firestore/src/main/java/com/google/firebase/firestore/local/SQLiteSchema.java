@@ -48,7 +48,7 @@ class SQLiteSchema {
    * The version of the schema. Increase this by one for each migration added to runMigrations
    * below.
    */
-  static final int VERSION = 16;
+  static final int VERSION = 18;
 
   /**
    * The batch size for data migrations.
@@ -179,6 +179,14 @@ class SQLiteSchema {
       createFieldIndex();
     }
 
+    if (fromVersion < 17 && toVersion >= 17) {
+      createBundleLoadProgress();
+    }
+
+    if (fromVersion < 18 && toVersion >= 18) {
+      createSequenceNumberIndexes();
+    }
+
     /*
      * Adding a new schema upgrade? READ THIS FIRST!
      *
@@ -676,6 +684,30 @@ class SQLiteSchema {
         });
   }
 
+  private void createBundleLoadProgress() {
+    ifTablesDontExist(
+        new String[] {"bundle_load_progress"},
+        () -> {
+          db.execSQL(
+              "CREATE TABLE bundle_load_progress ("
+                  + "bundle_id TEXT PRIMARY KEY, "
+                  + "create_time_seconds INTEGER, "
+                  + "create_time_nanos INTEGER, "
+                  + "loaded_documents INTEGER)");
+        });
+  }
+
+  private void createSequenceNumberIndexes() {
+    // Lets garbage collection read the targets and the sentinel rows of orphaned documents in the
+    // order of their sequence numbers, without scanning the whole table.
+    db.execSQL(
+        "CREATE INDEX IF NOT EXISTS target_sequence_numbers "
+            + "ON targets (last_listen_sequence_number)");
+    db.execSQL(
+        "CREATE INDEX IF NOT EXISTS document_sequence_numbers "
+            + "ON target_documents (target_id, sequence_number, path)");
+  }
+
   private void createOverlays() {
     ifTablesDontExist(
         new String[] {"document_overlays"},
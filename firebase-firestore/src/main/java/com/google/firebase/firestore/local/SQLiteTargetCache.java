@@ -27,9 +27,13 @@ import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.util.Consumer;
 import com.google.protobuf.InvalidProtocolBufferException;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Cached Queries backed by SQLite. */
 final class SQLiteTargetCache implements TargetCache {
+  /** The number of targets that `removeQueries()` reads per query. */
+  private static final int REMOVE_TARGETS_BATCH_SIZE = 100;
 
   private final SQLitePersistence db;
   private final LocalSerializer localSerializer;
@@ -182,27 +186,54 @@ final class SQLiteTargetCache implements TargetCache {
   }
 
   /**
-   * Drops any targets with sequence number less than or equal to the upper bound, excepting those
-   * present in `activeTargetIds`. Document associations for the removed targets are also removed.
-   * Returns the number of targets removed.
+   * Drops any targets with a sequence number in the range ({@code lowerBound}, {@code upperBound}],
+   * excepting those present in `activeTargetIds`. Document associations for the removed targets
+   * are also removed. Returns the number of targets removed.
+   *
+   * <p>The targets are read in pages of {@link #REMOVE_TARGETS_BATCH_SIZE} in the order of the
+   * target_sequence_numbers index, so that only the targets in the range are visited.
    */
-  int removeQueries(long upperBound, SparseArray<?> activeTargetIds) {
-    int[] count = new int[1];
-    // SQLite has a max sql statement size, so there is technically a possibility that including a
-    // an IN clause in this query to filter `activeTargetIds` could overflow. Rather than deal with
-    // that, we filter out live targets from the result set.
-    db.query("SELECT target_id FROM targets WHERE last_listen_sequence_number <= ?")
-        .binding(upperBound)
-        .forEach(
-            row -> {
-              int targetId = row.getInt(0);
-              if (activeTargetIds.get(targetId) == null) {
-                removeTarget(targetId);
-                count[0]++;
-              }
-            });
+  int removeQueries(long lowerBound, long upperBound, SparseArray<?> activeTargetIds) {
+    int count = 0;
+    // The position of the last target read, by sequence number and target ID. The first page
+    // starts right after the lower bound.
+    long[] lastSequenceNumber = new long[] {lowerBound + 1};
+    int[] lastTargetId = new int[] {Integer.MIN_VALUE};
+    List<Integer> targetIds = new ArrayList<>();
+    int rowsProcessed;
+    do {
+      // SQLite has a max sql statement size, so there is technically a possibility that including
+      // an IN clause in this query to filter `activeTargetIds` could overflow. Rather than deal
+      // with that, we filter out live targets from the result set.
+      targetIds.clear();
+      rowsProcessed =
+          db.query(
+                  "SELECT target_id, last_listen_sequence_number FROM targets "
+                      + "WHERE last_listen_sequence_number >= ? "
+                      + "AND last_listen_sequence_number <= ? "
+                      + "AND (last_listen_sequence_number > ? OR target_id > ?) "
+                      + "ORDER BY last_listen_sequence_number, target_id LIMIT ?")
+              .binding(
+                  lastSequenceNumber[0],
+                  upperBound,
+                  lastSequenceNumber[0],
+                  lastTargetId[0],
+                  REMOVE_TARGETS_BATCH_SIZE)
+              .forEach(
+                  row -> {
+                    lastTargetId[0] = row.getInt(0);
+                    lastSequenceNumber[0] = row.getLong(1);
+                    if (activeTargetIds.get(lastTargetId[0]) == null) {
+                      targetIds.add(lastTargetId[0]);
+                    }
+                  });
+      for (int targetId : targetIds) {
+        removeTarget(targetId);
+        count++;
+      }
+    } while (rowsProcessed == REMOVE_TARGETS_BATCH_SIZE);
     writeMetadata();
-    return count[0];
+    return count;
   }
 
   @Nullable
@@ -16,10 +16,12 @@ package com.google.firebase.firestore.local;
 
 import static com.google.firebase.firestore.util.Preconditions.checkNotNull;
 
+import androidx.annotation.Nullable;
 import com.google.firebase.firestore.core.Target;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.remote.WatchStream;
 import com.google.protobuf.ByteString;
+import java.util.Objects;
 
 /** An immutable set of metadata that the store will need to keep track of for each target. */
 public final class TargetData {
@@ -30,6 +32,7 @@ public final class TargetData {
   private final SnapshotVersion snapshotVersion;
   private final SnapshotVersion lastLimboFreeSnapshotVersion;
   private final ByteString resumeToken;
+  @Nullable private final Integer expectedCount;
 
   /**
    * Creates a new TargetData with the given values.
@@ -45,6 +48,8 @@ public final class TargetData {
    * @param resumeToken An opaque, server-assigned token that allows watching a target to be resumed
    *     after disconnecting without retransmitting all the data that matches the target. The resume
    *     token essentially identifies a point in time from which the server should resume sending
+   * @param expectedCount The number of documents that last matched the target at the resume token
+   *     or read time. Only sent to Watch, and null if unknown.
    */
   TargetData(
       Target target,
@@ -53,7 +58,8 @@ public final class TargetData {
       QueryPurpose purpose,
       SnapshotVersion snapshotVersion,
       SnapshotVersion lastLimboFreeSnapshotVersion,
-      ByteString resumeToken) {
+      ByteString resumeToken,
+      @Nullable Integer expectedCount) {
     this.target = checkNotNull(target);
     this.targetId = targetId;
     this.sequenceNumber = sequenceNumber;
@@ -61,6 +67,7 @@ public final class TargetData {
     this.purpose = purpose;
     this.snapshotVersion = checkNotNull(snapshotVersion);
     this.resumeToken = checkNotNull(resumeToken);
+    this.expectedCount = expectedCount;
   }
 
   /** Convenience constructor for use when creating a TargetData for the first time. */
@@ -72,7 +79,8 @@ public final class TargetData {
         purpose,
         SnapshotVersion.NONE,
         SnapshotVersion.NONE,
-        WatchStream.EMPTY_RESUME_TOKEN);
+        WatchStream.EMPTY_RESUME_TOKEN,
+        /* expectedCount= */ null);
   }
 
   /** Creates a new target data instance with an updated sequence number. */
@@ -84,7 +92,8 @@ public final class TargetData {
         purpose,
         snapshotVersion,
         lastLimboFreeSnapshotVersion,
-        resumeToken);
+        resumeToken,
+        expectedCount);
   }
 
   /** Creates a new target data instance with an updated resume token and snapshot version. */
@@ -96,7 +105,8 @@ public final class TargetData {
         purpose,
         snapshotVersion,
         lastLimboFreeSnapshotVersion,
-        resumeToken);
+        resumeToken,
+        expectedCount);
   }
 
   /** Creates a new target data instance with an updated last limbo free snapshot version number. */
@@ -108,7 +118,23 @@ public final class TargetData {
         purpose,
         snapshotVersion,
         lastLimboFreeSnapshotVersion,
-        resumeToken);
+        resumeToken,
+        expectedCount);
+  }
+
+  /**
+   * Creates a new target data instance with the number of documents that last matched the target.
+   */
+  public TargetData withExpectedCount(@Nullable Integer expectedCount) {
+    return new TargetData(
+        target,
+        targetId,
+        sequenceNumber,
+        purpose,
+        snapshotVersion,
+        lastLimboFreeSnapshotVersion,
+        resumeToken,
+        expectedCount);
   }
 
   public Target getTarget() {
@@ -135,6 +161,15 @@ public final class TargetData {
     return resumeToken;
   }
 
+  /**
+   * Returns the number of documents that last matched the target at the resume token or read time,
+   * or null if it is unknown.
+   */
+  @Nullable
+  public Integer getExpectedCount() {
+    return expectedCount;
+  }
+
   /**
    * Returns the last snapshot version for which the associated view contained no limbo documents.
    */
@@ -158,7 +193,8 @@ public final class TargetData {
         && purpose.equals(targetData.purpose)
         && snapshotVersion.equals(targetData.snapshotVersion)
         && lastLimboFreeSnapshotVersion.equals(targetData.lastLimboFreeSnapshotVersion)
-        && resumeToken.equals(targetData.resumeToken);
+        && resumeToken.equals(targetData.resumeToken)
+        && Objects.equals(expectedCount, targetData.expectedCount);
   }
 
   @Override
@@ -170,6 +206,7 @@ public final class TargetData {
     result = 31 * result + snapshotVersion.hashCode();
     result = 31 * result + lastLimboFreeSnapshotVersion.hashCode();
     result = 31 * result + resumeToken.hashCode();
+    result = 31 * result + Objects.hashCode(expectedCount);
     return result;
   }
 
@@ -190,6 +227,8 @@ public final class TargetData {
         + lastLimboFreeSnapshotVersion
         + ", resumeToken="
         + resumeToken
+        + ", expectedCount="
+        + expectedCount
         + '}';
   }
 }
@@ -19,12 +19,15 @@ import static com.google.firebase.firestore.util.Assert.hardAssert;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.firestore.remote.Stream.StreamCallback;
 import com.google.firebase.firestore.util.AsyncQueue;
 import com.google.firebase.firestore.util.AsyncQueue.DelayedTask;
 import com.google.firebase.firestore.util.AsyncQueue.TimerId;
 import com.google.firebase.firestore.util.ExponentialBackoff;
 import com.google.firebase.firestore.util.Logger;
+import com.google.firebase.firestore.util.Supplier;
 import com.google.firebase.firestore.util.Util;
 import io.grpc.ClientCall;
 import io.grpc.Metadata;
@@ -34,6 +37,7 @@ import io.grpc.Status.Code;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -73,7 +77,12 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
     }
   }
 
-  /** Implementation of IncomingStreamObserver that runs callbacks via CloseGuardedRunner. */
+  /**
+   * Implementation of IncomingStreamObserver that runs callbacks via CloseGuardedRunner.
+   *
+   * <p>For pipelined streams, all callbacks but onOpen() are invoked on the pipeline executor. They
+   * are handed to the worker queue in the order in which they arrive, after responses are decoded.
+   */
   class StreamObserver implements IncomingStreamObserver<RespT> {
     private final CloseGuardedRunner dispatcher;
 
@@ -81,9 +90,18 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
       this.dispatcher = dispatcher;
     }
 
+    /** Runs the task via the CloseGuardedRunner on the worker queue. */
+    private void dispatch(Runnable task) {
+      if (pipelineExecutor == null) {
+        dispatcher.run(task);
+      } else {
+        workerQueue.enqueueAndForget(() -> dispatcher.run(task));
+      }
+    }
+
     @Override
     public void onHeaders(Metadata headers) {
-      dispatcher.run(
+      dispatch(
           () -> {
             if (Logger.isDebugEnabled()) {
               Map<String, String> allowlistedHeaders = new HashMap<>();
@@ -107,7 +125,11 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
 
     @Override
     public void onNext(RespT response) {
-      dispatcher.run(
+      Runnable handler =
+          pipelineExecutor == null
+              ? () -> AbstractStream.this.onNext(response)
+              : decodeResponse(response);
+      dispatch(
           () -> {
             if (Logger.isDebugEnabled()) {
               Logger.debug(
@@ -116,7 +138,7 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
                   System.identityHashCode(AbstractStream.this),
                   response);
             }
-            AbstractStream.this.onNext(response);
+            handler.run();
           });
     }
 
@@ -134,7 +156,7 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
 
     @Override
     public void onClose(Status status) {
-      dispatcher.run(
+      dispatch(
           () -> {
             if (status.isOk()) {
               Logger.debug(
@@ -191,6 +213,7 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
   private final IdleTimeoutRunnable idleTimeoutRunnable;
 
   private final AsyncQueue workerQueue;
+  @Nullable private final Executor pipelineExecutor;
   private final TimerId idleTimerId;
   private final TimerId healthTimerId;
   private State state = State.Initial;
@@ -202,6 +225,10 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
   private long closeCount = 0;
 
   private ClientCall<ReqT, RespT> call;
+
+  /** The last request that was encoded on the pipeline executor. */
+  private Task<ReqT> lastPipelinedRequest = Tasks.forResult(null);
+
   final ExponentialBackoff backoff;
   final CallbackT listener;
 
@@ -212,10 +239,12 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
       TimerId connectionTimerId,
       TimerId idleTimerId,
       TimerId healthTimerId,
-      CallbackT listener) {
+      CallbackT listener,
+      @Nullable Executor pipelineExecutor) {
     this.firestoreChannel = channel;
     this.methodDescriptor = methodDescriptor;
     this.workerQueue = workerQueue;
+    this.pipelineExecutor = pipelineExecutor;
     this.idleTimerId = idleTimerId;
     this.healthTimerId = healthTimerId;
     this.listener = listener;
@@ -257,7 +286,7 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
 
     CloseGuardedRunner closeGuardedRunner = new CloseGuardedRunner(closeCount);
     StreamObserver streamObserver = new StreamObserver(closeGuardedRunner);
-    call = firestoreChannel.runBidiStreamingRpc(methodDescriptor, streamObserver);
+    call = firestoreChannel.runBidiStreamingRpc(methodDescriptor, streamObserver, pipelineExecutor);
 
     state = State.Starting;
   }
@@ -389,6 +418,27 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
     call.sendMessage(message);
   }
 
+  /**
+   * Encodes a request on the pipeline executor and sends it from the worker queue, after all
+   * requests that were written before it. Requests that are still being encoded when the stream
+   * closes are dropped. Streams without a pipeline executor encode and send the request right away.
+   */
+  protected void writePipelinedRequest(Supplier<ReqT> requestEncoder) {
+    workerQueue.verifyIsCurrentThread();
+    if (pipelineExecutor == null) {
+      writeRequest(requestEncoder.get());
+      return;
+    }
+
+    CloseGuardedRunner closeGuardedRunner = new CloseGuardedRunner(closeCount);
+    // Each request is only encoded once the previous one is, which keeps them in order.
+    lastPipelinedRequest =
+        lastPipelinedRequest.continueWith(pipelineExecutor, previous -> requestEncoder.get());
+    lastPipelinedRequest.addOnCompleteListener(
+        workerQueue.getExecutor(),
+        request -> closeGuardedRunner.run(() -> writeRequest(request.getResult())));
+  }
+
   /** Called by the idle timer when the stream should close due to inactivity. */
   private void handleIdleCloseTimer() {
     if (this.isOpen()) {
@@ -431,6 +481,15 @@ abstract class AbstractStream<ReqT, RespT, CallbackT extends StreamCallback>
 
   public abstract void onNext(RespT change);
 
+  /**
+   * Decodes a response of a pipelined stream on the pipeline executor, and returns the task that
+   * handles the decoded response on the worker queue. Defaults to handling the response in {@link
+   * #onNext}.
+   */
+  Runnable decodeResponse(RespT response) {
+    return () -> onNext(response);
+  }
+
   private void performBackoff() {
     hardAssert(state == State.Error, "Should only perform backoff in an error state");
     state = State.Backoff;
@@ -0,0 +1,159 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import com.google.protobuf.ByteString;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A bloom filter of document names as sent by Watch along with existence filters. Used to find
+ * the cached documents that no longer match a target.
+ *
+ * <p>Entries are hashed with MD5, and the two 64-bit halves {@code h1} and {@code h2} of the hash
+ * are interpreted as unsigned little-endian integers. The {@code i}-th bit that is tested for an
+ * entry is {@code (h1 + i * h2) mod bitCount}.
+ */
+public final class BloomFilter {
+  private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+  private final int bitCount;
+  private final ByteString bitmap;
+  private final int hashCount;
+  private final MessageDigest md5HashMessageDigest;
+
+  /**
+   * Creates a bloom filter from its encoded bits.
+   *
+   * @param bitmap The bytes that encode the bits of the filter.
+   * @param padding The number of bits of the last byte in {@code bitmap} to ignore.
+   * @param hashCount The number of bits that are tested for each entry.
+   * @throws IllegalArgumentException if the arguments don't describe a valid bloom filter.
+   */
+  public BloomFilter(@NonNull ByteString bitmap, int padding, int hashCount) {
+    if (padding < 0 || padding >= 8) {
+      throw new IllegalArgumentException("Invalid padding: " + padding);
+    }
+    if (hashCount < 0) {
+      throw new IllegalArgumentException("Invalid hash count: " + hashCount);
+    }
+    if (bitmap.size() > 0 && hashCount == 0) {
+      // Only empty bloom filters can have a hash count of 0.
+      throw new IllegalArgumentException("Invalid hash count: " + hashCount);
+    }
+    if (bitmap.size() == 0 && padding != 0) {
+      // Empty bloom filters can't have any padding.
+      throw new IllegalArgumentException(
+          "Expected padding of 0 when bitmap length is 0, but got " + padding);
+    }
+
+    this.bitmap = bitmap;
+    this.hashCount = hashCount;
+    this.bitCount = bitmap.size() * 8 - padding;
+    this.md5HashMessageDigest = createMd5HashMessageDigest();
+  }
+
+  /** Creates a bloom filter from its protobuf representation. */
+  public static BloomFilter fromProto(com.google.firestore.v1.BloomFilter proto) {
+    return new BloomFilter(
+        proto.getBits().getBitmap(), proto.getBits().getPadding(), proto.getHashCount());
+  }
+
+  /** Returns the number of bits in the filter. */
+  public int getBitCount() {
+    return bitCount;
+  }
+
+  /** Returns the number of bits that are tested for each entry. */
+  public int getHashCount() {
+    return hashCount;
+  }
+
+  /**
+   * Returns whether the given value might be in the filter. A return value of false means that the
+   * value is definitely not in the filter, while true means that it may or may not be.
+   */
+  public boolean mightContain(@NonNull String value) {
+    // Empty bitmap should return false on membership check.
+    if (bitCount == 0) {
+      return false;
+    }
+
+    byte[] hashedValue = md5HashDigest(value);
+    long hash1 = getLongLittleEndian(hashedValue, 0);
+    long hash2 = getLongLittleEndian(hashedValue, 8);
+
+    for (int i = 0; i < hashCount; i++) {
+      int index = getBitIndex(hash1, hash2, i);
+      if (!isBitSet(index)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @VisibleForTesting
+  boolean isBitSet(int index) {
+    int byteAtIndex = bitmap.byteAt(index / 8);
+    int offset = index % 8;
+    return (byteAtIndex & (0x01 << offset)) != 0;
+  }
+
+  /** Calculates the index of the bit that the hash with the given index tests. */
+  private int getBitIndex(long hash1, long hash2, int hashIndex) {
+    // Calculate hashed value h(i) = h1 + (i * h2).
+    long combinedHash = hash1 + (hash2 * hashIndex);
+    return (int) unsignedRemainder(combinedHash, bitCount);
+  }
+
+  /**
+   * Calculates the remainder of dividing the given value, interpreted as an unsigned integer, by
+   * the divisor. Equivalent to {@code Long.remainderUnsigned}, which needs API level 26.
+   */
+  private static long unsignedRemainder(long dividend, int divisor) {
+    long quotient = ((dividend >>> 1) / divisor) << 1;
+    long remainder = dividend - quotient * divisor;
+    return remainder >= divisor ? remainder - divisor : remainder;
+  }
+
+  private byte[] md5HashDigest(String value) {
+    return md5HashMessageDigest.digest(value.getBytes(UTF8_CHARSET));
+  }
+
+  private static MessageDigest createMd5HashMessageDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Missing MD5 MessageDigest provider: ", e);
+    }
+  }
+
+  /** Interprets 8 bytes of the given array, starting at the offset, as a little-endian long. */
+  private static long getLongLittleEndian(byte[] bytes, int offset) {
+    long result = 0;
+    for (int i = 0; i < 8; i++) {
+      result |= (bytes[offset + i] & 0xFFL) << (i * 8);
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "BloomFilter{hashCount=" + hashCount + ", bitCount=" + bitCount + '}';
+  }
+}
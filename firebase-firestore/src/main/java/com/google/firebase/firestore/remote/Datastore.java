@@ -45,6 +45,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import javax.net.ssl.SSLHandshakeException;
 
 /**
@@ -88,6 +89,12 @@ public class Datastore {
 
   private final FirestoreChannel channel;
 
+  /**
+   * The executor that the watch and write streams decode and encode messages on before handing
+   * them to the worker queue, or null if they do so on the worker queue.
+   */
+  @Nullable private final Executor streamPipelineExecutor;
+
   public Datastore(
       DatabaseInfo databaseInfo,
       AsyncQueue workerQueue,
@@ -95,8 +102,27 @@ public class Datastore {
       CredentialsProvider<String> appCheckProvider,
       Context context,
       @Nullable GrpcMetadataProvider metadataProvider) {
+    this(
+        databaseInfo,
+        workerQueue,
+        authProvider,
+        appCheckProvider,
+        context,
+        metadataProvider,
+        /* streamPipelineExecutor= */ null);
+  }
+
+  public Datastore(
+      DatabaseInfo databaseInfo,
+      AsyncQueue workerQueue,
+      CredentialsProvider<User> authProvider,
+      CredentialsProvider<String> appCheckProvider,
+      Context context,
+      @Nullable GrpcMetadataProvider metadataProvider,
+      @Nullable Executor streamPipelineExecutor) {
     this.databaseInfo = databaseInfo;
     this.workerQueue = workerQueue;
+    this.streamPipelineExecutor = streamPipelineExecutor;
     this.serializer = new RemoteSerializer(databaseInfo.getDatabaseId());
     this.channel =
         initializeChannel(
@@ -128,12 +154,12 @@ public class Datastore {
 
   /** Creates a new WatchStream that is still unstarted but uses a common shared channel */
   WatchStream createWatchStream(WatchStream.Callback listener) {
-    return new WatchStream(channel, workerQueue, serializer, listener);
+    return new WatchStream(channel, workerQueue, serializer, listener, streamPipelineExecutor);
   }
 
   /** Creates a new WriteStream that is still unstarted but uses a common shared channel */
   WriteStream createWriteStream(WriteStream.Callback listener) {
-    return new WriteStream(channel, workerQueue, serializer, listener);
+    return new WriteStream(channel, workerQueue, serializer, listener, streamPipelineExecutor);
   }
 
   public Task<List<MutationResult>> commit(List<Mutation> mutations) {
@@ -14,20 +14,41 @@
 
 package com.google.firebase.firestore.remote;
 
-/** Simplest form of existence filter */
+import androidx.annotation.Nullable;
+
+/**
+ * Simplest form of existence filter, optionally with a bloom filter of the names of the documents
+ * that match the target.
+ */
 public final class ExistenceFilter {
   private final int count;
+  @Nullable private final com.google.firestore.v1.BloomFilter unchangedNames;
 
   public ExistenceFilter(int count) {
+    this(count, null);
+  }
+
+  public ExistenceFilter(
+      int count, @Nullable com.google.firestore.v1.BloomFilter unchangedNames) {
     this.count = count;
+    this.unchangedNames = unchangedNames;
   }
 
   public int getCount() {
     return count;
   }
 
+  /**
+   * Returns the bloom filter of the names of all documents that match the target, or null if Watch
+   * didn't send one.
+   */
+  @Nullable
+  public com.google.firestore.v1.BloomFilter getUnchangedNames() {
+    return unchangedNames;
+  }
+
   @Override
   public String toString() {
-    return "ExistenceFilter{count=" + count + '}';
+    return "ExistenceFilter{count=" + count + ", unchangedNames=" + unchangedNames + '}';
   }
 }
@@ -0,0 +1,152 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import com.google.firebase.firestore.ListenerRegistration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Reports how existence filter mismatches are resolved, e.g. to monitor how often the bloom filters
+ * that Watch sends avoid a full re-listen and how many false positives they produce.
+ */
+public final class ExistenceFilterMetrics {
+
+  /** Receives the outcome of existence filter mismatches. */
+  public interface Listener {
+    /** Called on the worker queue of the client, so it must not block. */
+    void onExistenceFilterMismatch(MismatchInfo info);
+  }
+
+  /** The outcome of an existence filter mismatch. */
+  public static final class MismatchInfo {
+    private final int targetId;
+    private final int localCacheCount;
+    private final int existenceFilterCount;
+    private final int bloomFilterBitCount;
+    private final int bloomFilterHashCount;
+    private final int removedDocumentCount;
+
+    MismatchInfo(
+        int targetId,
+        int localCacheCount,
+        int existenceFilterCount,
+        int bloomFilterBitCount,
+        int bloomFilterHashCount,
+        int removedDocumentCount) {
+      this.targetId = targetId;
+      this.localCacheCount = localCacheCount;
+      this.existenceFilterCount = existenceFilterCount;
+      this.bloomFilterBitCount = bloomFilterBitCount;
+      this.bloomFilterHashCount = bloomFilterHashCount;
+      this.removedDocumentCount = removedDocumentCount;
+    }
+
+    public int getTargetId() {
+      return targetId;
+    }
+
+    /** Returns the number of documents that the client considered to match the target. */
+    public int getLocalCacheCount() {
+      return localCacheCount;
+    }
+
+    /** Returns the number of documents that match the target according to Watch. */
+    public int getExistenceFilterCount() {
+      return existenceFilterCount;
+    }
+
+    /** Returns whether a valid, non-empty bloom filter was applied to the mismatch. */
+    public boolean isBloomFilterApplied() {
+      return bloomFilterBitCount > 0;
+    }
+
+    public int getBloomFilterBitCount() {
+      return bloomFilterBitCount;
+    }
+
+    public int getBloomFilterHashCount() {
+      return bloomFilterHashCount;
+    }
+
+    /** Returns the number of documents that the bloom filter removed from the target. */
+    public int getRemovedDocumentCount() {
+      return removedDocumentCount;
+    }
+
+    /**
+     * Returns whether the bloom filter resolved the mismatch. If it didn't, the target was reset
+     * and its documents are downloaded again.
+     */
+    public boolean isResolvedByBloomFilter() {
+      return isBloomFilterApplied()
+          && localCacheCount - removedDocumentCount == existenceFilterCount;
+    }
+
+    /**
+     * Returns the number of documents that no longer match the target but that the bloom filter
+     * reported as matching.
+     */
+    public int getFalsePositiveCount() {
+      if (!isBloomFilterApplied()) {
+        return 0;
+      }
+      return Math.max(0, localCacheCount - removedDocumentCount - existenceFilterCount);
+    }
+
+    /**
+     * Returns the share of the documents that no longer match the target that the bloom filter
+     * reported as matching.
+     */
+    public double getFalsePositiveRate() {
+      int falsePositiveCount = getFalsePositiveCount();
+      int nonMatchingCount = removedDocumentCount + falsePositiveCount;
+      return nonMatchingCount == 0 ? 0 : (double) falsePositiveCount / nonMatchingCount;
+    }
+
+    @Override
+    public String toString() {
+      return "MismatchInfo{targetId="
+          + targetId
+          + ", localCacheCount="
+          + localCacheCount
+          + ", existenceFilterCount="
+          + existenceFilterCount
+          + ", bloomFilterBitCount="
+          + bloomFilterBitCount
+          + ", bloomFilterHashCount="
+          + bloomFilterHashCount
+          + ", removedDocumentCount="
+          + removedDocumentCount
+          + '}';
+    }
+  }
+
+  private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  private ExistenceFilterMetrics() {}
+
+  /** Registers a listener that receives the outcome of all existence filter mismatches. */
+  public static ListenerRegistration addListener(Listener listener) {
+    listeners.add(listener);
+    return () -> listeners.remove(listener);
+  }
+
+  static void reportMismatch(MismatchInfo info) {
+    for (Listener listener : listeners) {
+      listener.onExistenceFilterMismatch(info);
+    }
+  }
+}
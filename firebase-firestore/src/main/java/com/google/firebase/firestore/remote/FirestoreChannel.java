@@ -17,6 +17,8 @@ package com.google.firebase.firestore.remote;
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 
 import android.content.Context;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.firebase.firestore.BuildConfig;
@@ -33,6 +35,8 @@ import io.grpc.ForwardingClientCall;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 import io.grpc.Status;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Wrapper class around io.grpc.Channel that adds headers, exception handling and simplifies
@@ -64,6 +68,12 @@ public class FirestoreChannel {
   // (System.getProperty("java.version") returns "0", for example).
   private static volatile String clientLanguage = "gl-java/";
 
+  /**
+   * The number of messages that pipelined streams may receive before the worker queue handled
+   * them.
+   */
+  private static final int PIPELINED_MESSAGE_WINDOW = 16;
+
   /** The async worker queue that is used to dispatch events. */
   private final AsyncQueue asyncQueue;
 
@@ -86,16 +96,33 @@ public class FirestoreChannel {
       CredentialsProvider<String> appCheckProvider,
       DatabaseInfo databaseInfo,
       GrpcMetadataProvider metadataProvider) {
+    this(
+        asyncQueue,
+        authProvider,
+        appCheckProvider,
+        databaseInfo.getDatabaseId(),
+        metadataProvider,
+        new GrpcCallProvider(
+            asyncQueue,
+            context,
+            databaseInfo,
+            new FirestoreCallCredentials(authProvider, appCheckProvider)));
+  }
+
+  @VisibleForTesting
+  FirestoreChannel(
+      AsyncQueue asyncQueue,
+      CredentialsProvider<User> authProvider,
+      CredentialsProvider<String> appCheckProvider,
+      DatabaseId databaseId,
+      @Nullable GrpcMetadataProvider metadataProvider,
+      GrpcCallProvider callProvider) {
     this.asyncQueue = asyncQueue;
     this.metadataProvider = metadataProvider;
     this.authProvider = authProvider;
     this.appCheckProvider = appCheckProvider;
+    this.callProvider = callProvider;
 
-    FirestoreCallCredentials firestoreHeaders =
-        new FirestoreCallCredentials(authProvider, appCheckProvider);
-    this.callProvider = new GrpcCallProvider(asyncQueue, context, databaseInfo, firestoreHeaders);
-
-    DatabaseId databaseId = databaseInfo.getDatabaseId();
     this.resourcePrefixValue =
         String.format(
             "projects/%s/databases/%s", databaseId.getProjectId(), databaseId.getDatabaseId());
@@ -114,9 +141,28 @@ public class FirestoreChannel {
    */
   <ReqT, RespT> ClientCall<ReqT, RespT> runBidiStreamingRpc(
       MethodDescriptor<ReqT, RespT> method, IncomingStreamObserver<RespT> observer) {
+    return runBidiStreamingRpc(method, observer, /* pipelineExecutor= */ null);
+  }
+
+  /**
+   * Creates and starts a new bi-directional streaming RPC. The stream cannot accept message before
+   * the observer's `onOpen()` callback is invoked.
+   *
+   * <p>If a pipeline executor is given, the observer's `onHeaders()`, `onNext()` and `onClose()`
+   * callbacks are invoked on it instead of the worker queue, one at a time and in order, so that
+   * the observer can decode responses before it hands them to the worker queue. Up to {@link
+   * #PIPELINED_MESSAGE_WINDOW} messages are received ahead of the worker queue.
+   */
+  <ReqT, RespT> ClientCall<ReqT, RespT> runBidiStreamingRpc(
+      MethodDescriptor<ReqT, RespT> method,
+      IncomingStreamObserver<RespT> observer,
+      @Nullable Executor pipelineExecutor) {
     ClientCall<ReqT, RespT>[] call = (ClientCall<ReqT, RespT>[]) new ClientCall[] {null};
+    // The number of messages that were handed to the observer but not yet to the worker queue.
+    AtomicInteger messagesAhead = new AtomicInteger();
 
-    Task<ClientCall<ReqT, RespT>> clientCall = callProvider.createClientCall(method);
+    Task<ClientCall<ReqT, RespT>> clientCall =
+        callProvider.createClientCall(method, pipelineExecutor);
 
     clientCall.addOnCompleteListener(
         asyncQueue.getExecutor(),
@@ -137,9 +183,28 @@ public class FirestoreChannel {
                 @Override
                 public void onMessage(RespT message) {
                   try {
+                    if (pipelineExecutor == null) {
+                      observer.onNext(message);
+                      // Make sure next message can be delivered
+                      call[0].request(1);
+                      return;
+                    }
+
+                    // Keep receiving messages while the worker queue is less than a window behind,
+                    // and otherwise only once the worker queue catches up with this message.
+                    boolean requestNow =
+                        messagesAhead.incrementAndGet() <= PIPELINED_MESSAGE_WINDOW;
                     observer.onNext(message);
-                    // Make sure next message can be delivered
-                    call[0].request(1);
+                    if (requestNow) {
+                      call[0].request(1);
+                    }
+                    asyncQueue.enqueueAndForget(
+                        () -> {
+                          messagesAhead.decrementAndGet();
+                          if (!requestNow) {
+                            call[0].request(1);
+                          }
+                        });
                   } catch (Throwable t) {
                     asyncQueue.panic(t);
                   }
@@ -15,6 +15,7 @@
 package com.google.firebase.firestore.remote;
 
 import android.content.Context;
+import androidx.annotation.Nullable;
 import com.google.android.gms.common.GooglePlayServicesNotAvailableException;
 import com.google.android.gms.common.GooglePlayServicesRepairableException;
 import com.google.android.gms.security.ProviderInstaller;
@@ -37,6 +38,7 @@ import io.grpc.ManagedChannelBuilder;
 import io.grpc.MethodDescriptor;
 import io.grpc.android.AndroidChannelBuilder;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 /** Manages the gRPC channel and encapsulates all SSL and gRPC initialization. */
@@ -119,9 +121,22 @@ public class GrpcCallProvider {
   /** Creates a new ClientCall. */
   <ReqT, RespT> Task<ClientCall<ReqT, RespT>> createClientCall(
       MethodDescriptor<ReqT, RespT> methodDescriptor) {
+    return createClientCall(methodDescriptor, /* callbackExecutor= */ null);
+  }
+
+  /**
+   * Creates a new ClientCall whose callbacks are issued on the given executor, or on the worker
+   * queue if it is null. gRPC still issues the callbacks of a call one at a time and in order.
+   */
+  <ReqT, RespT> Task<ClientCall<ReqT, RespT>> createClientCall(
+      MethodDescriptor<ReqT, RespT> methodDescriptor, @Nullable Executor callbackExecutor) {
     return channelTask.continueWithTask(
         asyncQueue.getExecutor(),
-        task -> Tasks.forResult(task.getResult().newCall(methodDescriptor, callOptions)));
+        task -> {
+          CallOptions options =
+              callbackExecutor != null ? callOptions.withExecutor(callbackExecutor) : callOptions;
+          return Tasks.forResult(task.getResult().newCall(methodDescriptor, options));
+        });
   }
 
   /** Shuts down the gRPC channel and the internal worker queue. */
@@ -23,12 +23,14 @@ import com.google.firebase.firestore.core.DocumentViewChange;
 import com.google.firebase.firestore.core.Target;
 import com.google.firebase.firestore.local.QueryPurpose;
 import com.google.firebase.firestore.local.TargetData;
+import com.google.firebase.firestore.model.DatabaseId;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MutableDocument;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.remote.WatchChange.DocumentChange;
 import com.google.firebase.firestore.remote.WatchChange.ExistenceFilterWatchChange;
 import com.google.firebase.firestore.remote.WatchChange.WatchTargetChange;
+import com.google.firebase.firestore.util.Logger;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -56,8 +58,13 @@ public class WatchChangeAggregator {
      */
     @Nullable
     TargetData getTargetDataForTarget(int targetId);
+
+    /** Returns the database that the targets belong to. */
+    DatabaseId getDatabaseId();
   }
 
+  private static final String LOG_TAG = "WatchChangeAggregator";
+
   private final TargetMetadataProvider targetMetadataProvider;
 
   /** The internal state of all tracked targets. */
@@ -172,8 +179,9 @@ public class WatchChangeAggregator {
   }
 
   /**
-   * Handles existence filters and synthesizes deletes for filter mismatches. Targets that are
-   * invalidated by filter mismatches are added to `pendingTargetResets`.
+   * Handles existence filters and synthesizes deletes for filter mismatches. Mismatches are first
+   * resolved with the bloom filter that Watch may send along with the filter. Targets that are
+   * still invalidated by filter mismatches are added to `pendingTargetResets`.
    */
   public void handleExistenceFilter(ExistenceFilterWatchChange watchChange) {
     int targetId = watchChange.getTargetId();
@@ -196,17 +204,82 @@ public class WatchChangeAggregator {
               expectedCount == 1, "Single document existence filter with count: %d", expectedCount);
         }
       } else {
-        long currentSize = getCurrentDocumentCountForTarget(targetId);
+        int currentSize = getCurrentDocumentCountForTarget(targetId);
         if (currentSize != expectedCount) {
-          // Existence filter mismatch: We reset the mapping and raise a new snapshot with
-          // `isFromCache:true`.
-          resetTarget(targetId);
-          pendingTargetResets.add(targetId);
+          ExistenceFilterMetrics.MismatchInfo mismatchInfo =
+              applyBloomFilter(watchChange, currentSize);
+          if (!mismatchInfo.isResolvedByBloomFilter()) {
+            // Existence filter mismatch: We reset the mapping and raise a new snapshot with
+            // `isFromCache:true`.
+            resetTarget(targetId);
+            pendingTargetResets.add(targetId);
+          }
+          Logger.debug(LOG_TAG, "Existence filter mismatch: %s", mismatchInfo);
+          ExistenceFilterMetrics.reportMismatch(mismatchInfo);
         }
       }
     }
   }
 
+  /**
+   * Removes the documents that are not in the bloom filter of the existence filter from the target,
+   * if Watch sent one. The mismatch is resolved if the target then has the expected number of
+   * documents. Since bloom filters can have false positives, deleted documents may remain in the
+   * target, in which case the target still needs to be reset.
+   */
+  private ExistenceFilterMetrics.MismatchInfo applyBloomFilter(
+      ExistenceFilterWatchChange watchChange, int currentCount) {
+    int targetId = watchChange.getTargetId();
+    ExistenceFilter existenceFilter = watchChange.getExistenceFilter();
+    int expectedCount = existenceFilter.getCount();
+
+    BloomFilter bloomFilter = null;
+    if (existenceFilter.getUnchangedNames() != null) {
+      try {
+        bloomFilter = BloomFilter.fromProto(existenceFilter.getUnchangedNames());
+      } catch (IllegalArgumentException e) {
+        Logger.warn(LOG_TAG, "Ignoring invalid bloom filter: %s", e.getMessage());
+      }
+    }
+    if (bloomFilter == null || bloomFilter.getBitCount() == 0) {
+      return new ExistenceFilterMetrics.MismatchInfo(
+          targetId,
+          currentCount,
+          expectedCount,
+          /* bloomFilterBitCount= */ 0,
+          /* bloomFilterHashCount= */ 0,
+          /* removedDocumentCount= */ 0);
+    }
+
+    removeDocumentsNotInBloomFilter(targetId, bloomFilter);
+    int removedCount = currentCount - getCurrentDocumentCountForTarget(targetId);
+    return new ExistenceFilterMetrics.MismatchInfo(
+        targetId,
+        currentCount,
+        expectedCount,
+        bloomFilter.getBitCount(),
+        bloomFilter.getHashCount(),
+        removedCount);
+  }
+
+  /** Removes the documents that the bloom filter doesn't contain from the given target. */
+  private void removeDocumentsNotInBloomFilter(int targetId, BloomFilter bloomFilter) {
+    DatabaseId databaseId = targetMetadataProvider.getDatabaseId();
+    String documentsPrefix =
+        "projects/"
+            + databaseId.getProjectId()
+            + "/databases/"
+            + databaseId.getDatabaseId()
+            + "/documents/";
+    ImmutableSortedSet<DocumentKey> existingKeys =
+        targetMetadataProvider.getRemoteKeysForTarget(targetId);
+    for (DocumentKey key : existingKeys) {
+      if (!bloomFilter.mightContain(documentsPrefix + key.getPath().canonicalString())) {
+        removeDocumentFromTarget(targetId, key, null);
+      }
+    }
+  }
+
   /**
    * Converts the currently accumulated state into a remote event at the provided snapshot version.
    * Resets the accumulated changes before returning.
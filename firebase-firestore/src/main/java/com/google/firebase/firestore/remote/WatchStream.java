@@ -16,6 +16,7 @@ package com.google.firebase.firestore.remote;
 
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 
+import androidx.annotation.Nullable;
 import com.google.firebase.firestore.local.TargetData;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.util.AsyncQueue;
@@ -25,6 +26,7 @@ import com.google.firestore.v1.ListenRequest;
 import com.google.firestore.v1.ListenResponse;
 import com.google.protobuf.ByteString;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * A Stream that implements the StreamingWatch RPC.
@@ -55,7 +57,8 @@ public class WatchStream
       FirestoreChannel channel,
       AsyncQueue workerQueue,
       RemoteSerializer serializer,
-      WatchStream.Callback listener) {
+      WatchStream.Callback listener,
+      @Nullable Executor pipelineExecutor) {
     super(
         channel,
         FirestoreGrpc.getListenMethod(),
@@ -63,7 +66,8 @@ public class WatchStream
         TimerId.LISTEN_STREAM_CONNECTION_BACKOFF,
         TimerId.LISTEN_STREAM_IDLE,
         TimerId.HEALTH_CHECK_TIMEOUT,
-        listener);
+        listener,
+        pipelineExecutor);
     this.serializer = serializer;
   }
 
@@ -101,11 +105,18 @@ public class WatchStream
 
   @Override
   public void onNext(com.google.firestore.v1.ListenResponse listenResponse) {
-    // A successful response means the stream is healthy
-    backoff.reset();
+    decodeResponse(listenResponse).run();
+  }
 
+  @Override
+  Runnable decodeResponse(ListenResponse listenResponse) {
     WatchChange watchChange = serializer.decodeWatchChange(listenResponse);
     SnapshotVersion snapshotVersion = serializer.decodeVersionFromListenResponse(listenResponse);
-    listener.onWatchChange(snapshotVersion, watchChange);
+    return () -> {
+      // A successful response means the stream is healthy
+      backoff.reset();
+
+      listener.onWatchChange(snapshotVersion, watchChange);
+    };
   }
 }
@@ -17,6 +17,7 @@ package com.google.firebase.firestore.remote;
 import static com.google.firebase.firestore.util.Assert.hardAssert;
 import static com.google.firebase.firestore.util.Preconditions.checkNotNull;
 
+import androidx.annotation.Nullable;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.model.mutation.Mutation;
 import com.google.firebase.firestore.model.mutation.MutationResult;
@@ -29,6 +30,7 @@ import com.google.protobuf.ByteString;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * A Stream that implements the StreamingWrite RPC.
@@ -68,7 +70,8 @@ public class WriteStream extends AbstractStream<WriteRequest, WriteResponse, Wri
       FirestoreChannel channel,
       AsyncQueue workerQueue,
       RemoteSerializer serializer,
-      WriteStream.Callback listener) {
+      WriteStream.Callback listener,
+      @Nullable Executor pipelineExecutor) {
     super(
         channel,
         FirestoreGrpc.getWriteMethod(),
@@ -76,7 +79,8 @@ public class WriteStream extends AbstractStream<WriteRequest, WriteResponse, Wri
         TimerId.WRITE_STREAM_CONNECTION_BACKOFF,
         TimerId.WRITE_STREAM_IDLE,
         TimerId.HEALTH_CHECK_TIMEOUT,
-        listener);
+        listener,
+        pipelineExecutor);
     this.serializer = serializer;
   }
 
@@ -142,21 +146,34 @@ public class WriteStream extends AbstractStream<WriteRequest, WriteResponse, Wri
   }
 
   /**
-   * Sends a list of mutations to the Firestore backend to apply
+   * Sends a list of mutations to the Firestore backend to apply. The mutations are encoded on the
+   * pipeline executor, if the stream has one.
    *
    * @param mutations The mutations
    */
   void writeMutations(List<Mutation> mutations) {
     hardAssert(isOpen(), "Writing mutations requires an opened stream");
     hardAssert(handshakeComplete, "Handshake must be complete before writing mutations");
+    ByteString streamToken = lastStreamToken;
+
+    if (mutations.isEmpty()) {
+      // Empty requests only acknowledge the stream token. They are sent right away, since
+      // tearDown() sends one just before the stream closes, which drops pipelined requests.
+      writeRequest(encodeMutations(mutations, streamToken));
+    } else {
+      writePipelinedRequest(() -> encodeMutations(mutations, streamToken));
+    }
+  }
+
+  private WriteRequest encodeMutations(List<Mutation> mutations, ByteString streamToken) {
     WriteRequest.Builder request = WriteRequest.newBuilder();
 
     for (Mutation mutation : mutations) {
       request.addWrites(serializer.encodeMutation(mutation));
     }
 
-    request.setStreamToken(lastStreamToken);
-    writeRequest(request.build());
+    request.setStreamToken(streamToken);
+    return request.build();
   }
 
   @Override
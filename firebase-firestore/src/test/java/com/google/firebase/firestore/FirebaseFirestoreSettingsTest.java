@@ -32,6 +32,8 @@ public class FirebaseFirestoreSettingsTest {
     assertEquals(settings.isSslEnabled(), true);
     assertEquals(settings.isPersistenceEnabled(), true);
     assertEquals(settings.getCacheSizeBytes(), 104857600L);
+    assertEquals(settings.isIncrementalGarbageCollectionEnabled(), false);
+    assertEquals(settings.isStreamPipeliningEnabled(), false);
   }
 
   @Test
@@ -42,11 +44,15 @@ public class FirebaseFirestoreSettingsTest {
             .setSslEnabled(false)
             .setPersistenceEnabled(false)
             .setCacheSizeBytes(2000000L)
+            .setIncrementalGarbageCollectionEnabled(true)
+            .setStreamPipeliningEnabled(true)
             .build();
     assertEquals(settings.getHost(), "a.b.c");
     assertEquals(settings.isSslEnabled(), false);
     assertEquals(settings.isPersistenceEnabled(), false);
     assertEquals(settings.getCacheSizeBytes(), 2000000L);
+    assertEquals(settings.isIncrementalGarbageCollectionEnabled(), true);
+    assertEquals(settings.isStreamPipeliningEnabled(), true);
   }
 
   @Test
@@ -57,11 +63,15 @@ public class FirebaseFirestoreSettingsTest {
             .setSslEnabled(false)
             .setPersistenceEnabled(false)
             .setCacheSizeBytes(2000000L)
+            .setIncrementalGarbageCollectionEnabled(true)
+            .setStreamPipeliningEnabled(true)
             .build();
     FirebaseFirestoreSettings settings2 = new FirebaseFirestoreSettings.Builder(settings1).build();
     assertEquals(settings2.getHost(), "a.b.c");
     assertEquals(settings2.isSslEnabled(), false);
     assertEquals(settings2.isPersistenceEnabled(), false);
     assertEquals(settings2.getCacheSizeBytes(), 2000000L);
+    assertEquals(settings2.isIncrementalGarbageCollectionEnabled(), true);
+    assertEquals(settings2.isStreamPipeliningEnabled(), true);
   }
 }
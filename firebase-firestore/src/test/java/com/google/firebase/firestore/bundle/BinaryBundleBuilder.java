@@ -0,0 +1,139 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.bundle;
+
+import com.google.firestore.v1.Document;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Timestamp;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Builds bundles in the binary format that {@link BundleReader} detects, from documents and queries
+ * in their protobuf representation.
+ *
+ * <p>A binary bundle starts with {@link BundleReader#BINARY_MAGIC}, followed by {@code
+ * firestore.BundleElement} messages that are each prefixed with their size as a varint. The first
+ * element is the bundle metadata, whose total bytes cover all elements after it.
+ */
+final class BinaryBundleBuilder {
+  /** The schema version of the bundles that are built. */
+  private static final int BUNDLE_VERSION = 1;
+
+  private final String bundleId;
+  private final Timestamp createTime;
+  private final ByteArrayOutputStream elements = new ByteArrayOutputStream();
+  private int totalDocuments;
+
+  /**
+   * @param bundleId The ID of the bundle.
+   * @param createTime The time at which the documents snapshot is taken for the bundle.
+   */
+  BinaryBundleBuilder(String bundleId, Timestamp createTime) {
+    this.bundleId = bundleId;
+    this.createTime = createTime;
+  }
+
+  /** Adds a named query to the bundle. */
+  BinaryBundleBuilder addNamedQuery(com.google.firestore.bundle.NamedQuery namedQuery) {
+    addElement(newElement().setNamedQuery(namedQuery).build());
+    return this;
+  }
+
+  /**
+   * Adds an existing document to the bundle.
+   *
+   * @param document The document, named with its fully qualified resource name.
+   * @param readTime The time at which the document was read.
+   * @param queries The names of the queries in the bundle that the document matches.
+   */
+  BinaryBundleBuilder addDocument(
+      Document document, Timestamp readTime, List<String> queries) {
+    addElement(
+        newElement()
+            .setDocumentMetadata(documentMetadata(document.getName(), readTime, true, queries))
+            .build());
+    addElement(newElement().setDocument(document).build());
+    ++totalDocuments;
+    return this;
+  }
+
+  /**
+   * Adds a document that doesn't exist to the bundle.
+   *
+   * @param name The fully qualified resource name of the document.
+   * @param readTime The time at which the document was found to be missing.
+   * @param queries The names of the queries in the bundle that the document matches.
+   */
+  BinaryBundleBuilder addMissingDocument(
+      String name, Timestamp readTime, List<String> queries) {
+    addElement(
+        newElement().setDocumentMetadata(documentMetadata(name, readTime, false, queries)).build());
+    ++totalDocuments;
+    return this;
+  }
+
+  /** Writes the bundle to the given stream. */
+  void writeTo(OutputStream output) throws IOException {
+    com.google.firestore.bundle.BundleMetadata metadata =
+        com.google.firestore.bundle.BundleMetadata.newBuilder()
+            .setId(bundleId)
+            .setCreateTime(createTime)
+            .setVersion(BUNDLE_VERSION)
+            .setTotalDocuments(totalDocuments)
+            .setTotalBytes(elements.size())
+            .build();
+    output.write(BundleReader.BINARY_MAGIC);
+    newElement().setMetadata(metadata).build().writeDelimitedTo(output);
+    elements.writeTo(output);
+  }
+
+  /** Returns the bytes of the bundle. */
+  byte[] build() {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try {
+      writeTo(output);
+    } catch (IOException e) {
+      // ByteArrayOutputStream doesn't throw.
+      throw new AssertionError(e);
+    }
+    return output.toByteArray();
+  }
+
+  private static com.google.firestore.bundle.BundleElement.Builder newElement() {
+    return com.google.firestore.bundle.BundleElement.newBuilder();
+  }
+
+  private static com.google.firestore.bundle.BundledDocumentMetadata documentMetadata(
+      String name, Timestamp readTime, boolean exists, List<String> queries) {
+    return com.google.firestore.bundle.BundledDocumentMetadata.newBuilder()
+        .setName(name)
+        .setReadTime(readTime)
+        .setExists(exists)
+        .addAllQueries(queries)
+        .build();
+  }
+
+  private void addElement(MessageLite element) {
+    try {
+      element.writeDelimitedTo(elements);
+    } catch (IOException e) {
+      // ByteArrayOutputStream doesn't throw.
+      throw new AssertionError(e);
+    }
+  }
+}
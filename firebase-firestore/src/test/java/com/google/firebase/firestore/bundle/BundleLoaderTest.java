@@ -33,9 +33,12 @@ import com.google.firebase.firestore.model.Document;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MutableDocument;
 import com.google.firebase.firestore.model.SnapshotVersion;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.junit.Before;
@@ -54,19 +57,35 @@ public class BundleLoaderTest {
   private final Set<DocumentKey> lastDocuments;
   private final Map<String, ImmutableSortedSet<DocumentKey>> lastQueries;
   private final Map<String, BundleMetadata> lastBundles;
+  private final List<Integer> appliedChunkSizes;
+  private final List<Boolean> appliedFirstChunks;
+  private int loadedDocumentCount;
 
   public BundleLoaderTest() {
     lastDocuments = new HashSet<>();
     lastQueries = new HashMap<>();
     lastBundles = new HashMap<>();
+    appliedChunkSizes = new ArrayList<>();
+    appliedFirstChunks = new ArrayList<>();
 
     bundleCallback =
         new BundleCallback() {
 
           @Override
-          public ImmutableSortedMap<DocumentKey, Document> applyBundledDocuments(
-              ImmutableSortedMap<DocumentKey, MutableDocument> documents, String bundleId) {
+          public int getLoadedBundleDocumentCount(BundleMetadata bundleMetadata) {
+            return loadedDocumentCount;
+          }
+
+          @Override
+          public ImmutableSortedMap<DocumentKey, Document> applyBundledDocumentChunk(
+              ImmutableSortedMap<DocumentKey, MutableDocument> documents,
+              BundleMetadata bundleMetadata,
+              boolean firstChunk,
+              int loadedDocumentCount) {
             documents.forEach(entry -> lastDocuments.add(entry.getKey()));
+            appliedChunkSizes.add(documents.size());
+            appliedFirstChunks.add(firstChunk);
+            BundleLoaderTest.this.loadedDocumentCount = loadedDocumentCount;
             return emptyDocumentMap();
           }
 
@@ -88,6 +107,9 @@ public class BundleLoaderTest {
     lastDocuments.clear();
     lastQueries.clear();
     lastBundles.clear();
+    appliedChunkSizes.clear();
+    appliedFirstChunks.clear();
+    loadedDocumentCount = 0;
   }
 
   @Test
@@ -269,6 +291,58 @@ public class BundleLoaderTest {
     }
   }
 
+  @Test
+  public void testAppliesDocumentsInChunks() {
+    BundleLoader bundleLoader =
+        new BundleLoader(bundleCallback, createMetadata(/* documents= */ 5), /* chunkSize= */ 2);
+
+    for (int i = 0; i < 5; ++i) {
+      addDeletedDocument(bundleLoader, "coll/doc" + i);
+      if (bundleLoader.isDocumentChunkFull()) {
+        bundleLoader.applyDocumentChunk();
+      }
+    }
+    bundleLoader.applyChanges();
+
+    assertEquals(Arrays.asList(2, 2, 1), appliedChunkSizes);
+    assertEquals(Arrays.asList(true, false, false), appliedFirstChunks);
+    assertEquals(5, loadedDocumentCount);
+    assertEquals(5, lastDocuments.size());
+  }
+
+  @Test
+  public void testResumesAfterAppliedDocuments() {
+    loadedDocumentCount = 3;
+    BundleLoader bundleLoader =
+        new BundleLoader(bundleCallback, createMetadata(/* documents= */ 5), /* chunkSize= */ 2);
+
+    LoadBundleTaskProgress progress = null;
+    for (int i = 0; i < 5; ++i) {
+      progress = addDeletedDocument(bundleLoader, "coll/doc" + i);
+      if (bundleLoader.isDocumentChunkFull()) {
+        bundleLoader.applyDocumentChunk();
+      }
+    }
+    assertProgress(
+        progress,
+        /* documentsLoaded= */ 5,
+        /* totalDocuments= */ 5,
+        /* bytesLoaded= */ 5,
+        /* totalBytes= */ 10);
+    bundleLoader.applyChanges();
+
+    assertEquals(Collections.singletonList(2), appliedChunkSizes);
+    assertEquals(Collections.singletonList(false), appliedFirstChunks);
+    assertEquals(new HashSet<>(Arrays.asList(key("coll/doc3"), key("coll/doc4"))), lastDocuments);
+  }
+
+  private LoadBundleTaskProgress addDeletedDocument(BundleLoader bundleLoader, String path) {
+    return bundleLoader.addElement(
+        new BundledDocumentMetadata(
+            key(path), CREATE_TIME, /* exists= */ false, Collections.emptyList()),
+        /* byteSize= */ 1);
+  }
+
   private BundleMetadata createMetadata(int documents) {
     return new BundleMetadata(
         "bundle-1", /* schemaVersion= */ 1, CREATE_TIME, documents, /* totalBytes= */ 10);
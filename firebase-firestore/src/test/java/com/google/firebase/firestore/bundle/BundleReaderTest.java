@@ -21,6 +21,7 @@ import static com.google.firebase.firestore.testutil.TestUtil.orderBy;
 import static com.google.firebase.firestore.testutil.TestUtil.version;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThrows;
 
 import com.google.firebase.firestore.core.Query;
@@ -30,13 +31,20 @@ import com.google.firebase.firestore.model.ObjectValue;
 import com.google.firebase.firestore.model.ResourcePath;
 import com.google.firebase.firestore.model.SnapshotVersion;
 import com.google.firebase.firestore.remote.RemoteSerializer;
+import com.google.firestore.v1.Document;
+import com.google.firestore.v1.StructuredQuery;
 import com.google.firestore.v1.Value;
+import com.google.protobuf.Int32Value;
+import com.google.protobuf.Timestamp;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.json.JSONException;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -272,6 +280,31 @@ public class BundleReaderTest {
     assertThrows(IllegalArgumentException.class, () -> bundleReader.getBundleMetadata());
   }
 
+  @Test
+  public void testThrowsWhenMetadataLengthIsTooLarge() throws IOException, JSONException {
+    String bundle = (BundleReader.MAX_METADATA_BYTE_COUNT + 1) + "{}";
+
+    BundleReader bundleReader =
+        new BundleReader(SERIALIZER, new ByteArrayInputStream(bundle.getBytes(UTF8_CHARSET)));
+
+    assertThrows(IllegalArgumentException.class, () -> bundleReader.getBundleMetadata());
+  }
+
+  @Test
+  public void testThrowsWhenElementLengthExceedsBundleSize() throws IOException, JSONException {
+    TestBundleBuilder bundleBuilder = new TestBundleBuilder(TEST_PROJECT);
+    String bundle =
+        bundleBuilder.build("bundle-1", /* createTimeMicros= */ 6000000L, /* version= */ 1)
+            + Integer.MAX_VALUE
+            + "{}";
+
+    BundleReader bundleReader =
+        new BundleReader(SERIALIZER, new ByteArrayInputStream(bundle.getBytes(UTF8_CHARSET)));
+    bundleReader.getBundleMetadata();
+
+    assertThrows(IllegalArgumentException.class, () -> bundleReader.getNextElement());
+  }
+
   @Test
   public void testWhenFirstElementIsNotBundleMetadata() throws IOException, JSONException {
     String json =
@@ -291,6 +324,56 @@ public class BundleReaderTest {
     assertThrows(IllegalArgumentException.class, () -> bundleReader.getBundleMetadata());
   }
 
+  @Test
+  public void testDecodesElementsOnExecutorInOrder() throws IOException, JSONException {
+    TestBundleBuilder bundleBuilder = new TestBundleBuilder(TEST_PROJECT);
+    String doc1Metadata = addDoc1Metadata(bundleBuilder);
+    String doc1 = addDoc1(bundleBuilder);
+    String limitQuery = addLimitQuery(bundleBuilder);
+    String doc2Metadata = addDoc2Metadata(bundleBuilder);
+    String doc2 = addDoc2(bundleBuilder);
+    String bundle =
+        bundleBuilder.build("bundle-1", /* createTimeMicros= */ 6000000L, /* version= */ 1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      BundleReader bundleReader =
+          new BundleReader(
+              SERIALIZER, new ByteArrayInputStream(bundle.getBytes(UTF8_CHARSET)), executor);
+
+      List<BundleElement> bundleElements =
+          verifyAllElements(bundleReader, doc1Metadata, doc1, limitQuery, doc2Metadata, doc2);
+
+      assertEquals(DOC1_METADATA, bundleElements.get(0));
+      assertEquals(DOC1, bundleElements.get(1));
+      assertEquals(LIMIT_QUERY, bundleElements.get(2));
+      assertEquals(DOC2_METADATA, bundleElements.get(3));
+      assertEquals(DOC2, bundleElements.get(4));
+      assertNull(bundleReader.getNextElement());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testThrowsFromExecutorWhenElementIsUnknown() throws IOException, JSONException {
+    TestBundleBuilder bundleBuilder = new TestBundleBuilder(TEST_PROJECT);
+    bundleBuilder.addElement("{\"foo\":\"b\"}");
+    String bundle =
+        bundleBuilder.build("bundle-1", /* createTimeMicros= */ 6000000L, /* version= */ 1);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      BundleReader bundleReader =
+          new BundleReader(
+              SERIALIZER, new ByteArrayInputStream(bundle.getBytes(UTF8_CHARSET)), executor);
+
+      assertThrows(IllegalArgumentException.class, () -> bundleReader.getNextElement());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void testCombinesMultipleBufferReads() throws IOException, JSONException {
     // Create a BundleMetadata element that exceeds the length of the internal buffer.
@@ -329,6 +412,125 @@ public class BundleReaderTest {
     assertEquals(DOC3, bundleElements.get(1));
   }
 
+  @Test
+  public void testReadsBinaryBundle() throws IOException, JSONException {
+    byte[] bundle = buildBinaryBundle().build();
+
+    BundleReader bundleReader = new BundleReader(SERIALIZER, new ByteArrayInputStream(bundle));
+
+    verifyBinaryBundle(bundleReader);
+  }
+
+  @Test
+  public void testDecodesBinaryBundleOnExecutor() throws IOException, JSONException {
+    byte[] bundle = buildBinaryBundle().build();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      BundleReader bundleReader =
+          new BundleReader(SERIALIZER, new ByteArrayInputStream(bundle), executor);
+
+      verifyBinaryBundle(bundleReader);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testThrowsWhenBinaryElementIsUnknown() throws IOException, JSONException {
+    byte[] validBundle = buildBinaryBundle().build();
+    // Appends an empty element, which doesn't set any element type.
+    byte[] bundle = Arrays.copyOf(validBundle, validBundle.length + 1);
+
+    BundleReader bundleReader = new BundleReader(SERIALIZER, new ByteArrayInputStream(bundle));
+    bundleReader.getBundleMetadata();
+    for (int i = 0; i < 4; ++i) {
+      assertNotNull(bundleReader.getNextElement());
+    }
+
+    assertThrows(IllegalArgumentException.class, () -> bundleReader.getNextElement());
+  }
+
+  @Test
+  public void testThrowsWhenBinaryElementLengthExceedsBundleSize()
+      throws IOException, JSONException {
+    byte[] validBundle = buildBinaryBundle().build();
+    // Appends the varint length prefix 0x0FFFFFFF without an element.
+    byte[] bundle = Arrays.copyOf(validBundle, validBundle.length + 4);
+    bundle[validBundle.length] = (byte) 0xFF;
+    bundle[validBundle.length + 1] = (byte) 0xFF;
+    bundle[validBundle.length + 2] = (byte) 0xFF;
+    bundle[validBundle.length + 3] = (byte) 0x7F;
+
+    BundleReader bundleReader = new BundleReader(SERIALIZER, new ByteArrayInputStream(bundle));
+    bundleReader.getBundleMetadata();
+    for (int i = 0; i < 4; ++i) {
+      assertNotNull(bundleReader.getNextElement());
+    }
+
+    assertThrows(IllegalArgumentException.class, () -> bundleReader.getNextElement());
+  }
+
+  private BinaryBundleBuilder buildBinaryBundle() {
+    String parent = "projects/test-project/databases/(default)/documents";
+    com.google.firestore.bundle.NamedQuery limitQuery =
+        com.google.firestore.bundle.NamedQuery.newBuilder()
+            .setName("limitQuery")
+            .setBundledQuery(
+                com.google.firestore.bundle.BundledQuery.newBuilder()
+                    .setParent(parent)
+                    .setStructuredQuery(
+                        StructuredQuery.newBuilder()
+                            .addFrom(
+                                StructuredQuery.CollectionSelector.newBuilder()
+                                    .setCollectionId("foo"))
+                            .addOrderBy(
+                                StructuredQuery.Order.newBuilder()
+                                    .setField(
+                                        StructuredQuery.FieldReference.newBuilder()
+                                            .setFieldPath("sort"))
+                                    .setDirection(StructuredQuery.Direction.ASCENDING))
+                            .setLimit(Int32Value.newBuilder().setValue(1)))
+                    .setLimitType(com.google.firestore.bundle.BundledQuery.LimitType.FIRST))
+            .setReadTime(timestamp(1590011379000001L))
+            .build();
+    Document doc1 =
+        Document.newBuilder()
+            .setName(parent + "/coll/doc1")
+            .setUpdateTime(timestamp(30004000L))
+            .putFields("foo", Value.newBuilder().setStringValue("value1").build())
+            .putFields("bar", Value.newBuilder().setIntegerValue(-42).build())
+            .build();
+
+    return new BinaryBundleBuilder("bundle-1", timestamp(6000000L))
+        .addNamedQuery(limitQuery)
+        .addDocument(doc1, timestamp(5600000L), Collections.emptyList())
+        .addMissingDocument(parent + "/coll/nodoc", timestamp(5000600L), Collections.emptyList());
+  }
+
+  private void verifyBinaryBundle(BundleReader bundleReader) throws IOException, JSONException {
+    BundleMetadata bundleMetadata = bundleReader.getBundleMetadata();
+    assertEquals(BUNDLE_METADATA.getBundleId(), bundleMetadata.getBundleId());
+    assertEquals(BUNDLE_METADATA.getSchemaVersion(), bundleMetadata.getSchemaVersion());
+    assertEquals(BUNDLE_METADATA.getCreateTime(), bundleMetadata.getCreateTime());
+    assertEquals(2, bundleMetadata.getTotalDocuments());
+    assertEquals(0, bundleReader.getBytesRead());
+
+    assertEquals(LIMIT_QUERY, bundleReader.getNextElement());
+    assertEquals(DOC1_METADATA, bundleReader.getNextElement());
+    assertEquals(DOC1, bundleReader.getNextElement());
+    assertEquals(DELETED_DOC_METADATA, bundleReader.getNextElement());
+    assertNull(bundleReader.getNextElement());
+    assertEquals(bundleMetadata.getTotalBytes(), bundleReader.getBytesRead());
+  }
+
+  private static Timestamp timestamp(long micros) {
+    return Timestamp.newBuilder()
+        .setSeconds(micros / 1000000)
+        .setNanos((int) (micros % 1000000) * 1000)
+        .build();
+  }
+
   private String addDeletedDocMetadata(TestBundleBuilder bundleBuilder) {
     return bundleBuilder.addDocumentMetadata(
         "coll/nodoc", /* readTimeMicros= */ 5000600L, /* exists= */ false);
@@ -517,6 +719,13 @@ public class BundleReaderTest {
       return json;
     }
 
+    /** Adds an element as it is, without checking that it is a valid bundle element. */
+    String addElement(String json) {
+      elements.add(json);
+      totalBytes += getUTF8BytesCountWithPrefix(json);
+      return json;
+    }
+
     private int getUTF8BytesCountWithPrefix(String json) {
       int elementLength = getUTF8BytesCount(json);
       int prefixLength = (int) (Math.log10(elementLength) + 1);
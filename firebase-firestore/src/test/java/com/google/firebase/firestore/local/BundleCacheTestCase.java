@@ -67,6 +67,32 @@ public abstract class BundleCacheTestCase {
     assertNull(bundleCache.getBundleMetadata("bundle-1"));
   }
 
+  @Test
+  public void testTracksLoadedDocumentsPerBundleVersion() {
+    BundleMetadata bundleMetadata =
+        new BundleMetadata(
+            "bundle-1",
+            1,
+            new SnapshotVersion(new Timestamp(1, 0)),
+            /* totalDocuments= */ 10,
+            /* totalBytes= */ 100);
+    BundleMetadata newerBundleMetadata =
+        new BundleMetadata(
+            "bundle-1",
+            1,
+            new SnapshotVersion(new Timestamp(2, 0)),
+            /* totalDocuments= */ 10,
+            /* totalBytes= */ 100);
+    assertEquals(0, bundleCache.getLoadedDocumentCount(bundleMetadata));
+
+    bundleCache.saveLoadedDocumentCount(bundleMetadata, 4);
+    assertEquals(4, bundleCache.getLoadedDocumentCount(bundleMetadata));
+    assertEquals(0, bundleCache.getLoadedDocumentCount(newerBundleMetadata));
+
+    bundleCache.removeLoadedDocumentCount("bundle-1");
+    assertEquals(0, bundleCache.getLoadedDocumentCount(bundleMetadata));
+  }
+
   @Test
   public void testReturnsSavedBundle() {
     BundleMetadata expectedBundleMetadata =
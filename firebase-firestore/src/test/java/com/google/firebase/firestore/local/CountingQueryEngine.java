@@ -41,6 +41,7 @@ class CountingQueryEngine extends QueryEngine {
   private final int[] overlaysReadByKey = new int[] {0};
   private final int[] documentsReadByCollection = new int[] {0};
   private final int[] documentsReadByKey = new int[] {0};
+  private final int[] documentCountsRead = new int[] {0};
 
   CountingQueryEngine(QueryEngine queryEngine) {
     this.queryEngine = queryEngine;
@@ -51,6 +52,7 @@ class CountingQueryEngine extends QueryEngine {
     overlaysReadByKey[0] = 0;
     documentsReadByCollection[0] = 0;
     documentsReadByKey[0] = 0;
+    documentCountsRead[0] = 0;
   }
 
   @Override
@@ -88,6 +90,14 @@ class CountingQueryEngine extends QueryEngine {
     return documentsReadByKey[0];
   }
 
+  /**
+   * Returns the number of calls to the RemoteDocumentCache's `getDocumentCount()` API (since the
+   * last call to `resetCounts()`)
+   */
+  int getDocumentCountsRead() {
+    return documentCountsRead[0];
+  }
+
   /**
    * Returns the number of mutations returned by the OverlayCache's `getOverlays()` API (since the
    * last call to `resetCounts()`)
@@ -151,6 +161,12 @@ class CountingQueryEngine extends QueryEngine {
         documentsReadByCollection[0] += result.size();
         return result;
       }
+
+      @Override
+      public long getDocumentCount(ResourcePath collection) {
+        ++documentCountsRead[0];
+        return subject.getDocumentCount(collection);
+      }
     };
   }
 
@@ -0,0 +1,93 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.version;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.firebase.firestore.model.MutableDocument;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class DecodedDocumentCacheTest {
+
+  private static MutableDocument docWithReadTime(String path, long readTime) {
+    return doc(path, 1, map("foo", "bar")).setReadTime(version(readTime));
+  }
+
+  @Test
+  public void testReturnsCachedDocuments() {
+    DecodedDocumentCache cache = new DecodedDocumentCache(100);
+    MutableDocument document = docWithReadTime("coll/a", 2);
+    cache.put(document, 10);
+
+    assertEquals(document, cache.get(key("coll/a")));
+    assertEquals(document, cache.get(key("coll/a"), version(2)));
+    assertNull(cache.get(key("coll/a"), version(3)));
+    assertNull(cache.get(key("coll/b")));
+
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedDocuments() {
+    DecodedDocumentCache cache = new DecodedDocumentCache(30);
+    cache.put(docWithReadTime("coll/a", 1), 10);
+    cache.put(docWithReadTime("coll/b", 1), 10);
+    cache.put(docWithReadTime("coll/c", 1), 10);
+
+    // Access "coll/a" so that "coll/b" becomes the least recently used document.
+    cache.get(key("coll/a"));
+    cache.put(docWithReadTime("coll/d", 1), 10);
+
+    assertEquals(3, cache.size());
+    assertEquals(30, cache.getSizeBytes());
+    assertNull(cache.get(key("coll/b")));
+  }
+
+  @Test
+  public void testDoesNotCacheOversizedDocuments() {
+    DecodedDocumentCache cache = new DecodedDocumentCache(30);
+    cache.put(docWithReadTime("coll/a", 1), 10);
+    cache.put(docWithReadTime("coll/a", 2), 31);
+
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getSizeBytes());
+  }
+
+  @Test
+  public void testRemoveAndClear() {
+    DecodedDocumentCache cache = new DecodedDocumentCache(100);
+    cache.put(docWithReadTime("coll/a", 1), 10);
+    cache.put(docWithReadTime("coll/b", 1), 20);
+
+    cache.remove(key("coll/a"));
+    assertEquals(1, cache.size());
+    assertEquals(20, cache.getSizeBytes());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getSizeBytes());
+  }
+}
@@ -372,7 +372,8 @@ public final class LocalSerializerTest {
             QueryPurpose.LISTEN,
             snapshotVersion,
             limboFreeVersion,
-            resumeToken);
+            resumeToken,
+            /* expectedCount= */ null);
 
     // Let the RPC serializer test various permutations of query serialization.
     com.google.firestore.v1.Target.QueryTarget queryTarget =
@@ -640,6 +640,64 @@ public abstract class LruGarbageCollectorTestCase {
     assertTrue(finalSize > initialSize);
   }
 
+  @Test
+  public void testRemovesOrphanedDocumentsInSequenceNumberRange() {
+    LruDelegate delegate = (LruDelegate) persistence.getReferenceDelegate();
+    long[] sequenceNumbers = new long[3];
+    List<List<DocumentKey>> docsBySequenceNumber = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      int index = i;
+      List<DocumentKey> docs = new ArrayList<>();
+      docsBySequenceNumber.add(docs);
+      persistence.runTransaction(
+          "add orphaned docs",
+          () -> {
+            sequenceNumbers[index] = persistence.getReferenceDelegate().getCurrentSequenceNumber();
+            for (int j = 0; j < 5; j++) {
+              MutableDocument doc = cacheADocumentInTransaction();
+              docs.add(doc.getKey());
+              markDocumentEligibleForGcInTransaction(doc.getKey());
+            }
+          });
+    }
+
+    // Only the documents above the lower bound and up to the upper bound are removed.
+    int removed =
+        persistence.runTransaction(
+            "remove orphaned docs",
+            () -> delegate.removeOrphanedDocuments(sequenceNumbers[0], sequenceNumbers[1]));
+    assertEquals(5, removed);
+    persistence.runTransaction(
+        "verify",
+        () -> {
+          for (int i = 0; i < 3; i++) {
+            for (DocumentKey key : docsBySequenceNumber.get(i)) {
+              assertEquals(i != 1, documentCache.get(key).isValidDocument());
+            }
+          }
+        });
+  }
+
+  @Test
+  public void testUsedSizeShrinksAfterCollection() {
+    LruDelegate delegate = (LruDelegate) persistence.getReferenceDelegate();
+    persistence.runTransaction(
+        "fill cache",
+        () -> {
+          for (int i = 0; i < 500; i++) {
+            MutableDocument doc = cacheADocumentInTransaction();
+            markDocumentEligibleForGcInTransaction(doc.getKey());
+          }
+        });
+    long usedSize = delegate.getUsedByteSize();
+
+    persistence.runTransaction(
+        "remove orphaned docs", () -> garbageCollector.removeOrphanedDocuments(Long.MAX_VALUE));
+
+    assertTrue(delegate.getUsedByteSize() < usedSize);
+    assertTrue(delegate.getUsedByteSize() <= delegate.getByteSize());
+  }
+
   @Test
   public void testDisabled() {
     LruGarbageCollector.Params params = LruGarbageCollector.Params.Disabled();
@@ -722,4 +780,47 @@ public abstract class LruGarbageCollectorTestCase {
     assertEquals(10, results.getTargetsRemoved());
     assertEquals(100, results.getDocumentsRemoved());
   }
+
+  @Test
+  public void testIncrementalGCRunsInSlices() {
+    // Collect three sequence numbers per call, since a time budget of zero allows only one slice.
+    LruGarbageCollector.Params params =
+        LruGarbageCollector.Params.WithCacheSizeBytes(100)
+            .withIncrementalCollection(/* sequenceNumbersPerSlice= */ 3, /* timeBudgetMs= */ 0);
+
+    persistence.shutdown();
+    newTestResources(params);
+
+    // Add 100 targets and 10 documents to each
+    for (int i = 0; i < 100; i++) {
+      persistence.runTransaction(
+          "Add a target and some documents",
+          () -> {
+            TargetData targetData = addNextQueryInTransaction();
+            for (int j = 0; j < 10; j++) {
+              MutableDocument doc = cacheADocumentInTransaction();
+              addDocumentToTarget(doc.getKey(), targetData.getTargetId());
+            }
+          });
+    }
+
+    // 10% of the 100 sequence numbers are collected in slices of 3, 3, 3 and 1.
+    int[] expectedCollected = {3, 6, 9, 10};
+    LruGarbageCollector.Results results = null;
+    for (int expected : expectedCollected) {
+      results =
+          persistence.runTransaction("GC", () -> garbageCollector.collect(new SparseArray<>()));
+      assertTrue(results.hasRun());
+      assertEquals(expected, results.getSequenceNumbersCollected());
+      assertEquals(10, results.getSequenceNumbersToCollect());
+      assertEquals(expected == 10, results.isComplete());
+      assertEquals(expected, results.getTargetsRemoved());
+      assertEquals(expected * 10, results.getDocumentsRemoved());
+    }
+
+    // The next collection starts over with the remaining targets.
+    results = persistence.runTransaction("GC", () -> garbageCollector.collect(new SparseArray<>()));
+    assertEquals(3, results.getTargetsRemoved());
+    assertEquals(9, results.getSequenceNumbersToCollect());
+  }
 }
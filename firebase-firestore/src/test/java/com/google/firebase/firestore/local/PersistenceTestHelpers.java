@@ -63,6 +63,14 @@ public final class PersistenceTestHelpers {
     return openSQLitePersistence(nextSQLiteDatabaseName(), params);
   }
 
+  /** Creates and starts a new SQLitePersistence that caches the given size of decoded documents. */
+  public static SQLitePersistence createSQLitePersistence(long decodedDocumentCacheSizeBytes) {
+    return openSQLitePersistence(
+        nextSQLiteDatabaseName(),
+        LruGarbageCollector.Params.Default(),
+        decodedDocumentCacheSizeBytes);
+  }
+
   /** Creates and starts a new MemoryPersistence instance for testing. */
   public static MemoryPersistence createEagerGCMemoryPersistence() {
     MemoryPersistence persistence = MemoryPersistence.createEagerGcMemoryPersistence();
@@ -81,11 +89,18 @@ public final class PersistenceTestHelpers {
 
   private static SQLitePersistence openSQLitePersistence(
       String name, LruGarbageCollector.Params params) {
+    return openSQLitePersistence(
+        name, params, SQLitePersistence.DEFAULT_DECODED_DOCUMENT_CACHE_SIZE_BYTES);
+  }
+
+  private static SQLitePersistence openSQLitePersistence(
+      String name, LruGarbageCollector.Params params, long decodedDocumentCacheSizeBytes) {
     DatabaseId databaseId = DatabaseId.forProject("projectId");
     LocalSerializer serializer = new LocalSerializer(new RemoteSerializer(databaseId));
     Context context = ApplicationProvider.getApplicationContext();
     SQLitePersistence persistence =
-        new SQLitePersistence(context, name, databaseId, serializer, params);
+        new SQLitePersistence(
+            context, name, databaseId, serializer, params, decodedDocumentCacheSizeBytes);
     persistence.start();
     return persistence;
   }
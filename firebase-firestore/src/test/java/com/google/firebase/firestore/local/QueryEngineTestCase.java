@@ -210,6 +210,13 @@ public abstract class QueryEngineTestCase {
     return view.applyChanges(viewDocChanges).getSnapshot().getDocuments();
   }
 
+  protected QueryPlan explain(Query query, SnapshotVersion lastLimboFreeSnapshotVersion) {
+    return queryEngine.explain(
+        query,
+        lastLimboFreeSnapshotVersion,
+        targetCache.getMatchingKeysForTargetId(TEST_TARGET_ID));
+  }
+
   @Test
   public void usesTargetMappingForInitialView() throws Exception {
     Query query = query("coll").filter(filter("matches", "==", true));
@@ -483,4 +490,75 @@ public abstract class QueryEngineTestCase {
         expectFullCollectionScan(() -> runQuery(query5, MISSING_LAST_LIMBO_FREE_SNAPSHOT));
     assertEquals(docSet(query5.comparator(), doc3), result5);
   }
+
+  @Test
+  public void explainUsesDefaultOrderWithoutCostBasedPlanning() {
+    Query query = query("coll").filter(filter("matches", "==", true));
+
+    addDocument(MATCHING_DOC_A, MATCHING_DOC_B);
+    persistQueryMapping(MATCHING_DOC_A.getKey(), MATCHING_DOC_B.getKey());
+
+    QueryPlan plan = explain(query, LAST_LIMBO_FREE_SNAPSHOT);
+    assertEquals(2, plan.getCandidates().size());
+    assertEquals("RemoteKeys", plan.getCandidates().get(0).getStrategyName());
+    assertEquals("FullCollectionScan", plan.getCandidates().get(1).getStrategyName());
+    assertEquals(2.0, plan.getCandidates().get(1).getEstimatedCost(), 0.0);
+  }
+
+  @Test
+  public void costBasedPlanningPrefersCollectionScanForSmallCollections() throws Exception {
+    queryEngine.setCostBasedPlanningEnabled(true);
+    Query query = query("coll").filter(filter("matches", "==", true));
+
+    addDocument(MATCHING_DOC_A, MATCHING_DOC_B);
+    persistQueryMapping(MATCHING_DOC_A.getKey(), MATCHING_DOC_B.getKey());
+
+    QueryPlan plan = explain(query, LAST_LIMBO_FREE_SNAPSHOT);
+    assertEquals("FullCollectionScan", plan.getPreferredStrategyName());
+
+    DocumentSet docs = expectFullCollectionScan(() -> runQuery(query, LAST_LIMBO_FREE_SNAPSHOT));
+    assertEquals(docSet(query.comparator(), MATCHING_DOC_A, MATCHING_DOC_B), docs);
+  }
+
+  @Test
+  public void costBasedPlanningPrefersTargetMappingForLargeCollections() throws Exception {
+    queryEngine.setCostBasedPlanningEnabled(true);
+    Query query = query("coll").filter(filter("matches", "==", true));
+
+    addDocument(MATCHING_DOC_A);
+    for (int i = 0; i < 10; ++i) {
+      addDocument(doc("coll/other" + i, 1, map("matches", false)));
+    }
+    persistQueryMapping(MATCHING_DOC_A.getKey());
+
+    QueryPlan plan = explain(query, LAST_LIMBO_FREE_SNAPSHOT);
+    assertEquals("RemoteKeys", plan.getPreferredStrategyName());
+
+    DocumentSet docs =
+        expectOptimizedCollectionScan(() -> runQuery(query, LAST_LIMBO_FREE_SNAPSHOT));
+    assertEquals(docSet(query.comparator(), MATCHING_DOC_A), docs);
+  }
+
+  @Test
+  public void costBasedPlanningSkipsEstimatesIfOnlyCollectionScanApplies() throws Exception {
+    queryEngine.setCostBasedPlanningEnabled(true);
+    CountingQueryEngine countingQueryEngine = new CountingQueryEngine(queryEngine);
+    countingQueryEngine.initialize(
+        new LocalDocumentsView(
+            remoteDocumentCache, mutationQueue, documentOverlayCache, indexManager),
+        indexManager);
+    Query query = query("coll").filter(filter("matches", "==", true));
+
+    addDocument(MATCHING_DOC_A, MATCHING_DOC_B);
+
+    DocumentSet docs =
+        expectFullCollectionScan(() -> runQuery(query, MISSING_LAST_LIMBO_FREE_SNAPSHOT));
+    assertEquals(docSet(query.comparator(), MATCHING_DOC_A, MATCHING_DOC_B), docs);
+    assertEquals(0, countingQueryEngine.getDocumentCountsRead());
+
+    persistQueryMapping(MATCHING_DOC_A.getKey(), MATCHING_DOC_B.getKey());
+    docs = expectFullCollectionScan(() -> runQuery(query, LAST_LIMBO_FREE_SNAPSHOT));
+    assertEquals(docSet(query.comparator(), MATCHING_DOC_A, MATCHING_DOC_B), docs);
+    assertEquals(1, countingQueryEngine.getDocumentCountsRead());
+  }
 }
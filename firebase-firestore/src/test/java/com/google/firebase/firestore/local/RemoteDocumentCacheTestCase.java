@@ -55,7 +55,7 @@ import org.junit.Test;
 abstract class RemoteDocumentCacheTestCase {
   private final Map<String, Object> DOC_DATA = map("data", 2);
 
-  private Persistence persistence;
+  protected Persistence persistence;
   protected RemoteDocumentCache remoteDocumentCache;
 
   @Before
@@ -0,0 +1,151 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.local;
+
+import static com.google.firebase.firestore.testutil.TestUtil.doc;
+import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.firestore.model.DocumentKey;
+import com.google.firebase.firestore.model.MutableDocument;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class RemoteDocumentDecoderTest {
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(RemoteDocumentDecoder.DEFAULT_WORKER_COUNT);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static MutableDocument decode(byte[] contents, int readTimeSeconds, int readTimeNanos) {
+    return doc(new String(contents, StandardCharsets.UTF_8), readTimeSeconds, map());
+  }
+
+  private static byte[] encode(String path) {
+    return path.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testDecodesAllRows() {
+    RemoteDocumentDecoder decoder =
+        new RemoteDocumentDecoder(executor, RemoteDocumentDecoderTest::decode, 4, 3);
+
+    int rowCount = 100;
+    for (int i = 0; i < rowCount; ++i) {
+      decoder.add(encode("coll/doc" + i), i, 0);
+    }
+
+    Map<DocumentKey, MutableDocument> results = new HashMap<>();
+    decoder.drain(results);
+
+    assertEquals(rowCount, results.size());
+    for (int i = 0; i < rowCount; ++i) {
+      assertEquals(doc("coll/doc" + i, i, map()), results.get(key("coll/doc" + i)));
+    }
+  }
+
+  @Test
+  public void testDrainOverwritesPlaceholders() {
+    RemoteDocumentDecoder decoder =
+        new RemoteDocumentDecoder(executor, RemoteDocumentDecoderTest::decode, 2, 1);
+    Map<DocumentKey, MutableDocument> results = new HashMap<>();
+    results.put(key("coll/a"), MutableDocument.newInvalidDocument(key("coll/a")));
+    results.put(key("coll/b"), MutableDocument.newInvalidDocument(key("coll/b")));
+
+    decoder.add(encode("coll/a"), 1, 0);
+    decoder.drain(results);
+
+    assertEquals(doc("coll/a", 1, map()), results.get(key("coll/a")));
+    assertFalse(results.get(key("coll/b")).isValidDocument());
+  }
+
+  @Test
+  public void testLimitsRowsInFlight() {
+    int workerCount = 2;
+    int batchSize = 5;
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+
+    RemoteDocumentDecoder decoder =
+        new RemoteDocumentDecoder(
+            executor,
+            (contents, seconds, nanos) -> {
+              try {
+                Thread.sleep(1);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              inFlight.decrementAndGet();
+              return decode(contents, seconds, nanos);
+            },
+            workerCount,
+            batchSize);
+
+    for (int i = 0; i < 100; ++i) {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      decoder.add(encode("coll/doc" + i), 1, 0);
+    }
+    Map<DocumentKey, MutableDocument> results = new HashMap<>();
+    decoder.drain(results);
+
+    assertEquals(100, results.size());
+    assertTrue(maxInFlight.get() <= (workerCount + 1) * batchSize);
+  }
+
+  @Test
+  public void testPropagatesDecodeFailures() {
+    RemoteDocumentDecoder decoder =
+        new RemoteDocumentDecoder(
+            executor,
+            (contents, seconds, nanos) -> {
+              throw new IllegalStateException("Failed to decode");
+            },
+            2,
+            1);
+
+    decoder.add(encode("coll/a"), 1, 0);
+    decoder.add(encode("coll/b"), 1, 0);
+
+    try {
+      decoder.drain(new HashMap<>());
+      fail("Expected drain() to throw");
+    } catch (IllegalStateException e) {
+      assertEquals("Failed to decode", e.getMessage());
+    }
+  }
+}
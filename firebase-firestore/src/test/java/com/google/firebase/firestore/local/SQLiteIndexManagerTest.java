@@ -603,6 +603,28 @@ public class SQLiteIndexManagerTest extends IndexManagerTestCase {
     verifyResults(query);
   }
 
+  @Test
+  public void testIndexEntriesAreUpdatedForLargeBatches() {
+    indexManager.addFieldIndex(fieldIndex("coll", "value", Kind.ASCENDING));
+    Target target = query("coll").filter(filter("value", ">=", 0)).toTarget();
+
+    // Use more documents than fit into a single batched statement.
+    int documentCount = 500;
+    Document[] docs = new Document[documentCount];
+    for (int i = 0; i < documentCount; ++i) {
+      docs[i] = doc("coll/doc" + i, 1, map("value", i));
+    }
+    addDocs(docs);
+    assertEquals(documentCount, indexManager.getDocumentsMatchingTarget(target).size());
+
+    // Remove the indexed field from every other document.
+    for (int i = 0; i < documentCount; i += 2) {
+      docs[i] = doc("coll/doc" + i, 2, map());
+    }
+    addDocs(docs);
+    assertEquals(documentCount / 2, indexManager.getDocumentsMatchingTarget(target).size());
+  }
+
   @Test
   public void testCursorsDoNoExpandResultSet() {
     indexManager.addFieldIndex(fieldIndex("coll", "c", Kind.ASCENDING));
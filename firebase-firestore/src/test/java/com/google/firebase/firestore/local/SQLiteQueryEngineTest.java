@@ -87,4 +87,49 @@ public class SQLiteQueryEngineTest extends QueryEngineTestCase {
     DocumentSet result = expectOptimizedCollectionScan(() -> runQuery(query, SnapshotVersion.NONE));
     assertEquals(docSet(query.comparator(), doc2), result);
   }
+
+  @Test
+  public void costBasedPlanningPrefersIndexForSelectiveQueries() throws Exception {
+    queryEngine.setCostBasedPlanningEnabled(true);
+    MutableDocument matchingDoc = doc("coll/a", 1, map("foo", 1));
+    MutableDocument[] otherDocs = new MutableDocument[10];
+    for (int i = 0; i < otherDocs.length; ++i) {
+      otherDocs[i] = doc("coll/other" + i, 1, map("foo", 2));
+    }
+    addDocument(matchingDoc);
+    addDocument(otherDocs);
+
+    indexManager.addFieldIndex(fieldIndex("coll", "foo", Kind.ASCENDING));
+    indexManager.updateIndexEntries(docMap(matchingDoc));
+    indexManager.updateIndexEntries(docMap(otherDocs));
+    indexManager.updateCollectionGroup("coll", IndexOffset.fromDocument(otherDocs[9]));
+
+    // Only one of the eleven index entries is within the query's bounds.
+    Query query = query("coll").filter(filter("foo", "==", 1));
+    QueryPlan plan = explain(query, SnapshotVersion.NONE);
+    assertEquals("IndexScan", plan.getPreferredStrategyName());
+    assertEquals(
+        QueryEngine.INDEX_ENTRY_SCAN_COST + QueryEngine.DOCUMENT_LOOKUP_COST,
+        plan.getCandidates().get(0).getEstimatedCost(),
+        0.0);
+
+    DocumentSet result = expectOptimizedCollectionScan(() -> runQuery(query, SnapshotVersion.NONE));
+    assertEquals(docSet(query.comparator(), matchingDoc), result);
+  }
+
+  @Test
+  public void costBasedPlanningPrefersCollectionScanForUnselectiveQueries() throws Exception {
+    queryEngine.setCostBasedPlanningEnabled(true);
+    MutableDocument doc1 = doc("coll/a", 1, map("foo", 1));
+    MutableDocument doc2 = doc("coll/b", 1, map("foo", 1));
+    addDocument(doc1, doc2);
+
+    indexManager.addFieldIndex(fieldIndex("coll", "foo", Kind.ASCENDING));
+    indexManager.updateIndexEntries(docMap(doc1, doc2));
+    indexManager.updateCollectionGroup("coll", IndexOffset.fromDocument(doc2));
+
+    Query query = query("coll").filter(filter("foo", "==", 1));
+    QueryPlan plan = explain(query, SnapshotVersion.NONE);
+    assertEquals("FullCollectionScan", plan.getPreferredStrategyName());
+  }
 }
@@ -16,11 +16,21 @@ package com.google.firebase.firestore.local;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.firebase.firestore.testutil.TestUtil.key;
+import static com.google.firebase.firestore.testutil.TestUtil.path;
 import static com.google.firebase.firestore.testutil.TestUtil.version;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
+import com.google.firebase.firestore.auth.User;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.FieldIndex;
 import com.google.firebase.firestore.model.MutableDocument;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -36,6 +46,15 @@ public final class SQLiteRemoteDocumentCacheTest extends RemoteDocumentCacheTest
     return PersistenceTestHelpers.createSQLitePersistence();
   }
 
+  private void reopenWithDecodedDocumentCacheSize(long sizeBytes) {
+    persistence.shutdown();
+    persistence = PersistenceTestHelpers.createSQLitePersistence(sizeBytes);
+    remoteDocumentCache = persistence.getRemoteDocumentCache();
+    IndexManager indexManager = persistence.getIndexManager(User.UNAUTHENTICATED);
+    indexManager.start();
+    remoteDocumentCache.setIndexManager(indexManager);
+  }
+
   @Test
   public void testNextDocumentsFromCollectionGroup() {
     addTestDocumentAtPath("a/1");
@@ -86,4 +105,136 @@ public final class SQLiteRemoteDocumentCacheTest extends RemoteDocumentCacheTest
         remoteDocumentCache.getAll("b", FieldIndex.IndexOffset.NONE, size);
     assertThat(results).hasSize(size);
   }
+
+  @Test
+  public void testDecodedDocumentCacheServesRepeatedReads() {
+    DecodedDocumentCache decodedDocumentCache =
+        ((SQLiteRemoteDocumentCache) remoteDocumentCache).getDecodedDocumentCache();
+    MutableDocument written = addTestDocumentAtPath("a/1");
+
+    assertEquals(written, remoteDocumentCache.get(key("a/1")));
+    assertEquals(0, decodedDocumentCache.getHitCount());
+    assertEquals(1, decodedDocumentCache.getMissCount());
+
+    MutableDocument read = remoteDocumentCache.get(key("a/1"));
+    assertEquals(written, read);
+    assertEquals(1, decodedDocumentCache.getHitCount());
+
+    // Modifying a returned document must not affect the cached version.
+    read.convertToNoDocument(version(43));
+    assertEquals(written, remoteDocumentCache.get(key("a/1")));
+  }
+
+  @Test
+  public void testDecodedDocumentCacheIsInvalidatedByWrites() {
+    addTestDocumentAtPath("a/1", /* updateTime= */ 1, /* readTime= */ 11);
+    remoteDocumentCache.get(key("a/1"));
+
+    MutableDocument updated = addTestDocumentAtPath("a/1", /* updateTime= */ 2, /* readTime= */ 12);
+    assertEquals(updated, remoteDocumentCache.get(key("a/1")));
+
+    persistence.runTransaction(
+        "remove entry", () -> remoteDocumentCache.removeAll(Collections.singletonList(key("a/1"))));
+    assertFalse(remoteDocumentCache.get(key("a/1")).isValidDocument());
+  }
+
+  @Test
+  public void testDecodedDocumentCacheIsUsedForCollectionScans() {
+    DecodedDocumentCache decodedDocumentCache =
+        ((SQLiteRemoteDocumentCache) remoteDocumentCache).getDecodedDocumentCache();
+    addTestDocumentAtPath("a/1");
+    addTestDocumentAtPath("a/2");
+
+    remoteDocumentCache.getAll(path("a"), FieldIndex.IndexOffset.NONE);
+    long hitCount = decodedDocumentCache.getHitCount();
+
+    Map<DocumentKey, MutableDocument> results =
+        remoteDocumentCache.getAll(path("a"), FieldIndex.IndexOffset.NONE);
+    assertThat(results.keySet()).containsExactly(key("a/1"), key("a/2"));
+    assertEquals(hitCount + 2, decodedDocumentCache.getHitCount());
+  }
+
+  @Test
+  public void testDecodedDocumentCacheCanBeDisabled() {
+    reopenWithDecodedDocumentCacheSize(SQLitePersistence.DECODED_DOCUMENT_CACHE_DISABLED);
+    assertNull(((SQLiteRemoteDocumentCache) remoteDocumentCache).getDecodedDocumentCache());
+
+    MutableDocument written = addTestDocumentAtPath("a/1");
+    assertEquals(written, remoteDocumentCache.get(key("a/1")));
+    assertEquals(written, remoteDocumentCache.get(key("a/1")));
+    assertThat(remoteDocumentCache.getAll(path("a"), FieldIndex.IndexOffset.NONE).keySet())
+        .containsExactly(key("a/1"));
+  }
+
+  @Test
+  public void testDecodedDocumentCacheHonorsConfiguredSize() {
+    reopenWithDecodedDocumentCacheSize(1);
+    DecodedDocumentCache decodedDocumentCache =
+        ((SQLiteRemoteDocumentCache) remoteDocumentCache).getDecodedDocumentCache();
+
+    MutableDocument written = addTestDocumentAtPath("a/1");
+    assertEquals(written, remoteDocumentCache.get(key("a/1")));
+    assertEquals(written, remoteDocumentCache.get(key("a/1")));
+    assertEquals(0, decodedDocumentCache.getHitCount());
+    assertEquals(0, decodedDocumentCache.size());
+  }
+
+  @Test
+  public void testLongQueryJoinsTemporaryTableForManyArgs() {
+    int size = SQLitePersistence.LongQuery.TEMP_TABLE_THRESHOLD + 1;
+    List<DocumentKey> keys = new ArrayList<>();
+    List<Object> encodedPaths = new ArrayList<>();
+    for (int i = 0; i < size; ++i) {
+      DocumentKey key = key("a/" + i);
+      addTestDocumentAtPath(key);
+      keys.add(key);
+      encodedPaths.add(EncodedPath.encode(key.getPath()));
+    }
+    encodedPaths.add(EncodedPath.encode(key("a/missing").getPath()));
+
+    SQLitePersistence.LongQuery longQuery =
+        new SQLitePersistence.LongQuery(
+            (SQLitePersistence) persistence,
+            "SELECT path FROM remote_documents WHERE path IN (",
+            encodedPaths,
+            ")");
+    List<String> found = new ArrayList<>();
+    while (longQuery.hasMoreSubqueries()) {
+      longQuery.performNextSubquery().forEach(row -> found.add(row.getString(0)));
+    }
+    assertEquals(1, longQuery.getSubqueriesPerformed());
+    assertEquals(size, found.size());
+
+    remoteDocumentCache.removeAll(keys);
+    for (MutableDocument document : remoteDocumentCache.getAll(keys).values()) {
+      assertFalse(document.isFoundDocument());
+    }
+  }
+
+  @Test
+  public void testLongQueryRecreatesTemporaryTableAfterRollback() {
+    int size = SQLitePersistence.LongQuery.TEMP_TABLE_THRESHOLD + 1;
+    List<DocumentKey> keys = new ArrayList<>();
+    for (int i = 0; i < size; ++i) {
+      DocumentKey key = key("a/" + i);
+      addTestDocumentAtPath(key);
+      keys.add(key);
+    }
+
+    // The first use of the temporary table is rolled back, which drops it again.
+    assertThrows(
+        RuntimeException.class,
+        () ->
+            persistence.runTransaction(
+                "rolled back",
+                (Runnable)
+                    () -> {
+                      remoteDocumentCache.getAll(keys);
+                      throw new RuntimeException("Roll back");
+                    }));
+
+    for (MutableDocument document : remoteDocumentCache.getAll(keys).values()) {
+      assertTrue(document.isFoundDocument());
+    }
+  }
 }
@@ -680,6 +680,17 @@ public class SQLiteSchemaTest {
     assertTableExists("index_state");
   }
 
+  @Test
+  public void createsSequenceNumberIndexes() {
+    schema.runSchemaUpgrades(0, 18);
+    assertIndexExists("target_sequence_numbers");
+    assertIndexExists("document_sequence_numbers");
+
+    // The migration can run again after a downgrade.
+    schema.runSchemaUpgrades(17, 18);
+    assertIndexExists("target_sequence_numbers");
+  }
+
   @Test
   public void createsOverlaysAndMigrationTable() {
     // 14 is the version we enable Overlay
@@ -731,6 +742,15 @@ public class SQLiteSchemaTest {
     assertTrue(String.format("Expected table %s to exist", tableName), exists);
   }
 
+  private void assertIndexExists(String indexName) {
+    boolean exists =
+        !(new SQLitePersistence.Query(
+                db, "SELECT 1=1 FROM sqlite_master WHERE type = 'index' AND name = ?")
+            .binding(indexName)
+            .isEmpty());
+    assertTrue(String.format("Expected index %s to exist", indexName), exists);
+  }
+
   private void assertNoResultsForQuery(String query, String[] args) {
     Cursor cursor = null;
     try {
@@ -0,0 +1,89 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firestore.v1.BitSequence;
+import com.google.protobuf.ByteString;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BloomFilterTest {
+  private static final String DOCUMENTS_PREFIX =
+      "projects/test-project/databases/(default)/documents/";
+
+  /** A bloom filter of 29 bits with 5 hashes that contains "docs/1" and "docs/2". */
+  private static final ByteString BITMAP = ByteString.copyFrom(new byte[] {16, 81, 21, 9});
+
+  @Test
+  public void testInstantiatesEmptyBloomFilter() {
+    BloomFilter bloomFilter = new BloomFilter(ByteString.EMPTY, 0, 0);
+    assertEquals(0, bloomFilter.getBitCount());
+  }
+
+  @Test
+  public void testInstantiatesNonEmptyBloomFilter() {
+    BloomFilter bloomFilter = new BloomFilter(BITMAP, 3, 5);
+    assertEquals(29, bloomFilter.getBitCount());
+    assertEquals(5, bloomFilter.getHashCount());
+    assertTrue(bloomFilter.isBitSet(4));
+    assertFalse(bloomFilter.isBitSet(5));
+  }
+
+  @Test
+  public void testThrowsForInvalidArguments() {
+    assertThrows(IllegalArgumentException.class, () -> new BloomFilter(BITMAP, -1, 5));
+    assertThrows(IllegalArgumentException.class, () -> new BloomFilter(BITMAP, 8, 5));
+    assertThrows(IllegalArgumentException.class, () -> new BloomFilter(BITMAP, 3, -1));
+    assertThrows(IllegalArgumentException.class, () -> new BloomFilter(BITMAP, 3, 0));
+    assertThrows(IllegalArgumentException.class, () -> new BloomFilter(ByteString.EMPTY, 1, 0));
+  }
+
+  @Test
+  public void testEmptyBloomFilterContainsNothing() {
+    BloomFilter bloomFilter = new BloomFilter(ByteString.EMPTY, 0, 0);
+    assertFalse(bloomFilter.mightContain(""));
+    assertFalse(bloomFilter.mightContain(DOCUMENTS_PREFIX + "docs/1"));
+  }
+
+  @Test
+  public void testMightContainAddedEntries() {
+    BloomFilter bloomFilter = new BloomFilter(BITMAP, 3, 5);
+    assertTrue(bloomFilter.mightContain(DOCUMENTS_PREFIX + "docs/1"));
+    assertTrue(bloomFilter.mightContain(DOCUMENTS_PREFIX + "docs/2"));
+    assertFalse(bloomFilter.mightContain(DOCUMENTS_PREFIX + "docs/3"));
+    assertFalse(bloomFilter.mightContain(DOCUMENTS_PREFIX + "docs/4"));
+  }
+
+  @Test
+  public void testCreatesFromProto() {
+    BloomFilter bloomFilter =
+        BloomFilter.fromProto(
+            com.google.firestore.v1.BloomFilter.newBuilder()
+                .setBits(BitSequence.newBuilder().setBitmap(BITMAP).setPadding(3))
+                .setHashCount(5)
+                .build());
+    assertEquals(29, bloomFilter.getBitCount());
+    assertTrue(bloomFilter.mightContain(DOCUMENTS_PREFIX + "docs/1"));
+  }
+}
@@ -0,0 +1,415 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.firestore.remote;
+
+import static com.google.firebase.firestore.testutil.TestUtil.map;
+import static com.google.firebase.firestore.testutil.TestUtil.setMutation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.model.DatabaseId;
+import com.google.firebase.firestore.model.SnapshotVersion;
+import com.google.firebase.firestore.model.mutation.Mutation;
+import com.google.firebase.firestore.model.mutation.MutationResult;
+import com.google.firebase.firestore.remote.WatchChange.WatchTargetChange;
+import com.google.firebase.firestore.testutil.EmptyAppCheckTokenProvider;
+import com.google.firebase.firestore.testutil.EmptyCredentialsProvider;
+import com.google.firebase.firestore.util.AsyncQueue;
+import com.google.firestore.v1.ListenResponse;
+import com.google.firestore.v1.TargetChange;
+import com.google.firestore.v1.WriteRequest;
+import com.google.firestore.v1.WriteResponse;
+import com.google.protobuf.ByteString;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests for watch and write streams that decode and encode messages on a pipeline executor. The
+ * streams run against a fake gRPC call, with a real worker queue and a real pipeline executor.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class PipelinedStreamTest {
+  private static final long TIMEOUT_MS = 5000;
+
+  /** A gRPC call that records what the stream sends, and lets tests deliver responses. */
+  private static class FakeClientCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+    final List<ReqT> sentMessages = Collections.synchronizedList(new ArrayList<>());
+    final AtomicInteger requestedMessages = new AtomicInteger();
+    volatile Listener<RespT> listener;
+    volatile boolean halfClosed;
+
+    @Override
+    public void start(Listener<RespT> listener, Metadata headers) {
+      this.listener = listener;
+    }
+
+    @Override
+    public void request(int numMessages) {
+      requestedMessages.addAndGet(numMessages);
+    }
+
+    @Override
+    public void cancel(String message, Throwable cause) {}
+
+    @Override
+    public void halfClose() {
+      halfClosed = true;
+    }
+
+    @Override
+    public void sendMessage(ReqT message) {
+      sentMessages.add(message);
+    }
+  }
+
+  /** Records the stream callbacks, which must all run on the worker queue. */
+  private class StreamCallback implements WatchStream.Callback, WriteStream.Callback {
+    final List<Integer> watchedTargetIds = Collections.synchronizedList(new ArrayList<>());
+    volatile boolean handshakeComplete;
+
+    @Override
+    public void onOpen() {
+      workerQueue.verifyIsCurrentThread();
+    }
+
+    @Override
+    public void onClose(Status status) {
+      workerQueue.verifyIsCurrentThread();
+    }
+
+    @Override
+    public void onWatchChange(SnapshotVersion snapshotVersion, WatchChange watchChange) {
+      workerQueue.verifyIsCurrentThread();
+      watchedTargetIds.addAll(((WatchTargetChange) watchChange).getTargetIds());
+    }
+
+    @Override
+    public void onHandshakeComplete() {
+      workerQueue.verifyIsCurrentThread();
+      handshakeComplete = true;
+    }
+
+    @Override
+    public void onWriteResponse(
+        SnapshotVersion commitVersion, List<MutationResult> mutationResults) {
+      workerQueue.verifyIsCurrentThread();
+    }
+  }
+
+  private final List<FakeClientCall<Object, Object>> calls =
+      Collections.synchronizedList(new ArrayList<>());
+  private final List<Thread> decodingThreads = Collections.synchronizedList(new ArrayList<>());
+
+  private AsyncQueue workerQueue;
+  private ExecutorService pipelineExecutor;
+  private RemoteSerializer serializer;
+  private FirestoreChannel channel;
+  private StreamCallback callback;
+
+  @Before
+  public void setUp() {
+    workerQueue = new AsyncQueue();
+    callback = new StreamCallback();
+    serializer =
+        new RemoteSerializer(DatabaseId.forProject("project")) {
+          @Override
+          public WatchChange decodeWatchChange(ListenResponse protoChange) {
+            decodingThreads.add(Thread.currentThread());
+            return super.decodeWatchChange(protoChange);
+          }
+        };
+
+    GrpcCallProvider callProvider = mock(GrpcCallProvider.class);
+    when(callProvider.createClientCall(any(), any()))
+        .thenAnswer(
+            invocation -> {
+              FakeClientCall<Object, Object> call = new FakeClientCall<>();
+              calls.add(call);
+              return Tasks.forResult(call);
+            });
+    channel =
+        new FirestoreChannel(
+            workerQueue,
+            new EmptyCredentialsProvider(),
+            new EmptyAppCheckTokenProvider(),
+            DatabaseId.forProject("project"),
+            /* metadataProvider= */ null,
+            callProvider);
+  }
+
+  @After
+  public void tearDown() {
+    if (pipelineExecutor != null) {
+      pipelineExecutor.shutdownNow();
+    }
+    workerQueue.shutdown();
+  }
+
+  @Test
+  public void watchChangesAreDecodedOffTheWorkerQueueAndHandledInOrder() throws Exception {
+    // gRPC issues the callbacks of a call one at a time, which a single thread mimics.
+    pipelineExecutor = Executors.newSingleThreadExecutor();
+    WatchStream watchStream = startWatchStream();
+    FakeClientCall<Object, Object> call = calls.get(0);
+
+    for (int targetId = 1; targetId <= 100; ++targetId) {
+      deliver(call, listenResponse(targetId));
+    }
+    drainPipelineExecutor();
+    workerQueue.runSync(() -> {});
+
+    assertEquals(targetIds(1, 100), callback.watchedTargetIds);
+    Thread[] workerThread = new Thread[1];
+    workerQueue.runSync(() -> workerThread[0] = Thread.currentThread());
+    assertEquals(100, decodingThreads.size());
+    for (Thread thread : decodingThreads) {
+      assertNotSame(workerThread[0], thread);
+    }
+
+    workerQueue.runSync(watchStream::stop);
+  }
+
+  @Test
+  public void watchStreamStopsRequestingMessagesWhileWorkerQueueIsBehind() throws Exception {
+    pipelineExecutor = Executors.newSingleThreadExecutor();
+    WatchStream watchStream = startWatchStream();
+    FakeClientCall<Object, Object> call = calls.get(0);
+    assertEquals(1, call.requestedMessages.get());
+
+    CountDownLatch unblockWorkerQueue = new CountDownLatch(1);
+    workerQueue.enqueueAndForget(
+        () -> {
+          try {
+            unblockWorkerQueue.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        });
+
+    for (int targetId = 1; targetId <= 20; ++targetId) {
+      deliver(call, listenResponse(targetId));
+    }
+    drainPipelineExecutor();
+
+    // The first 16 messages are received ahead of the worker queue, the others wait for it.
+    assertEquals(1 + 16, call.requestedMessages.get());
+    assertTrue(callback.watchedTargetIds.isEmpty());
+
+    unblockWorkerQueue.countDown();
+    workerQueue.runSync(() -> {});
+
+    assertEquals(1 + 20, call.requestedMessages.get());
+    assertEquals(targetIds(1, 20), callback.watchedTargetIds);
+
+    workerQueue.runSync(watchStream::stop);
+  }
+
+  @Test
+  public void watchStreamIgnoresMessagesOfClosedCalls() throws Exception {
+    pipelineExecutor = Executors.newSingleThreadExecutor();
+    WatchStream watchStream = startWatchStream();
+    FakeClientCall<Object, Object> firstCall = calls.get(0);
+
+    deliver(firstCall, listenResponse(1));
+    drainPipelineExecutor();
+    // The response is decoded, but the stream closes before the worker queue handles it.
+    workerQueue.runSync(
+        () -> {
+          watchStream.stop();
+          watchStream.start();
+        });
+    workerQueue.runSync(() -> {});
+    FakeClientCall<Object, Object> secondCall = calls.get(1);
+    assertTrue(firstCall.halfClosed);
+
+    deliver(firstCall, listenResponse(2));
+    deliver(secondCall, listenResponse(3));
+    drainPipelineExecutor();
+    workerQueue.runSync(() -> {});
+
+    assertEquals(Collections.singletonList(3), callback.watchedTargetIds);
+
+    workerQueue.runSync(watchStream::stop);
+  }
+
+  @Test
+  public void writesAreEncodedOffTheWorkerQueueAndSentInOrder() throws Exception {
+    // A pool of threads, so that encoding tasks only keep their order if they are chained.
+    pipelineExecutor = Executors.newFixedThreadPool(4);
+    WriteStream writeStream = startWriteStreamAndHandshake();
+    FakeClientCall<Object, Object> call = calls.get(0);
+
+    workerQueue.runSync(
+        () -> {
+          for (int i = 0; i < 50; ++i) {
+            writeStream.writeMutations(mutations(i));
+          }
+        });
+    waitForSentMessages(call, 1 + 50);
+
+    for (int i = 0; i < 50; ++i) {
+      assertEquals(documentName(i), writtenDocumentName(call.sentMessages.get(1 + i)));
+    }
+
+    workerQueue.runSync(writeStream::stop);
+  }
+
+  @Test
+  public void writesThatAreEncodedWhenTheStreamClosesAreDropped() throws Exception {
+    pipelineExecutor = Executors.newSingleThreadExecutor();
+    WriteStream writeStream = startWriteStreamAndHandshake();
+    FakeClientCall<Object, Object> firstCall = calls.get(0);
+
+    CountDownLatch unblockPipelineExecutor = new CountDownLatch(1);
+    pipelineExecutor.execute(
+        () -> {
+          try {
+            unblockPipelineExecutor.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        });
+
+    workerQueue.runSync(
+        () -> {
+          writeStream.writeMutations(mutations(1));
+          // Sends the empty write of tearDown() right away, while the mutations are still encoded.
+          writeStream.stop();
+        });
+    unblockPipelineExecutor.countDown();
+    drainPipelineExecutor();
+    workerQueue.runSync(() -> {});
+
+    // Only the handshake and the empty write of tearDown() were sent before the call closed.
+    assertEquals(2, firstCall.sentMessages.size());
+    assertEquals(0, ((WriteRequest) firstCall.sentMessages.get(1)).getWritesCount());
+    assertTrue(firstCall.halfClosed);
+
+    // After a new handshake, the write is sent again on the new call.
+    callback.handshakeComplete = false;
+    openAndHandshake(writeStream, 1);
+    FakeClientCall<Object, Object> secondCall = calls.get(1);
+    workerQueue.runSync(() -> writeStream.writeMutations(mutations(1)));
+    drainPipelineExecutor();
+    workerQueue.runSync(() -> {});
+
+    assertEquals(2, secondCall.sentMessages.size());
+    assertEquals(documentName(1), writtenDocumentName(secondCall.sentMessages.get(1)));
+    assertEquals(2, firstCall.sentMessages.size());
+
+    workerQueue.runSync(writeStream::stop);
+  }
+
+  private WatchStream startWatchStream() throws InterruptedException {
+    WatchStream watchStream =
+        new WatchStream(channel, workerQueue, serializer, callback, pipelineExecutor);
+    workerQueue.runSync(watchStream::start);
+    // Lets the worker queue start the call.
+    workerQueue.runSync(() -> {});
+    return watchStream;
+  }
+
+  private WriteStream startWriteStreamAndHandshake() throws Exception {
+    WriteStream writeStream =
+        new WriteStream(channel, workerQueue, serializer, callback, pipelineExecutor);
+    openAndHandshake(writeStream, 0);
+    return writeStream;
+  }
+
+  private void openAndHandshake(WriteStream writeStream, int callIndex) throws Exception {
+    workerQueue.runSync(writeStream::start);
+    workerQueue.runSync(() -> {});
+    workerQueue.runSync(writeStream::writeHandshake);
+    FakeClientCall<Object, Object> call = calls.get(callIndex);
+    deliver(
+        call, WriteResponse.newBuilder().setStreamToken(ByteString.copyFromUtf8("token")).build());
+    drainPipelineExecutor();
+    workerQueue.runSync(() -> {});
+    assertTrue(callback.handshakeComplete);
+  }
+
+  /** Delivers a response on the pipeline executor, as gRPC does for pipelined streams. */
+  private void deliver(FakeClientCall<Object, Object> call, Object response) {
+    pipelineExecutor.execute(() -> call.listener.onMessage(response));
+  }
+
+  /** Waits until the pipeline executor ran all the tasks that are queued on it. */
+  private void drainPipelineExecutor() throws Exception {
+    pipelineExecutor.submit(() -> {}).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+  }
+
+  private void waitForSentMessages(FakeClientCall<Object, Object> call, int count)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (call.sentMessages.size() < count) {
+      assertFalse("Timed out waiting for sent messages", System.currentTimeMillis() > deadline);
+      Thread.sleep(1);
+    }
+    assertEquals(count, call.sentMessages.size());
+  }
+
+  private static ListenResponse listenResponse(int targetId) {
+    return ListenResponse.newBuilder()
+        .setTargetChange(
+            TargetChange.newBuilder()
+                .setTargetChangeType(TargetChange.TargetChangeType.NO_CHANGE)
+                .addTargetIds(targetId))
+        .build();
+  }
+
+  private static List<Integer> targetIds(int first, int last) {
+    List<Integer> targetIds = new ArrayList<>();
+    for (int targetId = first; targetId <= last; ++targetId) {
+      targetIds.add(targetId);
+    }
+    return targetIds;
+  }
+
+  private static List<Mutation> mutations(int i) {
+    return Collections.singletonList(setMutation("docs/" + i, map("value", i)));
+  }
+
+  private static String documentName(int i) {
+    return "projects/project/databases/(default)/documents/docs/" + i;
+  }
+
+  private static String writtenDocumentName(Object request) {
+    WriteRequest writeRequest = (WriteRequest) request;
+    assertEquals(1, writeRequest.getWritesCount());
+    return writeRequest.getWrites(0).getUpdate().getName();
+  }
+}
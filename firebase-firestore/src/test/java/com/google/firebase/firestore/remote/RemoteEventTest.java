@@ -32,6 +32,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.firebase.database.collection.ImmutableSortedSet;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.local.TargetData;
 import com.google.firebase.firestore.model.DocumentKey;
 import com.google.firebase.firestore.model.MutableDocument;
@@ -39,6 +40,7 @@ import com.google.firebase.firestore.remote.WatchChange.DocumentChange;
 import com.google.firebase.firestore.remote.WatchChange.WatchTargetChange;
 import com.google.firebase.firestore.remote.WatchChange.WatchTargetChangeType;
 import com.google.firebase.firestore.testutil.TestTargetMetadataProvider;
+import com.google.firestore.v1.BitSequence;
 import com.google.protobuf.ByteString;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -488,6 +490,102 @@ public class RemoteEventTest {
     assertEquals(mapping1, event.getTargetChanges().get(1));
   }
 
+  @Test
+  public void testExistenceFilterMismatchWithBloomFilterRemovesDeletedDocuments() {
+    Map<Integer, TargetData> targetMap = activeQueries(1);
+
+    MutableDocument doc1 = doc("docs/1", 1, map("value", 1));
+    MutableDocument doc2 = doc("docs/2", 2, map("value", 2));
+
+    WatchChangeAggregator aggregator =
+        createAggregator(targetMap, noOutstandingResponses, keySet(doc1.getKey(), doc2.getKey()));
+
+    List<ExistenceFilterMetrics.MismatchInfo> mismatches = new ArrayList<>();
+    ListenerRegistration registration = ExistenceFilterMetrics.addListener(mismatches::add);
+    try {
+      // The bloom filter only contains "docs/1".
+      aggregator.handleExistenceFilter(
+          new WatchChange.ExistenceFilterWatchChange(
+              1, new ExistenceFilter(1, bloomFilter(new byte[] {16, 65, 4, 8}, 3, 5))));
+    } finally {
+      registration.remove();
+    }
+
+    RemoteEvent event = aggregator.createRemoteEvent(version(3));
+
+    assertEquals(0, event.getTargetMismatches().size());
+    assertEquals(0, event.getDocumentUpdates().size());
+    TargetChange expected = targetChange(resumeToken, false, null, null, asList(doc2));
+    assertEquals(expected, event.getTargetChanges().get(1));
+
+    assertEquals(1, mismatches.size());
+    ExistenceFilterMetrics.MismatchInfo mismatch = mismatches.get(0);
+    assertEquals(2, mismatch.getLocalCacheCount());
+    assertEquals(1, mismatch.getExistenceFilterCount());
+    assertEquals(1, mismatch.getRemovedDocumentCount());
+    assertEquals(0, mismatch.getFalsePositiveCount());
+    assertTrue(mismatch.isResolvedByBloomFilter());
+  }
+
+  @Test
+  public void testExistenceFilterMismatchWithBloomFilterFalsePositiveClearsTarget() {
+    Map<Integer, TargetData> targetMap = activeQueries(1);
+
+    MutableDocument doc1 = doc("docs/1", 1, map("value", 1));
+    MutableDocument doc2 = doc("docs/2", 2, map("value", 2));
+
+    WatchChangeAggregator aggregator =
+        createAggregator(targetMap, noOutstandingResponses, keySet(doc1.getKey(), doc2.getKey()));
+
+    List<ExistenceFilterMetrics.MismatchInfo> mismatches = new ArrayList<>();
+    ListenerRegistration registration = ExistenceFilterMetrics.addListener(mismatches::add);
+    try {
+      // The bloom filter contains both "docs/1" and "docs/2", so it can't tell which document
+      // was deleted.
+      aggregator.handleExistenceFilter(
+          new WatchChange.ExistenceFilterWatchChange(
+              1, new ExistenceFilter(1, bloomFilter(new byte[] {16, 81, 21, 9}, 3, 5))));
+    } finally {
+      registration.remove();
+    }
+
+    RemoteEvent event = aggregator.createRemoteEvent(version(3));
+
+    assertEquals(1, event.getTargetMismatches().size());
+    TargetChange expected = targetChange(ByteString.EMPTY, false, null, null, asList(doc1, doc2));
+    assertEquals(expected, event.getTargetChanges().get(1));
+
+    assertEquals(1, mismatches.size());
+    ExistenceFilterMetrics.MismatchInfo mismatch = mismatches.get(0);
+    assertTrue(mismatch.isBloomFilterApplied());
+    assertFalse(mismatch.isResolvedByBloomFilter());
+    assertEquals(0, mismatch.getRemovedDocumentCount());
+    assertEquals(1, mismatch.getFalsePositiveCount());
+    assertEquals(1.0, mismatch.getFalsePositiveRate(), 0.0);
+  }
+
+  @Test
+  public void testExistenceFilterMismatchWithInvalidBloomFilterClearsTarget() {
+    Map<Integer, TargetData> targetMap = activeQueries(1);
+
+    MutableDocument doc1 = doc("docs/1", 1, map("value", 1));
+    MutableDocument doc2 = doc("docs/2", 2, map("value", 2));
+
+    WatchChangeAggregator aggregator =
+        createAggregator(targetMap, noOutstandingResponses, keySet(doc1.getKey(), doc2.getKey()));
+
+    // A non-empty bloom filter needs a hash count.
+    aggregator.handleExistenceFilter(
+        new WatchChange.ExistenceFilterWatchChange(
+            1, new ExistenceFilter(1, bloomFilter(new byte[] {16, 65, 4, 8}, 3, 0))));
+
+    RemoteEvent event = aggregator.createRemoteEvent(version(3));
+
+    assertEquals(1, event.getTargetMismatches().size());
+    TargetChange expected = targetChange(ByteString.EMPTY, false, null, null, asList(doc1, doc2));
+    assertEquals(expected, event.getTargetChanges().get(1));
+  }
+
   @Test
   public void testDocumentUpdate() {
     Map<Integer, TargetData> targetMap = activeQueries(1);
@@ -712,4 +810,13 @@ public class RemoteEventTest {
     // Doc3 is only in the non-limbo target, therefore not tracked as limbo
     assertFalse(limboDocuments.contains(doc3.getKey()));
   }
+
+  private static com.google.firestore.v1.BloomFilter bloomFilter(
+      byte[] bitmap, int padding, int hashCount) {
+    return com.google.firestore.v1.BloomFilter.newBuilder()
+        .setBits(
+            BitSequence.newBuilder().setBitmap(ByteString.copyFrom(bitmap)).setPadding(padding))
+        .setHashCount(hashCount)
+        .build();
+  }
 }
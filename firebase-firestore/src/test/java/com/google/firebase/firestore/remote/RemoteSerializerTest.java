@@ -36,6 +36,7 @@ import static com.google.firebase.firestore.testutil.TestUtil.version;
 import static com.google.firebase.firestore.testutil.TestUtil.wrap;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -61,6 +62,7 @@ import com.google.firebase.firestore.remote.WatchChange.WatchTargetChange;
 import com.google.firebase.firestore.remote.WatchChange.WatchTargetChangeType;
 import com.google.firebase.firestore.testutil.TestUtil;
 import com.google.firestore.v1.ArrayValue;
+import com.google.firestore.v1.BitSequence;
 import com.google.firestore.v1.Cursor;
 import com.google.firestore.v1.Document;
 import com.google.firestore.v1.DocumentChange;
@@ -1154,6 +1156,74 @@ public final class RemoteSerializerTest {
         serializer.decodeQueryTarget(serializer.encodeQueryTarget(q.toTarget())), q.toTarget());
   }
 
+  @Test
+  public void testEncodesExpectedCountWithResumeToken() {
+    Query q = Query.atPath(ResourcePath.fromString("docs"));
+    TargetData targetData =
+        new TargetData(q.toTarget(), 1, 2, QueryPurpose.LISTEN)
+            .withResumeToken(TestUtil.resumeToken(1000), SnapshotVersion.NONE)
+            .withExpectedCount(42);
+    Target actual = serializer.encodeTarget(targetData);
+
+    StructuredQuery.Builder structuredQueryBuilder =
+        StructuredQuery.newBuilder()
+            .addFrom(CollectionSelector.newBuilder().setCollectionId("docs"))
+            .addOrderBy(defaultKeyOrder());
+
+    QueryTarget.Builder queryBuilder =
+        QueryTarget.newBuilder()
+            .setParent("projects/p/databases/d/documents")
+            .setStructuredQuery(structuredQueryBuilder);
+    Target expected =
+        Target.newBuilder()
+            .setQuery(queryBuilder)
+            .setTargetId(1)
+            .setResumeToken(TestUtil.resumeToken(1000))
+            .setExpectedCount(Int32Value.newBuilder().setValue(42))
+            .build();
+
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testEncodesExpectedCountWithReadTime() {
+    Query q = Query.atPath(ResourcePath.fromString("docs"));
+    TargetData targetData =
+        new TargetData(q.toTarget(), 1, 2, QueryPurpose.LISTEN)
+            .withResumeToken(ByteString.EMPTY, version(4000000))
+            .withExpectedCount(42);
+    Target actual = serializer.encodeTarget(targetData);
+
+    StructuredQuery.Builder structuredQueryBuilder =
+        StructuredQuery.newBuilder()
+            .addFrom(CollectionSelector.newBuilder().setCollectionId("docs"))
+            .addOrderBy(defaultKeyOrder());
+
+    QueryTarget.Builder queryBuilder =
+        QueryTarget.newBuilder()
+            .setParent("projects/p/databases/d/documents")
+            .setStructuredQuery(structuredQueryBuilder);
+    Target expected =
+        Target.newBuilder()
+            .setQuery(queryBuilder)
+            .setTargetId(1)
+            .setReadTime(Timestamp.newBuilder().setSeconds(4))
+            .setExpectedCount(Int32Value.newBuilder().setValue(42))
+            .build();
+
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testDoesNotEncodeExpectedCountWithoutResumeTokenOrReadTime() {
+    Query q = Query.atPath(ResourcePath.fromString("docs"));
+    TargetData targetData =
+        new TargetData(q.toTarget(), 1, 2, QueryPurpose.LISTEN).withExpectedCount(42);
+    Target actual = serializer.encodeTarget(targetData);
+
+    assertFalse(actual.hasExpectedCount());
+  }
+
   /**
    * Wraps the given query in TargetData. This is useful because the APIs we're testing accept
    * TargetData, but for the most part we're just testing variations on Query.
@@ -1305,4 +1375,44 @@ public final class RemoteSerializerTest {
                     .build());
     assertEquals(expected, actual);
   }
+
+  @Test
+  public void testConvertsExistenceFilterWithBloomFilter() {
+    com.google.firestore.v1.BloomFilter bloomFilter =
+        com.google.firestore.v1.BloomFilter.newBuilder()
+            .setBits(
+                BitSequence.newBuilder()
+                    .setBitmap(ByteString.copyFrom(new byte[] {16, 81, 21, 9}))
+                    .setPadding(3))
+            .setHashCount(5)
+            .build();
+    WatchChange.ExistenceFilterWatchChange actual =
+        (WatchChange.ExistenceFilterWatchChange)
+            serializer.decodeWatchChange(
+                ListenResponse.newBuilder()
+                    .setFilter(
+                        com.google.firestore.v1.ExistenceFilter.newBuilder()
+                            .setTargetId(1)
+                            .setCount(2)
+                            .setUnchangedNames(bloomFilter))
+                    .build());
+    assertEquals(1, actual.getTargetId());
+    assertEquals(2, actual.getExistenceFilter().getCount());
+    assertEquals(bloomFilter, actual.getExistenceFilter().getUnchangedNames());
+  }
+
+  @Test
+  public void testConvertsExistenceFilterWithoutBloomFilter() {
+    WatchChange.ExistenceFilterWatchChange actual =
+        (WatchChange.ExistenceFilterWatchChange)
+            serializer.decodeWatchChange(
+                ListenResponse.newBuilder()
+                    .setFilter(
+                        com.google.firestore.v1.ExistenceFilter.newBuilder()
+                            .setTargetId(1)
+                            .setCount(2))
+                    .build());
+    assertEquals(2, actual.getExistenceFilter().getCount());
+    assertNull(actual.getExistenceFilter().getUnchangedNames());
+  }
 }
@@ -0,0 +1,225 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.storage;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.gms.common.util.Clock;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs transfers with a concurrency that adapts to the observed throughput.
+ *
+ * <p>Pending transfers are started in order of priority, and transfers of the same priority in
+ * the order in which they were scheduled. The priority of a transfer is read again whenever the
+ * next transfer is picked, so it can change while the transfer waits. The number of transfers
+ * that run at once is adjusted by hill climbing: after every sampling window, the bytes that
+ * running transfers reported through {@link #recordTransferredBytes} are compared with the
+ * throughput of the previous window. Concurrency keeps moving in the same direction while
+ * throughput improves and reverses direction once throughput drops, for example because transfers
+ * start to compete for bandwidth.
+ *
+ * <p>The expected size of all running transfers is capped at {@code maxInFlightBytes}. Transfers
+ * whose size is not known count as {@code unknownSizeBytes}. A transfer that does not fit waits at
+ * the head of the queue and blocks transfers behind it until enough bytes are released, so a
+ * steady stream of small transfers cannot starve a large one. A transfer larger than the cap is
+ * started once nothing else is running.
+ */
+class AdaptiveTaskExecutor implements Executor {
+  /** Expected size of a transfer whose size is not known. */
+  static final long UNKNOWN_SIZE = -1;
+
+  /** The priority of transfers that are scheduled without one. */
+  static final int DEFAULT_PRIORITY = StorageTask.PRIORITY_NORMAL;
+
+  /** Supplies the current priority of a transfer. Transfers with a higher priority start first. */
+  interface PrioritySource {
+    int getPriority();
+  }
+
+  /** The relative throughput change that is considered an improvement or a degradation. */
+  private static final double THROUGHPUT_TOLERANCE = 0.05;
+
+  private final Executor threadPool;
+  private final Clock clock;
+  private final int minConcurrency;
+  private final int maxConcurrency;
+  private final long maxInFlightBytes;
+  private final long unknownSizeBytes;
+  private final long sampleWindowMs;
+
+  private final ArrayDeque<PendingTask> pendingTasks = new ArrayDeque<>();
+  private int runningTasks;
+  private long inFlightBytes;
+  private int targetConcurrency;
+
+  private long windowStartMs;
+  private long windowBytes;
+  private double previousThroughput;
+  private int direction = 1;
+
+  AdaptiveTaskExecutor(
+      @NonNull Executor threadPool,
+      @NonNull Clock clock,
+      int minConcurrency,
+      int maxConcurrency,
+      long maxInFlightBytes,
+      long unknownSizeBytes,
+      long sampleWindowMs) {
+    if (minConcurrency < 1 || maxConcurrency < minConcurrency) {
+      throw new IllegalArgumentException("Invalid concurrency range");
+    }
+    this.threadPool = threadPool;
+    this.clock = clock;
+    this.minConcurrency = minConcurrency;
+    this.maxConcurrency = maxConcurrency;
+    this.maxInFlightBytes = maxInFlightBytes;
+    this.unknownSizeBytes = unknownSizeBytes;
+    this.sampleWindowMs = sampleWindowMs;
+    this.targetConcurrency = minConcurrency;
+    this.windowStartMs = clock.elapsedRealtime();
+  }
+
+  @Override
+  public void execute(@NonNull Runnable task) {
+    execute(task, UNKNOWN_SIZE);
+  }
+
+  /** Schedules a transfer with the default priority. */
+  void execute(@NonNull Runnable task, long expectedBytes) {
+    execute(task, () -> DEFAULT_PRIORITY, expectedBytes);
+  }
+
+  /**
+   * Schedules a transfer.
+   *
+   * @param priority The priority of the transfer, which is read whenever the next pending transfer
+   *     is picked.
+   * @param expectedBytes The number of bytes the transfer is expected to move, or {@link
+   *     #UNKNOWN_SIZE}. Only used to cap the bytes in flight.
+   */
+  synchronized void execute(
+      @NonNull Runnable task, @NonNull PrioritySource priority, long expectedBytes) {
+    long cappedBytes = expectedBytes == UNKNOWN_SIZE ? unknownSizeBytes : expectedBytes;
+    pendingTasks.add(new PendingTask(task, priority, cappedBytes));
+    dispatch();
+  }
+
+  /** Starts pending transfers that can run now that the priority of a transfer has changed. */
+  synchronized void onPriorityChanged() {
+    dispatch();
+  }
+
+  /** Records bytes that a running transfer has actually sent or received. */
+  synchronized void recordTransferredBytes(long bytes) {
+    windowBytes += bytes;
+    maybeAdjustConcurrency();
+  }
+
+  @VisibleForTesting
+  synchronized int getTargetConcurrency() {
+    return targetConcurrency;
+  }
+
+  @VisibleForTesting
+  synchronized int getRunningTaskCount() {
+    return runningTasks;
+  }
+
+  private void dispatch() {
+    while (runningTasks < targetConcurrency && !pendingTasks.isEmpty()) {
+      PendingTask next = peekNextTask();
+      if (runningTasks > 0 && inFlightBytes + next.cappedBytes > maxInFlightBytes) {
+        // Reserve the released bytes for the next transfer instead of skipping ahead.
+        return;
+      }
+      pendingTasks.remove(next);
+      runningTasks++;
+      inFlightBytes += next.cappedBytes;
+      threadPool.execute(() -> run(next));
+    }
+  }
+
+  /** Returns the first pending transfer of the highest priority. */
+  private PendingTask peekNextTask() {
+    PendingTask next = null;
+    int nextPriority = 0;
+    for (PendingTask task : pendingTasks) {
+      int priority = task.priority.getPriority();
+      if (next == null || priority > nextPriority) {
+        next = task;
+        nextPriority = priority;
+      }
+    }
+    return next;
+  }
+
+  private void run(PendingTask task) {
+    try {
+      task.runnable.run();
+    } finally {
+      onTaskFinished(task);
+    }
+  }
+
+  private synchronized void onTaskFinished(PendingTask task) {
+    runningTasks--;
+    inFlightBytes -= task.cappedBytes;
+    maybeAdjustConcurrency();
+  }
+
+  private void maybeAdjustConcurrency() {
+    long nowMs = clock.elapsedRealtime();
+    long elapsedMs = nowMs - windowStartMs;
+    if (elapsedMs >= sampleWindowMs) {
+      adjustConcurrency(windowBytes / (double) elapsedMs);
+      windowStartMs = nowMs;
+      windowBytes = 0;
+    }
+    dispatch();
+  }
+
+  private void adjustConcurrency(double throughput) {
+    if (throughput == 0) {
+      // Nothing was transferred, so there is nothing to learn from this window.
+      return;
+    }
+    if (throughput < previousThroughput * (1 - THROUGHPUT_TOLERANCE)) {
+      direction = -direction;
+    } else if (throughput <= previousThroughput * (1 + THROUGHPUT_TOLERANCE)) {
+      // No significant change. Keep probing upwards while there is queued work.
+      direction = pendingTasks.isEmpty() ? 0 : 1;
+    }
+    previousThroughput = throughput;
+    targetConcurrency =
+        Math.max(minConcurrency, Math.min(maxConcurrency, targetConcurrency + direction));
+    if (direction == 0) {
+      direction = 1;
+    }
+  }
+
+  private static class PendingTask {
+    final Runnable runnable;
+    final PrioritySource priority;
+    final long cappedBytes;
+
+    PendingTask(Runnable runnable, PrioritySource priority, long cappedBytes) {
+      this.runnable = runnable;
+      this.priority = priority;
+      this.cappedBytes = Math.max(0, cappedBytes);
+    }
+  }
+}
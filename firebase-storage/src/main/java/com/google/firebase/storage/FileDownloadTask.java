@@ -42,6 +42,7 @@ public class FileDownloadTask extends StorageTask<FileDownloadTask.TaskSnapshot>
 
   private volatile Exception mException = null;
   private long mResumeOffset = 0;
+  private volatile boolean mScheduledAdaptively;
   private int mResultCode;
 
   /*package*/ FileDownloadTask(@NonNull StorageReference storageRef, @NonNull Uri destinationFile) {
@@ -81,7 +82,16 @@ public class FileDownloadTask extends StorageTask<FileDownloadTask.TaskSnapshot>
   @SuppressWarnings("JavaDoc")
   @Override
   protected void schedule() {
-    StorageTaskScheduler.getInstance().scheduleDownload(getRunnable());
+    mScheduledAdaptively = mStorageRef.getStorage().isAdaptiveTransferSchedulingEnabled();
+    if (mScheduledAdaptively) {
+      // The size is only known when resuming a download that has already received a response.
+      // Otherwise, the scheduler counts the download with a default size.
+      long remainingBytes = mTotalBytes == -1 ? -1 : Math.max(0, mTotalBytes - mResumeOffset);
+      StorageTaskScheduler.getInstance()
+          .scheduleAdaptiveDownload(getRunnable(), this, remainingBytes);
+    } else {
+      StorageTaskScheduler.getInstance().scheduleDownload(getRunnable());
+    }
   }
 
   @NonNull
@@ -154,6 +164,9 @@ public class FileDownloadTask extends StorageTask<FileDownloadTask.TaskSnapshot>
         while (success && (count = fillBuffer(stream, data)) != -1) {
           output.write(data, 0, count);
           mBytesDownloaded += count;
+          if (mScheduledAdaptively) {
+            StorageTaskScheduler.getInstance().recordDownloadedBytes(count);
+          }
 
           if (mException != null) {
             Log.d(TAG, "Exception occurred during file download. Retrying.", mException);
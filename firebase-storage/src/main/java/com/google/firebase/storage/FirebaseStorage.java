@@ -55,6 +55,7 @@ public class FirebaseStorage {
   private long sMaxUploadRetry = 10 * DateUtils.MINUTE_IN_MILLIS; //  10 * 60 * 1000
   private long sMaxDownloadRetry = 10 * DateUtils.MINUTE_IN_MILLIS; //  10 * 60 * 1000
   private long sMaxQueryRetry = 2 * DateUtils.MINUTE_IN_MILLIS; //  2 * 60 * 1000
+  private volatile boolean adaptiveTransferScheduling;
 
   @Nullable private EmulatedServiceSettings emulatorSettings;
 
@@ -226,6 +227,29 @@ public class FirebaseStorage {
     sMaxUploadRetry = maxTransferRetryMillis;
   }
 
+  /**
+   * Returns whether uploads and downloads are scheduled adaptively.
+   *
+   * @return whether adaptive scheduling is enabled. Defaults to false.
+   */
+  public boolean isAdaptiveTransferSchedulingEnabled() {
+    return adaptiveTransferScheduling;
+  }
+
+  /**
+   * Sets whether uploads and downloads are scheduled adaptively.
+   *
+   * <p>When enabled, the number of transfers that run at once follows the throughput that they
+   * achieve together, and the size of all running transfers is capped. When disabled, transfers
+   * run on pools of a fixed size. Only transfers that are started or resumed afterwards are
+   * affected.
+   *
+   * @param enabled whether to enable adaptive scheduling. Defaults to false.
+   */
+  public void setAdaptiveTransferSchedulingEnabled(boolean enabled) {
+    adaptiveTransferScheduling = enabled;
+  }
+
   /**
    * Returns the maximum time to retry operations other than upload and download if a failure
    * occurs.
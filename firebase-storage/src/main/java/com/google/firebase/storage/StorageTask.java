@@ -41,6 +41,15 @@ import java.util.concurrent.Executor;
 @SuppressWarnings({"unused", "TypeParameterUnusedInFormals"})
 public abstract class StorageTask<ResultT extends StorageTask.ProvideError>
     extends ControllableTask<ResultT> {
+  /** The priority of transfers that should start after other pending transfers. */
+  public static final int PRIORITY_LOW = -1;
+
+  /** The default priority of transfers. */
+  public static final int PRIORITY_NORMAL = 0;
+
+  /** The priority of transfers that should start before other pending transfers. */
+  public static final int PRIORITY_HIGH = 1;
+
   private static final String TAG = "StorageTask";
   static final int INTERNAL_STATE_NOT_STARTED = 1;
   static final int INTERNAL_STATE_QUEUED = 2;
@@ -162,6 +171,7 @@ public abstract class StorageTask<ResultT extends StorageTask.ProvideError>
       new TaskListenerImpl<>(this, STATES_PAUSED, OnPausedListener::onPaused);
 
   private volatile int currentState;
+  private volatile int priority = PRIORITY_NORMAL;
   private ResultT finalResult;
 
   protected StorageTask() {
@@ -210,6 +220,33 @@ public abstract class StorageTask<ResultT extends StorageTask.ProvideError>
     return false;
   }
 
+  /**
+   * Returns the priority of this transfer.
+   *
+   * @return the priority set by {@link #setPriority}, or {@link #PRIORITY_NORMAL} by default.
+   */
+  public int getPriority() {
+    return priority;
+  }
+
+  /**
+   * Sets the priority of this transfer. If adaptive transfer scheduling is enabled with {@link
+   * FirebaseStorage#setAdaptiveTransferSchedulingEnabled}, pending transfers with a higher priority
+   * start before those with a lower priority, and transfers of the same priority start in the order
+   * in which they were started or resumed. Transfers that are already running are not affected.
+   * Without adaptive transfer scheduling, the priority is ignored.
+   *
+   * @param priority the priority, such as {@link #PRIORITY_LOW}, {@link #PRIORITY_NORMAL} or {@link
+   *     #PRIORITY_HIGH}.
+   * @return this task.
+   */
+  @NonNull
+  public StorageTask<ResultT> setPriority(int priority) {
+    this.priority = priority;
+    StorageTaskScheduler.getInstance().onTransferPriorityChanged();
+    return this;
+  }
+
   /**
    * Attempts to pause the task. A paused task can later be resumed.
    *
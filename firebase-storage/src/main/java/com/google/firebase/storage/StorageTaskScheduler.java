@@ -16,6 +16,7 @@ package com.google.firebase.storage;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.RestrictTo;
+import com.google.android.gms.common.util.DefaultClock;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -35,6 +36,18 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class StorageTaskScheduler {
   public static StorageTaskScheduler sInstance = new StorageTaskScheduler();
 
+  /** The maximum number of bytes that adaptively scheduled transfers may have in flight. */
+  private static final long MAX_IN_FLIGHT_BYTES = 32 * 1024 * 1024;
+
+  /**
+   * The number of bytes that an adaptively scheduled transfer of unknown size counts against {@link
+   * #MAX_IN_FLIGHT_BYTES}. Up to four such transfers run at once, one more than the fixed download
+   * pool.
+   */
+  private static final long UNKNOWN_SIZE_BYTES = MAX_IN_FLIGHT_BYTES / 4;
+
+  private static final long ADAPTIVE_SAMPLE_WINDOW_MS = 2000;
+
   private static BlockingQueue<Runnable> mCommandQueue = new LinkedBlockingQueue<>();
   private static final ThreadPoolExecutor COMMAND_POOL_EXECUTOR =
       new ThreadPoolExecutor(
@@ -55,11 +68,51 @@ public class StorageTaskScheduler {
       new ThreadPoolExecutor(
           1, 1, 5, TimeUnit.SECONDS, mCallbackQueue, new StorageThreadFactory("Callbacks-"));
 
+  private static final ThreadPoolExecutor ADAPTIVE_UPLOAD_EXECUTOR =
+      new ThreadPoolExecutor(
+          4,
+          4,
+          5,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          new StorageThreadFactory("AdaptiveUpload-"));
+
+  private static final ThreadPoolExecutor ADAPTIVE_DOWNLOAD_EXECUTOR =
+      new ThreadPoolExecutor(
+          6,
+          6,
+          5,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          new StorageThreadFactory("AdaptiveDownload-"));
+
+  private static final AdaptiveTaskExecutor ADAPTIVE_UPLOAD_SCHEDULER =
+      new AdaptiveTaskExecutor(
+          ADAPTIVE_UPLOAD_EXECUTOR,
+          DefaultClock.getInstance(),
+          /* minConcurrency= */ 1,
+          ADAPTIVE_UPLOAD_EXECUTOR.getMaximumPoolSize(),
+          MAX_IN_FLIGHT_BYTES,
+          UNKNOWN_SIZE_BYTES,
+          ADAPTIVE_SAMPLE_WINDOW_MS);
+
+  private static final AdaptiveTaskExecutor ADAPTIVE_DOWNLOAD_SCHEDULER =
+      new AdaptiveTaskExecutor(
+          ADAPTIVE_DOWNLOAD_EXECUTOR,
+          DefaultClock.getInstance(),
+          /* minConcurrency= */ 1,
+          ADAPTIVE_DOWNLOAD_EXECUTOR.getMaximumPoolSize(),
+          MAX_IN_FLIGHT_BYTES,
+          UNKNOWN_SIZE_BYTES,
+          ADAPTIVE_SAMPLE_WINDOW_MS);
+
   static {
     COMMAND_POOL_EXECUTOR.allowCoreThreadTimeOut(true);
     UPLOAD_QUEUE_EXECUTOR.allowCoreThreadTimeOut(true);
     DOWNLOAD_QUEUE_EXECUTOR.allowCoreThreadTimeOut(true);
     CALLBACK_QUEUE_EXECUTOR.allowCoreThreadTimeOut(true);
+    ADAPTIVE_UPLOAD_EXECUTOR.allowCoreThreadTimeOut(true);
+    ADAPTIVE_DOWNLOAD_EXECUTOR.allowCoreThreadTimeOut(true);
   }
 
   public static StorageTaskScheduler getInstance() {
@@ -74,10 +127,49 @@ public class StorageTaskScheduler {
     UPLOAD_QUEUE_EXECUTOR.execute(task);
   }
 
+  /**
+   * Schedules an upload whose concurrency adapts to the observed throughput. The upload reports
+   * the bytes it sends through {@link #recordUploadedBytes}.
+   *
+   * @param owner The upload, whose {@link StorageTask#getPriority} orders it among pending uploads.
+   * @param expectedBytes The number of bytes left to upload, or -1 if unknown.
+   */
+  public void scheduleAdaptiveUpload(Runnable task, StorageTask<?> owner, long expectedBytes) {
+    ADAPTIVE_UPLOAD_SCHEDULER.execute(task, owner::getPriority, expectedBytes);
+  }
+
+  /** Records bytes that an adaptively scheduled upload has sent. */
+  public void recordUploadedBytes(long bytes) {
+    ADAPTIVE_UPLOAD_SCHEDULER.recordTransferredBytes(bytes);
+  }
+
   public void scheduleDownload(Runnable task) {
     DOWNLOAD_QUEUE_EXECUTOR.execute(task);
   }
 
+  /**
+   * Schedules a download whose concurrency adapts to the observed throughput. The download reports
+   * the bytes it receives through {@link #recordDownloadedBytes}.
+   *
+   * @param owner The download, whose {@link StorageTask#getPriority} orders it among pending
+   *     downloads.
+   * @param expectedBytes The number of bytes left to download, or -1 if unknown.
+   */
+  public void scheduleAdaptiveDownload(Runnable task, StorageTask<?> owner, long expectedBytes) {
+    ADAPTIVE_DOWNLOAD_SCHEDULER.execute(task, owner::getPriority, expectedBytes);
+  }
+
+  /** Records bytes that an adaptively scheduled download has received. */
+  public void recordDownloadedBytes(long bytes) {
+    ADAPTIVE_DOWNLOAD_SCHEDULER.recordTransferredBytes(bytes);
+  }
+
+  /** Starts pending adaptively scheduled transfers after the priority of a transfer changed. */
+  public void onTransferPriorityChanged() {
+    ADAPTIVE_UPLOAD_SCHEDULER.onPriorityChanged();
+    ADAPTIVE_DOWNLOAD_SCHEDULER.onPriorityChanged();
+  }
+
   public void scheduleCallback(Runnable task) {
     CALLBACK_QUEUE_EXECUTOR.execute(task);
   }
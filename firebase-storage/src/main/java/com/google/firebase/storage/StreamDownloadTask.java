@@ -45,6 +45,7 @@ public class StreamDownloadTask extends StorageTask<StreamDownloadTask.TaskSnaps
   private long totalBytes = -1;
   private long bytesDownloaded;
   private long bytesDownloadedSnapped;
+  private volatile boolean scheduledAdaptively;
   private InputStream inputStream;
   private NetworkRequest request;
   private String eTagVerification;
@@ -93,6 +94,9 @@ public class StreamDownloadTask extends StorageTask<StreamDownloadTask.TaskSnaps
 
   void recordDownloadedBytes(long bytesDownloaded) {
     this.bytesDownloaded += bytesDownloaded;
+    if (scheduledAdaptively) {
+      StorageTaskScheduler.getInstance().recordDownloadedBytes(bytesDownloaded);
+    }
     if (bytesDownloadedSnapped + PREFERRED_CHUNK_SIZE <= this.bytesDownloaded) {
       if (getInternalState() == INTERNAL_STATE_IN_PROGRESS) {
         tryChangeState(INTERNAL_STATE_IN_PROGRESS, false);
@@ -106,7 +110,16 @@ public class StreamDownloadTask extends StorageTask<StreamDownloadTask.TaskSnaps
   @SuppressWarnings("JavaDoc")
   @Override
   protected void schedule() {
-    StorageTaskScheduler.getInstance().scheduleDownload(getRunnable());
+    scheduledAdaptively = storageRef.getStorage().isAdaptiveTransferSchedulingEnabled();
+    if (scheduledAdaptively) {
+      // The size is only known when resuming a download that has already received a response.
+      // Otherwise, the scheduler counts the download with a default size.
+      long remainingBytes = totalBytes == -1 ? -1 : Math.max(0, totalBytes - bytesDownloaded);
+      StorageTaskScheduler.getInstance()
+          .scheduleAdaptiveDownload(getRunnable(), this, remainingBytes);
+    } else {
+      StorageTaskScheduler.getInstance().scheduleDownload(getRunnable());
+    }
   }
 
   @SuppressWarnings({"JavaDoc", "ThrowableResultOfMethodCallIgnored"})
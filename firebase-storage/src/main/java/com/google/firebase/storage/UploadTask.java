@@ -61,6 +61,7 @@ public class UploadTask extends StorageTask<UploadTask.TaskSnapshot> {
   private final AdaptiveStreamBuffer mStreamBuffer;
   // Active, current mutable state.
   private final AtomicLong mBytesUploaded = new AtomicLong(0);
+  private volatile boolean mScheduledAdaptively;
   @Nullable private final InternalAuthProvider mAuthProvider;
   @Nullable private final InternalAppCheckTokenProvider mAppCheckProvider;
   private int mCurrentChunkSize = PREFERRED_CHUNK_SIZE;
@@ -195,7 +196,15 @@ public class UploadTask extends StorageTask<UploadTask.TaskSnapshot> {
 
   @Override
   protected void schedule() {
-    StorageTaskScheduler.getInstance().scheduleUpload(getRunnable());
+    mScheduledAdaptively = mStorageRef.getStorage().isAdaptiveTransferSchedulingEnabled();
+    if (mScheduledAdaptively) {
+      long remainingBytes =
+          mTotalByteCount == -1 ? -1 : Math.max(0, mTotalByteCount - mBytesUploaded.get());
+      StorageTaskScheduler.getInstance()
+          .scheduleAdaptiveUpload(getRunnable(), this, remainingBytes);
+    } else {
+      StorageTaskScheduler.getInstance().scheduleUpload(getRunnable());
+    }
   }
 
   /** @hide */
@@ -432,6 +441,9 @@ public class UploadTask extends StorageTask<UploadTask.TaskSnapshot> {
       }
 
       mBytesUploaded.getAndAdd(bytesToUpload);
+      if (mScheduledAdaptively) {
+        StorageTaskScheduler.getInstance().recordUploadedBytes(bytesToUpload);
+      }
 
       if (!mStreamBuffer.isFinished()) {
         mStreamBuffer.advance(bytesToUpload);
@@ -0,0 +1,204 @@
+// Copyright 2022 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.firebase.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.firebase.storage.internal.MockClockHelper;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/** Tests for {@link AdaptiveTaskExecutor}. */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class AdaptiveTaskExecutorTest {
+
+  /** Collects started tasks so that the test controls when they finish. */
+  private static class ManualExecutor implements Executor {
+    final List<Runnable> started = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable command) {
+      started.add(command);
+    }
+
+    void finishFirst() {
+      started.remove(0).run();
+    }
+  }
+
+  private final ManualExecutor threadPool = new ManualExecutor();
+  private final MockClockHelper clock = new MockClockHelper();
+  private final List<String> order = new ArrayList<>();
+
+  private Runnable task(String name) {
+    return () -> order.add(name);
+  }
+
+  @Test
+  public void startsTasksInOrder() {
+    AdaptiveTaskExecutor executor =
+        new AdaptiveTaskExecutor(threadPool, clock, 1, 1, Long.MAX_VALUE, 0, Long.MAX_VALUE);
+
+    executor.execute(task("first"), 10);
+    executor.execute(task("second"), 10);
+    executor.execute(task("third"), AdaptiveTaskExecutor.UNKNOWN_SIZE);
+
+    while (!threadPool.started.isEmpty()) {
+      threadPool.finishFirst();
+    }
+
+    assertEquals(Arrays.asList("first", "second", "third"), order);
+  }
+
+  @Test
+  public void capsInFlightBytes() {
+    AdaptiveTaskExecutor executor =
+        new AdaptiveTaskExecutor(threadPool, clock, 4, 4, 100, 0, Long.MAX_VALUE);
+
+    executor.execute(task("a"), 60);
+    executor.execute(task("b"), 30);
+    executor.execute(task("c"), 30);
+    executor.execute(task("d"), AdaptiveTaskExecutor.UNKNOWN_SIZE);
+
+    assertEquals(2, executor.getRunningTaskCount());
+
+    threadPool.finishFirst();
+
+    assertEquals(3, executor.getRunningTaskCount());
+  }
+
+  @Test
+  public void countsTasksOfUnknownSizeWithDefaultSize() {
+    AdaptiveTaskExecutor executor =
+        new AdaptiveTaskExecutor(threadPool, clock, 4, 4, 100, 40, Long.MAX_VALUE);
+
+    executor.execute(task("a"), AdaptiveTaskExecutor.UNKNOWN_SIZE);
+    executor.execute(task("b"), AdaptiveTaskExecutor.UNKNOWN_SIZE);
+    executor.execute(task("c"), AdaptiveTaskExecutor.UNKNOWN_SIZE);
+
+    assertEquals(2, executor.getRunningTaskCount());
+
+    threadPool.finishFirst();
+
+    assertEquals(2, executor.getRunningTaskCount());
+  }
+
+  @Test
+  public void startsTasksByPriority() {
+    AdaptiveTaskExecutor executor =
+        new AdaptiveTaskExecutor(threadPool, clock, 1, 1, Long.MAX_VALUE, 0, Long.MAX_VALUE);
+
+    executor.execute(task("running"), () -> StorageTask.PRIORITY_LOW, 10);
+    executor.execute(task("low"), () -> StorageTask.PRIORITY_LOW, 10);
+    executor.execute(task("normal1"), () -> StorageTask.PRIORITY_NORMAL, 10);
+    executor.execute(task("high"), () -> StorageTask.PRIORITY_HIGH, 10);
+    executor.execute(task("normal2"), () -> StorageTask.PRIORITY_NORMAL, 10);
+
+    while (!threadPool.started.isEmpty()) {
+      threadPool.finishFirst();
+    }
+
+    assertEquals(Arrays.asList("running", "high", "normal1", "normal2", "low"), order);
+  }
+
+  @Test
+  public void usesChangedPriorityOfPendingTasks() {
+    AdaptiveTaskExecutor executor =
+        new AdaptiveTaskExecutor(threadPool, clock, 1, 1, Long.MAX_VALUE, 0, Long.MAX_VALUE);
+    int[] lastPriority = {StorageTask.PRIORITY_NORMAL};
+
+    executor.execute(task("running"), 10);
+    executor.execute(task("first"), 10);
+    executor.execute(task("last"), () -> lastPriority[0], 10);
+    lastPriority[0] = StorageTask.PRIORITY_HIGH;
+    executor.onPriorityChanged();
+
+    while (!threadPool.started.isEmpty()) {
+      threadPool.finishFirst();
+    }
+
+    assertEquals(Arrays.asList("running", "last", "first"), order);
+  }
+
+  @Test
+  public void largeTaskIsNotStarvedBySmallTasks() {
+    AdaptiveTaskExecutor executor =
+        new AdaptiveTaskExecutor(threadPool, clock, 4, 4, 100, 0, Long.MAX_VALUE);
+
+    executor.execute(task("small1"), 10);
+    executor.execute(task("large"), 500);
+    executor.execute(task("small2"), 10);
+
+    // The large task exceeds the cap and waits until nothing else runs, without being overtaken.
+    assertEquals(1, executor.getRunningTaskCount());
+    threadPool.finishFirst();
+    assertEquals(1, executor.getRunningTaskCount());
+    threadPool.finishFirst();
+    threadPool.finishFirst();
+
+    assertEquals(Arrays.asList("small1", "large", "small2"), order);
+  }
+
+  @Test
+  public void increasesConcurrencyWhileThroughputImproves() {
+    AdaptiveTaskExecutor executor =
+        new AdaptiveTaskExecutor(threadPool, clock, 1, 3, Long.MAX_VALUE, 0, 100);
+    for (int i = 0; i < 20; i++) {
+      executor.execute(task("t" + i), AdaptiveTaskExecutor.UNKNOWN_SIZE);
+    }
+
+    assertEquals(1, executor.getTargetConcurrency());
+    clock.advance(100);
+    executor.recordTransferredBytes(1000);
+    assertEquals(2, executor.getTargetConcurrency());
+    assertEquals(2, executor.getRunningTaskCount());
+
+    // Twice the bytes in the same time.
+    clock.advance(50);
+    executor.recordTransferredBytes(1000);
+    clock.advance(50);
+    executor.recordTransferredBytes(1000);
+    assertEquals(3, executor.getTargetConcurrency());
+
+    // Throughput collapses, so concurrency is reduced again.
+    clock.advance(1000);
+    executor.recordTransferredBytes(1000);
+    assertEquals(2, executor.getTargetConcurrency());
+  }
+
+  @Test
+  public void keepsConcurrencyWhenNothingIsTransferred() {
+    AdaptiveTaskExecutor executor =
+        new AdaptiveTaskExecutor(threadPool, clock, 1, 3, Long.MAX_VALUE, 0, 100);
+    for (int i = 0; i < 20; i++) {
+      executor.execute(task("t" + i), 1000);
+    }
+
+    // Finished transfers only count with the bytes they reported, not their expected size.
+    for (int i = 0; i < 5; i++) {
+      clock.advance(100);
+      threadPool.finishFirst();
+    }
+
+    assertEquals(1, executor.getTargetConcurrency());
+  }
+}
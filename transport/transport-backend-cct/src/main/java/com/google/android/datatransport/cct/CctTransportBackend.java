@@ -246,7 +246,7 @@ final class CctTransportBackend implements TransportBackend {
 
         LogEvent.Builder event;
         if (encoding.equals(Encoding.of("proto"))) {
-          event = LogEvent.protoBuilder(encodedPayload.getBytes());
+          event = LogEvent.protoBuilder(encodedPayload);
         } else if (encoding.equals(Encoding.of("json"))) {
           event =
               LogEvent.jsonBuilder(new String(encodedPayload.getBytes(), Charset.forName("UTF-8")));
@@ -15,15 +15,31 @@
 package com.google.android.datatransport.cct.internal;
 
 import androidx.annotation.NonNull;
+import com.google.android.datatransport.runtime.EncodedPayload;
 import com.google.auto.value.AutoValue;
 import com.google.firebase.encoders.DataEncoder;
+import com.google.firebase.encoders.ValueEncoder;
 import com.google.firebase.encoders.annotations.Encodable;
 import com.google.firebase.encoders.json.JsonDataEncoderBuilder;
+import java.io.IOException;
 import java.util.List;
 
 @AutoValue
 @Encodable
 public abstract class BatchedLogRequest {
+  /**
+   * Encodes a payload as its base64 bytes, like a {@code byte[]}. The bytes are read when the
+   * payload is encoded, so that a request holds at most one payload in memory at a time.
+   */
+  private static final ValueEncoder<EncodedPayload> PAYLOAD_ENCODER =
+      (payload, context) -> {
+        try {
+          context.add(payload.getBytes());
+        } catch (IllegalStateException e) {
+          throw new IOException("Could not read payload", e);
+        }
+      };
+
   @NonNull
   @Encodable.Field(name = "logRequest")
   public abstract List<LogRequest> getLogRequests();
@@ -37,6 +53,7 @@ public abstract class BatchedLogRequest {
   public static DataEncoder createDataEncoder() {
     return new JsonDataEncoderBuilder()
         .configureWith(AutoBatchedLogRequestEncoder.CONFIG)
+        .registerEncoder(EncodedPayload.class, PAYLOAD_ENCODER)
         .ignoreNullValues(true)
         .build();
   }
@@ -16,6 +16,8 @@ package com.google.android.datatransport.cct.internal;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import com.google.android.datatransport.Encoding;
+import com.google.android.datatransport.runtime.EncodedPayload;
 import com.google.auto.value.AutoValue;
 
 @AutoValue
@@ -28,9 +30,12 @@ public abstract class LogEvent {
 
   public abstract long getEventUptimeMs();
 
-  @SuppressWarnings("mutable")
+  /**
+   * The proto payload of the event. Its bytes are only read when the event is encoded, see {@link
+   * BatchedLogRequest#createDataEncoder()}.
+   */
   @Nullable
-  public abstract byte[] getSourceExtension();
+  public abstract EncodedPayload getSourceExtension();
 
   @SuppressWarnings("mutable")
   @Nullable
@@ -43,6 +48,11 @@ public abstract class LogEvent {
 
   @NonNull
   public static Builder protoBuilder(@NonNull byte[] sourceExtension) {
+    return protoBuilder(new EncodedPayload(Encoding.of("proto"), sourceExtension));
+  }
+
+  @NonNull
+  public static Builder protoBuilder(@NonNull EncodedPayload sourceExtension) {
     return builder().setSourceExtension(sourceExtension);
   }
 
@@ -67,7 +77,7 @@ public abstract class LogEvent {
     public abstract Builder setEventUptimeMs(long value);
 
     @NonNull
-    abstract Builder setSourceExtension(@Nullable byte[] value);
+    abstract Builder setSourceExtension(@Nullable EncodedPayload value);
 
     @NonNull
     abstract Builder setSourceExtensionJsonProto3(@Nullable String value);
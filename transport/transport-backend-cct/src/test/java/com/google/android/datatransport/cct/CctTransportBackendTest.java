@@ -44,11 +44,13 @@ import com.google.android.datatransport.runtime.backends.BackendRequest;
 import com.google.android.datatransport.runtime.backends.BackendResponse;
 import com.google.android.datatransport.runtime.time.TestClock;
 import com.google.protobuf.ByteString;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Locale;
 import java.util.zip.GZIPOutputStream;
 import org.junit.Rule;
@@ -656,6 +658,55 @@ public class CctTransportBackendTest {
     assertEquals(BackendResponse.ok(3), response);
   }
 
+  @Test
+  public void send_withSourcePayload_shouldReadItForEveryAttempt() {
+    stubFor(
+        post(urlEqualTo("/api"))
+            .willReturn(
+                aResponse().withStatus(302).withHeader("Location", TEST_ENDPOINT + "/hello")));
+    stubFor(
+        post(urlEqualTo("/api/hello"))
+            .willReturn(
+                aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json;charset=UTF8;hello=world")
+                    .withBody("{\"nextRequestWaitMillis\":3}")));
+    int[] openCount = new int[1];
+    BackendRequest backendRequest =
+        BackendRequest.builder()
+            .setEvents(
+                Collections.singletonList(
+                    BACKEND.decorate(
+                        EventInternal.builder()
+                            .setEventMillis(INITIAL_WALL_TIME)
+                            .setUptimeMillis(INITIAL_UPTIME)
+                            .setTransportName(CCT_TRANSPORT_NAME)
+                            .setEncodedPayload(
+                                new EncodedPayload(
+                                    PROTOBUF_ENCODING,
+                                    () -> {
+                                      openCount[0]++;
+                                      return new ByteArrayInputStream(PAYLOAD.toByteArray());
+                                    }))
+                            .build())))
+            .setExtras(new CCTDestination(TEST_ENDPOINT, null).getExtras())
+            .build();
+
+    BackendResponse response = BACKEND.send(backendRequest);
+
+    for (String url : Arrays.asList("/api", "/api/hello")) {
+      verify(
+          postRequestedFor(urlEqualTo(url))
+              .withRequestBody(
+                  matchingJsonPath(
+                      String.format(
+                          "$[?(@.logRequest[0].logEvent[0].sourceExtension == \"%s\")]",
+                          PAYLOAD_BYTE64))));
+    }
+    assertThat(openCount[0]).isEqualTo(2);
+    assertEquals(BackendResponse.ok(3), response);
+  }
+
   @Test
   public void send_withEventsOfUnsupportedEncoding_shouldBeSkipped() throws IOException {
     stubFor(
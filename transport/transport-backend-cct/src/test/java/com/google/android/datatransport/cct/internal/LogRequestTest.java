@@ -79,7 +79,7 @@ public class LogRequestTest {
             .setTimezoneOffsetSeconds(29L)
             .build();
     assertThat(event.getSourceExtensionJsonProto3()).isNull();
-    assertThat(event.getSourceExtension()).isEqualTo(sourceExtension);
+    assertThat(event.getSourceExtension().getBytes()).isEqualTo(sourceExtension);
   }
 
   @Test
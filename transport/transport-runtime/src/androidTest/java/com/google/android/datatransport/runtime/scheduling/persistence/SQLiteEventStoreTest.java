@@ -17,6 +17,7 @@ package com.google.android.datatransport.runtime.scheduling.persistence;
 import static com.google.android.datatransport.runtime.scheduling.persistence.SQLiteEventStore.tryWithCursor;
 import static com.google.android.datatransport.runtime.scheduling.persistence.SchemaManager.SCHEMA_VERSION;
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
 
 import android.database.DatabaseUtils;
 import androidx.test.core.app.ApplicationProvider;
@@ -34,10 +35,15 @@ import com.google.android.datatransport.runtime.time.TestClock;
 import com.google.android.datatransport.runtime.time.UptimeClock;
 import com.google.common.truth.Correspondence;
 import dagger.Lazy;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import org.junit.Test;
@@ -142,15 +148,48 @@ public class SQLiteEventStoreTest {
   }
 
   @Test
-  public void persist_withNonInlineBlob_correctlyRoundTrips() {
+  public void persistAll_correctlyRoundTrips() throws IOException {
+    byte[] payload = "LongerThanSixBytes".getBytes(Charset.defaultCharset());
+    EventInternal nonInlineEvent =
+        EVENT.toBuilder().setEncodedPayload(new EncodedPayload(JSON_ENCODING, payload)).build();
+    EventInternal eventWithCode = EVENT.toBuilder().setCode(123).build();
+
+    List<PersistedEvent> newEvents =
+        store.persistAll(TRANSPORT_CONTEXT, Arrays.asList(EVENT, nonInlineEvent, eventWithCode));
+    List<PersistedEvent> events = toList(store.loadBatch(TRANSPORT_CONTEXT));
+
+    assertThat(newEvents).hasSize(3);
+    assertThat(newEvents.get(0).getEvent()).isEqualTo(EVENT);
+    assertThat(newEvents.get(1).getEvent()).isEqualTo(nonInlineEvent);
+    assertThat(newEvents.get(2).getEvent()).isEqualTo(eventWithCode);
+    assertThat(events).hasSize(3);
+    assertThat(events.get(0)).isEqualTo(newEvents.get(0));
+    assertLoadedEquals(events.get(1), newEvents.get(1));
+    assertThat(events.get(2)).isEqualTo(newEvents.get(2));
+  }
+
+  @Test
+  public void persistAll_afterClearDb_recreatesTransportContext() {
+    store.persist(TRANSPORT_CONTEXT, EVENT);
+    store.clearDb();
+
+    PersistedEvent newEvent = store.persist(TRANSPORT_CONTEXT, EVENT);
+
+    assertThat(store.loadActiveContexts()).containsExactly(TRANSPORT_CONTEXT);
+    assertThat(store.loadBatch(TRANSPORT_CONTEXT)).containsExactly(newEvent);
+  }
+
+  @Test
+  public void persist_withNonInlineBlob_correctlyRoundTrips() throws IOException {
     byte[] payload = "LongerThanSixBytes".getBytes(Charset.defaultCharset());
     EventInternal event =
         EVENT.toBuilder().setEncodedPayload(new EncodedPayload(JSON_ENCODING, payload)).build();
     PersistedEvent newEvent = store.persist(TRANSPORT_CONTEXT, event);
-    Iterable<PersistedEvent> events = store.loadBatch(TRANSPORT_CONTEXT);
+    List<PersistedEvent> events = toList(store.loadBatch(TRANSPORT_CONTEXT));
 
     assertThat(newEvent.getEvent()).isEqualTo(event);
-    assertThat(events).containsExactly(newEvent);
+    assertThat(events).hasSize(1);
+    assertLoadedEquals(events.get(0), newEvent);
   }
 
   @Test
@@ -473,6 +512,69 @@ public class SQLiteEventStoreTest {
     assertThat(store.loadBatch(TRANSPORT_CONTEXT)).hasSize(1);
   }
 
+  @Test
+  public void loadBatch_withNonInlineBlob_streamsPayloadChunks() throws IOException {
+    byte[] payload = "LongerThanSixBytes".getBytes(Charset.defaultCharset());
+    EventInternal event =
+        EVENT.toBuilder().setEncodedPayload(new EncodedPayload(JSON_ENCODING, payload)).build();
+    store.persist(TRANSPORT_CONTEXT, event);
+
+    EncodedPayload loadedPayload =
+        store.loadBatch(TRANSPORT_CONTEXT).iterator().next().getEvent().getEncodedPayload();
+
+    assertThat(readPayload(loadedPayload)).isEqualTo(payload);
+    assertThat(loadedPayload.getBytes()).isEqualTo(payload);
+  }
+
+  @Test
+  public void loadBatch_withNonInlineBlob_loadsEqualPayloadHandles() {
+    byte[] payload = "LongerThanSixBytes".getBytes(Charset.defaultCharset());
+    EventInternal event =
+        EVENT.toBuilder().setEncodedPayload(new EncodedPayload(JSON_ENCODING, payload)).build();
+    store.persist(TRANSPORT_CONTEXT, event);
+
+    assertThat(store.loadBatch(TRANSPORT_CONTEXT))
+        .containsExactlyElementsIn(store.loadBatch(TRANSPORT_CONTEXT));
+  }
+
+  @Test
+  public void loadBatch_withNonInlineBlob_whenEventIsDeletedWhileStreaming_shouldFail()
+      throws IOException {
+    byte[] payload = "LongerThanSixBytes".getBytes(Charset.defaultCharset());
+    EventInternal event =
+        EVENT.toBuilder().setEncodedPayload(new EncodedPayload(JSON_ENCODING, payload)).build();
+    store.persist(TRANSPORT_CONTEXT, event);
+    Iterable<PersistedEvent> events = store.loadBatch(TRANSPORT_CONTEXT);
+    EncodedPayload loadedPayload = events.iterator().next().getEvent().getEncodedPayload();
+
+    try (InputStream input = loadedPayload.openStream()) {
+      assertThat(input.read()).isEqualTo(payload[0] & 0xff);
+
+      store.recordSuccess(events);
+
+      byte[] rest = new byte[payload.length];
+      assertThrows(
+          IOException.class,
+          () -> {
+            while (input.read(rest) != -1) {}
+          });
+    }
+  }
+
+  @Test
+  public void loadBatch_withNonInlineBlob_whenEventIsDeletedBeforeUpload_shouldFailToStream() {
+    byte[] payload = "LongerThanSixBytes".getBytes(Charset.defaultCharset());
+    EventInternal event =
+        EVENT.toBuilder().setEncodedPayload(new EncodedPayload(JSON_ENCODING, payload)).build();
+    store.persist(TRANSPORT_CONTEXT, event);
+    Iterable<PersistedEvent> events = store.loadBatch(TRANSPORT_CONTEXT);
+    EncodedPayload loadedPayload = events.iterator().next().getEvent().getEncodedPayload();
+
+    store.recordSuccess(events);
+
+    assertThrows(IOException.class, () -> loadedPayload.openStream().read());
+  }
+
   @Test
   public void cleanUp_whenEventIsNotOld_shouldNotDeleteIt() {
     PersistedEvent persistedEvent = store.persist(TRANSPORT_CONTEXT, EVENT);
@@ -788,4 +890,36 @@ public class SQLiteEventStoreTest {
     }
     return actual.getLogSource().equals(expected.getLogSource());
   }
+
+  private static List<PersistedEvent> toList(Iterable<PersistedEvent> events) {
+    List<PersistedEvent> result = new ArrayList<>();
+    for (PersistedEvent event : events) {
+      result.add(event);
+    }
+    return result;
+  }
+
+  private static byte[] readPayload(EncodedPayload payload) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (InputStream input = payload.openStream()) {
+      byte[] buffer = new byte[4];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        output.write(buffer, 0, read);
+      }
+    }
+    return output.toByteArray();
+  }
+
+  /** Asserts that a loaded event with a chunked payload matches the event that was persisted. */
+  private static void assertLoadedEquals(PersistedEvent loaded, PersistedEvent persisted)
+      throws IOException {
+    EncodedPayload loadedPayload = loaded.getEvent().getEncodedPayload();
+    EncodedPayload persistedPayload = persisted.getEvent().getEncodedPayload();
+    assertThat(readPayload(loadedPayload)).isEqualTo(persistedPayload.getBytes());
+    assertThat(loaded.getId()).isEqualTo(persisted.getId());
+    assertThat(loaded.getTransportContext()).isEqualTo(persisted.getTransportContext());
+    assertThat(loaded.getEvent().toBuilder().setEncodedPayload(persistedPayload).build())
+        .isEqualTo(persisted.getEvent());
+  }
 }
@@ -15,20 +15,41 @@
 package com.google.android.datatransport.runtime;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import com.google.android.datatransport.Encoding;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
 
 /**
  * Represents encoded payloads.
  *
  * <p>It is essentially a pair of {@code (encoding, bytes)}, where {@code bytes} are encoded using
- * {@code encoding}.
+ * {@code encoding}. The bytes are either held in memory or referenced by a {@link Source}, so that
+ * large payloads can be streamed when they are uploaded without being loaded first.
  *
- * <p>Overrides {@link #equals(Object)} and {@link #hashCode()} to enable value semantics.
+ * <p>Overrides {@link #equals(Object)} and {@link #hashCode()} to enable value semantics. Payloads
+ * backed by a {@link Source} are compared by their source, so that comparing them never reads any
+ * bytes.
  */
 public final class EncodedPayload {
+  /**
+   * An immutable handle to the bytes of a payload that is not held in memory.
+   *
+   * <p>Implementations must override {@link Object#equals(Object)} and {@link Object#hashCode()}
+   * so that handles to the same bytes are equal.
+   */
+  public interface Source {
+    /** Opens a new stream over the payload bytes. */
+    @NonNull
+    InputStream open() throws IOException;
+  }
+
   private final Encoding encoding;
-  private final byte[] bytes;
+  @Nullable private final byte[] bytes;
+  @Nullable private final Source source;
 
   public EncodedPayload(@NonNull Encoding encoding, @NonNull byte[] bytes) {
     if (encoding == null) {
@@ -39,14 +60,62 @@ public final class EncodedPayload {
     }
     this.encoding = encoding;
     this.bytes = bytes;
+    this.source = null;
+  }
+
+  /** Creates a payload whose bytes are read from {@code source} whenever they are accessed. */
+  public EncodedPayload(@NonNull Encoding encoding, @NonNull Source source) {
+    if (encoding == null) {
+      throw new NullPointerException("encoding is null");
+    }
+    if (source == null) {
+      throw new NullPointerException("source is null");
+    }
+    this.encoding = encoding;
+    this.bytes = null;
+    this.source = source;
   }
 
   public Encoding getEncoding() {
     return encoding;
   }
 
+  /**
+   * Returns the payload bytes.
+   *
+   * <p>Payloads that are backed by a {@link Source} are read into memory on every call. Use {@link
+   * #openStream()} to read them without loading them at once.
+   *
+   * @throws IllegalStateException if the bytes of the {@link Source} cannot be read.
+   */
+  @NonNull
   public byte[] getBytes() {
-    return bytes;
+    if (bytes != null) {
+      return bytes;
+    }
+    try (InputStream input = source.open()) {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8 * 1024];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        output.write(buffer, 0, read);
+      }
+      return output.toByteArray();
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not read payload", e);
+    }
+  }
+
+  /**
+   * Opens a new stream over the payload bytes, without loading them into memory at once. The caller
+   * must close the stream.
+   */
+  @NonNull
+  public InputStream openStream() throws IOException {
+    if (bytes != null) {
+      return new ByteArrayInputStream(bytes);
+    }
+    return source.open();
   }
 
   @Override
@@ -57,6 +126,9 @@ public final class EncodedPayload {
     EncodedPayload that = (EncodedPayload) o;
 
     if (!encoding.equals(that.encoding)) return false;
+    if (source != null) {
+      return source.equals(that.source);
+    }
     return Arrays.equals(bytes, that.bytes);
   }
 
@@ -65,7 +137,7 @@ public final class EncodedPayload {
     int h = 1000003;
     h ^= encoding.hashCode();
     h *= 1000003;
-    h ^= Arrays.hashCode(bytes);
+    h ^= source != null ? source.hashCode() : Arrays.hashCode(bytes);
     return h;
   }
 
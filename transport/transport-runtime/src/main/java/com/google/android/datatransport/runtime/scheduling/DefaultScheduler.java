@@ -23,6 +23,12 @@ import com.google.android.datatransport.runtime.backends.TransportBackend;
 import com.google.android.datatransport.runtime.scheduling.jobscheduling.WorkScheduler;
 import com.google.android.datatransport.runtime.scheduling.persistence.EventStore;
 import com.google.android.datatransport.runtime.synchronization.SynchronizationGuard;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 import javax.inject.Inject;
@@ -39,6 +45,7 @@ public class DefaultScheduler implements Scheduler {
   private final BackendRegistry backendRegistry;
   private final EventStore eventStore;
   private final SynchronizationGuard guard;
+  private final Queue<PendingEvent> pendingEvents = new ConcurrentLinkedQueue<>();
 
   @Inject
   public DefaultScheduler(
@@ -57,38 +64,119 @@ public class DefaultScheduler implements Scheduler {
   /**
    * Schedules the events to be eventually sent to the backend.
    *
+   * <p>Events are persisted in groups: the events for the same transport context that were
+   * scheduled by the time the executor gets to them are stored in a single critical section, so
+   * bursts of events are committed together instead of one transaction per event. If storing a
+   * group fails, its events are stored one by one and each callback gets its own result.
+   *
    * @param transportContext The transport context with which the event needs to be sent.
    * @param event The event itself which needs to be logged with additional information.
    */
   @Override
   public void schedule(
       TransportContext transportContext, EventInternal event, TransportScheduleCallback callback) {
-    executor.execute(
-        () -> {
-          try {
-            TransportBackend transportBackend =
-                backendRegistry.get(transportContext.getBackendName());
-            if (transportBackend == null) {
-              String errorMsg =
-                  String.format(
-                      "Transport backend '%s' is not registered",
-                      transportContext.getBackendName());
-              LOGGER.warning(errorMsg);
-              callback.onSchedule(new IllegalArgumentException(errorMsg));
-              return;
-            }
-            EventInternal decoratedEvent = transportBackend.decorate(event);
-            guard.runCriticalSection(
-                () -> {
-                  eventStore.persist(transportContext, decoratedEvent);
-                  workScheduler.schedule(transportContext, 1);
-                  return null;
-                });
-            callback.onSchedule(null);
-          } catch (Exception e) {
-            LOGGER.warning("Error scheduling event " + e.getMessage());
-            callback.onSchedule(e);
-          }
-        });
+    pendingEvents.add(new PendingEvent(transportContext, event, callback));
+    executor.execute(this::persistPendingEvents);
+  }
+
+  private void persistPendingEvents() {
+    Map<TransportContext, List<PendingEvent>> eventsByContext = new LinkedHashMap<>();
+    PendingEvent pending;
+    while ((pending = pendingEvents.poll()) != null) {
+      try {
+        TransportBackend transportBackend =
+            backendRegistry.get(pending.transportContext.getBackendName());
+        if (transportBackend == null) {
+          String errorMsg =
+              String.format(
+                  "Transport backend '%s' is not registered",
+                  pending.transportContext.getBackendName());
+          LOGGER.warning(errorMsg);
+          pending.callback.onSchedule(new IllegalArgumentException(errorMsg));
+          continue;
+        }
+        pending.decoratedEvent = transportBackend.decorate(pending.event);
+      } catch (Exception e) {
+        LOGGER.warning("Error scheduling event " + e.getMessage());
+        pending.callback.onSchedule(e);
+        continue;
+      }
+      List<PendingEvent> contextEvents = eventsByContext.get(pending.transportContext);
+      if (contextEvents == null) {
+        contextEvents = new ArrayList<>();
+        eventsByContext.put(pending.transportContext, contextEvents);
+      }
+      contextEvents.add(pending);
+    }
+
+    for (Map.Entry<TransportContext, List<PendingEvent>> entry : eventsByContext.entrySet()) {
+      persistBatch(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Persists events for the same transport context in a single critical section. If that fails,
+   * each event is persisted on its own, so that a failure is only reported for the events it
+   * affects.
+   */
+  private void persistBatch(TransportContext transportContext, List<PendingEvent> batch) {
+    if (batch.size() == 1) {
+      persistEvent(batch.get(0));
+      return;
+    }
+    List<EventInternal> decoratedEvents = new ArrayList<>(batch.size());
+    for (PendingEvent pending : batch) {
+      decoratedEvents.add(pending.decoratedEvent);
+    }
+    try {
+      guard.runCriticalSection(
+          () -> {
+            eventStore.persistAll(transportContext, decoratedEvents);
+            workScheduler.schedule(transportContext, 1);
+            return null;
+          });
+    } catch (Exception e) {
+      LOGGER.warning("Error scheduling a batch of events, retrying one by one " + e.getMessage());
+      for (PendingEvent pending : batch) {
+        persistEvent(pending);
+      }
+      return;
+    }
+    for (PendingEvent pending : batch) {
+      pending.callback.onSchedule(null);
+    }
+  }
+
+  private void persistEvent(PendingEvent pending) {
+    try {
+      guard.runCriticalSection(
+          () -> {
+            eventStore.persist(pending.transportContext, pending.decoratedEvent);
+            workScheduler.schedule(pending.transportContext, 1);
+            return null;
+          });
+    } catch (Exception e) {
+      LOGGER.warning("Error scheduling event " + e.getMessage());
+      pending.callback.onSchedule(e);
+      return;
+    }
+    pending.callback.onSchedule(null);
+  }
+
+  /** An event that was scheduled but has not been persisted yet. */
+  private static final class PendingEvent {
+    final TransportContext transportContext;
+    final EventInternal event;
+    final TransportScheduleCallback callback;
+    EventInternal decoratedEvent;
+
+    PendingEvent(
+        TransportContext transportContext,
+        EventInternal event,
+        TransportScheduleCallback callback) {
+      this.transportContext = transportContext;
+      this.event = event;
+      this.callback = callback;
+    }
   }
 }
@@ -19,6 +19,7 @@ import androidx.annotation.WorkerThread;
 import com.google.android.datatransport.runtime.EventInternal;
 import com.google.android.datatransport.runtime.TransportContext;
 import java.io.Closeable;
+import java.util.List;
 
 /**
  * Persistence layer.
@@ -32,6 +33,14 @@ public interface EventStore extends Closeable {
   @Nullable
   PersistedEvent persist(TransportContext transportContext, EventInternal event);
 
+  /**
+   * Persist a batch of new events for the same backend in a single transaction.
+   *
+   * <p>Returns the events that were persisted, which may be fewer than the given events if the
+   * store is full.
+   */
+  List<PersistedEvent> persistAll(TransportContext transportContext, List<EventInternal> events);
+
   /** Communicate to the store that events have failed to get sent. */
   void recordFailure(Iterable<PersistedEvent> events);
 
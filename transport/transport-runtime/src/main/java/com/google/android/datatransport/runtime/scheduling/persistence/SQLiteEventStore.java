@@ -18,8 +18,11 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.os.SystemClock;
 import android.util.Base64;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RestrictTo;
 import androidx.annotation.VisibleForTesting;
@@ -42,8 +45,11 @@ import com.google.android.datatransport.runtime.time.Monotonic;
 import com.google.android.datatransport.runtime.time.WallTime;
 import com.google.android.datatransport.runtime.util.PriorityMapping;
 import dagger.Lazy;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -51,6 +57,7 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -68,12 +75,25 @@ public class SQLiteEventStore
   private static final int LOCK_RETRY_BACK_OFF_MILLIS = 50;
   private static final Encoding PROTOBUF_ENCODING = Encoding.of("proto");
 
+  /** Returned by {@link #readPayloadChunk} after the last chunk of a payload. */
+  private static final byte[] END_OF_PAYLOAD = new byte[0];
+
+  /** The maximum number of free pages returned to the file system at once. */
+  private static final int INCREMENTAL_VACUUM_PAGES = 64;
+
   private final SchemaManager schemaManager;
   private final Clock wallClock;
   private final Clock monotonicClock;
   private final EventStoreConfig config;
   private final Lazy<String> packageName;
 
+  /**
+   * Row ids of the transport contexts that were looked up or inserted, so that bursts of events for
+   * the same context don't query {@code transport_contexts} for every batch. Cleared whenever a
+   * transaction is rolled back, since the cached ids might refer to rows that were never committed.
+   */
+  private final Map<TransportContext, Long> transportContextIds = new ConcurrentHashMap<>();
+
   @Inject
   SQLiteEventStore(
       @WallTime Clock wallClock,
@@ -101,77 +121,163 @@ public class SQLiteEventStore
   @Override
   @Nullable
   public PersistedEvent persist(TransportContext transportContext, EventInternal event) {
+    List<PersistedEvent> persisted =
+        persistAll(transportContext, Collections.singletonList(event));
+    return persisted.isEmpty() ? null : persisted.get(0);
+  }
+
+  @Override
+  public List<PersistedEvent> persistAll(
+      TransportContext transportContext, List<EventInternal> events) {
+    if (events.isEmpty()) {
+      return Collections.emptyList();
+    }
     Logging.d(
         LOG_TAG,
-        "Storing event with priority=%s, name=%s for destination %s",
+        "Storing %d events with priority=%s for destination %s",
+        events.size(),
         transportContext.getPriority(),
-        event.getTransportName(),
         transportContext.getBackendName());
-    long newRowId =
-        inTransaction(
-            db -> {
-              // drop new events until old ones are uploaded and removed.
-              // TODO(vkryachko): come up with a more sophisticated algorithm for limiting disk
-              // space.
-              if (isStorageAtLimit()) {
-                recordLogEventDropped(
-                    1, LogEventDropped.Reason.CACHE_FULL, event.getTransportName());
-                return -1L;
-              }
-
-              long contextId = ensureTransportContext(db, transportContext);
-              int maxBlobSizePerRow = config.getMaxBlobByteSizePerRow();
-
-              byte[] payloadBytes = event.getEncodedPayload().getBytes();
-              boolean inline = payloadBytes.length <= maxBlobSizePerRow;
-              ContentValues values = new ContentValues();
-              values.put("context_id", contextId);
-              values.put("transport_name", event.getTransportName());
-              values.put("timestamp_ms", event.getEventMillis());
-              values.put("uptime_ms", event.getUptimeMillis());
-              values.put("payload_encoding", event.getEncodedPayload().getEncoding().getName());
-              values.put("code", event.getCode());
-              values.put("num_attempts", 0);
-              values.put("inline", inline);
-              values.put("payload", inline ? payloadBytes : new byte[0]);
-              long newEventId = db.insert("events", null, values);
-              if (!inline) {
-                int numChunks = (int) Math.ceil((double) payloadBytes.length / maxBlobSizePerRow);
-
-                for (int chunk = 1; chunk <= numChunks; chunk++) {
-                  byte[] chunkBytes =
-                      Arrays.copyOfRange(
-                          payloadBytes,
-                          (chunk - 1) * maxBlobSizePerRow,
-                          Math.min((chunk) * maxBlobSizePerRow, payloadBytes.length));
-                  ContentValues payloadValues = new ContentValues();
-                  payloadValues.put("event_id", newEventId);
-                  payloadValues.put("sequence_num", chunk);
-                  payloadValues.put("bytes", chunkBytes);
-                  db.insert("event_payloads", null, payloadValues);
-                }
-              }
-
-              // TODO: insert all with one sql query.
-              for (Map.Entry<String, String> entry : event.getMetadata().entrySet()) {
-                ContentValues metadata = new ContentValues();
-                metadata.put("event_id", newEventId);
-                metadata.put("name", entry.getKey());
-                metadata.put("value", entry.getValue());
-                db.insert("event_metadata", null, metadata);
-              }
-              return newEventId;
-            });
-
-    if (newRowId < 1) {
-      return null;
+    return inTransaction(
+        db -> {
+          // Drop new events until old ones are uploaded and removed. The limit is checked once per
+          // batch, so a batch may exceed it by its own size.
+          if (isStorageAtLimit()) {
+            Map<String, Integer> droppedByTransportName = new HashMap<>();
+            for (EventInternal event : events) {
+              Integer count = droppedByTransportName.get(event.getTransportName());
+              droppedByTransportName.put(event.getTransportName(), count == null ? 1 : count + 1);
+            }
+            for (Map.Entry<String, Integer> entry : droppedByTransportName.entrySet()) {
+              recordLogEventDropped(
+                  entry.getValue(), LogEventDropped.Reason.CACHE_FULL, entry.getKey());
+            }
+            return Collections.emptyList();
+          }
+
+          long contextId = ensureTransportContext(db, transportContext);
+          InsertStatements statements = new InsertStatements(db);
+          try {
+            List<PersistedEvent> persisted = new ArrayList<>(events.size());
+            for (EventInternal event : events) {
+              long newEventId = insertEvent(statements, contextId, event);
+              persisted.add(PersistedEvent.create(newEventId, transportContext, event));
+            }
+            return persisted;
+          } finally {
+            statements.close();
+          }
+        });
+  }
+
+  /**
+   * Returns up to {@link #INCREMENTAL_VACUUM_PAGES} free pages to the file system. This is a no-op
+   * unless the database was created with incremental auto-vacuum.
+   */
+  private void reclaimFreePages(SQLiteDatabase db) {
+    tryWithCursor(
+        db.rawQuery("PRAGMA incremental_vacuum(" + INCREMENTAL_VACUUM_PAGES + ")", null),
+        cursor -> {
+          // The pages are freed while the statement is stepped through.
+          while (cursor.moveToNext()) {}
+          return null;
+        });
+  }
+
+  private long insertEvent(InsertStatements statements, long contextId, EventInternal event) {
+    Logging.d(
+        LOG_TAG,
+        "Storing event with name=%s for context %d",
+        event.getTransportName(),
+        contextId);
+    int maxBlobSizePerRow = config.getMaxBlobByteSizePerRow();
+
+    byte[] payloadBytes = event.getEncodedPayload().getBytes();
+    boolean inline = payloadBytes.length <= maxBlobSizePerRow;
+    SQLiteStatement insertEvent = statements.insertEvent;
+    insertEvent.clearBindings();
+    insertEvent.bindLong(1, contextId);
+    insertEvent.bindString(2, event.getTransportName());
+    insertEvent.bindLong(3, event.getEventMillis());
+    insertEvent.bindLong(4, event.getUptimeMillis());
+    insertEvent.bindString(5, event.getEncodedPayload().getEncoding().getName());
+    if (event.getCode() != null) {
+      insertEvent.bindLong(6, event.getCode());
+    } else {
+      insertEvent.bindNull(6);
+    }
+    insertEvent.bindLong(7, inline ? 1 : 0);
+    insertEvent.bindBlob(8, inline ? payloadBytes : new byte[0]);
+    long newEventId = insertEvent.executeInsert();
+
+    if (!inline) {
+      int numChunks = (int) Math.ceil((double) payloadBytes.length / maxBlobSizePerRow);
+
+      SQLiteStatement insertPayload = statements.insertPayload;
+      for (int chunk = 1; chunk <= numChunks; chunk++) {
+        byte[] chunkBytes =
+            Arrays.copyOfRange(
+                payloadBytes,
+                (chunk - 1) * maxBlobSizePerRow,
+                Math.min((chunk) * maxBlobSizePerRow, payloadBytes.length));
+        insertPayload.bindLong(1, newEventId);
+        insertPayload.bindLong(2, chunk);
+        insertPayload.bindBlob(3, chunkBytes);
+        insertPayload.executeInsert();
+      }
+    }
+
+    SQLiteStatement insertMetadata = statements.insertMetadata;
+    for (Map.Entry<String, String> entry : event.getMetadata().entrySet()) {
+      insertMetadata.bindLong(1, newEventId);
+      insertMetadata.bindString(2, entry.getKey());
+      insertMetadata.bindString(3, entry.getValue());
+      insertMetadata.executeInsert();
+    }
+    return newEventId;
+  }
+
+  /**
+   * The statements used to insert events, compiled once per batch rather than once per row.
+   *
+   * <p>Statements are bound to the connection they were compiled on and must not outlive the
+   * transaction that created them.
+   */
+  private static final class InsertStatements {
+    final SQLiteStatement insertEvent;
+    final SQLiteStatement insertPayload;
+    final SQLiteStatement insertMetadata;
+
+    InsertStatements(SQLiteDatabase db) {
+      insertEvent =
+          db.compileStatement(
+              "INSERT INTO events (context_id, transport_name, timestamp_ms, uptime_ms, "
+                  + "payload_encoding, code, num_attempts, inline, payload) "
+                  + "VALUES (?, ?, ?, ?, ?, ?, 0, ?, ?)");
+      insertPayload =
+          db.compileStatement(
+              "INSERT INTO event_payloads (event_id, sequence_num, bytes) VALUES (?, ?, ?)");
+      insertMetadata =
+          db.compileStatement(
+              "INSERT INTO event_metadata (event_id, name, value) VALUES (?, ?, ?)");
+    }
+
+    void close() {
+      insertEvent.close();
+      insertPayload.close();
+      insertMetadata.close();
     }
-    return PersistedEvent.create(newRowId, transportContext, event);
   }
 
   private long ensureTransportContext(SQLiteDatabase db, TransportContext transportContext) {
+    Long cachedId = transportContextIds.get(transportContext);
+    if (cachedId != null) {
+      return cachedId;
+    }
+
     Long existingId = getTransportContextId(db, transportContext);
     if (existingId != null) {
+      transportContextIds.put(transportContext, existingId);
       return existingId;
     }
 
@@ -183,7 +289,11 @@ public class SQLiteEventStore
       record.put("extras", Base64.encodeToString(transportContext.getExtras(), Base64.DEFAULT));
     }
 
-    return db.insert("transport_contexts", null, record);
+    long newId = db.insert("transport_contexts", null, record);
+    if (newId != -1) {
+      transportContextIds.put(transportContext, newId);
+    }
+    return newId;
   }
 
   @Nullable
@@ -388,7 +498,9 @@ public class SQLiteEventStore
                 return null;
               });
 
-          return db.delete("events", "timestamp_ms < ?", selectionArgs);
+          int deleted = db.delete("events", "timestamp_ms < ?", selectionArgs);
+          reclaimFreePages(db);
+          return deleted;
         });
   }
 
@@ -403,6 +515,7 @@ public class SQLiteEventStore
         db -> {
           db.delete("events", null, new String[] {});
           db.delete("transport_contexts", null, new String[] {});
+          transportContextIds.clear();
           return null;
         });
   }
@@ -454,8 +567,9 @@ public class SQLiteEventStore
               event.setEncodedPayload(
                   new EncodedPayload(toEncoding(cursor.getString(4)), cursor.getBlob(5)));
             } else {
+              // Chunked payloads are only read when they are uploaded, see PayloadInputStream.
               event.setEncodedPayload(
-                  new EncodedPayload(toEncoding(cursor.getString(4)), readPayload(id)));
+                  new EncodedPayload(toEncoding(cursor.getString(4)), new ChunkedPayload(id)));
             }
             if (!cursor.isNull(6)) {
               event.setCode(cursor.getInt(6));
@@ -467,37 +581,6 @@ public class SQLiteEventStore
     return events;
   }
 
-  private byte[] readPayload(long eventId) {
-    return tryWithCursor(
-        getDb()
-            .query(
-                "event_payloads",
-                new String[] {"bytes"},
-                "event_id = ?",
-                new String[] {String.valueOf(eventId)},
-                null,
-                null,
-                "sequence_num"),
-        cursor -> {
-          List<byte[]> chunks = new ArrayList<>();
-          int totalLength = 0;
-          while (cursor.moveToNext()) {
-            byte[] chunk = cursor.getBlob(0);
-            chunks.add(chunk);
-            totalLength += chunk.length;
-          }
-
-          byte[] payloadBytes = new byte[totalLength];
-          int offset = 0;
-          for (int i = 0; i < chunks.size(); i++) {
-            byte[] chunk = chunks.get(i);
-            System.arraycopy(chunk, 0, payloadBytes, offset, chunk.length);
-            offset += chunk.length;
-          }
-          return payloadBytes;
-        });
-  }
-
   private static Encoding toEncoding(@Nullable String value) {
     if (value == null) {
       return PROTOBUF_ENCODING;
@@ -750,12 +833,17 @@ public class SQLiteEventStore
   public <T> T runCriticalSection(CriticalSection<T> criticalSection) {
     SQLiteDatabase db = getDb();
     ensureBeginTransaction(db);
+    boolean successful = false;
     try {
       T result = criticalSection.execute();
       db.setTransactionSuccessful();
+      successful = true;
       return result;
     } finally {
       db.endTransaction();
+      if (!successful) {
+        transportContextIds.clear();
+      }
     }
   }
 
@@ -763,12 +851,146 @@ public class SQLiteEventStore
   <T> T inTransaction(Function<SQLiteDatabase, T> function) {
     SQLiteDatabase db = getDb();
     db.beginTransaction();
+    boolean successful = false;
     try {
       T result = function.apply(db);
       db.setTransactionSuccessful();
+      successful = true;
       return result;
     } finally {
       db.endTransaction();
+      if (!successful) {
+        transportContextIds.clear();
+      }
+    }
+  }
+
+  /**
+   * Reads a chunk of a payload that is stored in {@code event_payloads}. Returns {@link
+   * #END_OF_PAYLOAD} if the payload has fewer chunks, and {@code null} if the event no longer
+   * exists.
+   *
+   * <p>The chunk and the event are looked up by the same statement. Chunks are never modified, and
+   * an event is deleted along with all of its chunks, so a payload that is read chunk by chunk is
+   * either read completely or found to be deleted, but never truncated.
+   */
+  @Nullable
+  private byte[] readPayloadChunk(long eventId, int sequenceNum) {
+    return inTransaction(
+        db ->
+            tryWithCursor(
+                db.rawQuery(
+                    "SELECT p.bytes FROM events AS e LEFT JOIN event_payloads AS p "
+                        + "ON p.event_id = e._id AND p.sequence_num = ? WHERE e._id = ?",
+                    new String[] {String.valueOf(sequenceNum), String.valueOf(eventId)}),
+                cursor -> {
+                  if (!cursor.moveToNext()) {
+                    return null;
+                  }
+                  return cursor.isNull(0) ? END_OF_PAYLOAD : cursor.getBlob(0);
+                }));
+  }
+
+  /** An immutable handle to a payload that is stored in chunks in {@code event_payloads}. */
+  private final class ChunkedPayload implements EncodedPayload.Source {
+    private final long eventId;
+
+    ChunkedPayload(long eventId) {
+      this.eventId = eventId;
+    }
+
+    @NonNull
+    @Override
+    public InputStream open() {
+      return new PayloadInputStream(eventId);
+    }
+
+    private SQLiteEventStore getStore() {
+      return SQLiteEventStore.this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof ChunkedPayload)) return false;
+
+      ChunkedPayload that = (ChunkedPayload) o;
+      return eventId == that.eventId && getStore() == that.getStore();
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (eventId ^ (eventId >>> 32));
+    }
+  }
+
+  /**
+   * Streams the chunks of a payload that is stored in {@code event_payloads}.
+   *
+   * <p>The chunks are read one at a time as the stream is consumed, so that a payload is never
+   * joined into a single array. If the event is deleted while the stream is read, for example by
+   * clean up, the stream fails with an {@link IOException} instead of ending early.
+   */
+  private final class PayloadInputStream extends InputStream {
+    private final long eventId;
+    private byte[] chunk = new byte[0];
+    private int nextSequenceNum = 1;
+    private int position;
+    private boolean done;
+
+    PayloadInputStream(long eventId) {
+      this.eventId = eventId;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!nextChunkIfNeeded()) {
+        return -1;
+      }
+      return chunk[position++] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!nextChunkIfNeeded()) {
+        return -1;
+      }
+      int count = Math.min(length, chunk.length - position);
+      System.arraycopy(chunk, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public void close() {
+      done = true;
+    }
+
+    /** Moves to the next chunk once the current one is consumed, returns false at the end. */
+    private boolean nextChunkIfNeeded() throws IOException {
+      while (!done && position == chunk.length) {
+        byte[] nextChunk;
+        try {
+          nextChunk = readPayloadChunk(eventId, nextSequenceNum);
+        } catch (SQLiteException e) {
+          throw new IOException("Could not read the payload of event " + eventId, e);
+        }
+        if (nextChunk == null) {
+          done = true;
+          throw new IOException("The payload of event " + eventId + " no longer exists");
+        }
+        if (nextChunk == END_OF_PAYLOAD) {
+          done = true;
+        } else {
+          chunk = nextChunk;
+          position = 0;
+          nextSequenceNum++;
+        }
+      }
+      return !done;
     }
   }
 
@@ -795,7 +1017,7 @@ public class SQLiteEventStore
 
   /** Gets the page size of the database. Typically 4096. */
   private long getPageSize() {
-    return getDb().compileStatement("PRAGMA page_size").simpleQueryForLong();
+    return queryPragma("page_size");
   }
 
   /**
@@ -803,7 +1025,16 @@ public class SQLiteEventStore
    * approximate size of the database on disk (including the WAL, if relevant).
    */
   private long getPageCount() {
-    return getDb().compileStatement("PRAGMA page_count").simpleQueryForLong();
+    return queryPragma("page_count");
+  }
+
+  private long queryPragma(String pragma) {
+    SQLiteStatement statement = getDb().compileStatement("PRAGMA " + pragma);
+    try {
+      return statement.simpleQueryForLong();
+    } finally {
+      statement.close();
+    }
   }
 
   @VisibleForTesting
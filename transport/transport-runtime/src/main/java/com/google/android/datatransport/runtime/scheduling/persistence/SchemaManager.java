@@ -158,6 +158,10 @@ final class SchemaManager extends SQLiteOpenHelper {
 
     db.rawQuery("PRAGMA busy_timeout=0;", new String[0]).close();
 
+    // Lets SQLiteEventStore return pages freed by deleted events to the file system in small
+    // steps. This only takes effect for newly created databases.
+    db.execSQL("PRAGMA auto_vacuum = INCREMENTAL;");
+
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
       db.setForeignKeyConstraintsEnabled(true);
     }
@@ -17,6 +17,8 @@ package com.google.android.datatransport.runtime;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -44,10 +46,14 @@ import com.google.android.datatransport.runtime.scheduling.persistence.EventStor
 import com.google.android.datatransport.runtime.synchronization.SynchronizationGuard;
 import com.google.android.datatransport.runtime.time.Clock;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.stubbing.Answer;
 import org.robolectric.RobolectricTestRunner;
 
@@ -239,6 +245,78 @@ public class TransportRuntimeTest {
     assertThat(callback.exception).isNull();
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testDefaultSchedulerPersistsQueuedEventsInOneBatch() {
+    List<Runnable> tasks = new ArrayList<>();
+    Transport<String> transport = newTransportWithDefaultScheduler(tasks::add);
+    List<StatefulTransportScheduleCallback> callbacks = new ArrayList<>();
+    for (int code = 1; code <= 3; code++) {
+      StatefulTransportScheduleCallback callback = new StatefulTransportScheduleCallback();
+      transport.schedule(Event.ofTelemetry(code, "TelemetryData"), callback);
+      callbacks.add(callback);
+    }
+
+    for (Runnable task : tasks) {
+      task.run();
+    }
+
+    ArgumentCaptor<List<EventInternal>> persisted = ArgumentCaptor.forClass(List.class);
+    verify(mockEventStore, times(1)).persistAll(any(TransportContext.class), persisted.capture());
+    assertThat(persisted.getValue()).hasSize(3);
+    verify(mockEventStore, never()).persist(any(TransportContext.class), any(EventInternal.class));
+    for (StatefulTransportScheduleCallback callback : callbacks) {
+      assertThat(callback.called).isTrue();
+      assertThat(callback.exception).isNull();
+    }
+  }
+
+  @Test
+  public void testDefaultSchedulerReportsFailuresPerEventWhenBatchFails() {
+    List<Runnable> tasks = new ArrayList<>();
+    Transport<String> transport = newTransportWithDefaultScheduler(tasks::add);
+    when(mockEventStore.persistAll(any(TransportContext.class), anyList()))
+        .thenThrow(new IllegalStateException());
+    when(mockEventStore.persist(
+            any(TransportContext.class), argThat(event -> event.getCode() == 2)))
+        .thenThrow(new IllegalStateException());
+    List<StatefulTransportScheduleCallback> callbacks = new ArrayList<>();
+    for (int code = 1; code <= 3; code++) {
+      StatefulTransportScheduleCallback callback = new StatefulTransportScheduleCallback();
+      transport.schedule(Event.ofTelemetry(code, "TelemetryData"), callback);
+      callbacks.add(callback);
+    }
+
+    for (Runnable task : tasks) {
+      task.run();
+    }
+
+    verify(mockEventStore, times(3)).persist(any(TransportContext.class), any(EventInternal.class));
+    assertThat(callbacks.get(0).exception).isNull();
+    assertThat(callbacks.get(1).exception).isInstanceOf(IllegalStateException.class);
+    assertThat(callbacks.get(2).exception).isNull();
+    for (StatefulTransportScheduleCallback callback : callbacks) {
+      assertThat(callback.called).isTrue();
+    }
+  }
+
+  private Transport<String> newTransportWithDefaultScheduler(Executor executor) {
+    String mockBackendName = "backend";
+    TransportRuntime runtime =
+        new TransportRuntime(
+            fixedClock(EVENT_MILLIS),
+            fixedClock(UPTIME_MILLIS),
+            new DefaultScheduler(executor, mockRegistry, mockWorkScheduler, mockEventStore, guard),
+            new Uploader(null, null, null, null, null, null, () -> 2, null, null),
+            mockInitializer);
+    when(mockRegistry.get(mockBackendName)).thenReturn(mockBackend);
+    when(mockBackend.decorate(any()))
+        .thenAnswer((Answer<EventInternal>) invocation -> invocation.getArgument(0));
+    return runtime
+        .newFactory(mockBackendName)
+        .getTransport("testTransport", String.class, String::getBytes);
+  }
+
   @Test
   public void testTransportRuntimeTaskFailsUsingDefaultScheduler() {
     String mockBackendName = "backend";
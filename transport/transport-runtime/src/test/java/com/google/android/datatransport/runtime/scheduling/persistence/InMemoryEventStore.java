@@ -41,6 +41,16 @@ public class InMemoryEventStore implements EventStore {
     return PersistedEvent.create(newId, transportContext, event);
   }
 
+  @Override
+  public synchronized List<PersistedEvent> persistAll(
+      TransportContext transportContext, List<EventInternal> events) {
+    List<PersistedEvent> persisted = new ArrayList<>(events.size());
+    for (EventInternal event : events) {
+      persisted.add(persist(transportContext, event));
+    }
+    return persisted;
+  }
+
   private Map<Long, EventInternal> getOrCreateBackendStore(TransportContext transportContext) {
     if (!store.containsKey(transportContext)) {
       store.put(transportContext, new HashMap<>());